@@ -27,9 +27,13 @@ package com.hdmcp.core.config;
 
 import com.hdmcp.core.interceptor.RestTemplateUserContextInterceptor;
 import com.hdmcp.core.interceptor.UserContextInterceptor;
+import com.hdmcp.core.loadbalancer.HashKeyInterceptor;
+import com.hdmcp.core.loadbalancer.LoadStatsRequestFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.cloud.client.loadbalancer.LoadBalanced;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
 import org.springframework.web.client.RestTemplate;
 import org.springframework.web.servlet.config.annotation.EnableWebMvc;
 import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
@@ -51,14 +55,16 @@ public class CommonConfiguration implements WebMvcConfigurer {
     }
 
     /***
-     * RestTemplate 拦截器，在发送请求前设置鉴权的用户上下文信息
+     * RestTemplate 拦截器，在发送请求前设置鉴权的用户上下文信息，并把哈希key交给ConsistentHashRule；
+     * 记录各实例的响应时间供PeakEwmaRule使用
      * @return
      */
     @LoadBalanced
     @Bean
-    public RestTemplate restTemplate() {
-        RestTemplate restTemplate = new RestTemplate();
+    public RestTemplate restTemplate(@Value("${samples.loadbalancer.hash-key:x-user-id}") String hashKey) {
+        RestTemplate restTemplate = new RestTemplate(new LoadStatsRequestFactory(new SimpleClientHttpRequestFactory()));
         restTemplate.getInterceptors().add(new RestTemplateUserContextInterceptor());
+        restTemplate.getInterceptors().add(new HashKeyInterceptor(hashKey));
         return restTemplate;
     }
 }
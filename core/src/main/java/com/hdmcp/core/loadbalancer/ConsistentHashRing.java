@@ -0,0 +1,147 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2020 hdmcp.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package com.hdmcp.core.loadbalancer;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+
+/**
+ * 带负载上限的一致性哈希环(consistent hashing with bounded loads)
+ * <p>
+ * 每个节点在环上放置replicas个虚拟节点，同一个key总是落到同一个节点，节点增减时只有相邻区间的key重新映射。
+ * 指定loadFactor时，节点负载超过平均负载的loadFactor倍则顺时针顺延到下一个节点，避免热点key压垮单个实例。
+ * 构建后不可修改，可以被多个线程同时读取
+ *
+ * @author WANGY
+ */
+public final class ConsistentHashRing<T> {
+
+    private static final HashFunction HASH = Hashing.murmur3_32();
+
+    private final List<T> nodes;
+
+    /**
+     * 虚拟节点的哈希值，升序
+     */
+    private final int[] points;
+
+    /**
+     * 虚拟节点对应的nodes下标
+     */
+    private final int[] owners;
+
+    public ConsistentHashRing(List<T> nodes, Function<T, String> nodeId, int replicas) {
+        this.nodes = Collections.unmodifiableList(new ArrayList<>(nodes));
+        long[] ring = new long[nodes.size() * replicas];
+        int i = 0;
+        for (int n = 0; n < nodes.size(); n++) {
+            String id = nodeId.apply(nodes.get(n));
+            for (int r = 0; r < replicas; r++) {
+                // 高32位为哈希值，低32位为节点下标，排序后哈希值相同时按下标排列，保证构建结果稳定
+                ring[i++] = ((long) hash(id + "#" + r) << 32) | n;
+            }
+        }
+        Arrays.sort(ring);
+        this.points = new int[ring.length];
+        this.owners = new int[ring.length];
+        for (int p = 0; p < ring.length; p++) {
+            points[p] = (int) (ring[p] >> 32);
+            owners[p] = (int) ring[p];
+        }
+    }
+
+    public List<T> getNodes() {
+        return nodes;
+    }
+
+    public int size() {
+        return nodes.size();
+    }
+
+    /**
+     * 不考虑负载，返回key所在的节点
+     */
+    public T select(String key) {
+        if (nodes.isEmpty()) {
+            return null;
+        }
+        return nodes.get(owners[locate(hash(key))]);
+    }
+
+    /**
+     * @param load       节点当前的负载，如正在处理的请求数
+     * @param loadFactor 负载上限为平均负载的倍数，如1.25，小于等于0时不限制
+     */
+    public T select(String key, ToIntFunction<T> load, double loadFactor) {
+        if (nodes.isEmpty()) {
+            return null;
+        }
+        int start = locate(hash(key));
+        if (loadFactor <= 0 || nodes.size() == 1) {
+            return nodes.get(owners[start]);
+        }
+        long total = 0;
+        for (T node : nodes) {
+            total += load.applyAsInt(node);
+        }
+        long bound = (long) Math.ceil(loadFactor * (total + 1) / nodes.size());
+        for (int i = 0; i < points.length; i++) {
+            T node = nodes.get(owners[(start + i) % points.length]);
+            if (load.applyAsInt(node) < bound) {
+                return node;
+            }
+        }
+        return nodes.get(owners[start]);
+    }
+
+    /**
+     * 第一个哈希值不小于hash的虚拟节点，超过最大值时回到环的起点
+     */
+    private int locate(int hash) {
+        int index = Arrays.binarySearch(points, hash);
+        if (index < 0) {
+            index = -index - 1;
+        } else {
+            while (index > 0 && points[index - 1] == hash) {
+                index--;
+            }
+        }
+        return index == points.length ? 0 : index;
+    }
+
+    private static int hash(String value) {
+        return HASH.hashString(value, StandardCharsets.UTF_8).asInt();
+    }
+}
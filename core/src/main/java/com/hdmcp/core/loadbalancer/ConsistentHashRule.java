@@ -0,0 +1,100 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2020 hdmcp.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package com.hdmcp.core.loadbalancer;
+
+import com.netflix.client.config.CommonClientConfigKey;
+import com.netflix.client.config.IClientConfig;
+import com.netflix.loadbalancer.AbstractLoadBalancer;
+import com.netflix.loadbalancer.AbstractLoadBalancerRule;
+import com.netflix.loadbalancer.ILoadBalancer;
+import com.netflix.loadbalancer.LoadBalancerStats;
+import com.netflix.loadbalancer.RoundRobinRule;
+import com.netflix.loadbalancer.Server;
+
+import java.util.List;
+
+/**
+ * 按{@link HashKeyHolder}中的key(默认x-user-id)做带负载上限的一致性哈希，同一个用户的请求落在固定的实例上，提高实例本地缓存的命中率。
+ * 没有key时按轮询选择
+ * <p>
+ * 用法: product.ribbon.NFLoadBalancerRuleClassName: com.hdmcp.core.loadbalancer.ConsistentHashRule
+ * <p>
+ * 可选配置: product.ribbon.HashReplicas(默认160)、product.ribbon.HashLoadFactor(默认1.25，小于等于0不限制负载)
+ *
+ * @author WANGY
+ */
+public class ConsistentHashRule extends AbstractLoadBalancerRule {
+
+    private static final CommonClientConfigKey<Integer> REPLICAS = new CommonClientConfigKey<Integer>("HashReplicas") {
+    };
+
+    private static final CommonClientConfigKey<Double> LOAD_FACTOR = new CommonClientConfigKey<Double>("HashLoadFactor") {
+    };
+
+    private final RoundRobinRule fallback = new RoundRobinRule();
+
+    private int replicas = 160;
+
+    private double loadFactor = 1.25D;
+
+    private volatile ConsistentHashRing<Server> ring;
+
+    @Override
+    public void initWithNiwsConfig(IClientConfig clientConfig) {
+        this.replicas = clientConfig.get(REPLICAS, replicas);
+        this.loadFactor = clientConfig.get(LOAD_FACTOR, loadFactor);
+    }
+
+    @Override
+    public void setLoadBalancer(ILoadBalancer lb) {
+        super.setLoadBalancer(lb);
+        fallback.setLoadBalancer(lb);
+    }
+
+    @Override
+    public Server choose(Object key) {
+        String hashKey = HashKeyHolder.get();
+        if (hashKey == null) {
+            return fallback.choose(key);
+        }
+        ILoadBalancer lb = getLoadBalancer();
+        List<Server> servers = lb.getReachableServers();
+        if (servers.isEmpty()) {
+            return null;
+        }
+        ConsistentHashRing<Server> ring = this.ring;
+        if (ring == null || !ring.getNodes().equals(servers)) {
+            ring = new ConsistentHashRing<>(servers, Server::getId, replicas);
+            this.ring = ring;
+        }
+        if (!(lb instanceof AbstractLoadBalancer)) {
+            return ring.select(hashKey);
+        }
+        LoadBalancerStats stats = ((AbstractLoadBalancer) lb).getLoadBalancerStats();
+        return ring.select(hashKey, server -> stats.getSingleServerStat(server).getActiveRequestsCount(), loadFactor);
+    }
+}
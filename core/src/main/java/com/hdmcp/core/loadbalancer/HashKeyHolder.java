@@ -0,0 +1,49 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2020 hdmcp.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package com.hdmcp.core.loadbalancer;
+
+/**
+ * 当前线程发起的负载均衡请求使用的哈希key，由{@link HashKeyInterceptor}设置，{@link ConsistentHashRule}读取
+ *
+ * @author WANGY
+ */
+public class HashKeyHolder {
+
+    private static final ThreadLocal<String> KEY = new ThreadLocal<>();
+
+    public static String get() {
+        return KEY.get();
+    }
+
+    public static void set(String key) {
+        KEY.set(key);
+    }
+
+    public static void clear() {
+        KEY.remove();
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2020 hdmcp.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package com.hdmcp.core.loadbalancer;
+
+import org.springframework.http.HttpRequest;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+
+import java.io.IOException;
+
+/**
+ * 在LoadBalancerInterceptor之前执行，把请求头中的哈希key交给{@link ConsistentHashRule}
+ *
+ * @author WANGY
+ */
+public class HashKeyInterceptor implements ClientHttpRequestInterceptor {
+
+    private final String header;
+
+    public HashKeyInterceptor(String header) {
+        this.header = header;
+    }
+
+    @Override
+    public ClientHttpResponse intercept(HttpRequest request, byte[] body, ClientHttpRequestExecution execution)
+            throws IOException {
+        String previous = HashKeyHolder.get();
+        HashKeyHolder.set(request.getHeaders().getFirst(header));
+        try {
+            return execution.execute(request, body);
+        } finally {
+            if (previous == null) {
+                HashKeyHolder.clear();
+            } else {
+                HashKeyHolder.set(previous);
+            }
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2020 hdmcp.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package com.hdmcp.core.loadbalancer;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 按实例host:port记录{@link PeakEwma}
+ * <p>
+ * Ribbon的规则由各客户端的子上下文反射创建，无法注入Bean，因此与UserContextHolder一样使用进程内共享的实例：
+ * 网关的LoadStatsFilter、RestTemplate的LoadStatsRequestFactory写入，PeakEwmaRule读取
+ * <p>
+ * 实例下线后不会再有请求，新增实例或PeakEwmaRule选择时顺带清理超过idleNanos没有请求的记录。
+ * 共享的实例中混有各个服务的记录，所以按空闲时间而不是某个服务的实例列表清理；idleNanos应大于剔除时间EjectMillis
+ *
+ * @author WANGY
+ */
+public class InstanceLoadStats {
+
+    private static final long DEFAULT_IDLE_NANOS = TimeUnit.MINUTES.toNanos(5);
+
+    private static final InstanceLoadStats GLOBAL = new InstanceLoadStats(TimeUnit.SECONDS.toNanos(10));
+
+    private final Map<String, PeakEwma> instances = new ConcurrentHashMap<>();
+
+    private final long decayNanos;
+
+    private final long idleNanos;
+
+    /**
+     * 下一次清理的时间，最多每decayNanos清理一次
+     */
+    private final AtomicLong nextExpireNanos;
+
+    public InstanceLoadStats(long decayNanos) {
+        this(decayNanos, DEFAULT_IDLE_NANOS);
+    }
+
+    public InstanceLoadStats(long decayNanos, long idleNanos) {
+        this.decayNanos = decayNanos;
+        this.idleNanos = idleNanos;
+        this.nextExpireNanos = new AtomicLong(System.nanoTime() + decayNanos);
+    }
+
+    public static InstanceLoadStats global() {
+        return GLOBAL;
+    }
+
+    public static String key(String host, int port) {
+        return host + ":" + port;
+    }
+
+    public PeakEwma get(String instance) {
+        PeakEwma stats = instances.get(instance);
+        if (stats == null) {
+            long now = System.nanoTime();
+            expireIdle(now);
+            stats = instances.computeIfAbsent(instance, k -> new PeakEwma(decayNanos, now));
+        }
+        return stats;
+    }
+
+    /**
+     * 移除空闲的记录，距上次清理不足decayNanos时直接返回
+     */
+    public void expireIdle(long nowNanos) {
+        long next = nextExpireNanos.get();
+        if (nowNanos - next < 0 || !nextExpireNanos.compareAndSet(next, nowNanos + decayNanos)) {
+            return;
+        }
+        instances.values().removeIf(ewma -> ewma.isIdle(nowNanos, idleNanos));
+    }
+
+    public int size() {
+        return instances.size();
+    }
+
+    /**
+     * 没有记录时返回null，不创建
+     */
+    public PeakEwma find(String instance) {
+        return instances.get(instance);
+    }
+
+    public void remove(String instance) {
+        instances.remove(instance);
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2020 hdmcp.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package com.hdmcp.core.loadbalancer;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.ClientHttpResponse;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+
+/**
+ * 包装RestTemplate的ClientHttpRequestFactory，记录每个实例的响应时间与失败次数供{@link PeakEwmaRule}使用。
+ * 拦截器执行完之后才创建请求，此时LoadBalancerInterceptor已经把服务名替换为实例地址
+ *
+ * @author WANGY
+ */
+public class LoadStatsRequestFactory implements ClientHttpRequestFactory {
+
+    private final ClientHttpRequestFactory delegate;
+
+    private final InstanceLoadStats stats;
+
+    public LoadStatsRequestFactory(ClientHttpRequestFactory delegate) {
+        this(delegate, InstanceLoadStats.global());
+    }
+
+    public LoadStatsRequestFactory(ClientHttpRequestFactory delegate, InstanceLoadStats stats) {
+        this.delegate = delegate;
+        this.stats = stats;
+    }
+
+    @Override
+    public ClientHttpRequest createRequest(URI uri, HttpMethod httpMethod) throws IOException {
+        return new StatsRequest(delegate.createRequest(uri, httpMethod),
+                stats.get(InstanceLoadStats.key(uri.getHost(), uri.getPort())));
+    }
+
+    private static final class StatsRequest implements ClientHttpRequest {
+
+        private final ClientHttpRequest request;
+
+        private final PeakEwma ewma;
+
+        private StatsRequest(ClientHttpRequest request, PeakEwma ewma) {
+            this.request = request;
+            this.ewma = ewma;
+        }
+
+        @Override
+        public ClientHttpResponse execute() throws IOException {
+            ewma.start();
+            long start = System.nanoTime();
+            boolean success = false;
+            try {
+                ClientHttpResponse response = request.execute();
+                success = response.getRawStatusCode() < 500;
+                return response;
+            } finally {
+                long now = System.nanoTime();
+                ewma.finish(now - start, success, now);
+            }
+        }
+
+        @Override
+        public OutputStream getBody() throws IOException {
+            return request.getBody();
+        }
+
+        @Override
+        public String getMethodValue() {
+            return request.getMethodValue();
+        }
+
+        @Override
+        public URI getURI() {
+            return request.getURI();
+        }
+
+        @Override
+        public HttpHeaders getHeaders() {
+            return request.getHeaders();
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2020 hdmcp.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package com.hdmcp.core.loadbalancer;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 单个实例的peak-EWMA响应时间、未完成请求数与连续失败次数
+ * <p>
+ * 响应时间比当前估计值大时立即取该值(peak)，否则按距离上次观测的时间指数衰减，慢实例会被马上发现，恢复后逐渐回到正常
+ *
+ * @author WANGY
+ */
+public class PeakEwma {
+
+    /**
+     * 没有响应时间样本但有未完成请求时的惩罚值，避免新实例在冷启动时被一次性压满
+     */
+    private static final double PENALTY = 1e9;
+
+    private final double decayNanos;
+
+    private final AtomicInteger pending = new AtomicInteger();
+
+    private final AtomicInteger failures = new AtomicInteger();
+
+    private volatile long lastFailureNanos;
+
+    private double cost;
+
+    private long stamp;
+
+    public PeakEwma(long decayNanos, long nowNanos) {
+        this.decayNanos = decayNanos;
+        this.stamp = nowNanos;
+    }
+
+    public void start() {
+        pending.incrementAndGet();
+    }
+
+    /**
+     * @param rttNanos 本次请求的耗时
+     * @param success  失败指连接失败、超时或5xx
+     */
+    public void finish(long rttNanos, boolean success, long nowNanos) {
+        pending.decrementAndGet();
+        observe(rttNanos, nowNanos);
+        if (success) {
+            if (failures.get() != 0) {
+                failures.set(0);
+            }
+        } else {
+            failures.incrementAndGet();
+            lastFailureNanos = nowNanos;
+        }
+    }
+
+    private synchronized void observe(double rtt, long nowNanos) {
+        long elapsed = Math.max(nowNanos - stamp, 0);
+        stamp = nowNanos;
+        if (rtt > cost) {
+            cost = rtt;
+        } else {
+            double w = Math.exp(-elapsed / decayNanos);
+            cost = cost * w + rtt * (1 - w);
+        }
+    }
+
+    /**
+     * 负载 = 衰减到当前时刻的响应时间 * (未完成请求数 + 1)
+     */
+    public double load(long nowNanos) {
+        int outstanding = pending.get();
+        double current;
+        synchronized (this) {
+            long elapsed = Math.max(nowNanos - stamp, 0);
+            current = cost * Math.exp(-elapsed / decayNanos);
+        }
+        if (current == 0 && outstanding != 0) {
+            return PENALTY + outstanding;
+        }
+        return current * (outstanding + 1);
+    }
+
+    /**
+     * 没有未完成的请求，且idleNanos内没有完成过请求
+     */
+    public boolean isIdle(long nowNanos, long idleNanos) {
+        if (pending.get() != 0) {
+            return false;
+        }
+        synchronized (this) {
+            return nowNanos - stamp >= idleNanos;
+        }
+    }
+
+    public int getPending() {
+        return pending.get();
+    }
+
+    public int getFailures() {
+        return failures.get();
+    }
+
+    public long getLastFailureNanos() {
+        return lastFailureNanos;
+    }
+}
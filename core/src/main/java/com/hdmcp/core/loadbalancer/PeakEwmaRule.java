@@ -0,0 +1,132 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2020 hdmcp.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package com.hdmcp.core.loadbalancer;
+
+import com.netflix.client.config.CommonClientConfigKey;
+import com.netflix.client.config.IClientConfig;
+import com.netflix.loadbalancer.AbstractLoadBalancerRule;
+import com.netflix.loadbalancer.Server;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 随机取两个实例，选择peak-EWMA负载较低的一个(power of two choices)。
+ * 连续失败达到FailureThreshold次的实例在EjectMillis内不参与选择，之后放行请求试探，成功即恢复
+ * <p>
+ * 用法: product.ribbon.NFLoadBalancerRuleClassName: com.hdmcp.core.loadbalancer.PeakEwmaRule
+ * <p>
+ * 响应时间由网关的LoadStatsFilter、RestTemplate的LoadStatsRequestFactory记录到{@link InstanceLoadStats#global()}
+ *
+ * @author WANGY
+ */
+public class PeakEwmaRule extends AbstractLoadBalancerRule {
+
+    private static final CommonClientConfigKey<Integer> FAILURE_THRESHOLD =
+            new CommonClientConfigKey<Integer>("FailureThreshold") {
+            };
+
+    private static final CommonClientConfigKey<Long> EJECT_MILLIS = new CommonClientConfigKey<Long>("EjectMillis") {
+    };
+
+    private final InstanceLoadStats stats;
+
+    private int failureThreshold = 5;
+
+    private long ejectNanos = TimeUnit.SECONDS.toNanos(10);
+
+    public PeakEwmaRule() {
+        this(InstanceLoadStats.global());
+    }
+
+    public PeakEwmaRule(InstanceLoadStats stats) {
+        this.stats = stats;
+    }
+
+    @Override
+    public void initWithNiwsConfig(IClientConfig clientConfig) {
+        this.failureThreshold = clientConfig.get(FAILURE_THRESHOLD, failureThreshold);
+        this.ejectNanos = TimeUnit.MILLISECONDS.toNanos(clientConfig.get(EJECT_MILLIS,
+                TimeUnit.NANOSECONDS.toMillis(ejectNanos)));
+    }
+
+    @Override
+    public Server choose(Object key) {
+        long now = System.nanoTime();
+        stats.expireIdle(now);
+        return choose(getLoadBalancer().getReachableServers(), now);
+    }
+
+    Server choose(List<Server> servers, long now) {
+        int size = servers.size();
+        if (size == 0) {
+            return null;
+        }
+        if (size == 1) {
+            return servers.get(0);
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int a = random.nextInt(size);
+        int b = (a + 1 + random.nextInt(size - 1)) % size;
+        Server first = available(servers, a, now);
+        if (first == null) {
+            // 全部被剔除时不拒绝请求，仍然返回随机实例
+            return servers.get(a);
+        }
+        Server second = available(servers, b, now);
+        if (second == null || second == first) {
+            return first;
+        }
+        return load(second, now) < load(first, now) ? second : first;
+    }
+
+    /**
+     * 从from开始顺序找第一个未被剔除的实例
+     */
+    private Server available(List<Server> servers, int from, long now) {
+        int size = servers.size();
+        for (int i = 0; i < size; i++) {
+            Server server = servers.get((from + i) % size);
+            if (!isEjected(server, now)) {
+                return server;
+            }
+        }
+        return null;
+    }
+
+    private boolean isEjected(Server server, long now) {
+        PeakEwma ewma = stats.find(server.getId());
+        return ewma != null && ewma.getFailures() >= failureThreshold
+                && now - ewma.getLastFailureNanos() < ejectNanos;
+    }
+
+    private double load(Server server, long now) {
+        PeakEwma ewma = stats.find(server.getId());
+        return ewma == null ? 0 : ewma.load(now);
+    }
+}
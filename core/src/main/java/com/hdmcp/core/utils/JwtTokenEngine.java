@@ -0,0 +1,108 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2020 hdmcp.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package com.hdmcp.core.utils;
+
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.ExpiredJwtException;
+import io.jsonwebtoken.JwsHeader;
+import io.jsonwebtoken.JwtException;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.SignatureAlgorithm;
+import io.jsonwebtoken.impl.TextCodec;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.security.Key;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static com.hdmcp.core.utils.JwtUtil.*;
+
+/**
+ * 线程安全的JWT签发/校验引擎，不依赖全局锁
+ * <p>
+ * 签名Key在构造时预先计算，可被Netty/Undertow工作线程并发使用；jjwt 0.9.1的JwtParser是可变的，每次校验新建。
+ * claims与{@link JwtUtil}保持一致，签名错误、格式错误的Token返回不含用户信息的claims，不抛出异常
+ *
+ * @author WANGY
+ */
+public final class JwtTokenEngine {
+
+    private static final SignatureAlgorithm ALGORITHM = SignatureAlgorithm.HS512;
+
+    private final Key signingKey;
+    private final String tokenPrefix;
+    private final long ttlMillis;
+
+    /**
+     * @param base64Secret 与 {@code signWith(SignatureAlgorithm, String)} 相同的Base64密钥
+     * @param tokenPrefix  Token前缀，如 Bearer
+     * @param ttlMillis    Token有效期(毫秒)
+     */
+    public JwtTokenEngine(String base64Secret, String tokenPrefix, long ttlMillis) {
+        this.signingKey = new SecretKeySpec(TextCodec.BASE64.decode(base64Secret), ALGORITHM.getJcaName());
+        this.tokenPrefix = tokenPrefix;
+        this.ttlMillis = ttlMillis;
+    }
+
+    public String generateToken(String userId, String username) {
+        Map<String, Object> claims = new HashMap<>(4);
+        claims.put(TOKEN_F_ID, userId);
+        claims.put(TOKEN_F_USERNAME, username);
+        // kid仅作标识，用ThreadLocalRandom避免UUID.randomUUID()共享SecureRandom上的竞争
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        String jwt = Jwts.builder()
+                .setHeaderParam(JwsHeader.KEY_ID, new UUID(random.nextLong(), random.nextLong()).toString())
+                .setClaims(claims)
+                .signWith(ALGORITHM, signingKey)
+                .setExpiration(new Date(System.currentTimeMillis() + ttlMillis))
+                .compact();
+        return tokenPrefix + " " + jwt;
+    }
+
+    public Map<String, String> validateToken(String token) {
+        HashMap<String, String> map = new HashMap<>(8);
+        try {
+            Claims body = Jwts.parser().setSigningKey(signingKey)
+                    .parseClaimsJws(token.replace(tokenPrefix, "")).getBody();
+            map.put(TOKEN_F_ID, (String) body.get(TOKEN_F_ID));
+            map.put(TOKEN_F_USERNAME, (String) body.get(TOKEN_F_USERNAME));
+            map.put(TOKEN_F_IS_EXPIRED, NOT_EXPIRED);
+            // 过期时间(毫秒)，供网关缓存已校验的Token
+            if (body.getExpiration() != null) {
+                map.put(TOKEN_F_EXPIRATION, String.valueOf(body.getExpiration().getTime()));
+            }
+        } catch (ExpiredJwtException e) {
+            map.put(TOKEN_F_IS_EXPIRED, EXPIRED);
+        } catch (JwtException | IllegalArgumentException e) {
+            // 签名错误、格式错误或空Token，视为未登录
+        }
+        return map;
+    }
+}
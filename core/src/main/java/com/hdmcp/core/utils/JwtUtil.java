@@ -26,12 +26,7 @@
 
 package com.hdmcp.core.utils;
 
-import io.jsonwebtoken.*;
-
-import java.util.Date;
-import java.util.HashMap;
 import java.util.Map;
-import java.util.UUID;
 
 /**
  * Created by WANGY
@@ -50,38 +45,21 @@ public final class JwtUtil {
     public static final String TOKEN_F_ID = "id";
     public static final String TOKEN_F_USERNAME = "username";
     public static final String TOKEN_F_IS_EXPIRED = "isExpired";
+    public static final String TOKEN_F_EXPIRATION = "exp";
+
+    private static final long TOKEN_TTL_MILLIS = 600000L;
 
-    public static synchronized String generateToken(String userId, String username) {
+    private static final JwtTokenEngine ENGINE = new JwtTokenEngine(SECRET, TOKEN_PREFIX, TOKEN_TTL_MILLIS);
 
-        HashMap<String, Object> map = new HashMap<>();
-        map.put(TOKEN_F_ID, userId);
-        map.put(TOKEN_F_USERNAME, username);
-        String jwt = Jwts.builder()
-                .setHeaderParam(JwsHeader.KEY_ID, UUID.randomUUID().toString())
-                .setSubject("user info").setClaims(map)
-                .signWith(SignatureAlgorithm.HS512, SECRET)
-                .setExpiration(new Date(System.currentTimeMillis() + 600000))
-                .compact();
-        return String.format("%s %s", TOKEN_PREFIX, jwt);
+    public static String generateToken(String userId, String username) {
+        return ENGINE.generateToken(userId, username);
     }
 
-    public static synchronized Map<String, String> validateToken(String token) {
-        HashMap<String, String> map = new HashMap<>();
-        try {
-            Map<String, Object> body = Jwts.parser()
-                    .setSigningKey(SECRET)
-                    .parseClaimsJws(token.replace(TOKEN_PREFIX, ""))
-                    .getBody();
-            String id = (String) body.get(TOKEN_F_ID);
-            String username = (String) body.get(TOKEN_F_USERNAME);
-            map.put(TOKEN_F_ID, id);
-            map.put(TOKEN_F_USERNAME, username);
-            map.put(TOKEN_F_IS_EXPIRED, NOT_EXPIRED);
-        } catch (ExpiredJwtException e) {
-            map.put(TOKEN_F_IS_EXPIRED, EXPIRED);
-        } catch (MalformedJwtException e) {
+    public static Map<String, String> validateToken(String token) {
+        return ENGINE.validateToken(token);
+    }
 
-        }
-        return map;
+    public static JwtTokenEngine getEngine() {
+        return ENGINE;
     }
 }
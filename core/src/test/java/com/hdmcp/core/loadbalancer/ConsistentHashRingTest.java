@@ -0,0 +1,88 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2020 hdmcp.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package com.hdmcp.core.loadbalancer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+public class ConsistentHashRingTest {
+
+    private static List<String> nodes(int count) {
+        List<String> nodes = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            nodes.add("10.0.0." + i + ":8080");
+        }
+        return nodes;
+    }
+
+    @Test
+    public void sticky() {
+        ConsistentHashRing<String> ring = new ConsistentHashRing<>(nodes(5), Function.identity(), 160);
+        for (int i = 0; i < 100; i++) {
+            Assert.assertEquals("same key same node", ring.select("user" + i), ring.select("user" + i));
+        }
+    }
+
+    @Test
+    public void minimalRemapping() {
+        ConsistentHashRing<String> before = new ConsistentHashRing<>(nodes(5), Function.identity(), 160);
+        ConsistentHashRing<String> after = new ConsistentHashRing<>(nodes(6), Function.identity(), 160);
+        int moved = 0;
+        for (int i = 0; i < 10000; i++) {
+            String b = before.select("user" + i);
+            String a = after.select("user" + i);
+            if (!a.equals(b)) {
+                Assert.assertEquals("keys only move to the new node", "10.0.0.5:8080", a);
+                moved++;
+            }
+        }
+        // 理想情况下移动1/6
+        Assert.assertTrue("moved " + moved, moved > 1000 && moved < 2500);
+    }
+
+    @Test
+    public void boundedLoad() {
+        ConsistentHashRing<String> ring = new ConsistentHashRing<>(nodes(4), Function.identity(), 160);
+        Map<String, Integer> load = new HashMap<>();
+        // 同一个热点key连续请求，负载上限迫使请求顺延到其他节点
+        for (int i = 0; i < 100; i++) {
+            String node = ring.select("hot", n -> load.getOrDefault(n, 0), 1.25);
+            load.merge(node, 1, Integer::sum);
+        }
+        Assert.assertEquals("all nodes used", 4, load.size());
+        for (int count : load.values()) {
+            Assert.assertTrue("load " + load, count <= 32);
+        }
+        Assert.assertEquals("unbounded", ring.select("hot"), ring.select("hot", n -> 1000, 0));
+    }
+}
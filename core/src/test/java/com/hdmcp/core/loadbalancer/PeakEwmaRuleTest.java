@@ -0,0 +1,107 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2020 hdmcp.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package com.hdmcp.core.loadbalancer;
+
+import com.netflix.loadbalancer.Server;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class PeakEwmaRuleTest {
+
+    private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final InstanceLoadStats stats = new InstanceLoadStats(TimeUnit.SECONDS.toNanos(10));
+
+    private final PeakEwmaRule rule = new PeakEwmaRule(stats);
+
+    private final List<Server> servers = Arrays.asList(new Server("10.0.0.1", 8080), new Server("10.0.0.2", 8080));
+
+    private void observe(Server server, long rtt, boolean success, long now) {
+        PeakEwma ewma = stats.get(server.getId());
+        ewma.start();
+        ewma.finish(rtt, success, now);
+    }
+
+    @Test
+    public void avoidsSlowInstance() {
+        long now = System.nanoTime();
+        observe(servers.get(0), 5 * MS, true, now);
+        observe(servers.get(1), 500 * MS, true, now);
+        for (int i = 0; i < 100; i++) {
+            Assert.assertEquals("fast instance", "10.0.0.1:8080", rule.choose(servers, now).getId());
+        }
+    }
+
+    @Test
+    public void peakThenDecay() {
+        PeakEwma ewma = new PeakEwma(TimeUnit.SECONDS.toNanos(10), 0);
+        ewma.start();
+        ewma.finish(10 * MS, true, 0);
+        ewma.start();
+        ewma.finish(100 * MS, true, 0);
+        Assert.assertEquals("peak taken immediately", 100 * MS, ewma.load(0), 1);
+        Assert.assertTrue("decays", ewma.load(TimeUnit.SECONDS.toNanos(10)) < 40 * MS);
+    }
+
+    @Test
+    public void ejectsAfterConsecutiveFailures() {
+        long now = System.nanoTime();
+        observe(servers.get(0), 5 * MS, true, now);
+        for (int i = 0; i < 5; i++) {
+            observe(servers.get(0), MS, false, now);
+        }
+        observe(servers.get(1), 500 * MS, true, now);
+        for (int i = 0; i < 100; i++) {
+            Assert.assertEquals("failing instance ejected", "10.0.0.2:8080", rule.choose(servers, now).getId());
+        }
+        long later = now + TimeUnit.SECONDS.toNanos(11);
+        boolean probed = false;
+        for (int i = 0; i < 100 && !probed; i++) {
+            probed = "10.0.0.1:8080".equals(rule.choose(servers, later).getId());
+        }
+        Assert.assertTrue("back after backoff", probed);
+    }
+
+    @Test
+    public void expiresIdleInstances() {
+        InstanceLoadStats stats = new InstanceLoadStats(MS, 100 * MS);
+        long now = System.nanoTime();
+        PeakEwma removed = stats.get("10.0.0.1:8080");
+        removed.start();
+        removed.finish(5 * MS, true, now);
+        stats.get("10.0.0.2:8080").start();
+        stats.expireIdle(now + 50 * MS);
+        Assert.assertEquals("not idle yet", 2, stats.size());
+        stats.expireIdle(now + 200 * MS);
+        Assert.assertNull("idle instance expired", stats.find("10.0.0.1:8080"));
+        Assert.assertNotNull("instance with pending requests kept", stats.find("10.0.0.2:8080"));
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2020 hdmcp.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package com.hdmcp.core.utils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JwtTokenEngine吞吐量基准，对比旧的全局锁实现在1~N个线程下的扩展性
+ * <p>
+ * 运行: mvn -pl core test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=com.hdmcp.core.utils.JwtTokenEngineBenchmark
+ *
+ * @author WANGY
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JwtTokenEngineBenchmark {
+
+    private static final Object LOCK = new Object();
+
+    private JwtTokenEngine engine;
+
+    private String token;
+
+    @Setup
+    public void setup() {
+        engine = JwtUtil.getEngine();
+        token = engine.generateToken("1", "admin");
+    }
+
+    @Benchmark
+    public String generate() {
+        return engine.generateToken("1", "admin");
+    }
+
+    @Benchmark
+    public Map<String, String> validate() {
+        return engine.validateToken(token);
+    }
+
+    /**
+     * 模拟旧版 static synchronized 的JwtUtil
+     */
+    @Benchmark
+    public String generateSynchronized() {
+        synchronized (LOCK) {
+            return engine.generateToken("1", "admin");
+        }
+    }
+
+    @Benchmark
+    public Map<String, String> validateSynchronized() {
+        synchronized (LOCK) {
+            return engine.validateToken(token);
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; threads <= maxThreads; threads <<= 1) {
+            Options options = new OptionsBuilder()
+                    .include(JwtTokenEngineBenchmark.class.getSimpleName())
+                    .threads(threads)
+                    .build();
+            new Runner(options).run();
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2020 hdmcp.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package com.hdmcp.core.utils;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * @author WANGY
+ */
+public class JwtTokenEngineTest {
+
+    private static final String SECRET = "Zm9yZ2VkLXNlY3JldC1mb3ItdGVzdHM=";
+
+    private final JwtTokenEngine engine = JwtUtil.getEngine();
+
+    @Test
+    public void validatesOwnToken() {
+        Map<String, String> claims = engine.validateToken(engine.generateToken("1", "admin"));
+        Assert.assertEquals("id", "1", claims.get(JwtUtil.TOKEN_F_ID));
+        Assert.assertEquals("username", "admin", claims.get(JwtUtil.TOKEN_F_USERNAME));
+        Assert.assertEquals("not expired", JwtUtil.NOT_EXPIRED, claims.get(JwtUtil.TOKEN_F_IS_EXPIRED));
+    }
+
+    @Test
+    public void invalidTokensHaveNoUser() {
+        String forged = new JwtTokenEngine(SECRET, "Bearer", 60000L)
+                .generateToken("1", "admin");
+        Assert.assertTrue("签名错误", engine.validateToken(forged).isEmpty());
+        Assert.assertTrue("格式错误", engine.validateToken("Bearer abc").isEmpty());
+        Assert.assertTrue("空Token", engine.validateToken("Bearer").isEmpty());
+
+        JwtTokenEngine expiring = new JwtTokenEngine(SECRET, "Bearer", -1000L);
+        Assert.assertEquals("过期", JwtUtil.EXPIRED,
+                expiring.validateToken(expiring.generateToken("1", "admin")).get(JwtUtil.TOKEN_F_IS_EXPIRED));
+    }
+
+    @Test
+    public void validatesConcurrently() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                String userId = String.valueOf(t);
+                results.add(executor.submit(() -> {
+                    String token = engine.generateToken(userId, "admin");
+                    for (int i = 0; i < 500; i++) {
+                        if (!userId.equals(engine.validateToken(token).get(JwtUtil.TOKEN_F_ID))) {
+                            return false;
+                        }
+                    }
+                    return true;
+                }));
+            }
+            for (Future<Boolean> result : results) {
+                Assert.assertTrue("每个线程都解析出自己的Token", result.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
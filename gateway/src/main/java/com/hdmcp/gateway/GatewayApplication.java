@@ -26,10 +26,18 @@
 
 package com.hdmcp.gateway;
 
+import com.hdmcp.gateway.cache.VerifiedTokenCache;
 import com.hdmcp.gateway.config.Swagger2Properties;
+import com.hdmcp.gateway.filters.ClusterRateLimitFilter;
 import com.hdmcp.gateway.filters.RateLimitFilterByCpu;
 import com.hdmcp.gateway.filters.RateLimitFilterByIp;
+import com.hdmcp.gateway.ratelimit.BucketStore;
+import com.hdmcp.gateway.ratelimit.Quota;
+import com.hdmcp.gateway.ratelimit.TokenLeaser;
+import com.hdmcp.gateway.ratelimit.TokenStore;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
@@ -39,6 +47,12 @@ import org.springframework.cloud.gateway.route.builder.RouteLocatorBuilder;
 import org.springframework.context.annotation.Bean;
 
 import java.time.Duration;
+import java.util.Arrays;
+
+import static com.hdmcp.gateway.ratelimit.RateLimitKeyResolver.composite;
+import static com.hdmcp.gateway.ratelimit.RateLimitKeyResolver.remoteIp;
+import static com.hdmcp.gateway.ratelimit.RateLimitKeyResolver.routeId;
+import static com.hdmcp.gateway.ratelimit.RateLimitKeyResolver.userId;
 
 @SpringBootApplication
 @EnableDiscoveryClient
@@ -48,6 +62,27 @@ public class GatewayApplication {
     @Autowired
     private RateLimitFilterByCpu rateLimitFilterByCpu;
 
+    @Autowired
+    private VerifiedTokenCache verifiedTokenCache;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private TokenStore tokenStore;
+
+    /**
+     * 网关副本数，用于计算集群限流每次租用的Token数量
+     */
+    @Value("${samples.ratelimit.cluster.replicas:1}")
+    private int replicas;
+
+    /**
+     * 集群限流允许的误差，占桶容量的比例
+     */
+    @Value("${samples.ratelimit.cluster.max-error:0.05}")
+    private double maxError;
+
     public static void main(String[] args) {
         SpringApplication.run(GatewayApplication.class, args);
     }
@@ -56,7 +91,8 @@ public class GatewayApplication {
     public RouteLocator rateLimit(RouteLocatorBuilder builder) {
         return builder.routes()
                 .route(r -> r.path("/rateLimitByIp")
-                        .filters(f -> f.filter(new RateLimitFilterByIp(10, 1, Duration.ofSeconds(1))))
+                        .filters(f -> f.filter(new RateLimitFilterByIp(10, 1, Duration.ofSeconds(1),
+                                "rateLimitByIp_route", meterRegistry)))
                         .uri("lb://product")
                         .id("rateLimitByIp_route")
                 )
@@ -64,6 +100,22 @@ public class GatewayApplication {
                         .filters(f -> f.filter(rateLimitFilterByCpu))
                         .uri("lb://product")
                         .id("rateLimitByCpu_route"))
+                .route(r -> r.path("/rateLimitByUser")
+                        .filters(f -> f.filter(new RateLimitFilterByIp(Arrays.asList(
+                                // 路由总配额
+                                new Quota("route", routeId(), 100, 10, Duration.ofSeconds(1)),
+                                // 路由内每个用户的配额
+                                new Quota("user", composite(routeId(), userId(verifiedTokenCache)), 10, 1, Duration.ofSeconds(1))),
+                                new BucketStore(), "rateLimitByUser_route", meterRegistry)))
+                        .uri("lb://product")
+                        .id("rateLimitByUser_route"))
+                .route(r -> r.path("/rateLimitByCluster")
+                        .filters(f -> f.filter(new ClusterRateLimitFilter(new TokenLeaser(tokenStore,
+                                new Quota("cluster", remoteIp(), 1000, 100, Duration.ofSeconds(1)),
+                                replicas, maxError, Duration.ofSeconds(1)),
+                                "rateLimitByCluster_route", meterRegistry)))
+                        .uri("lb://product")
+                        .id("rateLimitByCluster_route"))
                 .build();
     }
 
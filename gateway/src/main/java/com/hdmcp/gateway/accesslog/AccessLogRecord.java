@@ -0,0 +1,102 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2020 hdmcp.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package com.hdmcp.gateway.accesslog;
+
+/**
+ * 一条访问日志，在请求结束时生成，由{@link AccessLogWriter}在后台线程格式化
+ *
+ * @author WANGY
+ */
+public final class AccessLogRecord {
+
+    private final long timestamp;
+
+    private final String route;
+
+    private final String method;
+
+    private final String path;
+
+    private final int status;
+
+    private final long latencyMicros;
+
+    private final long bytesIn;
+
+    private final long bytesOut;
+
+    private final String userId;
+
+    private final String remoteIp;
+
+    /**
+     * @param status 0表示请求以异常结束
+     */
+    public AccessLogRecord(long timestamp, String route, String method, String path, int status, long latencyMicros,
+                           long bytesIn, long bytesOut, String userId, String remoteIp) {
+        this.timestamp = timestamp;
+        this.route = route;
+        this.method = method;
+        this.path = path;
+        this.status = status;
+        this.latencyMicros = latencyMicros;
+        this.bytesIn = bytesIn;
+        this.bytesOut = bytesOut;
+        this.userId = userId;
+        this.remoteIp = remoteIp;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * 以制表符分隔：route method path status latency(μs) bytesIn bytesOut userId remoteIp，缺失的字段为-
+     */
+    void appendTo(StringBuilder line) {
+        field(line.append('\t'), route);
+        field(line.append('\t'), method);
+        field(line.append('\t'), path);
+        line.append('\t').append(status);
+        line.append('\t').append(latencyMicros);
+        line.append('\t').append(bytesIn);
+        line.append('\t').append(bytesOut);
+        field(line.append('\t'), userId);
+        field(line.append('\t'), remoteIp);
+    }
+
+    private static void field(StringBuilder line, String value) {
+        if (value == null || value.isEmpty()) {
+            line.append('-');
+            return;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            line.append(c == '\t' || c == '\n' || c == '\r' ? ' ' : c);
+        }
+    }
+}
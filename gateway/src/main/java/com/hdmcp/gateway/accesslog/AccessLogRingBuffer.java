@@ -0,0 +1,127 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2020 hdmcp.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package com.hdmcp.gateway.accesslog;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
+
+/**
+ * 多生产者、单消费者的无锁有界环形队列
+ * <p>
+ * 每个槽位带一个序号：序号等于写入位置时可写，等于写入位置+1时可读，读完后加上容量留给下一轮。
+ * 生产者只CAS竞争写入位置，队列满时直接返回false，不自旋等待，在Netty事件循环线程中调用不会阻塞
+ *
+ * @author WANGY
+ */
+public class AccessLogRingBuffer<T> {
+
+    private final Object[] items;
+
+    private final AtomicLongArray sequences;
+
+    private final int mask;
+
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * 只由消费者线程修改
+     */
+    private volatile long head;
+
+    /**
+     * @param capacity 向上取整为2的幂
+     */
+    public AccessLogRingBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.items = new Object[size];
+        this.sequences = new AtomicLongArray(size);
+        this.mask = size - 1;
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * @return 队列已满时返回false
+     */
+    public boolean offer(T item) {
+        long position = tail.get();
+        for (;;) {
+            int index = (int) (position & mask);
+            long diff = sequences.get(index) - position;
+            if (diff == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    items[index] = item;
+                    sequences.lazySet(index, position + 1);
+                    return true;
+                }
+                position = tail.get();
+            } else if (diff < 0) {
+                return false;
+            } else {
+                position = tail.get();
+            }
+        }
+    }
+
+    /**
+     * 取出最多max个元素，只能由一个线程调用
+     *
+     * @return 取出的个数
+     */
+    @SuppressWarnings("unchecked")
+    public int drain(Consumer<? super T> consumer, int max) {
+        long position = head;
+        int drained = 0;
+        try {
+            while (drained < max) {
+                int index = (int) (position & mask);
+                if (sequences.get(index) != position + 1) {
+                    break;
+                }
+                T item = (T) items[index];
+                items[index] = null;
+                sequences.lazySet(index, position + items.length);
+                position++;
+                drained++;
+                consumer.accept(item);
+            }
+        } finally {
+            head = position;
+        }
+        return drained;
+    }
+
+    public int size() {
+        return (int) Math.max(0, tail.get() - head);
+    }
+
+    public int capacity() {
+        return items.length;
+    }
+}
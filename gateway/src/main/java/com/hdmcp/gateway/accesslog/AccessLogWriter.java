@@ -0,0 +1,241 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2020 hdmcp.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package com.hdmcp.gateway.accesslog;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 访问日志后台写入线程，从环形队列批量取出记录写入文件，文件超过maxFileSize后滚动为path.1、path.2...，
+ * 最多保留maxHistory个历史文件
+ * <p>
+ * 队列为空时休眠flushMillis并刷盘；写文件失败只记录日志并丢弃这一批，不影响请求处理
+ *
+ * @author WANGY
+ */
+public class AccessLogWriter implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(AccessLogWriter.class);
+
+    private static final DateTimeFormatter TIME_FORMAT =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSSXXX").withZone(ZoneId.systemDefault());
+
+    private static final int BATCH_SIZE = 512;
+
+    /**
+     * 磁盘满等持续性错误时每条记录都会失败，失败日志最多每分钟输出一次
+     */
+    private static final long FAILURE_LOG_INTERVAL_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    private final AccessLogRingBuffer<AccessLogRecord> buffer;
+
+    private final Path path;
+
+    private final long maxFileSize;
+
+    private final int maxHistory;
+
+    private final long flushNanos;
+
+    private final LongAdder written = new LongAdder();
+
+    private final StringBuilder line = new StringBuilder(256);
+
+    private final Thread thread;
+
+    private volatile boolean running = true;
+
+    private OutputStream out;
+
+    private long fileSize;
+
+    private long failures;
+
+    private long failureLoggedAt;
+
+    private boolean failureLogged;
+
+    public AccessLogWriter(AccessLogRingBuffer<AccessLogRecord> buffer, Path path, long maxFileSize, int maxHistory,
+                           long flushMillis) {
+        this.buffer = buffer;
+        this.path = path;
+        this.maxFileSize = maxFileSize;
+        this.maxHistory = maxHistory;
+        this.flushNanos = TimeUnit.MILLISECONDS.toNanos(flushMillis);
+        this.thread = new Thread(this::run, "gateway-access-log");
+        this.thread.setDaemon(true);
+    }
+
+    public void start() {
+        thread.start();
+    }
+
+    /**
+     * 写完队列中剩余的记录后关闭文件
+     */
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(thread);
+        try {
+            thread.join(TimeUnit.NANOSECONDS.toMillis(flushNanos) + 5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public long getWritten() {
+        return written.sum();
+    }
+
+    private void run() {
+        try {
+            while (running) {
+                if (drain() == 0) {
+                    flush();
+                    LockSupport.parkNanos(this, flushNanos);
+                }
+            }
+            while (drain() > 0) {
+                // 退出前写完剩余记录
+            }
+        } finally {
+            closeFile();
+        }
+    }
+
+    private int drain() {
+        return buffer.drain(this::write, BATCH_SIZE);
+    }
+
+    private void write(AccessLogRecord record) {
+        line.setLength(0);
+        TIME_FORMAT.formatTo(Instant.ofEpochMilli(record.getTimestamp()), line);
+        record.appendTo(line);
+        line.append('\n');
+        byte[] bytes = line.toString().getBytes(StandardCharsets.UTF_8);
+        try {
+            if (out == null || fileSize + bytes.length > maxFileSize) {
+                roll(bytes.length);
+            }
+            out.write(bytes);
+            fileSize += bytes.length;
+            written.increment();
+        } catch (IOException e) {
+            failed("write", e);
+            closeFile();
+        }
+    }
+
+    private void roll(int incoming) throws IOException {
+        if (out != null) {
+            boolean full = fileSize > 0;
+            closeFile();
+            if (full) {
+                rotate();
+            }
+        } else if (Files.exists(path) && Files.size(path) > 0 && Files.size(path) + incoming > maxFileSize) {
+            rotate();
+        }
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        out = new BufferedOutputStream(Files.newOutputStream(path, StandardOpenOption.CREATE,
+                StandardOpenOption.APPEND), 64 * 1024);
+        fileSize = Files.size(path);
+    }
+
+    private void rotate() throws IOException {
+        if (maxHistory <= 0) {
+            Files.deleteIfExists(path);
+            return;
+        }
+        Files.deleteIfExists(history(maxHistory));
+        for (int i = maxHistory - 1; i >= 1; i--) {
+            Path from = history(i);
+            if (Files.exists(from)) {
+                Files.move(from, history(i + 1), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        Files.move(path, history(1), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private Path history(int index) {
+        return path.resolveSibling(path.getFileName() + "." + index);
+    }
+
+    private void flush() {
+        if (out != null) {
+            try {
+                out.flush();
+            } catch (IOException e) {
+                failed("flush", e);
+                closeFile();
+            }
+        }
+    }
+
+    private void failed(String action, IOException e) {
+        failures++;
+        long now = System.nanoTime();
+        if (failureLogged && now - failureLoggedAt < FAILURE_LOG_INTERVAL_NANOS) {
+            return;
+        }
+        log.warn("{} access log {} failed, {} failures since last report", action, path, failures, e);
+        failures = 0;
+        failureLoggedAt = now;
+        failureLogged = true;
+    }
+
+    private void closeFile() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                log.warn("close access log {} failed", path, e);
+            }
+            out = null;
+            fileSize = 0;
+        }
+    }
+}
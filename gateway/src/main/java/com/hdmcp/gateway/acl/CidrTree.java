@@ -0,0 +1,256 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2020 hdmcp.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package com.hdmcp.gateway.acl;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+/**
+ * IPv4/IPv6 CIDR的路径压缩二叉前缀树(Patricia树)，按最长前缀匹配
+ * <p>
+ * 地址统一为128位，IPv4映射为::ffff:a.b.c.d/96+n，一棵树同时存放两种地址。
+ * 查询沿树向下最多走前缀长度步，只比较两个long，不分配对象。
+ * 先用{@link #add}建树，建好后通过volatile字段发布，之后只读
+ *
+ * @author WANGY
+ */
+public class CidrTree {
+
+    public enum Action {
+        ALLOW, DENY
+    }
+
+    private static final long V4_MAPPED = 0x0000ffff00000000L;
+
+    private Node root;
+
+    private int size;
+
+    /**
+     * 同一网段同时出现在allow和deny中时以deny为准
+     *
+     * @param cidr 如10.0.0.0/8、2001:db8::/32，不带前缀长度时为单个地址
+     */
+    public void add(String cidr, Action action) {
+        String text = cidr.trim();
+        int slash = text.indexOf('/');
+        String address = slash < 0 ? text : text.substring(0, slash);
+        // 只接受IP字面量，避免InetAddress.getByName做DNS解析
+        if (address.indexOf('.') < 0 && address.indexOf(':') < 0) {
+            throw new IllegalArgumentException("Invalid CIDR: " + cidr);
+        }
+        for (int i = 0; i < address.length(); i++) {
+            char c = address.charAt(i);
+            if (Character.digit(c, 16) < 0 && c != '.' && c != ':') {
+                throw new IllegalArgumentException("Invalid CIDR: " + cidr);
+            }
+        }
+        InetAddress inet;
+        try {
+            inet = InetAddress.getByName(address);
+        } catch (UnknownHostException e) {
+            throw new IllegalArgumentException("Invalid CIDR: " + cidr, e);
+        }
+        boolean v4 = inet instanceof Inet4Address;
+        int max = v4 ? 32 : 128;
+        int length = slash < 0 ? max : Integer.parseInt(text.substring(slash + 1).trim());
+        if (length < 0 || length > max) {
+            throw new IllegalArgumentException("Invalid prefix length: " + cidr);
+        }
+        byte[] bytes = inet.getAddress();
+        long hi;
+        long lo;
+        if (v4) {
+            hi = 0;
+            lo = V4_MAPPED | (toInt(bytes) & 0xffffffffL);
+            length += 96;
+        } else {
+            hi = toLong(bytes, 0);
+            lo = toLong(bytes, 8);
+        }
+        insert(mask(hi, length, 0), mask(lo, length, 64), length, action);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return 最长匹配的网段的动作，没有匹配时返回null
+     */
+    public Action lookup(InetAddress address) {
+        byte[] bytes = address.getAddress();
+        if (bytes.length == 4) {
+            return lookup(0, V4_MAPPED | (toInt(bytes) & 0xffffffffL));
+        }
+        return lookup(toLong(bytes, 0), toLong(bytes, 8));
+    }
+
+    /**
+     * @param hi 地址的高64位
+     * @param lo 地址的低64位
+     */
+    public Action lookup(long hi, long lo) {
+        Action best = null;
+        Node node = root;
+        while (node != null && matches(node, hi, lo)) {
+            if (node.action != null) {
+                best = node.action;
+            }
+            if (node.length == 128) {
+                break;
+            }
+            node = bit(hi, lo, node.length) == 0 ? node.left : node.right;
+        }
+        return best;
+    }
+
+    private void insert(long hi, long lo, int length, Action action) {
+        Node parent = null;
+        Node node = root;
+        while (node != null) {
+            int common = Math.min(Math.min(length, node.length), commonPrefix(hi, lo, node.hi, node.lo));
+            if (common < node.length) {
+                Node split;
+                if (common == length) {
+                    split = new Node(hi, lo, length, action);
+                    size++;
+                } else {
+                    split = new Node(mask(hi, common, 0), mask(lo, common, 64), common, null);
+                    Node leaf = new Node(hi, lo, length, action);
+                    size++;
+                    split.setChild(bit(hi, lo, common), leaf);
+                }
+                split.setChild(bit(node.hi, node.lo, common), node);
+                replace(parent, node, split);
+                return;
+            }
+            if (length == node.length) {
+                if (node.action == null) {
+                    size++;
+                }
+                if (node.action != Action.DENY) {
+                    node.action = action;
+                }
+                return;
+            }
+            parent = node;
+            node = bit(hi, lo, node.length) == 0 ? node.left : node.right;
+        }
+        Node leaf = new Node(hi, lo, length, action);
+        size++;
+        if (parent == null) {
+            root = leaf;
+        } else {
+            parent.setChild(bit(hi, lo, parent.length), leaf);
+        }
+    }
+
+    private void replace(Node parent, Node node, Node replacement) {
+        if (parent == null) {
+            root = replacement;
+        } else if (parent.left == node) {
+            parent.left = replacement;
+        } else {
+            parent.right = replacement;
+        }
+    }
+
+    private static boolean matches(Node node, long hi, long lo) {
+        return mask(hi, node.length, 0) == node.hi && mask(lo, node.length, 64) == node.lo;
+    }
+
+    /**
+     * @param offset 这个long在128位地址中的起始位，0或64
+     * @return 只保留前length位
+     */
+    private static long mask(long value, int length, int offset) {
+        int bits = length - offset;
+        if (bits <= 0) {
+            return 0;
+        }
+        if (bits >= 64) {
+            return value;
+        }
+        return value & (-1L << (64 - bits));
+    }
+
+    private static int bit(long hi, long lo, int index) {
+        return index < 64 ? (int) (hi >>> (63 - index)) & 1 : (int) (lo >>> (127 - index)) & 1;
+    }
+
+    private static int commonPrefix(long hi1, long lo1, long hi2, long lo2) {
+        long diff = hi1 ^ hi2;
+        if (diff != 0) {
+            return Long.numberOfLeadingZeros(diff);
+        }
+        return 64 + Long.numberOfLeadingZeros(lo1 ^ lo2);
+    }
+
+    private static int toInt(byte[] bytes) {
+        return (bytes[0] & 0xff) << 24 | (bytes[1] & 0xff) << 16 | (bytes[2] & 0xff) << 8 | (bytes[3] & 0xff);
+    }
+
+    private static long toLong(byte[] bytes, int offset) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = value << 8 | (bytes[offset + i] & 0xff);
+        }
+        return value;
+    }
+
+    private static final class Node {
+
+        private final long hi;
+
+        private final long lo;
+
+        private final int length;
+
+        private Action action;
+
+        private Node left;
+
+        private Node right;
+
+        private Node(long hi, long lo, int length, Action action) {
+            this.hi = hi;
+            this.lo = lo;
+            this.length = length;
+            this.action = action;
+        }
+
+        private void setChild(int bit, Node child) {
+            if (bit == 0) {
+                left = child;
+            } else {
+                right = child;
+            }
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2020 hdmcp.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package com.hdmcp.gateway.cache;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 缓存的响应，响应体放在堆外内存中，写出时直接包装成DataBuffer，不再拷贝
+ *
+ * @author WANGY
+ */
+public final class CachedResponse {
+
+    private final HttpStatus status;
+
+    private final HttpHeaders headers;
+
+    private final ByteBuffer body;
+
+    private final String etag;
+
+    /**
+     * 响应Vary声明的请求头及写入缓存时请求中的值
+     */
+    private final Map<String, List<String>> vary;
+
+    private final long storedAt;
+
+    private final long expiresAt;
+
+    public CachedResponse(HttpStatus status, HttpHeaders headers, byte[] body, String etag,
+                          Map<String, List<String>> vary, long ttlMillis) {
+        ByteBuffer direct = ByteBuffer.allocateDirect(body.length);
+        direct.put(body).flip();
+        this.status = status;
+        this.headers = HttpHeaders.readOnlyHttpHeaders(headers);
+        this.body = direct.asReadOnlyBuffer();
+        this.etag = etag;
+        this.vary = vary;
+        this.storedAt = System.nanoTime();
+        this.expiresAt = storedAt + TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+    }
+
+    public boolean isFresh(long nanoTime) {
+        return nanoTime - expiresAt < 0;
+    }
+
+    /**
+     * 请求中Vary声明的请求头与写入缓存时一致
+     */
+    public boolean matchesVary(HttpHeaders requestHeaders) {
+        for (Map.Entry<String, List<String>> entry : vary.entrySet()) {
+            if (!Objects.equals(entry.getValue(), requestHeaders.get(entry.getKey()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * If-None-Match使用弱比较，W/前缀不影响匹配
+     */
+    public boolean matches(List<String> ifNoneMatch) {
+        if (etag == null || ifNoneMatch.isEmpty()) {
+            return false;
+        }
+        String opaque = opaque(etag);
+        for (String candidate : ifNoneMatch) {
+            if ("*".equals(candidate) || opaque.equals(opaque(candidate))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String opaque(String etag) {
+        return etag.startsWith("W/") ? etag.substring(2) : etag;
+    }
+
+    public long ageSeconds(long nanoTime) {
+        return TimeUnit.NANOSECONDS.toSeconds(nanoTime - storedAt);
+    }
+
+    public HttpStatus getStatus() {
+        return status;
+    }
+
+    public HttpHeaders getHeaders() {
+        return headers;
+    }
+
+    /**
+     * 每次返回独立的读位置，可以并发写出
+     */
+    public ByteBuffer body() {
+        return body.duplicate();
+    }
+
+    public int size() {
+        return body.capacity();
+    }
+
+    public String getEtag() {
+        return etag;
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2020 hdmcp.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package com.hdmcp.gateway.cache;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 网关响应缓存，按响应体大小限制总容量，超出时按LRU淘汰
+ *
+ * @author WANGY
+ */
+@Component
+public class ResponseCacheStore {
+
+    /**
+     * 单条缓存(key、响应头、缓存节点)除响应体以外的估算内存占用(字节)
+     */
+    private static final int ESTIMATED_OVERHEAD_BYTES = 512;
+
+    private final Cache<String, CachedResponse> responses;
+
+    private final AtomicLong bytes = new AtomicLong();
+
+    public ResponseCacheStore(@Value("${samples.response-cache.max-bytes:67108864}") long maxBytes,
+                              MeterRegistry meterRegistry) {
+        this.responses = CacheBuilder.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher((String key, CachedResponse response) -> weight(key, response))
+                .removalListener(notification -> bytes.addAndGet(-notification.getValue().size()))
+                .build();
+        Gauge.builder("gateway.response.cache.entries", responses, Cache::size).register(meterRegistry);
+        Gauge.builder("gateway.response.cache.bytes", bytes, AtomicLong::get).register(meterRegistry);
+    }
+
+    /**
+     * @return 未命中或已过期时返回null
+     */
+    public CachedResponse get(String key, long nanoTime) {
+        CachedResponse response = responses.getIfPresent(key);
+        if (response != null && !response.isFresh(nanoTime)) {
+            responses.asMap().remove(key, response);
+            return null;
+        }
+        return response;
+    }
+
+    public void put(String key, CachedResponse response) {
+        bytes.addAndGet(response.size());
+        responses.put(key, response);
+    }
+
+    public long size() {
+        return responses.size();
+    }
+
+    public long bytes() {
+        return bytes.get();
+    }
+
+    public void invalidateAll() {
+        responses.invalidateAll();
+    }
+
+    private static int weight(String key, CachedResponse response) {
+        return ESTIMATED_OVERHEAD_BYTES + key.length() * 2 + response.size();
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2020 hdmcp.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package com.hdmcp.gateway.cache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.discovery.DiscoveryClient;
+import org.springframework.cloud.client.discovery.event.HeartbeatEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+/**
+ * 服务实例列表的缓存，供请求路径上选实例的过滤器使用
+ * <p>
+ * DiscoveryClient.getInstances第一次查询某个服务时是同步的Nacos HTTP调用，不能在Netty事件循环上执行。
+ * 这里只在后台线程查询：请求路径只读缓存，服务第一次出现时返回null并在后台加载；
+ * 之后按refreshMillis定时刷新，收到HeartbeatEvent时立即刷新，实例有变化时在刷新线程上通知监听器
+ *
+ * @author WANGY
+ */
+@Component
+public class ServiceInstanceCache {
+
+    private static final Logger log = LoggerFactory.getLogger(ServiceInstanceCache.class);
+
+    private final DiscoveryClient discoveryClient;
+
+    private final ScheduledExecutorService refresher;
+
+    /**
+     * serviceId -> 不可变的实例列表
+     */
+    private final Map<String, List<ServiceInstance>> instances = new ConcurrentHashMap<>();
+
+    private final Set<String> loading = ConcurrentHashMap.newKeySet();
+
+    private final List<BiConsumer<String, List<ServiceInstance>>> listeners = new CopyOnWriteArrayList<>();
+
+    public ServiceInstanceCache(DiscoveryClient discoveryClient,
+                                @Value("${samples.discovery.refresh-millis:5000}") long refreshMillis) {
+        this.discoveryClient = discoveryClient;
+        this.refresher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "gateway-service-instances");
+            thread.setDaemon(true);
+            return thread;
+        });
+        refresher.scheduleWithFixedDelay(this::refreshAll, refreshMillis, refreshMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        refresher.shutdownNow();
+    }
+
+    @EventListener
+    public void onHeartbeat(HeartbeatEvent event) {
+        refresher.execute(this::refreshAll);
+    }
+
+    /**
+     * 只读缓存，不阻塞
+     *
+     * @return 尚未加载时返回null，同时在后台加载
+     */
+    public List<ServiceInstance> get(String serviceId) {
+        List<ServiceInstance> cached = instances.get(serviceId);
+        if (cached == null) {
+            load(serviceId);
+        }
+        return cached;
+    }
+
+    /**
+     * 在后台加载服务的实例列表，完成后无论是否变化都通知监听器；已在加载中时忽略
+     */
+    public void load(String serviceId) {
+        if (loading.add(serviceId)) {
+            refresher.execute(() -> {
+                try {
+                    refresh(serviceId, true);
+                } finally {
+                    loading.remove(serviceId);
+                }
+            });
+        }
+    }
+
+    /**
+     * 实例列表加载或发生变化后，在刷新线程上回调(serviceId, 新的实例列表)
+     */
+    public void addListener(BiConsumer<String, List<ServiceInstance>> listener) {
+        listeners.add(listener);
+    }
+
+    private void refreshAll() {
+        for (String serviceId : instances.keySet()) {
+            refresh(serviceId, false);
+        }
+    }
+
+    private void refresh(String serviceId, boolean notify) {
+        List<ServiceInstance> current;
+        try {
+            current = Collections.unmodifiableList(new ArrayList<>(discoveryClient.getInstances(serviceId)));
+        } catch (RuntimeException e) {
+            log.warn("get instances of {} fail: {}", serviceId, e.getMessage());
+            return;
+        }
+        List<ServiceInstance> previous = instances.put(serviceId, current);
+        if (!notify && previous != null && sameInstances(previous, current)) {
+            return;
+        }
+        for (BiConsumer<String, List<ServiceInstance>> listener : listeners) {
+            try {
+                listener.accept(serviceId, current);
+            } catch (RuntimeException e) {
+                log.warn("service instance listener fail", e);
+            }
+        }
+    }
+
+    private static boolean sameInstances(List<ServiceInstance> previous, List<ServiceInstance> current) {
+        if (previous.size() != current.size()) {
+            return false;
+        }
+        for (int i = 0; i < previous.size(); i++) {
+            ServiceInstance a = previous.get(i);
+            ServiceInstance b = current.get(i);
+            if (!a.getHost().equals(b.getHost()) || a.getPort() != b.getPort() || a.isSecure() != b.isSecure()
+                    || !Objects.equals(a.getMetadata(), b.getMetadata())) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2020 hdmcp.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package com.hdmcp.gateway.cache;
+
+import com.hdmcp.core.utils.JwtUtil;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 已校验Token的缓存，相同的Token再次请求时跳过JWT解析与签名校验
+ * <p>
+ * 以Token的SHA-256摘要为key，缓存项在Token的exp时刻失效；
+ * 缓存已满时先清理过期项，仍然不足时按批淘汰
+ *
+ * @author WANGY
+ */
+@Component
+public class VerifiedTokenCache {
+
+    private static final ThreadLocal<MessageDigest> SHA_256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    });
+
+    private final Map<String, Entry> cache = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * 缓存的最大Token数量
+     */
+    private final int maxSize;
+
+    public VerifiedTokenCache(@Value("${samples.token-cache.max-size:10000}") int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * 与{@link JwtUtil#validateToken(String)}返回相同的claims，命中缓存时不再解析Token
+     */
+    public Map<String, String> validateToken(String token) {
+        if (token == null || maxSize <= 0) {
+            return JwtUtil.validateToken(token);
+        }
+        String key = digest(token);
+        long now = System.currentTimeMillis();
+        Entry entry = cache.get(key);
+        if (entry != null) {
+            if (entry.expiresAt > now) {
+                hits.increment();
+                return entry.claims;
+            }
+            if (cache.remove(key, entry)) {
+                evictions.increment();
+            }
+        }
+        misses.increment();
+
+        Map<String, String> claims = Collections.unmodifiableMap(JwtUtil.validateToken(token));
+        String expiration = claims.get(JwtUtil.TOKEN_F_EXPIRATION);
+        if (JwtUtil.NOT_EXPIRED.equals(claims.get(JwtUtil.TOKEN_F_IS_EXPIRED)) && expiration != null) {
+            long expiresAt = Long.parseLong(expiration);
+            if (expiresAt > now) {
+                if (cache.size() >= maxSize) {
+                    evict(now);
+                }
+                cache.put(key, new Entry(claims, expiresAt));
+            }
+        }
+        return claims;
+    }
+
+    public void clear() {
+        cache.clear();
+    }
+
+    public Stats stats() {
+        return new Stats(cache.size(), maxSize, hits.sum(), misses.sum(), evictions.sum());
+    }
+
+    /**
+     * 清理过期项，仍然超过容量时再淘汰十分之一
+     */
+    private void evict(long now) {
+        cache.entrySet().removeIf(e -> {
+            if (e.getValue().expiresAt <= now) {
+                evictions.increment();
+                return true;
+            }
+            return false;
+        });
+        if (cache.size() < maxSize) {
+            return;
+        }
+        int overflow = Math.max(1, maxSize / 10);
+        Iterator<String> iterator = cache.keySet().iterator();
+        while (overflow-- > 0 && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+            evictions.increment();
+        }
+    }
+
+    private static String digest(String token) {
+        MessageDigest md = SHA_256.get();
+        md.reset();
+        return Base64.getEncoder().withoutPadding()
+                .encodeToString(md.digest(token.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static final class Entry {
+        private final Map<String, String> claims;
+        private final long expiresAt;
+
+        private Entry(Map<String, String> claims, long expiresAt) {
+            this.claims = claims;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    public static final class Stats {
+        private final int size;
+        private final int maxSize;
+        private final long hits;
+        private final long misses;
+        private final long evictions;
+
+        public Stats(int size, int maxSize, long hits, long misses, long evictions) {
+            this.size = size;
+            this.maxSize = maxSize;
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        public int getMaxSize() {
+            return maxSize;
+        }
+
+        public long getHits() {
+            return hits;
+        }
+
+        public long getMisses() {
+            return misses;
+        }
+
+        public long getEvictions() {
+            return evictions;
+        }
+
+        public double getHitRatio() {
+            long total = hits + misses;
+            return total == 0 ? 0.0D : (double) hits / total;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2020 hdmcp.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package com.hdmcp.gateway.capture;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * 顺序读取{@link MappedCaptureWriter}写入的抓包文件
+ *
+ * @author WANGY
+ */
+public class CaptureReader implements Closeable {
+
+    private final DataInputStream in;
+
+    private final long startEpochMillis;
+
+    public CaptureReader(Path path) throws IOException {
+        this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 64 * 1024));
+        if (in.readInt() != MappedCaptureWriter.MAGIC) {
+            in.close();
+            throw new IOException("Not a capture file: " + path);
+        }
+        short version = in.readShort();
+        if (version != MappedCaptureWriter.VERSION) {
+            in.close();
+            throw new IOException("Unsupported capture version " + version + ": " + path);
+        }
+        this.startEpochMillis = in.readLong();
+    }
+
+    public long getStartEpochMillis() {
+        return startEpochMillis;
+    }
+
+    /**
+     * @return 文件结束时返回null
+     */
+    public CaptureRecord next() throws IOException {
+        int length;
+        try {
+            length = in.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        if (length <= 0) {
+            return null;
+        }
+        byte[] payload = new byte[length];
+        in.readFully(payload);
+        return CaptureRecord.decode(payload);
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
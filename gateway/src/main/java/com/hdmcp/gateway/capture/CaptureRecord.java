@@ -0,0 +1,196 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2020 hdmcp.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package com.hdmcp.gateway.capture;
+
+import org.springframework.http.HttpHeaders;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 抓包文件中的一条请求：请求行、请求头、请求体，以及原始请求在网关的状态码与耗时，用于回放时对比
+ * <p>
+ * 编码：epochMillis(long) offsetNanos(long) status(int) latencyMicros(long) route method uri(字符串)
+ * 请求头个数(int) name/value(字符串)... 请求体是否被截断(boolean) 请求体(int长度+字节)，字符串为int长度+UTF-8字节
+ *
+ * @author WANGY
+ */
+public final class CaptureRecord {
+
+    /**
+     * 被脱敏的请求头的取值
+     */
+    public static final String REDACTED = "[redacted]";
+
+    private final long epochMillis;
+
+    private final long offsetNanos;
+
+    private final String route;
+
+    private final String method;
+
+    private final String uri;
+
+    private final HttpHeaders headers;
+
+    private final byte[] body;
+
+    private final boolean bodyTruncated;
+
+    private final int status;
+
+    private final long latencyMicros;
+
+    /**
+     * @param offsetNanos 相对抓包开始的时间，回放时按此间隔发送
+     */
+    public CaptureRecord(long epochMillis, long offsetNanos, String route, String method, String uri,
+                         HttpHeaders headers, byte[] body, boolean bodyTruncated, int status, long latencyMicros) {
+        this.epochMillis = epochMillis;
+        this.offsetNanos = offsetNanos;
+        this.route = route;
+        this.method = method;
+        this.uri = uri;
+        this.headers = headers;
+        this.body = body == null ? new byte[0] : body;
+        this.bodyTruncated = bodyTruncated;
+        this.status = status;
+        this.latencyMicros = latencyMicros;
+    }
+
+    public byte[] encode() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256 + body.length);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeLong(epochMillis);
+            out.writeLong(offsetNanos);
+            out.writeInt(status);
+            out.writeLong(latencyMicros);
+            writeString(out, route);
+            writeString(out, method);
+            writeString(out, uri);
+            int count = 0;
+            for (List<String> values : headers.values()) {
+                count += values.size();
+            }
+            out.writeInt(count);
+            for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+                for (String value : header.getValue()) {
+                    writeString(out, header.getKey());
+                    writeString(out, value);
+                }
+            }
+            out.writeBoolean(bodyTruncated);
+            out.writeInt(body.length);
+            out.write(body);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    public static CaptureRecord decode(byte[] payload) throws IOException {
+        DataInput in = new DataInputStream(new ByteArrayInputStream(payload));
+        long epochMillis = in.readLong();
+        long offsetNanos = in.readLong();
+        int status = in.readInt();
+        long latencyMicros = in.readLong();
+        String route = readString(in);
+        String method = readString(in);
+        String uri = readString(in);
+        int count = in.readInt();
+        HttpHeaders headers = new HttpHeaders();
+        for (int i = 0; i < count; i++) {
+            headers.add(readString(in), readString(in));
+        }
+        boolean bodyTruncated = in.readBoolean();
+        byte[] body = new byte[in.readInt()];
+        in.readFully(body);
+        return new CaptureRecord(epochMillis, offsetNanos, route, method, uri, headers, body, bodyTruncated, status,
+                latencyMicros);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = (value == null ? "" : value).getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInput in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public long getEpochMillis() {
+        return epochMillis;
+    }
+
+    public long getOffsetNanos() {
+        return offsetNanos;
+    }
+
+    public String getRoute() {
+        return route;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public String getUri() {
+        return uri;
+    }
+
+    public HttpHeaders getHeaders() {
+        return headers;
+    }
+
+    public byte[] getBody() {
+        return body;
+    }
+
+    public boolean isBodyTruncated() {
+        return bodyTruncated;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public long getLatencyMicros() {
+        return latencyMicros;
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2020 hdmcp.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package com.hdmcp.gateway.capture;
+
+import com.hdmcp.gateway.accesslog.AccessLogRingBuffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 一次抓包：请求线程把编码后的记录放入无锁环形队列，后台线程写入内存映射文件。
+ * 文件写满后停止写入，之后的记录计为丢弃
+ *
+ * @author WANGY
+ */
+public class CaptureSession implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(CaptureSession.class);
+
+    private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    private final Path path;
+
+    private final long startNanos = System.nanoTime();
+
+    private final AccessLogRingBuffer<byte[]> buffer;
+
+    private final MappedCaptureWriter writer;
+
+    private final LongAdder written = new LongAdder();
+
+    private final LongAdder dropped = new LongAdder();
+
+    private final Thread thread;
+
+    private volatile boolean running = true;
+
+    private volatile boolean full;
+
+    public CaptureSession(Path path, long maxBytes, int bufferSize) throws IOException {
+        this.path = path;
+        this.buffer = new AccessLogRingBuffer<>(bufferSize);
+        this.writer = new MappedCaptureWriter(path, System.currentTimeMillis(), maxBytes);
+        this.thread = new Thread(this::run, "gateway-capture");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * @return 相对抓包开始的纳秒数
+     */
+    public long offsetNanos(long nanoTime) {
+        return nanoTime - startNanos;
+    }
+
+    /**
+     * @return 队列已满或文件已写满时返回false
+     */
+    public boolean offer(CaptureRecord record) {
+        if (full || !running || !buffer.offer(record.encode())) {
+            dropped.increment();
+            return false;
+        }
+        return true;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public long getWritten() {
+        return written.sum();
+    }
+
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    private void run() {
+        try {
+            while (running) {
+                if (buffer.drain(this::write, 256) == 0) {
+                    LockSupport.parkNanos(this, IDLE_NANOS);
+                }
+            }
+            while (buffer.drain(this::write, 256) > 0) {
+                // 退出前写完剩余记录
+            }
+        } finally {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                log.warn("close capture file {} failed", path, e);
+            }
+        }
+    }
+
+    private void write(byte[] payload) {
+        if (full) {
+            dropped.increment();
+            return;
+        }
+        try {
+            if (writer.append(payload)) {
+                written.increment();
+                return;
+            }
+            full = true;
+            log.warn("capture file {} reached its size limit, further requests are not captured", path);
+        } catch (IOException e) {
+            full = true;
+            log.warn("write capture file {} failed", path, e);
+        }
+        dropped.increment();
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(thread);
+        try {
+            thread.join(10000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2020 hdmcp.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package com.hdmcp.gateway.capture;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 基于内存映射的只追加抓包文件写入器，非线程安全
+ * <p>
+ * 文件头：MAGIC(int) VERSION(short) 开始时间epochMillis(long)；之后每条记录为长度(int)+内容。
+ * 文件按REGION_SIZE分段映射，写满一段后映射下一段；映射扩展出的文件尾部全为0，读取时遇到长度0即结束，
+ * 进程异常退出时已写入的记录仍然可读。close时截断到实际写入的长度
+ *
+ * @author WANGY
+ */
+public class MappedCaptureWriter implements Closeable {
+
+    static final int MAGIC = 0x48444350;
+
+    static final short VERSION = 1;
+
+    static final int HEADER_SIZE = 4 + 2 + 8;
+
+    private static final long REGION_SIZE = 16L * 1024 * 1024;
+
+    private final FileChannel channel;
+
+    private final long maxBytes;
+
+    private MappedByteBuffer region;
+
+    private long regionStart;
+
+    private long position;
+
+    /**
+     * @param maxBytes 文件大小上限，写满后append返回false
+     */
+    public MappedCaptureWriter(Path path, long startEpochMillis, long maxBytes) throws IOException {
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        this.maxBytes = maxBytes;
+        map(0, HEADER_SIZE);
+        region.putInt(MAGIC);
+        region.putShort(VERSION);
+        region.putLong(startEpochMillis);
+        position = HEADER_SIZE;
+    }
+
+    /**
+     * @return 超过文件大小上限时返回false，不写入
+     */
+    public boolean append(byte[] payload) throws IOException {
+        int length = 4 + payload.length;
+        // 预留4字节给结束标记
+        if (position + length + 4 > maxBytes) {
+            return false;
+        }
+        if (position + length > regionStart + region.capacity()) {
+            map(position, length);
+        }
+        region.putInt(payload.length);
+        region.put(payload);
+        position += length;
+        return true;
+    }
+
+    public long getPosition() {
+        return position;
+    }
+
+    private void map(long start, int minSize) throws IOException {
+        long size = Math.max(minSize + 4, Math.min(REGION_SIZE, maxBytes - start));
+        region = channel.map(FileChannel.MapMode.READ_WRITE, start, size);
+        regionStart = start;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            region.force();
+            channel.truncate(position);
+        } finally {
+            channel.close();
+        }
+    }
+}
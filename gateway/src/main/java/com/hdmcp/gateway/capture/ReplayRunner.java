@@ -0,0 +1,311 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2020 hdmcp.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package com.hdmcp.gateway.capture;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.HistogramSnapshot;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http.DefaultHttpHeaders;
+import io.netty.handler.codec.http.HttpMethod;
+import org.springframework.http.HttpHeaders;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.ByteBufFlux;
+import reactor.netty.http.client.HttpClient;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 抓包回放工具，按抓包时的请求间隔(或speed倍速)把请求重新发往目标网关，输出每个路由抓包时与回放时的耗时对比
+ * <p>
+ * 用法: java -cp gateway.jar -Dloader.main=com.hdmcp.gateway.capture.ReplayRunner
+ * org.springframework.boot.loader.PropertiesLauncher capture-20200101-120000.hdcap http://127.0.0.1:9000
+ * [--speed 2] [--concurrency 256] [--timeout-millis 10000] [--header Authorization=Bearer xxx]
+ * <p>
+ * speed为0时不控制间隔，尽快发送。被脱敏的请求头只有通过--header指定了取值才会发送；请求体被截断的请求不回放
+ *
+ * @author WANGY
+ */
+public class ReplayRunner {
+
+    private static final Set<String> SKIP_HEADERS = new HashSet<>(Arrays.asList("host", "content-length",
+            "transfer-encoding", "connection", "keep-alive", "upgrade", "te", "trailer"));
+
+    private static final double[] PERCENTILES = {0.5, 0.9, 0.99};
+
+    private final HttpClient httpClient;
+
+    private final String target;
+
+    private final double speed;
+
+    private final int concurrency;
+
+    private final Duration timeout;
+
+    private final Map<String, String> headers;
+
+    private final MeterRegistry registry = new SimpleMeterRegistry();
+
+    private final Map<String, RouteReport> routes = new ConcurrentHashMap<>();
+
+    private final AtomicLong maxLagNanos = new AtomicLong();
+
+    /**
+     * @param target  目标网关地址，如http://127.0.0.1:9000
+     * @param speed   回放倍速，1为原速，0为不控制间隔
+     * @param headers 覆盖抓包中的请求头，用于补上被脱敏的Authorization等
+     */
+    public ReplayRunner(HttpClient httpClient, String target, double speed, int concurrency, Duration timeout,
+                        Map<String, String> headers) {
+        this.httpClient = httpClient;
+        this.target = target.endsWith("/") ? target.substring(0, target.length() - 1) : target;
+        this.speed = speed;
+        this.concurrency = concurrency;
+        this.timeout = timeout;
+        this.headers = headers;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("usage: ReplayRunner <capture-file> <target> [--speed N] [--concurrency N] "
+                    + "[--timeout-millis N] [--header Name=Value]...");
+            System.exit(2);
+        }
+        double speed = 1.0D;
+        int concurrency = 256;
+        long timeoutMillis = 10000;
+        Map<String, String> headers = new LinkedHashMap<>();
+        for (int i = 2; i + 1 < args.length; i += 2) {
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "--speed":
+                    speed = Double.parseDouble(value);
+                    break;
+                case "--concurrency":
+                    concurrency = Integer.parseInt(value);
+                    break;
+                case "--timeout-millis":
+                    timeoutMillis = Long.parseLong(value);
+                    break;
+                case "--header":
+                    int eq = value.indexOf('=');
+                    headers.put(value.substring(0, eq).trim(), value.substring(eq + 1).trim());
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        ReplayRunner runner = new ReplayRunner(HttpClient.create(), args[1], speed, concurrency,
+                Duration.ofMillis(timeoutMillis), headers);
+        runner.run(Paths.get(args[0]));
+        runner.print(System.out);
+    }
+
+    /**
+     * 回放整个抓包文件，所有请求完成后返回
+     */
+    public void run(Path capture) {
+        long start = System.nanoTime();
+        Flux.using(() -> new CaptureReader(capture), ReplayRunner::records, ReplayRunner::closeQuietly)
+                .flatMap(record -> {
+                    long due = speed > 0 ? start + (long) (record.getOffsetNanos() / speed) : start;
+                    long delay = due - System.nanoTime();
+                    Mono<Void> send = Mono.defer(() -> replay(record, due));
+                    return delay > 0 ? Mono.delay(Duration.ofNanos(delay)).then(send) : send;
+                }, concurrency)
+                .blockLast();
+    }
+
+    private static Flux<CaptureRecord> records(CaptureReader reader) {
+        return Flux.generate(sink -> {
+            try {
+                CaptureRecord record = reader.next();
+                if (record == null) {
+                    sink.complete();
+                } else {
+                    sink.next(record);
+                }
+            } catch (IOException e) {
+                sink.error(e);
+            }
+        });
+    }
+
+    private static void closeQuietly(CaptureReader reader) {
+        try {
+            reader.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private Mono<Void> replay(CaptureRecord record, long due) {
+        RouteReport report = routes.computeIfAbsent(record.getRoute(), RouteReport::new);
+        if (record.isBodyTruncated()) {
+            report.skipped.increment();
+            return Mono.empty();
+        }
+        long start = System.nanoTime();
+        maxLagNanos.accumulateAndGet(start - due, Math::max);
+        report.captured.record(record.getLatencyMicros(), TimeUnit.MICROSECONDS);
+        DefaultHttpHeaders requestHeaders = requestHeaders(record.getHeaders());
+        return httpClient.headers(h -> h.add(requestHeaders))
+                .request(HttpMethod.valueOf(record.getMethod()))
+                .uri(target + record.getUri())
+                .send(record.getBody().length == 0 ? ByteBufFlux.fromInbound(Mono.empty())
+                        : ByteBufFlux.fromInbound(Mono.just(Unpooled.wrappedBuffer(record.getBody()))))
+                .response((res, body) -> body.then(Mono.just(res.status().code())))
+                .next()
+                .timeout(timeout)
+                .doOnNext(status -> {
+                    report.replayed.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                    if (status != record.getStatus()) {
+                        report.statusMismatch.increment();
+                    }
+                })
+                .doOnError(e -> report.errors.increment())
+                .onErrorResume(e -> Mono.empty())
+                .then();
+    }
+
+    private DefaultHttpHeaders requestHeaders(HttpHeaders captured) {
+        DefaultHttpHeaders result = new DefaultHttpHeaders();
+        for (Map.Entry<String, List<String>> header : captured.entrySet()) {
+            String name = header.getKey();
+            if (SKIP_HEADERS.contains(name.toLowerCase()) || headers.containsKey(name)) {
+                continue;
+            }
+            for (String value : header.getValue()) {
+                if (!CaptureRecord.REDACTED.equals(value)) {
+                    result.add(name, value);
+                }
+            }
+        }
+        headers.forEach(result::set);
+        return result;
+    }
+
+    /**
+     * @return 路由id -> 请求数、错误数、状态码不一致数以及抓包时/回放时的耗时分位数(毫秒)
+     */
+    public Map<String, Map<String, Object>> report() {
+        Map<String, Map<String, Object>> report = new TreeMap<>();
+        for (RouteReport route : routes.values()) {
+            Map<String, Object> values = new LinkedHashMap<>();
+            values.put("requests", route.captured.count());
+            values.put("skipped", route.skipped.sum());
+            values.put("errors", route.errors.sum());
+            values.put("statusMismatch", route.statusMismatch.sum());
+            values.put("captured", percentiles(route.captured.takeSnapshot()));
+            values.put("replayed", percentiles(route.replayed.takeSnapshot()));
+            report.put(route.routeId, values);
+        }
+        return report;
+    }
+
+    public long getMaxLagMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxLagNanos.get());
+    }
+
+    public void print(PrintStream out) {
+        out.printf("%-24s %8s %6s %8s  %-26s  %-26s%n", "route", "requests", "errors", "mismatch",
+                "captured p50/p90/p99 ms", "replayed p50/p90/p99 ms");
+        report().forEach((route, values) -> out.printf("%-24s %8s %6s %8s  %-26s  %-26s%n", route,
+                values.get("requests"), values.get("errors"), values.get("statusMismatch"),
+                format(values.get("captured")), format(values.get("replayed"))));
+        out.printf("max send lag: %d ms%n", getMaxLagMillis());
+    }
+
+    private static Map<String, Double> percentiles(HistogramSnapshot snapshot) {
+        Map<String, Double> values = new LinkedHashMap<>();
+        for (ValueAtPercentile percentile : snapshot.percentileValues()) {
+            values.put("p" + Math.round(percentile.percentile() * 100), percentile.value(TimeUnit.MILLISECONDS));
+        }
+        return values;
+    }
+
+    private static String format(Object percentiles) {
+        StringBuilder text = new StringBuilder();
+        for (Object value : ((Map<?, ?>) percentiles).values()) {
+            if (text.length() > 0) {
+                text.append(" / ");
+            }
+            text.append(String.format("%.1f", (Double) value));
+        }
+        return text.toString();
+    }
+
+    private final class RouteReport {
+
+        private final String routeId;
+
+        private final Timer captured;
+
+        private final Timer replayed;
+
+        private final LongAdder errors = new LongAdder();
+
+        private final LongAdder statusMismatch = new LongAdder();
+
+        private final LongAdder skipped = new LongAdder();
+
+        private RouteReport(String routeId) {
+            this.routeId = routeId;
+            this.captured = timer(routeId, "captured");
+            this.replayed = timer(routeId, "replayed");
+        }
+
+        private Timer timer(String routeId, String source) {
+            return Timer.builder("replay.latency")
+                    .tags("route", routeId, "source", source)
+                    .publishPercentiles(PERCENTILES)
+                    .distributionStatisticExpiry(Duration.ofDays(1))
+                    .distributionStatisticBufferLength(1)
+                    .register(registry);
+        }
+    }
+}
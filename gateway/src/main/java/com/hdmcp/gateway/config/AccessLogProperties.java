@@ -0,0 +1,144 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2020 hdmcp.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package com.hdmcp.gateway.config;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 访问日志配置，前缀samples.access-log
+ * <p>
+ * 采样率随Nacos配置变更生效；文件路径、队列容量与滚动策略只在启动时读取，变更后输出警告日志提示重启
+ *
+ * @author WANGY
+ */
+public class AccessLogProperties {
+
+    public static final String PREFIX = "samples.access-log";
+
+    private boolean enabled = true;
+
+    private String path = "logs/access.log";
+
+    /**
+     * 环形队列容量，写入线程跟不上时新的记录被丢弃并计数
+     */
+    private int bufferSize = 8192;
+
+    private long maxFileSize = 100L * 1024 * 1024;
+
+    private int maxHistory = 10;
+
+    private long flushMillis = 200;
+
+    /**
+     * 默认采样率，0~1
+     */
+    private double sampleRate = 1.0D;
+
+    /**
+     * 路由id -> 采样率，覆盖sampleRate
+     */
+    private Map<String, Double> routes = new LinkedHashMap<>();
+
+    /**
+     * 5xx和异常结束的请求不受采样率限制，全部记录
+     */
+    private boolean alwaysLogErrors = true;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public void setPath(String path) {
+        this.path = path;
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    public void setBufferSize(int bufferSize) {
+        this.bufferSize = bufferSize;
+    }
+
+    public long getMaxFileSize() {
+        return maxFileSize;
+    }
+
+    public void setMaxFileSize(long maxFileSize) {
+        this.maxFileSize = maxFileSize;
+    }
+
+    public int getMaxHistory() {
+        return maxHistory;
+    }
+
+    public void setMaxHistory(int maxHistory) {
+        this.maxHistory = maxHistory;
+    }
+
+    public long getFlushMillis() {
+        return flushMillis;
+    }
+
+    public void setFlushMillis(long flushMillis) {
+        this.flushMillis = flushMillis;
+    }
+
+    public double getSampleRate() {
+        return sampleRate;
+    }
+
+    public void setSampleRate(double sampleRate) {
+        this.sampleRate = sampleRate;
+    }
+
+    public Map<String, Double> getRoutes() {
+        return routes;
+    }
+
+    public void setRoutes(Map<String, Double> routes) {
+        this.routes = routes;
+    }
+
+    public boolean isAlwaysLogErrors() {
+        return alwaysLogErrors;
+    }
+
+    public void setAlwaysLogErrors(boolean alwaysLogErrors) {
+        this.alwaysLogErrors = alwaysLogErrors;
+    }
+}
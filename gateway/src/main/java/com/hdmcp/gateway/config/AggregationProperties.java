@@ -0,0 +1,120 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2020 hdmcp.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package com.hdmcp.gateway.config;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 一个聚合接口的配置，前缀samples.aggregation.{name}
+ * <pre>
+ * samples:
+ *   aggregation:
+ *     order-screen:
+ *       parts:
+ *         order:
+ *           uri: lb://order/orders/{id}
+ *           required: true
+ *         detail:
+ *           uri: lb://order/orders/{id}/detail
+ *         products:
+ *           uri: lb://product/products/list/all
+ *           timeout-millis: 500
+ * </pre>
+ * uri中的{变量}取自路由Path断言中的同名变量
+ *
+ * @author WANGY
+ */
+public class AggregationProperties {
+
+    public static final String PREFIX = "samples.aggregation";
+
+    /**
+     * 响应JSON中的字段名 -> 子请求，按配置顺序输出
+     */
+    private Map<String, Part> parts = new LinkedHashMap<>();
+
+    public Map<String, Part> getParts() {
+        return parts;
+    }
+
+    public void setParts(Map<String, Part> parts) {
+        this.parts = parts;
+    }
+
+    public static class Part {
+
+        /**
+         * lb://serviceId/path或http(s)://host:port/path
+         */
+        private String uri;
+
+        private long timeoutMillis = 1000;
+
+        /**
+         * 必需的子请求失败时整个聚合接口返回502，其他子请求失败时返回部分结果
+         */
+        private boolean required;
+
+        /**
+         * 子请求响应体上限，超过时按失败处理
+         */
+        private int maxBytes = 4 * 1024 * 1024;
+
+        public String getUri() {
+            return uri;
+        }
+
+        public void setUri(String uri) {
+            this.uri = uri;
+        }
+
+        public long getTimeoutMillis() {
+            return timeoutMillis;
+        }
+
+        public void setTimeoutMillis(long timeoutMillis) {
+            this.timeoutMillis = timeoutMillis;
+        }
+
+        public boolean isRequired() {
+            return required;
+        }
+
+        public void setRequired(boolean required) {
+            this.required = required;
+        }
+
+        public int getMaxBytes() {
+            return maxBytes;
+        }
+
+        public void setMaxBytes(int maxBytes) {
+            this.maxBytes = maxBytes;
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2020 hdmcp.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package com.hdmcp.gateway.config;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 版本路由配置，前缀samples.canary，由VersionFilter在Nacos配置变更时重新绑定
+ * <pre>
+ * samples:
+ *   canary:
+ *     env: prod
+ *     services:
+ *       order:
+ *         weights: {v1: 95, v2: 5}
+ * </pre>
+ *
+ * @author WANGY
+ */
+public class CanaryProperties {
+
+    public static final String PREFIX = "samples.canary";
+
+    private boolean enabled = true;
+
+    /**
+     * 指定版本的请求头，优先于权重
+     */
+    private String versionHeader = "x-version";
+
+    /**
+     * 指定环境的请求头，优先于env
+     */
+    private String envHeader = "x-env";
+
+    /**
+     * 只选择metadata.env相同的实例，为空时不限制
+     */
+    private String env;
+
+    private Map<String, Service> services = new LinkedHashMap<>();
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public String getVersionHeader() {
+        return versionHeader;
+    }
+
+    public void setVersionHeader(String versionHeader) {
+        this.versionHeader = versionHeader;
+    }
+
+    public String getEnvHeader() {
+        return envHeader;
+    }
+
+    public void setEnvHeader(String envHeader) {
+        this.envHeader = envHeader;
+    }
+
+    public String getEnv() {
+        return env;
+    }
+
+    public void setEnv(String env) {
+        this.env = env;
+    }
+
+    public Map<String, Service> getServices() {
+        return services;
+    }
+
+    public void setServices(Map<String, Service> services) {
+        this.services = services;
+    }
+
+    public static class Service {
+
+        /**
+         * metadata.version -> 权重，未列出的版本权重为0，没有version的实例记为default
+         */
+        private Map<String, Integer> weights = new LinkedHashMap<>();
+
+        public Map<String, Integer> getWeights() {
+            return weights;
+        }
+
+        public void setWeights(Map<String, Integer> weights) {
+            this.weights = weights;
+        }
+    }
+}
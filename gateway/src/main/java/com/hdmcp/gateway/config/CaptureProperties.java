@@ -0,0 +1,133 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2020 hdmcp.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package com.hdmcp.gateway.config;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 抓包配置，前缀samples.capture，默认关闭。随Nacos配置变更开启、关闭，每次开启写入一个新文件
+ *
+ * @author WANGY
+ */
+public class CaptureProperties {
+
+    public static final String PREFIX = "samples.capture";
+
+    private boolean enabled = false;
+
+    /**
+     * 抓包文件所在目录，文件名为capture-yyyyMMdd-HHmmss.hdcap
+     */
+    private String directory = "capture";
+
+    private long maxFileSize = 1024L * 1024 * 1024;
+
+    private int bufferSize = 4096;
+
+    private double sampleRate = 1.0D;
+
+    /**
+     * 只抓这些路由，为空时抓全部路由
+     */
+    private List<String> routes = new ArrayList<>();
+
+    /**
+     * 请求体超过该大小时只保存前maxBodyBytes字节并标记为截断，回放时跳过
+     */
+    private int maxBodyBytes = 64 * 1024;
+
+    /**
+     * 不保存取值的请求头，回放时由回放工具重新指定
+     */
+    private List<String> redactHeaders = new ArrayList<>(Collections.singletonList("Authorization"));
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public String getDirectory() {
+        return directory;
+    }
+
+    public void setDirectory(String directory) {
+        this.directory = directory;
+    }
+
+    public long getMaxFileSize() {
+        return maxFileSize;
+    }
+
+    public void setMaxFileSize(long maxFileSize) {
+        this.maxFileSize = maxFileSize;
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    public void setBufferSize(int bufferSize) {
+        this.bufferSize = bufferSize;
+    }
+
+    public double getSampleRate() {
+        return sampleRate;
+    }
+
+    public void setSampleRate(double sampleRate) {
+        this.sampleRate = sampleRate;
+    }
+
+    public List<String> getRoutes() {
+        return routes;
+    }
+
+    public void setRoutes(List<String> routes) {
+        this.routes = routes;
+    }
+
+    public int getMaxBodyBytes() {
+        return maxBodyBytes;
+    }
+
+    public void setMaxBodyBytes(int maxBodyBytes) {
+        this.maxBodyBytes = maxBodyBytes;
+    }
+
+    public List<String> getRedactHeaders() {
+        return redactHeaders;
+    }
+
+    public void setRedactHeaders(List<String> redactHeaders) {
+        this.redactHeaders = redactHeaders;
+    }
+}
@@ -25,32 +25,113 @@
 
 package com.hdmcp.gateway.config;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.client.loadbalancer.reactive.LoadBalancerExchangeFilterFunction;
 import org.springframework.cloud.gateway.config.GatewayProperties;
+import org.springframework.cloud.gateway.event.RefreshRoutesEvent;
 import org.springframework.cloud.gateway.route.RouteLocator;
 import org.springframework.cloud.gateway.support.NameUtils;
+import org.springframework.context.ApplicationListener;
 import org.springframework.context.annotation.Primary;
+import org.springframework.http.MediaType;
 import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.util.UriComponentsBuilder;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 import springfox.documentation.swagger.web.SwaggerResource;
 import springfox.documentation.swagger.web.SwaggerResourcesProvider;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.net.URI;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
+ * 聚合各服务的swagger文档
+ * <p>
+ * 资源列表缓存到下一次RefreshRoutesEvent；路由刷新后(合并连续的刷新)在后台并发拉取各服务的/v2/api-docs，
+ * 由{@link com.hdmcp.gateway.filters.SwaggerDocCacheFilter}直接返回缓存的文档。
+ * 资源列表和文档最多缓存ttlMillis，过期的文档不再返回，请求转发到服务，同时在后台重新聚合、拉取
+ *
  * @author WANGY
  */
 @Component
 @Primary
-public class GatewaySwaggerProvider implements SwaggerResourcesProvider {
+public class GatewaySwaggerProvider implements SwaggerResourcesProvider, ApplicationListener<RefreshRoutesEvent> {
     public static final String API_URI = "/v2/api-docs";
+    private static final Logger log = LoggerFactory.getLogger(GatewaySwaggerProvider.class);
+    private static final String HEADER_NAME = "X-Forwarded-Prefix";
+    private static final String LB_SCHEME = "lb";
+    private static final String PATH_SUFFIX = "/**";
     private final RouteLocator routeLocator;
     private final GatewayProperties gatewayProperties;
 
+    @Autowired(required = false)
+    private LoadBalancerExchangeFilterFunction loadBalancerFunction;
+
+    @Value("${samples.swagger.prefetch.concurrency:8}")
+    private int concurrency;
+
+    @Value("${samples.swagger.prefetch.timeout-millis:5000}")
+    private long timeoutMillis;
+
+    @Value("${samples.swagger.prefetch.delay-millis:1000}")
+    private long delayMillis;
+
+    @Value("${samples.swagger.cache.ttl-millis:600000}")
+    private long ttlMillis;
+
+    private WebClient webClient;
+
+    /**
+     * 文档地址 -> 对应路由的uri，为null表示需要重新聚合
+     */
+    private volatile Map<String, URI> locations;
+
+    private volatile List<SwaggerResource> resources;
+
+    private volatile long resourcesExpireAt;
+
+    private final Map<String, Doc> docs = new ConcurrentHashMap<>();
+
+    private final AtomicReference<Disposable> prefetching = new AtomicReference<>();
+
     public GatewaySwaggerProvider(RouteLocator routeLocator, GatewayProperties gatewayProperties) {
         this.routeLocator = routeLocator;
         this.gatewayProperties = gatewayProperties;
     }
 
+    @PostConstruct
+    public void init() {
+        WebClient.Builder builder = WebClient.builder();
+        if (loadBalancerFunction != null) {
+            builder.filter(loadBalancerFunction);
+        }
+        webClient = builder.build();
+    }
+
+    @PreDestroy
+    public void destroy() {
+        Disposable previous = prefetching.getAndSet(null);
+        if (previous != null) {
+            previous.dispose();
+        }
+    }
+
     private SwaggerResource swaggerResource(String name, String location) {
         SwaggerResource swaggerResource = new SwaggerResource();
         swaggerResource.setName(name);
@@ -61,17 +142,127 @@ public class GatewaySwaggerProvider implements SwaggerResourcesProvider {
 
     @Override
     public List<SwaggerResource> get() {
-        List<SwaggerResource> resources = new ArrayList<>();
-        List<String> routes = new ArrayList<>();
+        List<SwaggerResource> cached = resources;
+        if (cached == null || System.nanoTime() - resourcesExpireAt >= 0) {
+            synchronized (this) {
+                cached = resources;
+                if (cached == null || System.nanoTime() - resourcesExpireAt >= 0) {
+                    aggregate();
+                    cached = resources;
+                }
+            }
+        }
+        return cached;
+    }
+
+    /**
+     * 缓存的文档，未拉取到或已过期时返回null
+     */
+    public String getDoc(String location) {
+        Doc doc = docs.get(location);
+        if (doc == null) {
+            return null;
+        }
+        if (System.nanoTime() - doc.expireAt >= 0) {
+            // 只有移除成功的请求触发重新拉取
+            if (docs.remove(location, doc)) {
+                refresh();
+            }
+            return null;
+        }
+        return doc.body;
+    }
+
+    @Override
+    public void onApplicationEvent(RefreshRoutesEvent event) {
+        refresh();
+    }
+
+    private void refresh() {
+        resources = null;
+        locations = null;
+        // 等其他监听器刷新完路由后再拉取，期间再次刷新则重新计时
+        Disposable previous = prefetching.getAndSet(Mono.delay(Duration.ofMillis(delayMillis))
+                .flatMap(tick -> prefetch())
+                .subscribe(null, e -> log.warn("prefetch swagger docs fail", e)));
+        if (previous != null) {
+            previous.dispose();
+        }
+    }
+
+    private void aggregate() {
+        List<SwaggerResource> aggregated = new ArrayList<>();
+        Map<String, URI> uris = new LinkedHashMap<>();
+        Map<String, URI> routes = new HashMap<>();
         //取出Spring Cloud Gateway中的route
-        routeLocator.getRoutes().subscribe(route -> routes.add(route.getId()));
-        //结合application.yml中的路由配置，只获取有效的route节点
-        gatewayProperties.getRoutes().stream().filter(routeDefinition -> routes.contains(routeDefinition.getId()))
+        routeLocator.getRoutes().subscribe(route -> routes.put(route.getId(), route.getUri()));
+        //结合application.yml中的路由配置，只获取转发到服务的有效route节点，bff://等本地处理的路由没有文档
+        gatewayProperties.getRoutes().stream().filter(routeDefinition -> routes.containsKey(routeDefinition.getId())
+                && isServiceUri(routes.get(routeDefinition.getId())))
                 .forEach(routeDefinition -> routeDefinition.getPredicates().stream()
                         .filter(predicateDefinition -> ("Path").equalsIgnoreCase(predicateDefinition.getName()))
-                        .forEach(predicateDefinition -> resources.add(swaggerResource(routeDefinition.getId(),
-                                predicateDefinition.getArgs().get(NameUtils.GENERATED_NAME_PREFIX + "0")
-                                        .replace("/**", API_URI)))));
-        return resources;
+                        .map(predicateDefinition -> predicateDefinition.getArgs().get(NameUtils.GENERATED_NAME_PREFIX + "0"))
+                        //只有/前缀/**形式的路径能拼出服务的文档地址
+                        .filter(path -> path != null && path.endsWith(PATH_SUFFIX))
+                        .forEach(path -> {
+                            String location = path.substring(0, path.length() - PATH_SUFFIX.length()) + API_URI;
+                            aggregated.add(swaggerResource(routeDefinition.getId(), location));
+                            uris.put(location, routes.get(routeDefinition.getId()));
+                        }));
+        locations = uris;
+        resources = Collections.unmodifiableList(aggregated);
+        resourcesExpireAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+    }
+
+    private static boolean isServiceUri(URI uri) {
+        String scheme = uri.getScheme();
+        return LB_SCHEME.equalsIgnoreCase(scheme) || "http".equalsIgnoreCase(scheme) || "https".equalsIgnoreCase(scheme);
+    }
+
+    private Mono<Void> prefetch() {
+        get();
+        Map<String, URI> targets = locations;
+        if (targets == null) {
+            return Mono.empty();
+        }
+        docs.keySet().retainAll(targets.keySet());
+        return Flux.fromIterable(targets.entrySet())
+                .flatMap(target -> fetch(target.getKey(), target.getValue())
+                        .doOnNext(doc -> docs.put(target.getKey(), new Doc(doc,
+                                System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ttlMillis))))
+                        .onErrorResume(e -> {
+                            log.debug("prefetch swagger doc {} fail: {}", target.getKey(), e.getMessage());
+                            return Mono.empty();
+                        }), concurrency)
+                .then();
+    }
+
+    /**
+     * 直接请求路由的目标服务，X-Forwarded-Prefix与{@link com.hdmcp.gateway.filters.GwSwaggerHeaderFilter}一致
+     */
+    private Mono<String> fetch(String location, URI routeUri) {
+        UriComponentsBuilder uri = UriComponentsBuilder.fromUri(routeUri).replacePath(API_URI).replaceQuery(null);
+        if (LB_SCHEME.equalsIgnoreCase(routeUri.getScheme())) {
+            uri.scheme("http");
+        }
+        return webClient.get()
+                .uri(uri.build(true).toUri())
+                .header(HEADER_NAME, location.substring(0, location.lastIndexOf(API_URI)))
+                .accept(MediaType.APPLICATION_JSON)
+                .retrieve()
+                .bodyToMono(String.class)
+                .timeout(Duration.ofMillis(timeoutMillis));
+    }
+
+    private static final class Doc {
+
+        private final String body;
+
+        private final long expireAt;
+
+        private Doc(String body, long expireAt) {
+            this.body = body;
+            this.expireAt = expireAt;
+        }
     }
 }
@@ -0,0 +1,189 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2020 hdmcp.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package com.hdmcp.gateway.config;
+
+/**
+ * 大流量客户端检测配置，前缀samples.heavy-hitters，随Nacos配置变更生效
+ * <pre>
+ * samples:
+ *   heavy-hitters:
+ *     window-seconds: 60
+ *     ip:
+ *       threshold: 6000
+ *       action: throttle
+ *     user:
+ *       threshold: 3000
+ *       action: throttle
+ *       throttle-ratio: 0.2
+ * </pre>
+ * ip默认只统计不处理：网关在L7负载均衡或NAT之后时，同一出口IP上的所有用户会被一起处理
+ *
+ * @author WANGY
+ */
+public class HeavyHitterProperties {
+
+    public static final String PREFIX = "samples.heavy-hitters";
+
+    private boolean enabled = true;
+
+    /**
+     * 滑动窗口长度，分为slots段，每段结束时丢弃最早的一段
+     */
+    private int windowSeconds = 60;
+
+    private int slots = 6;
+
+    /**
+     * 每段窗口的Space-Saving计数器个数，请求数超过窗口总数/capacity的客户端一定能被找到
+     */
+    private int capacity = 512;
+
+    /**
+     * actuator端点展示的客户端个数
+     */
+    private int topK = 20;
+
+    /**
+     * 超过阈值后的处理时长，到期后重新按窗口计数判断
+     */
+    private int blockSeconds = 300;
+
+    private Dimension ip = new Dimension(0, "throttle");
+
+    private Dimension user = new Dimension(3000, "throttle");
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public int getWindowSeconds() {
+        return windowSeconds;
+    }
+
+    public void setWindowSeconds(int windowSeconds) {
+        this.windowSeconds = windowSeconds;
+    }
+
+    public int getSlots() {
+        return slots;
+    }
+
+    public void setSlots(int slots) {
+        this.slots = slots;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public void setCapacity(int capacity) {
+        this.capacity = capacity;
+    }
+
+    public int getTopK() {
+        return topK;
+    }
+
+    public void setTopK(int topK) {
+        this.topK = topK;
+    }
+
+    public int getBlockSeconds() {
+        return blockSeconds;
+    }
+
+    public void setBlockSeconds(int blockSeconds) {
+        this.blockSeconds = blockSeconds;
+    }
+
+    public Dimension getIp() {
+        return ip;
+    }
+
+    public void setIp(Dimension ip) {
+        this.ip = ip;
+    }
+
+    public Dimension getUser() {
+        return user;
+    }
+
+    public void setUser(Dimension user) {
+        this.user = user;
+    }
+
+    public static class Dimension {
+
+        /**
+         * 窗口内确定的请求数(Space-Saving下界)达到该值即处理，小于等于0时只统计不处理
+         */
+        private long threshold;
+
+        /**
+         * block：返回429；throttle：只放行throttleRatio比例的请求
+         */
+        private String action;
+
+        private double throttleRatio = 0.2D;
+
+        public Dimension() {
+        }
+
+        public Dimension(long threshold, String action) {
+            this.threshold = threshold;
+            this.action = action;
+        }
+
+        public long getThreshold() {
+            return threshold;
+        }
+
+        public void setThreshold(long threshold) {
+            this.threshold = threshold;
+        }
+
+        public String getAction() {
+            return action;
+        }
+
+        public void setAction(String action) {
+            this.action = action;
+        }
+
+        public double getThrottleRatio() {
+            return throttleRatio;
+        }
+
+        public void setThrottleRatio(double throttleRatio) {
+            this.throttleRatio = throttleRatio;
+        }
+    }
+}
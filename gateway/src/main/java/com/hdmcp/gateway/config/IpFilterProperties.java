@@ -0,0 +1,117 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2020 hdmcp.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package com.hdmcp.gateway.config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * IP黑白名单配置，前缀samples.ip-filter，随Nacos配置变更重新加载
+ * <pre>
+ * samples:
+ *   ip-filter:
+ *     deny:
+ *       - 203.0.113.0/24
+ *     allow:
+ *       - 198.51.100.0/24
+ *     file: /etc/gateway/ip-filter.txt
+ * </pre>
+ * file中每行一条"allow 网段"或"deny 网段"，#开头为注释，文件修改后在refreshMillis内生效。
+ * 按最长前缀匹配，如deny 10.0.0.0/8同时allow 10.1.0.0/16
+ *
+ * @author WANGY
+ */
+public class IpFilterProperties {
+
+    public static final String PREFIX = "samples.ip-filter";
+
+    private boolean enabled = true;
+
+    /**
+     * 没有匹配任何网段时的动作，allow或deny(只允许白名单)
+     */
+    private String defaultAction = "allow";
+
+    private List<String> allow = new ArrayList<>();
+
+    private List<String> deny = new ArrayList<>();
+
+    private String file;
+
+    /**
+     * 检查文件是否修改的间隔，只在启动时读取
+     */
+    private long refreshMillis = 5000;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public String getDefaultAction() {
+        return defaultAction;
+    }
+
+    public void setDefaultAction(String defaultAction) {
+        this.defaultAction = defaultAction;
+    }
+
+    public List<String> getAllow() {
+        return allow;
+    }
+
+    public void setAllow(List<String> allow) {
+        this.allow = allow;
+    }
+
+    public List<String> getDeny() {
+        return deny;
+    }
+
+    public void setDeny(List<String> deny) {
+        this.deny = deny;
+    }
+
+    public String getFile() {
+        return file;
+    }
+
+    public void setFile(String file) {
+        this.file = file;
+    }
+
+    public long getRefreshMillis() {
+        return refreshMillis;
+    }
+
+    public void setRefreshMillis(long refreshMillis) {
+        this.refreshMillis = refreshMillis;
+    }
+}
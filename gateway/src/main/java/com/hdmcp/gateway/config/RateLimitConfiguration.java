@@ -0,0 +1,54 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2020 hdmcp.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package com.hdmcp.gateway.config;
+
+import com.hdmcp.gateway.ratelimit.InMemoryTokenStore;
+import com.hdmcp.gateway.ratelimit.TokenStore;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 集群限流的TokenStore，单副本时默认使用进程内实现；
+ * 多副本部署必须声明一个共享存储(如Redis)的TokenStore，否则每个副本各自按limit放行，启动时直接失败
+ *
+ * @author WANGY
+ */
+@Configuration
+public class RateLimitConfiguration {
+
+    @Bean
+    @ConditionalOnMissingBean
+    public TokenStore tokenStore(@Value("${samples.ratelimit.cluster.replicas:1}") int replicas) {
+        if (replicas > 1) {
+            throw new IllegalStateException("samples.ratelimit.cluster.replicas=" + replicas
+                    + " requires a shared TokenStore bean, the in-memory store only limits a single instance");
+        }
+        return new InMemoryTokenStore();
+    }
+}
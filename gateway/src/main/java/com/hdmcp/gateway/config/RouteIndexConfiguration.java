@@ -0,0 +1,91 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2020 hdmcp.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package com.hdmcp.gateway.config;
+
+import com.hdmcp.gateway.handler.FusedFilteringWebHandler;
+import com.hdmcp.gateway.handler.IndexedRoutePredicateHandlerMapping;
+import com.hdmcp.gateway.route.RouteTable;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.cloud.gateway.config.GlobalCorsProperties;
+import org.springframework.cloud.gateway.filter.GlobalFilter;
+import org.springframework.cloud.gateway.handler.FilteringWebHandler;
+import org.springframework.cloud.gateway.handler.RoutePredicateHandlerMapping;
+import org.springframework.cloud.gateway.route.RouteLocator;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.ApplicationContextAware;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.stream.Collectors;
+
+/**
+ * GatewayAutoConfiguration中的RoutePredicateHandlerMapping、FilteringWebHandler没有ConditionalOnMissingBean，
+ * 这里在初始化后把它们替换为带前缀索引、按路由预编译过滤器链的实现
+ *
+ * @author WANGY
+ */
+@Configuration
+public class RouteIndexConfiguration {
+
+    @Bean
+    public static BeanPostProcessor gatewayHandlerPostProcessor() {
+        return new GatewayHandlerPostProcessor();
+    }
+
+    static class GatewayHandlerPostProcessor implements BeanPostProcessor, ApplicationContextAware {
+
+        private ApplicationContext applicationContext;
+
+        @Override
+        public Object postProcessAfterInitialization(Object bean, String beanName) throws BeansException {
+            if (bean.getClass() == FilteringWebHandler.class) {
+                return new FusedFilteringWebHandler(applicationContext.getBeanProvider(GlobalFilter.class)
+                        .orderedStream()
+                        .collect(Collectors.toList()));
+            }
+            if (bean.getClass() != RoutePredicateHandlerMapping.class) {
+                return bean;
+            }
+            IndexedRoutePredicateHandlerMapping mapping = new IndexedRoutePredicateHandlerMapping(
+                    applicationContext.getBean(FilteringWebHandler.class),
+                    applicationContext.getBean(RouteLocator.class),
+                    applicationContext.getBean(GlobalCorsProperties.class),
+                    applicationContext.getEnvironment(),
+                    applicationContext.getBean(RouteTable.class),
+                    applicationContext.getBean(MeterRegistry.class));
+            mapping.setApplicationContext(applicationContext);
+            return mapping;
+        }
+
+        @Override
+        public void setApplicationContext(ApplicationContext applicationContext) throws BeansException {
+            this.applicationContext = applicationContext;
+        }
+    }
+}
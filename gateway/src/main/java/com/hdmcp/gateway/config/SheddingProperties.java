@@ -0,0 +1,229 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2020 hdmcp.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package com.hdmcp.gateway.config;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 分级降载配置，前缀samples.shedding，由PriorityShedFilter在Nacos配置变更时重新绑定
+ * <pre>
+ * samples:
+ *   shedding:
+ *     enabled: true
+ *     max-concurrency: 256
+ *     rules:
+ *       - priority: critical
+ *         method: POST
+ *         path: /order/orders
+ *       - priority: low
+ *         header: x-priority=batch
+ *     tiers:
+ *       low: {queue-size: 64, target-millis: 5, max-wait-millis: 200}
+ * </pre>
+ * 没有配置rules时下单(POST /order/orders)为critical，其余为default-priority。
+ * method无法解析时整组规则不生效，沿用上一次的规则。
+ * 默认关闭，max-concurrency需要按网关实例的实际容量配置，未配置时不生效
+ *
+ * @author WANGY
+ */
+public class SheddingProperties {
+
+    public static final String PREFIX = "samples.shedding";
+
+    private boolean enabled;
+
+    /**
+     * 网关同时处理的请求数上限，超过后按优先级排队，小于等于0时不生效
+     */
+    private int maxConcurrency;
+
+    private String defaultPriority = "normal";
+
+    /**
+     * 按顺序匹配，第一个匹配的规则决定优先级
+     */
+    private List<Rule> rules = new ArrayList<>();
+
+    /**
+     * critical、high、normal、low -> 队列配置，未配置的使用默认值
+     */
+    private Map<String, Tier> tiers = new LinkedHashMap<>();
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    public void setMaxConcurrency(int maxConcurrency) {
+        this.maxConcurrency = maxConcurrency;
+    }
+
+    public String getDefaultPriority() {
+        return defaultPriority;
+    }
+
+    public void setDefaultPriority(String defaultPriority) {
+        this.defaultPriority = defaultPriority;
+    }
+
+    public List<Rule> getRules() {
+        return rules;
+    }
+
+    public void setRules(List<Rule> rules) {
+        this.rules = rules;
+    }
+
+    public Map<String, Tier> getTiers() {
+        return tiers;
+    }
+
+    public void setTiers(Map<String, Tier> tiers) {
+        this.tiers = tiers;
+    }
+
+    public static class Rule {
+
+        private String priority;
+
+        /**
+         * 路由id
+         */
+        private String route;
+
+        private String method;
+
+        /**
+         * 网关收到的原始路径，支持/order/**等模式
+         */
+        private String path;
+
+        /**
+         * name或name=value。降载在鉴权之前执行，只能匹配边缘代理设置或剥离的请求头，不能用客户端可自带的请求头提升优先级
+         */
+        private String header;
+
+        public String getPriority() {
+            return priority;
+        }
+
+        public void setPriority(String priority) {
+            this.priority = priority;
+        }
+
+        public String getRoute() {
+            return route;
+        }
+
+        public void setRoute(String route) {
+            this.route = route;
+        }
+
+        public String getMethod() {
+            return method;
+        }
+
+        public void setMethod(String method) {
+            this.method = method;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public void setPath(String path) {
+            this.path = path;
+        }
+
+        public String getHeader() {
+            return header;
+        }
+
+        public void setHeader(String header) {
+            this.header = header;
+        }
+    }
+
+    public static class Tier {
+
+        private Integer queueSize;
+
+        /**
+         * CoDel目标排队时间
+         */
+        private Long targetMillis;
+
+        private Long intervalMillis;
+
+        /**
+         * 最长排队时间，超过后返回503
+         */
+        private Long maxWaitMillis;
+
+        public Integer getQueueSize() {
+            return queueSize;
+        }
+
+        public void setQueueSize(Integer queueSize) {
+            this.queueSize = queueSize;
+        }
+
+        public Long getTargetMillis() {
+            return targetMillis;
+        }
+
+        public void setTargetMillis(Long targetMillis) {
+            this.targetMillis = targetMillis;
+        }
+
+        public Long getIntervalMillis() {
+            return intervalMillis;
+        }
+
+        public void setIntervalMillis(Long intervalMillis) {
+            this.intervalMillis = intervalMillis;
+        }
+
+        public Long getMaxWaitMillis() {
+            return maxWaitMillis;
+        }
+
+        public void setMaxWaitMillis(Long maxWaitMillis) {
+            this.maxWaitMillis = maxWaitMillis;
+        }
+    }
+}
@@ -27,6 +27,7 @@ package com.hdmcp.gateway.controller;
 
 import com.hdmcp.gateway.model.GatewayFilterDefinition;
 import com.hdmcp.gateway.model.GatewayPredicateDefinition;
+import com.hdmcp.gateway.model.GatewayRouteBatch;
 import com.hdmcp.gateway.model.GatewayRouteDefinition;
 import com.hdmcp.gateway.service.DynamicRouteServiceImpl;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -63,14 +64,14 @@ public class RouteController {
      * @return
      */
     @PostMapping("/add")
-    public String add(@RequestBody GatewayRouteDefinition gwdefinition) {
+    public Mono<ResponseEntity<String>> add(@RequestBody GatewayRouteDefinition gwdefinition) {
+        RouteDefinition definition;
         try {
-            RouteDefinition definition = assembleRouteDefinition(gwdefinition);
-            return this.dynamicRouteService.add(definition);
+            definition = assembleRouteDefinition(gwdefinition);
         } catch (Exception e) {
-            e.printStackTrace();
+            return Mono.just(ResponseEntity.badRequest().body("add fail, " + e.getMessage()));
         }
-        return "succss";
+        return this.dynamicRouteService.add(definition);
     }
 
     @GetMapping("/delete/{id}")
@@ -79,11 +80,38 @@ public class RouteController {
     }
 
     @PostMapping("/update")
-    public String update(@RequestBody GatewayRouteDefinition gwdefinition) {
-        RouteDefinition definition = assembleRouteDefinition(gwdefinition);
+    public Mono<ResponseEntity<String>> update(@RequestBody GatewayRouteDefinition gwdefinition) {
+        RouteDefinition definition;
+        try {
+            definition = assembleRouteDefinition(gwdefinition);
+        } catch (Exception e) {
+            return Mono.just(ResponseEntity.badRequest().body("update fail, " + e.getMessage()));
+        }
         return this.dynamicRouteService.update(definition);
     }
 
+    /**
+     * 批量增删改路由，整批原子生效
+     * @param batch
+     * @return
+     */
+    @PostMapping("/batch")
+    public Mono<ResponseEntity<String>> batch(@RequestBody GatewayRouteBatch batch) {
+        List<RouteDefinition> adds = new ArrayList<>();
+        List<RouteDefinition> updates = new ArrayList<>();
+        try {
+            for (GatewayRouteDefinition gwdefinition : batch.getAdd()) {
+                adds.add(assembleRouteDefinition(gwdefinition));
+            }
+            for (GatewayRouteDefinition gwdefinition : batch.getUpdate()) {
+                updates.add(assembleRouteDefinition(gwdefinition));
+            }
+        } catch (Exception e) {
+            return Mono.just(ResponseEntity.badRequest().body("batch fail, " + e.getMessage()));
+        }
+        return this.dynamicRouteService.batch(adds, updates, batch.getDelete());
+    }
+
     private RouteDefinition assembleRouteDefinition(GatewayRouteDefinition gwdefinition) {
 
         RouteDefinition definition = new RouteDefinition();
@@ -25,35 +25,46 @@
 
 package com.hdmcp.gateway.endpoints;
 
+import com.hdmcp.gateway.cache.VerifiedTokenCache;
+import com.hdmcp.gateway.filters.PriorityShedFilter;
+import com.hdmcp.gateway.metrics.RouteMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
 import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 @Endpoint(id = "gateways")
 public class GatewayEndpoint {
 
     @Value("${spring.application.name}")
     private String applicationName;
 
-    @ReadOperation
-    public ApplicationName gateways() {
-        return new ApplicationName(applicationName);
-    }
+    @Autowired(required = false)
+    private VerifiedTokenCache verifiedTokenCache;
 
-    public static final class ApplicationName {
-        private String name;
+    @Autowired(required = false)
+    private RouteMetrics routeMetrics;
 
-        public ApplicationName(String name) {
-            this.name = name;
-        }
+    @Autowired(required = false)
+    private PriorityShedFilter priorityShedFilter;
 
-        public String getName() {
-            return name;
+    @ReadOperation
+    public Map<String, Object> gateways() {
+        Map<String, Object> gateways = new LinkedHashMap<>();
+        gateways.put("name", applicationName);
+        if (verifiedTokenCache != null) {
+            gateways.put("tokenCache", verifiedTokenCache.stats());
         }
-
-        public void setName(String name) {
-            this.name = name;
+        if (routeMetrics != null) {
+            gateways.put("routes", routeMetrics.snapshot());
+        }
+        if (priorityShedFilter != null) {
+            gateways.put("shedding", priorityShedFilter.stats());
         }
+        return gateways;
     }
 
 }
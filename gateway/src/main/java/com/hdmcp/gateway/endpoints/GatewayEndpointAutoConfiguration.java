@@ -32,12 +32,19 @@ import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
 @Configuration
-@ConditionalOnEnabledEndpoint(endpoint = GatewayEndpoint.class)
 public class GatewayEndpointAutoConfiguration {
 
     @Bean
     @ConditionalOnMissingBean
+    @ConditionalOnEnabledEndpoint(endpoint = GatewayEndpoint.class)
     public GatewayEndpoint gatewayEndpoint(ConfigurableApplicationContext applicationContext) {
         return new GatewayEndpoint();
     }
+
+    @Bean
+    @ConditionalOnMissingBean
+    @ConditionalOnEnabledEndpoint(endpoint = HeavyHitterEndpoint.class)
+    public HeavyHitterEndpoint heavyHitterEndpoint() {
+        return new HeavyHitterEndpoint();
+    }
 }
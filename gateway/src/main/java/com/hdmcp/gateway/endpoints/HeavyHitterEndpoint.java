@@ -0,0 +1,63 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2020 hdmcp.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package com.hdmcp.gateway.endpoints;
+
+import com.hdmcp.gateway.filters.HeavyHitterFilter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.annotation.DeleteOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * 当前窗口内请求最多的客户端与被封禁、降配额的客户端，DELETE /actuator/heavyhitters/{key}手动解除
+ *
+ * @author WANGY
+ */
+@Endpoint(id = "heavyhitters")
+public class HeavyHitterEndpoint {
+
+    @Autowired(required = false)
+    private HeavyHitterFilter heavyHitterFilter;
+
+    @ReadOperation
+    public Map<String, Object> heavyHitters() {
+        if (heavyHitterFilter == null) {
+            return Collections.emptyMap();
+        }
+        return heavyHitterFilter.getDetector().snapshot();
+    }
+
+    @DeleteOperation
+    public Map<String, Object> unblock(@Selector String key) {
+        boolean removed = heavyHitterFilter != null && heavyHitterFilter.getDetector().unblock(key);
+        return Collections.singletonMap("removed", removed);
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2020 hdmcp.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package com.hdmcp.gateway.filters;
+
+import com.hdmcp.gateway.accesslog.AccessLogRecord;
+import com.hdmcp.gateway.accesslog.AccessLogRingBuffer;
+import com.hdmcp.gateway.accesslog.AccessLogWriter;
+import com.hdmcp.gateway.config.AccessLogProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.cloud.context.environment.EnvironmentChangeEvent;
+import org.springframework.cloud.gateway.filter.GatewayFilterChain;
+import org.springframework.cloud.gateway.filter.GlobalFilter;
+import org.springframework.cloud.gateway.route.Route;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.env.Environment;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+
+import javax.annotation.PreDestroy;
+import java.net.InetSocketAddress;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.GATEWAY_ROUTE_ATTR;
+
+/**
+ * 访问日志，记录路由、状态码、耗时、字节数与用户id，响应字节数取自RouteMetricsFilter的计数
+ * <p>
+ * 请求结束时按路由采样率决定是否记录，记录放入无锁环形队列后立即返回，由{@link AccessLogWriter}在后台线程写文件，
+ * Netty事件循环线程上没有格式化和IO。队列满时丢弃记录并计入gateway.accesslog.records{result=dropped}
+ *
+ * @author WANGY
+ */
+@Component
+public class AccessLogFilter implements GlobalFilter, Ordered {
+
+    private static final Logger log = LoggerFactory.getLogger(AccessLogFilter.class);
+
+    private static final int ACCESS_LOG_FILTER_ORDER = HIGHEST_PRECEDENCE + 1;
+
+    private final Environment environment;
+
+    private final AccessLogRingBuffer<AccessLogRecord> buffer;
+
+    private final AccessLogWriter writer;
+
+    private final Counter dropped;
+
+    private final Counter sampledOut;
+
+    private volatile Sampling sampling;
+
+    /**
+     * 启动时的配置，文件路径、队列容量与滚动策略只在启动时读取
+     */
+    private final AccessLogProperties startup;
+
+    public AccessLogFilter(Environment environment, MeterRegistry meterRegistry) {
+        this.environment = environment;
+        AccessLogProperties properties = bind();
+        this.startup = properties;
+        this.buffer = new AccessLogRingBuffer<>(properties.getBufferSize());
+        this.writer = new AccessLogWriter(buffer, Paths.get(properties.getPath()), properties.getMaxFileSize(),
+                properties.getMaxHistory(), properties.getFlushMillis());
+        this.dropped = meterRegistry.counter("gateway.accesslog.records", "result", "dropped");
+        this.sampledOut = meterRegistry.counter("gateway.accesslog.records", "result", "sampled_out");
+        FunctionCounter.builder("gateway.accesslog.records", writer, AccessLogWriter::getWritten)
+                .tag("result", "written")
+                .register(meterRegistry);
+        Gauge.builder("gateway.accesslog.backlog", buffer, AccessLogRingBuffer::size)
+                .register(meterRegistry);
+        if (properties.isEnabled()) {
+            writer.start();
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        writer.close();
+    }
+
+    @EventListener
+    public void onEnvironmentChange(EnvironmentChangeEvent event) {
+        for (String key : event.getKeys()) {
+            if (key.startsWith(AccessLogProperties.PREFIX)) {
+                bind();
+                return;
+            }
+        }
+    }
+
+    private AccessLogProperties bind() {
+        AccessLogProperties properties = Binder.get(environment)
+                .bind(AccessLogProperties.PREFIX, Bindable.of(AccessLogProperties.class))
+                .orElseGet(AccessLogProperties::new);
+        // 写入线程只在启动时创建，启动时关闭的访问日志不能通过配置变更打开
+        boolean enabled = properties.isEnabled() && (startup == null || startup.isEnabled());
+        if (startup != null) {
+            warnRestartRequired(properties);
+        }
+        this.sampling = new Sampling(enabled, properties);
+        return properties;
+    }
+
+    private void warnRestartRequired(AccessLogProperties properties) {
+        if (properties.isEnabled() && !startup.isEnabled()) {
+            log.warn("{}.enabled changed to true, restart the gateway to start writing access logs",
+                    AccessLogProperties.PREFIX);
+        }
+        if (!Objects.equals(properties.getPath(), startup.getPath())
+                || properties.getBufferSize() != startup.getBufferSize()
+                || properties.getMaxFileSize() != startup.getMaxFileSize()
+                || properties.getMaxHistory() != startup.getMaxHistory()
+                || properties.getFlushMillis() != startup.getFlushMillis()) {
+            log.warn("{} path, buffer-size, max-file-size, max-history and flush-millis only take effect after restart,"
+                    + " still writing {} with buffer-size={}, max-file-size={}", AccessLogProperties.PREFIX,
+                    startup.getPath(), startup.getBufferSize(), startup.getMaxFileSize());
+        }
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, GatewayFilterChain chain) {
+        Sampling sampling = this.sampling;
+        Route route = exchange.getAttribute(GATEWAY_ROUTE_ATTR);
+        if (!sampling.enabled || route == null || WarmupFilter.isWarmup(exchange)) {
+            return chain.filter(exchange);
+        }
+        long timestamp = System.currentTimeMillis();
+        long start = System.nanoTime();
+        ServerHttpResponse response = exchange.getResponse();
+        return chain.filter(exchange)
+                .doFinally(signal -> {
+                    HttpStatus status = response.getStatusCode();
+                    int code = signal == SignalType.ON_ERROR ? 0 : status == null ? HttpStatus.OK.value() : status.value();
+                    if (!sampling.sample(route.getId(), code)) {
+                        sampledOut.increment();
+                        return;
+                    }
+                    ServerHttpRequest request = exchange.getRequest();
+                    InetSocketAddress remote = request.getRemoteAddress();
+                    AccessLogRecord record = new AccessLogRecord(timestamp, route.getId(),
+                            request.getMethodValue(), request.getURI().getRawPath(), code,
+                            TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start),
+                            Math.max(0, request.getHeaders().getContentLength()), CountingResponse.bytesWritten(exchange),
+                            exchange.getAttribute(AuthFilter.USER_ID_ATTR),
+                            remote == null || remote.getAddress() == null ? null : remote.getAddress().getHostAddress());
+                    if (!buffer.offer(record)) {
+                        dropped.increment();
+                    }
+                });
+    }
+
+    @Override
+    public int getOrder() {
+        return ACCESS_LOG_FILTER_ORDER;
+    }
+
+    private static final class Sampling {
+
+        private final boolean enabled;
+
+        private final double sampleRate;
+
+        private final Map<String, Double> routes;
+
+        private final boolean alwaysLogErrors;
+
+        private Sampling(boolean enabled, AccessLogProperties properties) {
+            this.enabled = enabled;
+            this.sampleRate = properties.getSampleRate();
+            this.routes = new HashMap<>(properties.getRoutes());
+            this.alwaysLogErrors = properties.isAlwaysLogErrors();
+        }
+
+        private boolean sample(String routeId, int status) {
+            if (alwaysLogErrors && (status == 0 || status >= 500)) {
+                return true;
+            }
+            Double routeRate = routes.get(routeId);
+            double rate = routeRate == null ? sampleRate : routeRate;
+            return rate >= 1.0D || rate > 0 && ThreadLocalRandom.current().nextDouble() < rate;
+        }
+    }
+}
@@ -0,0 +1,376 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2020 hdmcp.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package com.hdmcp.gateway.filters;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.hdmcp.gateway.config.AggregationProperties;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.netty.handler.codec.http.DefaultHttpHeaders;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.loadbalancer.LoadBalancerClient;
+import org.springframework.cloud.context.environment.EnvironmentChangeEvent;
+import org.springframework.cloud.gateway.filter.GatewayFilter;
+import org.springframework.cloud.gateway.filter.OrderedGatewayFilter;
+import org.springframework.cloud.gateway.filter.factory.AbstractGatewayFilterFactory;
+import org.springframework.cloud.gateway.filter.headers.HttpHeadersFilter;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.env.Environment;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.util.UriComponentsBuilder;
+import org.springframework.web.util.UriUtils;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import reactor.netty.http.client.HttpClient;
+
+import java.io.ByteArrayOutputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.GATEWAY_REQUEST_URL_ATTR;
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.URI_TEMPLATE_VARIABLES_ATTRIBUTE;
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.isAlreadyRouted;
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.setAlreadyRouted;
+
+/**
+ * BFF聚合接口，把一个请求拆成多个并发的GET子请求，合并各自的JSON响应后一次返回
+ * <p>
+ * 子请求在samples.aggregation.{name}中声明，各自有超时时间；非必需的子请求失败时对应字段为null，
+ * 失败原因放在_errors中，并返回X-Partial-Result: true。子请求带上鉴权后的请求头，在AuthFilter之后执行。
+ * lb://子请求的实例在elastic线程上选择，Ribbon第一次为某个服务创建子上下文时不会阻塞事件循环。
+ * 路由的uri使用bff://{name}，不会被其他路由过滤器转发；请求地址被改写为其他scheme或已经转发时直接跳过
+ * <p>
+ * 用法: - id: order_screen
+ * uri: bff://order-screen
+ * predicates:
+ * - Path=/bff/orders/{id}
+ * filters:
+ * - AggregateFilter=order-screen
+ *
+ * @author WANGY
+ */
+@Component
+public class AggregateFilter extends AbstractGatewayFilterFactory<AggregateFilter.Config> {
+
+    private static final Logger log = LoggerFactory.getLogger(AggregateFilter.class);
+
+    public static final String PARTIAL_HEADER = "X-Partial-Result";
+
+    private static final String ERRORS_FIELD = "_errors";
+
+    private static final String LB_SCHEME = "lb";
+
+    private static final Pattern VARIABLE = Pattern.compile("\\{([^}]+)}");
+
+    private static final String BFF_SCHEME = "bff";
+
+    private final HttpClient httpClient;
+
+    private final ObjectProvider<List<HttpHeadersFilter>> headersFilters;
+
+    private final LoadBalancerClient loadBalancer;
+
+    private final Environment environment;
+
+    private final MeterRegistry meterRegistry;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    /**
+     * 聚合名称 -> 配置，配置变更时清空
+     */
+    private final Map<String, Optional<AggregationProperties>> aggregations = new ConcurrentHashMap<>();
+
+    /**
+     * 聚合名称、子请求、结果 -> 子请求耗时
+     */
+    private final Map<List<String>, Timer> latency = new ConcurrentHashMap<>();
+
+    public AggregateFilter(HttpClient httpClient, ObjectProvider<List<HttpHeadersFilter>> headersFilters,
+                           LoadBalancerClient loadBalancer, Environment environment, MeterRegistry meterRegistry) {
+        super(Config.class);
+        this.httpClient = httpClient;
+        this.headersFilters = headersFilters;
+        this.loadBalancer = loadBalancer;
+        this.environment = environment;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @EventListener
+    public void onEnvironmentChange(EnvironmentChangeEvent event) {
+        for (String key : event.getKeys()) {
+            if (key.startsWith(AggregationProperties.PREFIX)) {
+                aggregations.clear();
+                return;
+            }
+        }
+    }
+
+    private AggregationProperties bind(String name) {
+        return aggregations.computeIfAbsent(name, key -> Optional.ofNullable(Binder.get(environment)
+                .bind(AggregationProperties.PREFIX + "." + key, Bindable.of(AggregationProperties.class))
+                .orElse(null)))
+                .orElse(null);
+    }
+
+    @Override
+    public List<String> shortcutFieldOrder() {
+        return Collections.singletonList("name");
+    }
+
+    @Override
+    public GatewayFilter apply(Config config) {
+        // 在AuthFilter之后执行；与NettyRoutingFilter同为最低优先级，同顺序时全局过滤器在前
+        return new OrderedGatewayFilter((exchange, chain) -> {
+            // 预热等过滤器改写了请求地址并已转发时不再聚合
+            URI requestUrl = exchange.getAttribute(GATEWAY_REQUEST_URL_ATTR);
+            if (isAlreadyRouted(exchange) || requestUrl == null || !BFF_SCHEME.equalsIgnoreCase(requestUrl.getScheme())) {
+                return chain.filter(exchange);
+            }
+            String name = StringUtils.hasText(config.getName()) ? config.getName() : requestUrl.getHost();
+            AggregationProperties aggregation = name == null ? null : bind(name);
+            if (aggregation == null || aggregation.getParts().isEmpty()) {
+                log.warn("aggregation {} has no parts", name);
+                exchange.getResponse().setStatusCode(HttpStatus.NOT_FOUND);
+                return exchange.getResponse().setComplete();
+            }
+            setAlreadyRouted(exchange);
+            return aggregate(exchange, name, aggregation).then(chain.filter(exchange));
+        }, Ordered.LOWEST_PRECEDENCE);
+    }
+
+    private Mono<Void> aggregate(ServerWebExchange exchange, String name, AggregationProperties aggregation) {
+        Map<String, String> variables = exchange.getAttributeOrDefault(URI_TEMPLATE_VARIABLES_ATTRIBUTE,
+                Collections.emptyMap());
+        DefaultHttpHeaders headers = new DefaultHttpHeaders();
+        HttpHeadersFilter.filterRequest(headersFilters.getIfAvailable(), exchange).forEach(headers::set);
+        headers.remove(HttpHeaders.HOST);
+        headers.remove(HttpHeaders.CONTENT_LENGTH);
+        headers.remove(HttpHeaders.TRANSFER_ENCODING);
+        headers.set(HttpHeaders.ACCEPT, MediaType.APPLICATION_JSON_VALUE);
+        List<Mono<PartResult>> parts = new ArrayList<>(aggregation.getParts().size());
+        aggregation.getParts().forEach((field, part) -> parts.add(fetch(name, field, part, variables, headers)));
+        // 各子请求同时发出，按配置顺序合并
+        return Flux.mergeSequential(parts)
+                .collectList()
+                .flatMap(results -> write(exchange.getResponse(), results));
+    }
+
+    private Mono<PartResult> fetch(String name, String field, AggregationProperties.Part part,
+                                   Map<String, String> variables, DefaultHttpHeaders headers) {
+        long start = System.nanoTime();
+        return Mono.fromCallable(() -> resolve(expand(part.getUri(), variables)))
+                .subscribeOn(Schedulers.elastic())
+                .flatMap(url -> httpClient.headers(h -> h.add(headers))
+                        .get()
+                        .uri(url.toASCIIString())
+                        .response((res, body) -> body.asByteArray()
+                                // 边读边检查大小，超过上限时取消子请求，不缓存整个响应
+                                .reduceWith(ByteArrayOutputStream::new, (out, chunk) -> {
+                                    if (out.size() + chunk.length > part.getMaxBytes()) {
+                                        throw new IllegalStateException("response larger than "
+                                                + part.getMaxBytes() + " bytes");
+                                    }
+                                    out.write(chunk, 0, chunk.length);
+                                    return out;
+                                })
+                                .map(out -> new PartResult(field, part, res.status().code(), out.toByteArray(), null)))
+                        .next())
+                .timeout(Duration.ofMillis(part.getTimeoutMillis()))
+                .onErrorResume(e -> Mono.just(new PartResult(field, part, 0, null,
+                        e instanceof TimeoutException ? "timeout after " + part.getTimeoutMillis() + "ms"
+                                : e instanceof IllegalStateException ? e.getMessage() : e.toString())))
+                .doOnNext(result -> timer(name, field, result.outcome())
+                        .record(System.nanoTime() - start, TimeUnit.NANOSECONDS));
+    }
+
+    private Timer timer(String name, String field, String outcome) {
+        List<String> key = Arrays.asList(name, field, outcome);
+        Timer timer = latency.get(key);
+        if (timer == null) {
+            timer = latency.computeIfAbsent(key, k -> Timer.builder("gateway.aggregation.part.latency")
+                    .tags("aggregation", name, "part", field, "result", outcome)
+                    .register(meterRegistry));
+        }
+        return timer;
+    }
+
+    private Mono<Void> write(ServerHttpResponse response, List<PartResult> results) {
+        ObjectNode body = objectMapper.createObjectNode();
+        ObjectNode errors = objectMapper.createObjectNode();
+        boolean requiredFailed = false;
+        for (PartResult result : results) {
+            if (result.isSuccess()) {
+                body.set(result.field, parse(result.body));
+                continue;
+            }
+            body.putNull(result.field);
+            ObjectNode error = errors.putObject(result.field);
+            if (result.status > 0) {
+                error.put("status", result.status);
+            }
+            if (result.error != null) {
+                error.put("message", result.error);
+            }
+            requiredFailed |= result.part.isRequired();
+        }
+        if (errors.size() > 0) {
+            body.set(ERRORS_FIELD, errors);
+            response.getHeaders().set(PARTIAL_HEADER, "true");
+        }
+        response.setStatusCode(requiredFailed ? HttpStatus.BAD_GATEWAY : HttpStatus.OK);
+        response.getHeaders().setContentType(MediaType.APPLICATION_JSON_UTF8);
+        byte[] bytes;
+        try {
+            bytes = objectMapper.writeValueAsBytes(body);
+        } catch (Exception e) {
+            return Mono.error(e);
+        }
+        return response.writeWith(Mono.just(response.bufferFactory().wrap(bytes)));
+    }
+
+    /**
+     * 非JSON响应作为字符串返回
+     */
+    private JsonNode parse(byte[] body) {
+        if (body.length == 0) {
+            return objectMapper.getNodeFactory().nullNode();
+        }
+        try {
+            return objectMapper.readTree(body);
+        } catch (Exception e) {
+            return objectMapper.getNodeFactory().textNode(new String(body, StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * 把{变量}替换为路由Path断言中的同名变量，值按路径段编码
+     */
+    static String expand(String template, Map<String, String> variables) {
+        Matcher matcher = VARIABLE.matcher(template);
+        StringBuffer expanded = new StringBuffer();
+        while (matcher.find()) {
+            String value = variables.get(matcher.group(1));
+            if (value == null) {
+                throw new IllegalArgumentException("Missing variable " + matcher.group(1) + " for " + template);
+            }
+            matcher.appendReplacement(expanded, Matcher.quoteReplacement(
+                    UriUtils.encodePathSegment(value, StandardCharsets.UTF_8)));
+        }
+        matcher.appendTail(expanded);
+        return expanded.toString();
+    }
+
+    private URI resolve(String uri) {
+        URI url = URI.create(uri);
+        if (!LB_SCHEME.equalsIgnoreCase(url.getScheme())) {
+            return url;
+        }
+        ServiceInstance instance = loadBalancer.choose(url.getHost());
+        if (instance == null) {
+            throw new IllegalStateException("No instance available for " + url.getHost());
+        }
+        return UriComponentsBuilder.fromUri(url)
+                .scheme(instance.isSecure() ? "https" : "http")
+                .host(instance.getHost())
+                .port(instance.getPort())
+                .build(true)
+                .toUri();
+    }
+
+    private static final class PartResult {
+
+        private final String field;
+
+        private final AggregationProperties.Part part;
+
+        private final int status;
+
+        private final byte[] body;
+
+        private final String error;
+
+        private PartResult(String field, AggregationProperties.Part part, int status, byte[] body, String error) {
+            this.field = field;
+            this.part = part;
+            this.status = status;
+            this.body = body;
+            this.error = error;
+        }
+
+        private boolean isSuccess() {
+            return error == null && status >= 200 && status < 300;
+        }
+
+        private String outcome() {
+            return isSuccess() ? "ok" : status > 0 ? (status / 100) + "xx" : "error";
+        }
+    }
+
+    public static class Config {
+
+        /**
+         * 聚合配置的名称，为空时取路由uri的host
+         */
+        private String name;
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+    }
+}
@@ -28,12 +28,16 @@ package com.hdmcp.gateway.filters;
 import com.hdmcp.core.enums.ResultEnum;
 import com.hdmcp.core.exception.HdmcpException;
 import com.hdmcp.core.utils.JwtUtil;
+import com.hdmcp.gateway.cache.VerifiedTokenCache;
+import com.hdmcp.gateway.handler.RequestMutation;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.cloud.gateway.filter.GatewayFilterChain;
 import org.springframework.cloud.gateway.filter.GlobalFilter;
+import org.springframework.cloud.gateway.filter.LoadBalancerClientFilter;
 import org.springframework.cloud.gateway.route.Route;
 import org.springframework.cloud.gateway.support.ServerWebExchangeUtils;
+import org.springframework.core.Ordered;
 import org.springframework.http.HttpHeaders;
-import org.springframework.http.server.reactive.ServerHttpRequest;
 import org.springframework.stereotype.Component;
 import org.springframework.web.server.ServerWebExchange;
 import reactor.core.publisher.Mono;
@@ -42,28 +46,53 @@ import java.net.URI;
 import java.util.Map;
 
 /**
+ * 在LoadBalancerClientFilter之后、HedgingFilter和NettyRoutingFilter转发之前鉴权；
+ * SwaggerDocCacheFilter、ResponseCacheHitFilter、CoalescingJoinFilter依次排在鉴权之后，
+ * 命中缓存或合并的请求同样需要通过鉴权
+ *
  * @author WANGY
  */
 @Component
-public class AuthFilter implements GlobalFilter {
+public class AuthFilter implements GlobalFilter, Ordered {
+
+    public static final int AUTH_FILTER_ORDER = LoadBalancerClientFilter.LOAD_BALANCER_CLIENT_FILTER_ORDER + 10;
+
+    /**
+     * 鉴权通过后的用户id、用户名，供访问日志、流量镜像等在请求结束时读取
+     */
+    public static final String USER_ID_ATTR = AuthFilter.class.getName() + ".userId";
+
+    public static final String USER_NAME_ATTR = AuthFilter.class.getName() + ".userName";
+
+    @Autowired
+    private VerifiedTokenCache verifiedTokenCache;
 
     @Override
     public Mono<Void> filter(ServerWebExchange exchange, GatewayFilterChain chain) {
         Route gatewayUrl = exchange.getRequiredAttribute(ServerWebExchangeUtils.GATEWAY_ROUTE_ATTR);
         URI uri = gatewayUrl.getUri();
-        ServerHttpRequest request = (ServerHttpRequest)exchange.getRequest();
-        HttpHeaders header = request.getHeaders();
+        HttpHeaders header = exchange.getRequest().getHeaders();
         String token = header.getFirst(JwtUtil.HEADER_AUTH);
-        Map<String,String> userMap = JwtUtil.validateToken(token);
-        ServerHttpRequest.Builder mutate = request.mutate();
-        if(userMap.get("user").equals("admin") || userMap.get("user").equals("spring") || userMap.get("user").equals("cloud")) {
-            mutate.header("x-user-id", userMap.get("id"));
-            mutate.header("x-user-name", userMap.get("user"));
+        Map<String,String> userMap = verifiedTokenCache.validateToken(token);
+        RequestMutation mutate = RequestMutation.of(exchange);
+        String user = userMap.get(JwtUtil.TOKEN_F_USERNAME);
+        if("admin".equals(user) || "spring".equals(user) || "cloud".equals(user)) {
+            String userId = userMap.get(JwtUtil.TOKEN_F_ID);
+            mutate.header("x-user-id", userId);
+            if (userId != null) {
+                exchange.getAttributes().put(USER_ID_ATTR, userId);
+            }
+            mutate.header("x-user-name", user);
+            exchange.getAttributes().put(USER_NAME_ATTR, user);
             mutate.header("x-user-serviceName", uri.getHost());
         } else {
             throw new HdmcpException(ResultEnum.USER_NOT_EXIST);
         }
-        ServerHttpRequest buildReuqest =  mutate.build();
-        return chain.filter(exchange.mutate().request(buildReuqest).build());
+        return chain.filter(mutate.apply());
+    }
+
+    @Override
+    public int getOrder() {
+        return AUTH_FILTER_ORDER;
     }
 }
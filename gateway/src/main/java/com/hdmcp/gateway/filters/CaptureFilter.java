@@ -0,0 +1,268 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2020 hdmcp.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package com.hdmcp.gateway.filters;
+
+import com.hdmcp.gateway.capture.CaptureRecord;
+import com.hdmcp.gateway.capture.CaptureSession;
+import com.hdmcp.gateway.config.CaptureProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.cloud.context.environment.EnvironmentChangeEvent;
+import org.springframework.cloud.gateway.filter.GatewayFilterChain;
+import org.springframework.cloud.gateway.filter.GlobalFilter;
+import org.springframework.cloud.gateway.route.Route;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.env.Environment;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpRequestDecorator;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.GATEWAY_ROUTE_ATTR;
+
+/**
+ * 抓包，把请求行、请求头、请求体以及网关的状态码和耗时写入二进制抓包文件，供{@link com.hdmcp.gateway.capture.ReplayRunner}回放压测
+ * <p>
+ * 默认关闭，通过Nacos配置samples.capture.enabled开启、关闭，不需要重启网关。redactHeaders中的请求头(默认Authorization)不保存取值。
+ * 请求体在转发时边读边复制，不额外缓存整个请求；记录在请求结束时编码后放入无锁队列，由后台线程写入内存映射文件
+ *
+ * @author WANGY
+ */
+@Component
+public class CaptureFilter implements GlobalFilter, Ordered {
+
+    private static final Logger log = LoggerFactory.getLogger(CaptureFilter.class);
+
+    private static final int CAPTURE_FILTER_ORDER = HIGHEST_PRECEDENCE + 5;
+
+    private final Environment environment;
+
+    private final Counter captured;
+
+    private final Counter dropped;
+
+    private final Counter truncated;
+
+    private volatile Capture capture = new Capture(new CaptureProperties(), null);
+
+    public CaptureFilter(Environment environment, MeterRegistry meterRegistry) {
+        this.environment = environment;
+        this.captured = meterRegistry.counter("gateway.capture.records", "result", "captured");
+        this.dropped = meterRegistry.counter("gateway.capture.records", "result", "dropped");
+        this.truncated = meterRegistry.counter("gateway.capture.records", "result", "truncated");
+        bind();
+    }
+
+    @EventListener
+    public void onEnvironmentChange(EnvironmentChangeEvent event) {
+        for (String key : event.getKeys()) {
+            if (key.startsWith(CaptureProperties.PREFIX)) {
+                bind();
+                return;
+            }
+        }
+    }
+
+    @PreDestroy
+    public synchronized void stop() {
+        CaptureSession session = capture.session;
+        capture = new Capture(capture.properties, null);
+        if (session != null) {
+            session.close();
+        }
+    }
+
+    private synchronized void bind() {
+        CaptureProperties properties = Binder.get(environment)
+                .bind(CaptureProperties.PREFIX, Bindable.of(CaptureProperties.class))
+                .orElseGet(CaptureProperties::new);
+        CaptureSession session = capture.session;
+        if (properties.isEnabled() && session == null) {
+            Path path = Paths.get(properties.getDirectory(),
+                    "capture-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()) + ".hdcap");
+            try {
+                session = new CaptureSession(path, properties.getMaxFileSize(), properties.getBufferSize());
+                log.info("capture started: {}", path);
+            } catch (IOException e) {
+                log.warn("start capture {} failed", path, e);
+            }
+        } else if (!properties.isEnabled() && session != null) {
+            session.close();
+            log.info("capture stopped: {}, {} requests written, {} dropped", session.getPath(),
+                    session.getWritten(), session.getDropped());
+            session = null;
+        }
+        this.capture = new Capture(properties, session);
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, GatewayFilterChain chain) {
+        Capture capture = this.capture;
+        Route route = exchange.getAttribute(GATEWAY_ROUTE_ATTR);
+        if (capture.session == null || route == null || !capture.matches(route.getId())
+                || WarmupFilter.isWarmup(exchange)) {
+            return chain.filter(exchange);
+        }
+        ServerHttpRequest request = exchange.getRequest();
+        long epochMillis = System.currentTimeMillis();
+        long start = System.nanoTime();
+        HttpHeaders headers = capture.redact(request.getHeaders());
+        BodyCopy body = new BodyCopy(capture.properties.getMaxBodyBytes());
+        ServerHttpRequest copying = new ServerHttpRequestDecorator(request) {
+            @Override
+            public Flux<DataBuffer> getBody() {
+                return super.getBody().doOnNext(body::append);
+            }
+        };
+        return chain.filter(exchange.mutate().request(copying).build())
+                .doFinally(signal -> {
+                    HttpStatus status = exchange.getResponse().getStatusCode();
+                    int code = signal == SignalType.ON_ERROR ? 0 : status == null ? HttpStatus.OK.value() : status.value();
+                    CaptureRecord record = new CaptureRecord(epochMillis, capture.session.offsetNanos(start),
+                            route.getId(), request.getMethodValue(), request.getURI().getRawPath()
+                            + (request.getURI().getRawQuery() == null ? "" : "?" + request.getURI().getRawQuery()),
+                            headers, body.toByteArray(), body.truncated, code,
+                            TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+                    if (body.truncated) {
+                        truncated.increment();
+                    }
+                    if (capture.session.offer(record)) {
+                        captured.increment();
+                    } else {
+                        dropped.increment();
+                    }
+                });
+    }
+
+    @Override
+    public int getOrder() {
+        return CAPTURE_FILTER_ORDER;
+    }
+
+    private static final class Capture {
+
+        private final CaptureProperties properties;
+
+        private final CaptureSession session;
+
+        private final Set<String> routes;
+
+        private final Set<String> redactHeaders = new HashSet<>();
+
+        private Capture(CaptureProperties properties, CaptureSession session) {
+            this.properties = properties;
+            this.session = session;
+            this.routes = new HashSet<>(properties.getRoutes());
+            for (String header : properties.getRedactHeaders()) {
+                redactHeaders.add(header.toLowerCase());
+            }
+        }
+
+        private boolean matches(String routeId) {
+            return (routes.isEmpty() || routes.contains(routeId))
+                    && ThreadLocalRandom.current().nextDouble() < properties.getSampleRate();
+        }
+
+        private HttpHeaders redact(HttpHeaders source) {
+            HttpHeaders headers = new HttpHeaders();
+            for (Map.Entry<String, List<String>> header : source.entrySet()) {
+                if (redactHeaders.contains(header.getKey().toLowerCase())) {
+                    headers.add(header.getKey(), CaptureRecord.REDACTED);
+                } else {
+                    headers.put(header.getKey(), header.getValue());
+                }
+            }
+            return headers;
+        }
+    }
+
+    /**
+     * 转发时复制的请求体，最多保存limit字节
+     */
+    private static final class BodyCopy {
+
+        private final int limit;
+
+        private byte[] bytes = new byte[0];
+
+        private int size;
+
+        private boolean truncated;
+
+        private BodyCopy(int limit) {
+            this.limit = limit;
+        }
+
+        private synchronized void append(DataBuffer buffer) {
+            ByteBuffer readable = buffer.asByteBuffer();
+            int length = Math.min(readable.remaining(), limit - size);
+            if (length < readable.remaining()) {
+                truncated = true;
+            }
+            if (length <= 0) {
+                return;
+            }
+            if (bytes.length < size + length) {
+                byte[] grown = new byte[Math.min(limit, Math.max(size + length, bytes.length * 2))];
+                System.arraycopy(bytes, 0, grown, 0, size);
+                bytes = grown;
+            }
+            readable.get(bytes, size, length);
+            size += length;
+        }
+
+        private synchronized byte[] toByteArray() {
+            return size == bytes.length ? bytes : Arrays.copyOf(bytes, size);
+        }
+    }
+}
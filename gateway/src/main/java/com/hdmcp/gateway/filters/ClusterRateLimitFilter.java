@@ -0,0 +1,105 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2020 hdmcp.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package com.hdmcp.gateway.filters;
+
+import com.hdmcp.gateway.ratelimit.TokenLeaser;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.cloud.gateway.filter.GatewayFilter;
+import org.springframework.cloud.gateway.filter.GatewayFilterChain;
+import org.springframework.core.Ordered;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Mono;
+
+/**
+ * 集群限流，所有网关副本共享同一个令牌桶
+ * <p>
+ * Token通过{@link TokenLeaser}从TokenStore批量租用，大部分请求只在本地扣减；
+ * TokenStore不可用时放行请求
+ *
+ * @author WANGY
+ */
+public class ClusterRateLimitFilter implements GatewayFilter, Ordered {
+
+    private final Logger logger = LoggerFactory.getLogger(ClusterRateLimitFilter.class);
+
+    private final TokenLeaser tokenLeaser;
+
+    private final Counter allowed;
+    private final Counter rejected;
+    private final Counter storeErrors;
+
+    public ClusterRateLimitFilter(TokenLeaser tokenLeaser, String name, MeterRegistry meterRegistry) {
+        this.tokenLeaser = tokenLeaser;
+        this.allowed = meterRegistry.counter("gateway.ratelimit.cluster.requests", "limiter", name, "result", "allowed");
+        this.rejected = meterRegistry.counter("gateway.ratelimit.cluster.requests", "limiter", name, "result", "rejected");
+        this.storeErrors = meterRegistry.counter("gateway.ratelimit.cluster.store.errors", "limiter", name);
+        FunctionCounter.builder("gateway.ratelimit.cluster.store.calls", tokenLeaser, TokenLeaser::getStoreCalls)
+                .tag("limiter", name)
+                .register(meterRegistry);
+        FunctionCounter.builder("gateway.ratelimit.cluster.local.hits", tokenLeaser, TokenLeaser::getLocalHits)
+                .tag("limiter", name)
+                .register(meterRegistry);
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, GatewayFilterChain chain) {
+        String key = tokenLeaser.getQuota().resolveKey(exchange);
+        if (tokenLeaser.tryConsumeLocal(key)) {
+            allowed.increment();
+            return chain.filter(exchange);
+        }
+        return tokenLeaser.tryConsume(key)
+                .onErrorResume(e -> {
+                    logger.debug("TokenStore不可用, key:{}", key, e);
+                    storeErrors.increment();
+                    return Mono.just(Boolean.TRUE);
+                })
+                .flatMap(consumed -> {
+                    if (consumed) {
+                        allowed.increment();
+                        return chain.filter(exchange);
+                    }
+                    rejected.increment();
+                    exchange.getResponse().setStatusCode(HttpStatus.TOO_MANY_REQUESTS);
+                    return exchange.getResponse().setComplete();
+                });
+    }
+
+    @Override
+    public int getOrder() {
+        return -1000;
+    }
+
+    public TokenLeaser getTokenLeaser() {
+        return tokenLeaser;
+    }
+}
@@ -0,0 +1,260 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2020 hdmcp.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package com.hdmcp.gateway.filters;
+
+import org.reactivestreams.Publisher;
+import org.springframework.cloud.gateway.filter.GatewayFilter;
+import org.springframework.cloud.gateway.filter.NettyWriteResponseFilter;
+import org.springframework.cloud.gateway.filter.OrderedGatewayFilter;
+import org.springframework.cloud.gateway.filter.factory.AbstractGatewayFilterFactory;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.http.server.reactive.ServerHttpResponseDecorator;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoProcessor;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 合并并发的相同GET请求：同一时刻只有一个请求(leader)转发到服务，其余请求等待并共享它的响应
+ * <p>
+ * 相同请求由路由、方法、路径、查询参数、配置的请求头及用户确定。等待和合并由{@link CoalescingJoinFilter}在鉴权之后处理，
+ * 这里只负责在leader的响应写出时保存响应；只共享2xx响应，响应带Set-Cookie、Cache-Control为private或no-store、
+ * 超过maxBodyBytes或leader失败时，等待的请求各自转发
+ * <p>
+ * 用法: filters: - name: CoalescingFilter
+ * args:
+ * maxWaitMillis: 1000
+ * headers: Accept
+ *
+ * @author WANGY
+ */
+@Component
+public class CoalescingFilter extends AbstractGatewayFilterFactory<CoalescingFilter.Config> {
+
+    public static final String COALESCING_ATTR = CoalescingFilter.class.getName() + ".context";
+
+    public CoalescingFilter() {
+        super(Config.class);
+    }
+
+    @Override
+    public GatewayFilter apply(Config config) {
+        // 必须在NettyWriteResponseFilter之前替换response，否则写出响应时不会经过装饰器
+        return new OrderedGatewayFilter((exchange, chain) -> {
+            if (exchange.getRequest().getMethod() != HttpMethod.GET) {
+                return chain.filter(exchange);
+            }
+            Context context = new Context(config);
+            exchange.getAttributes().put(COALESCING_ATTR, context);
+            ServerHttpResponse response = new SharingResponse(exchange.getResponse(), context);
+            return chain.filter(exchange.mutate().response(response).build());
+        }, NettyWriteResponseFilter.WRITE_RESPONSE_FILTER_ORDER - 1);
+    }
+
+    /**
+     * leader可共享的响应
+     */
+    public static class SharedResponse {
+
+        private final HttpStatus status;
+
+        private final HttpHeaders headers;
+
+        private final byte[] body;
+
+        SharedResponse(HttpStatus status, HttpHeaders headers, byte[] body) {
+            this.status = status;
+            this.headers = HttpHeaders.readOnlyHttpHeaders(headers);
+            this.body = body;
+        }
+
+        public HttpStatus getStatus() {
+            return status;
+        }
+
+        public HttpHeaders getHeaders() {
+            return headers;
+        }
+
+        /**
+         * 只读视图，多个等待的请求共用同一份数据
+         */
+        public ByteBuffer body() {
+            return ByteBuffer.wrap(body).asReadOnlyBuffer();
+        }
+    }
+
+    /**
+     * 单次请求的合并状态，flight由CoalescingJoinFilter在请求成为leader时设置
+     */
+    public static class Context {
+
+        private final Config config;
+
+        private volatile MonoProcessor<SharedResponse> flight;
+
+        Context(Config config) {
+            this.config = config;
+        }
+
+        public Config getConfig() {
+            return config;
+        }
+
+        public void lead(MonoProcessor<SharedResponse> flight) {
+            this.flight = flight;
+        }
+    }
+
+    private static class SharingResponse extends ServerHttpResponseDecorator {
+
+        private final Context context;
+
+        SharingResponse(ServerHttpResponse delegate, Context context) {
+            super(delegate);
+            this.context = context;
+        }
+
+        @Override
+        public Mono<Void> writeWith(Publisher<? extends DataBuffer> body) {
+            MonoProcessor<SharedResponse> flight = context.flight;
+            if (flight == null || !shareable()) {
+                return super.writeWith(body);
+            }
+            int maxBodyBytes = context.config.getMaxBodyBytes();
+            ByteArrayOutputStream captured = new ByteArrayOutputStream();
+            boolean[] overflow = new boolean[1];
+            Flux<? extends DataBuffer> sharing = Flux.from(body)
+                    .doOnNext(buffer -> {
+                        if (overflow[0]) {
+                            return;
+                        }
+                        if (captured.size() + buffer.readableByteCount() > maxBodyBytes) {
+                            overflow[0] = true;
+                            return;
+                        }
+                        ByteBuffer view = buffer.asByteBuffer();
+                        byte[] bytes = new byte[view.remaining()];
+                        view.get(bytes);
+                        captured.write(bytes, 0, bytes.length);
+                    })
+                    .doOnComplete(() -> {
+                        if (!overflow[0]) {
+                            HttpHeaders headers = new HttpHeaders();
+                            headers.putAll(getHeaders());
+                            headers.remove(HttpHeaders.TRANSFER_ENCODING);
+                            headers.remove(HttpHeaders.CONNECTION);
+                            byte[] bytes = captured.toByteArray();
+                            headers.setContentLength(bytes.length);
+                            flight.onNext(new SharedResponse(getStatusCode(), headers, bytes));
+                        }
+                    });
+            return super.writeWith(sharing);
+        }
+
+        private boolean shareable() {
+            HttpStatus status = getStatusCode();
+            if (status != null && !status.is2xxSuccessful()) {
+                return false;
+            }
+            HttpHeaders headers = getHeaders();
+            if (headers.containsKey(HttpHeaders.SET_COOKIE)) {
+                return false;
+            }
+            String cacheControl = headers.getCacheControl();
+            if (cacheControl == null) {
+                return true;
+            }
+            cacheControl = cacheControl.toLowerCase();
+            return !cacheControl.contains("private") && !cacheControl.contains("no-store");
+        }
+    }
+
+    public static class Config {
+
+        /**
+         * 等待leader响应的最长时间，超时后自行转发
+         */
+        private long maxWaitMillis = 1000;
+
+        /**
+         * 参与合并判断的请求头
+         */
+        private List<String> headers = new ArrayList<>();
+
+        /**
+         * 超过该大小的响应不共享
+         */
+        private int maxBodyBytes = 1024 * 1024;
+
+        /**
+         * 是否在不同用户之间共享响应，只有响应与用户无关时才能开启
+         */
+        private boolean shareAcrossUsers;
+
+        public long getMaxWaitMillis() {
+            return maxWaitMillis;
+        }
+
+        public void setMaxWaitMillis(long maxWaitMillis) {
+            this.maxWaitMillis = maxWaitMillis;
+        }
+
+        public List<String> getHeaders() {
+            return headers;
+        }
+
+        public void setHeaders(List<String> headers) {
+            this.headers = headers;
+        }
+
+        public int getMaxBodyBytes() {
+            return maxBodyBytes;
+        }
+
+        public void setMaxBodyBytes(int maxBodyBytes) {
+            this.maxBodyBytes = maxBodyBytes;
+        }
+
+        public boolean isShareAcrossUsers() {
+            return shareAcrossUsers;
+        }
+
+        public void setShareAcrossUsers(boolean shareAcrossUsers) {
+            this.shareAcrossUsers = shareAcrossUsers;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2020 hdmcp.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package com.hdmcp.gateway.filters;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.cloud.gateway.filter.GatewayFilterChain;
+import org.springframework.cloud.gateway.filter.GlobalFilter;
+import org.springframework.cloud.gateway.route.Route;
+import org.springframework.core.Ordered;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoProcessor;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.GATEWAY_ROUTE_ATTR;
+
+/**
+ * 为启用了{@link CoalescingFilter}的路由合并相同的请求
+ * <p>
+ * 在AuthFilter和ResponseCacheHitFilter之后、转发之前执行，每个请求都需要通过鉴权后才能共享响应，缓存命中的请求不参与合并
+ *
+ * @author WANGY
+ */
+@Component
+public class CoalescingJoinFilter implements GlobalFilter, Ordered {
+
+    private static final int COALESCING_JOIN_FILTER_ORDER = ResponseCacheHitFilter.RESPONSE_CACHE_HIT_FILTER_ORDER + 1;
+
+    private final Map<String, MonoProcessor<CoalescingFilter.SharedResponse>> flights = new ConcurrentHashMap<>();
+
+    private final Counter leaders;
+
+    private final Counter coalesced;
+
+    private final Counter fallback;
+
+    public CoalescingJoinFilter(MeterRegistry meterRegistry) {
+        this.leaders = meterRegistry.counter("gateway.coalesce.requests", "result", "leader");
+        this.coalesced = meterRegistry.counter("gateway.coalesce.requests", "result", "coalesced");
+        this.fallback = meterRegistry.counter("gateway.coalesce.requests", "result", "fallback");
+        Gauge.builder("gateway.coalesce.inflight", flights, Map::size).register(meterRegistry);
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, GatewayFilterChain chain) {
+        CoalescingFilter.Context context = exchange.getAttribute(CoalescingFilter.COALESCING_ATTR);
+        if (context == null) {
+            return chain.filter(exchange);
+        }
+        String key = key(exchange, context.getConfig());
+        MonoProcessor<CoalescingFilter.SharedResponse> flight = MonoProcessor.create();
+        MonoProcessor<CoalescingFilter.SharedResponse> existing = flights.putIfAbsent(key, flight);
+        if (existing == null) {
+            leaders.increment();
+            context.lead(flight);
+            return chain.filter(exchange).doFinally(signal -> {
+                flights.remove(key, flight);
+                // 没有可共享的响应，等待的请求各自转发
+                if (!flight.isTerminated()) {
+                    flight.onError(new IllegalStateException("no shareable response"));
+                }
+            });
+        }
+        return existing.timeout(Duration.ofMillis(context.getConfig().getMaxWaitMillis()))
+                .map(shared -> {
+                    coalesced.increment();
+                    return shared;
+                })
+                .flatMap(shared -> write(exchange.getResponse(), shared))
+                .onErrorResume(e -> {
+                    fallback.increment();
+                    return chain.filter(exchange);
+                });
+    }
+
+    private static Mono<Void> write(ServerHttpResponse response, CoalescingFilter.SharedResponse shared) {
+        response.setStatusCode(shared.getStatus());
+        response.getHeaders().putAll(shared.getHeaders());
+        return response.writeWith(Mono.just(response.bufferFactory().wrap(shared.body())));
+    }
+
+    private static String key(ServerWebExchange exchange, CoalescingFilter.Config config) {
+        ServerHttpRequest request = exchange.getRequest();
+        Route route = exchange.getAttribute(GATEWAY_ROUTE_ATTR);
+        StringBuilder key = new StringBuilder(128)
+                .append(route == null ? "-" : route.getId())
+                .append(' ')
+                .append(request.getMethodValue())
+                .append(' ')
+                .append(request.getURI().getRawPath());
+        String query = request.getURI().getRawQuery();
+        if (query != null) {
+            key.append('?').append(query);
+        }
+        for (String header : config.getHeaders()) {
+            key.append('|').append(request.getHeaders().get(header));
+        }
+        // 默认每个用户单独合并，响应中可能有该用户自己的数据
+        if (!config.isShareAcrossUsers()) {
+            Object user = exchange.getAttribute(AuthFilter.USER_ID_ATTR);
+            key.append("|u=").append(user != null ? user : exchange.getAttribute(AuthFilter.USER_NAME_ATTR));
+        }
+        return key.toString();
+    }
+
+    @Override
+    public int getOrder() {
+        return COALESCING_JOIN_FILTER_ORDER;
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2020 hdmcp.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package com.hdmcp.gateway.filters;
+
+import com.hdmcp.gateway.ratelimit.GradientConcurrencyLimit;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.cloud.gateway.filter.GatewayFilter;
+import org.springframework.cloud.gateway.filter.factory.AbstractGatewayFilterFactory;
+import org.springframework.cloud.gateway.route.Route;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.SignalType;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.GATEWAY_ROUTE_ATTR;
+
+/**
+ * 按路由自适应的并发限制，上限根据观测到的RTT调整，超过上限的请求直接返回429
+ * <p>
+ * 路由配置变化后按新的Config重建该路由的限制，配置不变时保留已学习到的上限
+ * <p>
+ * 用法: filters: - ConcurrencyLimitFilter
+ *
+ * @author WANGY
+ */
+@Component
+public class ConcurrencyLimitFilter extends AbstractGatewayFilterFactory<ConcurrencyLimitFilter.Config> {
+
+    private final Map<String, RouteLimit> limits = new ConcurrentHashMap<>();
+
+    private final MeterRegistry meterRegistry;
+
+    public ConcurrencyLimitFilter(MeterRegistry meterRegistry) {
+        super(Config.class);
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public GatewayFilter apply(Config config) {
+        return (exchange, chain) -> {
+            Route route = exchange.getAttribute(GATEWAY_ROUTE_ATTR);
+            String routeId = route == null ? "-" : route.getId();
+            RouteLimit routeLimit = limits.get(routeId);
+            if (routeLimit == null || !routeLimit.matches(config)) {
+                routeLimit = limits.compute(routeId, (id, previous) -> {
+                    if (previous != null) {
+                        if (previous.matches(config)) {
+                            return previous;
+                        }
+                        previous.gauges.forEach(meterRegistry::remove);
+                    }
+                    return createLimit(id, config);
+                });
+            }
+            GradientConcurrencyLimit limit = routeLimit.limit;
+            if (!limit.tryAcquire()) {
+                routeLimit.rejected.increment();
+                exchange.getResponse().setStatusCode(HttpStatus.TOO_MANY_REQUESTS);
+                return exchange.getResponse().setComplete();
+            }
+            long start = System.nanoTime();
+            return chain.filter(exchange).doFinally(signal -> {
+                if (signal == SignalType.ON_COMPLETE) {
+                    long now = System.nanoTime();
+                    limit.release(now - start, now);
+                } else {
+                    limit.release();
+                }
+            });
+        };
+    }
+
+    public GradientConcurrencyLimit getLimit(String routeId) {
+        RouteLimit routeLimit = limits.get(routeId);
+        return routeLimit == null ? null : routeLimit.limit;
+    }
+
+    private RouteLimit createLimit(String routeId, Config config) {
+        GradientConcurrencyLimit limit = new GradientConcurrencyLimit(config.getInitialLimit(), config.getMinLimit(),
+                config.getMaxLimit(), config.getTolerance(), config.getWindowMillis() * 1_000_000L,
+                config.getMinSamples(), System.nanoTime());
+        // Gauge按名称和标签去重，重建时需先移除旧的，否则新的限制不会被注册
+        List<Meter> gauges = Arrays.asList(
+                Gauge.builder("gateway.concurrency.limit", limit, GradientConcurrencyLimit::getLimit)
+                        .tag("route", routeId).register(meterRegistry),
+                Gauge.builder("gateway.concurrency.inflight", limit, GradientConcurrencyLimit::getInflight)
+                        .tag("route", routeId).register(meterRegistry),
+                Gauge.builder("gateway.concurrency.rtt.short", limit, GradientConcurrencyLimit::getShortRttMillis)
+                        .tag("route", routeId).baseUnit("milliseconds").register(meterRegistry),
+                Gauge.builder("gateway.concurrency.rtt.long", limit, GradientConcurrencyLimit::getLongRttMillis)
+                        .tag("route", routeId).baseUnit("milliseconds").register(meterRegistry));
+        return new RouteLimit(config, limit, meterRegistry.counter("gateway.concurrency.rejected", "route", routeId),
+                gauges);
+    }
+
+    private static final class RouteLimit {
+        private final Config config;
+        private final GradientConcurrencyLimit limit;
+        private final Counter rejected;
+        private final List<Meter> gauges;
+
+        private RouteLimit(Config config, GradientConcurrencyLimit limit, Counter rejected, List<Meter> gauges) {
+            this.config = config;
+            this.limit = limit;
+            this.rejected = rejected;
+            this.gauges = gauges;
+        }
+
+        private boolean matches(Config other) {
+            return config == other || config.equals(other);
+        }
+    }
+
+    public static class Config {
+        private int initialLimit = 20;
+        private int minLimit = 5;
+        private int maxLimit = 1000;
+        /**
+         * 允许短期RTT超过长期RTT的倍数
+         */
+        private double tolerance = 1.5D;
+        private long windowMillis = 100;
+        private int minSamples = 10;
+
+        public int getInitialLimit() {
+            return initialLimit;
+        }
+
+        public void setInitialLimit(int initialLimit) {
+            this.initialLimit = initialLimit;
+        }
+
+        public int getMinLimit() {
+            return minLimit;
+        }
+
+        public void setMinLimit(int minLimit) {
+            this.minLimit = minLimit;
+        }
+
+        public int getMaxLimit() {
+            return maxLimit;
+        }
+
+        public void setMaxLimit(int maxLimit) {
+            this.maxLimit = maxLimit;
+        }
+
+        public double getTolerance() {
+            return tolerance;
+        }
+
+        public void setTolerance(double tolerance) {
+            this.tolerance = tolerance;
+        }
+
+        public long getWindowMillis() {
+            return windowMillis;
+        }
+
+        public void setWindowMillis(long windowMillis) {
+            this.windowMillis = windowMillis;
+        }
+
+        public int getMinSamples() {
+            return minSamples;
+        }
+
+        public void setMinSamples(int minSamples) {
+            this.minSamples = minSamples;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Config config = (Config) o;
+            return initialLimit == config.initialLimit && minLimit == config.minLimit && maxLimit == config.maxLimit
+                    && Double.compare(config.tolerance, tolerance) == 0 && windowMillis == config.windowMillis
+                    && minSamples == config.minSamples;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(initialLimit, minLimit, maxLimit, tolerance, windowMillis, minSamples);
+        }
+    }
+}
@@ -0,0 +1,246 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2020 hdmcp.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package com.hdmcp.gateway.filters;
+
+import com.hdmcp.core.loadbalancer.ConsistentHashRing;
+import com.hdmcp.core.utils.JwtUtil;
+import com.hdmcp.gateway.cache.ServiceInstanceCache;
+import com.hdmcp.gateway.cache.VerifiedTokenCache;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.loadbalancer.LoadBalancerClient;
+import org.springframework.cloud.gateway.filter.GatewayFilter;
+import org.springframework.cloud.gateway.filter.LoadBalancerClientFilter;
+import org.springframework.cloud.gateway.filter.OrderedGatewayFilter;
+import org.springframework.cloud.gateway.filter.factory.AbstractGatewayFilterFactory;
+import org.springframework.cloud.gateway.support.DelegatingServiceInstance;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+
+import java.net.URI;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.GATEWAY_REQUEST_URL_ATTR;
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.GATEWAY_SCHEME_PREFIX_ATTR;
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.addOriginalRequestUrl;
+
+/**
+ * 按请求头(默认x-user-id)做带负载上限的一致性哈希，同一个用户的请求落在固定的实例上，提高实例本地缓存的命中率。
+ * 实例增减时只有相邻区间的用户重新映射；实例正在处理的请求数超过平均值的loadFactor倍时顺延到下一个实例。
+ * 请求没有该请求头时交给LoadBalancerClientFilter轮询。
+ * AuthFilter在本过滤器之后才写入x-user-id，因此header为x-user-id时从Token(经VerifiedTokenCache缓存)中取用户id。
+ * 哈希环按(服务, replicas)在{@link ServiceInstanceCache}的刷新线程上随实例变化重建，请求路径只读；
+ * 服务第一次出现时还没有哈希环，先交给LoadBalancerClientFilter。
+ * <p>
+ * 顺序在WarmupFilter之后、VersionFilter之前：路由上显式配置的一致性哈希优先于全局的版本路由，
+ * 改写后请求地址不再是lb://，VersionFilter和LoadBalancerClientFilter都会跳过
+ * <p>
+ * 用法: filters: - name: ConsistentHashFilter
+ * args:
+ * header: x-user-id
+ * loadFactor: 1.25
+ *
+ * @author WANGY
+ */
+@Component
+public class ConsistentHashFilter extends AbstractGatewayFilterFactory<ConsistentHashFilter.Config> {
+
+    public static final int CONSISTENT_HASH_FILTER_ORDER = LoadBalancerClientFilter.LOAD_BALANCER_CLIENT_FILTER_ORDER - 3;
+
+    private static final String LB_SCHEME = "lb";
+
+    private static final String USER_ID_HEADER = "x-user-id";
+
+    private final ServiceInstanceCache instanceCache;
+
+    private final LoadBalancerClient loadBalancer;
+
+    private final VerifiedTokenCache verifiedTokenCache;
+
+    /**
+     * serviceId -> replicas -> 哈希环，只在刷新时整体替换
+     */
+    private final Map<String, Map<Integer, ConsistentHashRing<ServiceInstance>>> rings = new ConcurrentHashMap<>();
+
+    /**
+     * serviceId -> 各路由配置的replicas
+     */
+    private final Map<String, Set<Integer>> replicas = new ConcurrentHashMap<>();
+
+    /**
+     * host:port -> 正在处理的请求数，实例列表变化时保留
+     */
+    private final Map<String, AtomicInteger> inflight = new ConcurrentHashMap<>();
+
+    public ConsistentHashFilter(ServiceInstanceCache instanceCache, LoadBalancerClient loadBalancer,
+                                VerifiedTokenCache verifiedTokenCache) {
+        super(Config.class);
+        this.instanceCache = instanceCache;
+        this.loadBalancer = loadBalancer;
+        this.verifiedTokenCache = verifiedTokenCache;
+        instanceCache.addListener(this::rebuild);
+    }
+
+    @Override
+    public GatewayFilter apply(Config config) {
+        return new OrderedGatewayFilter((exchange, chain) -> {
+            URI url = exchange.getAttribute(GATEWAY_REQUEST_URL_ATTR);
+            if (url == null || !LB_SCHEME.equals(url.getScheme())
+                    || exchange.getAttribute(GATEWAY_SCHEME_PREFIX_ATTR) != null) {
+                return chain.filter(exchange);
+            }
+            String key = hashKey(exchange, config);
+            if (key == null) {
+                return chain.filter(exchange);
+            }
+            ConsistentHashRing<ServiceInstance> ring = ring(url.getHost(), config.getReplicas());
+            ServiceInstance instance = ring == null ? null : ring.select(key, this::load, config.getLoadFactor());
+            if (instance == null) {
+                return chain.filter(exchange);
+            }
+            addOriginalRequestUrl(exchange, url);
+            URI requestUrl = loadBalancer.reconstructURI(
+                    new DelegatingServiceInstance(instance, instance.isSecure() ? "https" : "http"),
+                    exchange.getRequest().getURI());
+            exchange.getAttributes().put(GATEWAY_REQUEST_URL_ATTR, requestUrl);
+            AtomicInteger counter = counter(instance);
+            counter.incrementAndGet();
+            return chain.filter(exchange).doFinally(signal -> counter.decrementAndGet());
+        }, CONSISTENT_HASH_FILTER_ORDER);
+    }
+
+    private String hashKey(ServerWebExchange exchange, Config config) {
+        HttpHeaders headers = exchange.getRequest().getHeaders();
+        if (USER_ID_HEADER.equalsIgnoreCase(config.getHeader())) {
+            String token = headers.getFirst(JwtUtil.HEADER_AUTH);
+            if (token != null) {
+                try {
+                    return verifiedTokenCache.validateToken(token).get(JwtUtil.TOKEN_F_ID);
+                } catch (RuntimeException e) {
+                    // Token无效时由AuthFilter拒绝
+                    return null;
+                }
+            }
+        }
+        return headers.getFirst(config.getHeader());
+    }
+
+    /**
+     * 只读当前的哈希环
+     *
+     * @return 还没有哈希环时返回null，同时在后台加载
+     */
+    private ConsistentHashRing<ServiceInstance> ring(String serviceId, int replicas) {
+        Map<Integer, ConsistentHashRing<ServiceInstance>> byReplicas = rings.get(serviceId);
+        ConsistentHashRing<ServiceInstance> ring = byReplicas == null ? null : byReplicas.get(replicas);
+        if (ring == null) {
+            this.replicas.computeIfAbsent(serviceId, k -> ConcurrentHashMap.newKeySet()).add(replicas);
+            instanceCache.load(serviceId);
+        }
+        return ring;
+    }
+
+    /**
+     * 在实例刷新线程上按各路由的replicas重建哈希环
+     */
+    private synchronized void rebuild(String serviceId, List<ServiceInstance> instances) {
+        Set<Integer> requested = replicas.get(serviceId);
+        if (requested == null) {
+            return;
+        }
+        Map<Integer, ConsistentHashRing<ServiceInstance>> byReplicas = new HashMap<>();
+        for (Integer count : requested) {
+            byReplicas.put(count, new ConsistentHashRing<>(instances, ConsistentHashFilter::instanceId, count));
+        }
+        rings.put(serviceId, byReplicas);
+    }
+
+    private int load(ServiceInstance instance) {
+        AtomicInteger counter = inflight.get(instanceId(instance));
+        return counter == null ? 0 : counter.get();
+    }
+
+    private AtomicInteger counter(ServiceInstance instance) {
+        String id = instanceId(instance);
+        AtomicInteger counter = inflight.get(id);
+        if (counter == null) {
+            counter = inflight.computeIfAbsent(id, k -> new AtomicInteger());
+        }
+        return counter;
+    }
+
+    private static String instanceId(ServiceInstance instance) {
+        return instance.getHost() + ":" + instance.getPort();
+    }
+
+    public static class Config {
+
+        /**
+         * 哈希key所在的请求头
+         */
+        private String header = "x-user-id";
+
+        /**
+         * 负载上限为平均负载的倍数，小于等于0时不限制
+         */
+        private double loadFactor = 1.25D;
+
+        /**
+         * 每个实例在环上的虚拟节点数
+         */
+        private int replicas = 160;
+
+        public String getHeader() {
+            return header;
+        }
+
+        public void setHeader(String header) {
+            this.header = header;
+        }
+
+        public double getLoadFactor() {
+            return loadFactor;
+        }
+
+        public void setLoadFactor(double loadFactor) {
+            this.loadFactor = loadFactor;
+        }
+
+        public int getReplicas() {
+            return replicas;
+        }
+
+        public void setReplicas(int replicas) {
+            this.replicas = replicas;
+        }
+    }
+}
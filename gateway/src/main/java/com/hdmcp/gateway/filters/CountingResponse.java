@@ -0,0 +1,83 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2020 hdmcp.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package com.hdmcp.gateway.filters;
+
+import org.reactivestreams.Publisher;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.http.server.reactive.ServerHttpResponseDecorator;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.function.LongConsumer;
+
+/**
+ * 统计写出的响应字节数，由最先执行的RouteMetricsFilter包装一次，其他过滤器通过{@link #bytesWritten}读取
+ *
+ * @author WANGY
+ */
+final class CountingResponse extends ServerHttpResponseDecorator {
+
+    static final String COUNTING_RESPONSE_ATTR = CountingResponse.class.getName();
+
+    private final LongConsumer listener;
+
+    /**
+     * 只在一个请求内由写响应的线程修改
+     */
+    private long bytes;
+
+    CountingResponse(ServerHttpResponse delegate, LongConsumer listener) {
+        super(delegate);
+        this.listener = listener;
+    }
+
+    /**
+     * @return 没有经过RouteMetricsFilter时返回0
+     */
+    static long bytesWritten(ServerWebExchange exchange) {
+        CountingResponse counting = exchange.getAttribute(COUNTING_RESPONSE_ATTR);
+        return counting == null ? 0 : counting.bytes;
+    }
+
+    @Override
+    public Mono<Void> writeWith(Publisher<? extends DataBuffer> body) {
+        return super.writeWith(Flux.from(body).doOnNext(this::count));
+    }
+
+    @Override
+    public Mono<Void> writeAndFlushWith(Publisher<? extends Publisher<? extends DataBuffer>> body) {
+        return super.writeAndFlushWith(Flux.from(body).map(part -> Flux.from(part).doOnNext(this::count)));
+    }
+
+    private void count(DataBuffer buffer) {
+        int count = buffer.readableByteCount();
+        bytes += count;
+        listener.accept(count);
+    }
+}
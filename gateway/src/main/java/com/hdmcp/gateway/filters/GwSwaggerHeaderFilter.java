@@ -26,12 +26,12 @@
 package com.hdmcp.gateway.filters;
 
 import com.hdmcp.gateway.config.GatewaySwaggerProvider;
+import com.hdmcp.gateway.handler.RequestMutation;
 import org.apache.commons.lang.StringUtils;
 import org.springframework.cloud.gateway.filter.GatewayFilter;
 import org.springframework.cloud.gateway.filter.factory.AbstractGatewayFilterFactory;
 import org.springframework.http.server.reactive.ServerHttpRequest;
 import org.springframework.stereotype.Component;
-import org.springframework.web.server.ServerWebExchange;
 
 /**
  * @author WANGY
@@ -49,9 +49,7 @@ public class GwSwaggerHeaderFilter extends AbstractGatewayFilterFactory {
                 return chain.filter(exchange);
             }
             String basePath = path.substring(0, path.lastIndexOf(GatewaySwaggerProvider.API_URI));
-            ServerHttpRequest newRequest = request.mutate().header(HEADER_NAME, basePath).build();
-            ServerWebExchange newExchange = exchange.mutate().request(newRequest).build();
-            return chain.filter(newExchange);
+            return chain.filter(RequestMutation.of(exchange).header(HEADER_NAME, basePath).apply());
         };
     }
 }
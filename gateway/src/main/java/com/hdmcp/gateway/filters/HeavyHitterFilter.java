@@ -0,0 +1,205 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2020 hdmcp.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package com.hdmcp.gateway.filters;
+
+import com.hdmcp.gateway.cache.VerifiedTokenCache;
+import com.hdmcp.gateway.config.HeavyHitterProperties;
+import com.hdmcp.gateway.ratelimit.HeavyHitterDetector;
+import com.hdmcp.gateway.ratelimit.RateLimitKeyResolver;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.cloud.context.environment.EnvironmentChangeEvent;
+import org.springframework.cloud.gateway.filter.GatewayFilterChain;
+import org.springframework.cloud.gateway.filter.GlobalFilter;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.env.Environment;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Mono;
+
+import javax.annotation.PreDestroy;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 按IP、用户id统计请求最多的客户端，窗口内请求数超过阈值的客户端在blockSeconds内返回429或只放行一部分请求
+ * <p>
+ * 令牌桶只能限制单个key的速率，看不出哪些客户端占用了网关的大部分容量；这里用{@link HeavyHitterDetector}
+ * 在后台线程中统计，请求线程只做一次入队和一次名单查询。用户id只取自校验通过的Token，与限流使用相同的Token缓存；
+ * 此时x-user-id请求头仍由客户端控制，按它统计会被用来冒充他人触发处理
+ *
+ * @author WANGY
+ */
+@Component
+public class HeavyHitterFilter implements GlobalFilter, Ordered {
+
+    private static final Logger log = LoggerFactory.getLogger(HeavyHitterFilter.class);
+
+    private static final int HEAVY_HITTER_FILTER_ORDER = HIGHEST_PRECEDENCE + 3;
+
+    private static final int BUFFER_SIZE = 16384;
+
+    private static final long TICK_MILLIS = 250;
+
+    private final Environment environment;
+
+    private final HeavyHitterDetector detector;
+
+    private final RateLimitKeyResolver ipResolver = RateLimitKeyResolver.remoteIp();
+
+    private final RateLimitKeyResolver userResolver;
+
+    private final ScheduledExecutorService ticker;
+
+    private final Map<HeavyHitterDetector.Dimension, Counter> blocked = new EnumMap<>(HeavyHitterDetector.Dimension.class);
+
+    private final Map<HeavyHitterDetector.Dimension, Counter> throttled = new EnumMap<>(HeavyHitterDetector.Dimension.class);
+
+    public HeavyHitterFilter(Environment environment, VerifiedTokenCache verifiedTokenCache, MeterRegistry meterRegistry) {
+        this.environment = environment;
+        this.userResolver = RateLimitKeyResolver.userId(verifiedTokenCache);
+        this.detector = new HeavyHitterDetector(bind(), BUFFER_SIZE);
+        for (HeavyHitterDetector.Dimension dimension : HeavyHitterDetector.Dimension.values()) {
+            String tag = dimension.tag();
+            blocked.put(dimension, meterRegistry.counter("gateway.heavyhitter.requests", "dimension", tag,
+                    "result", "blocked"));
+            throttled.put(dimension, meterRegistry.counter("gateway.heavyhitter.requests", "dimension", tag,
+                    "result", "throttled"));
+            FunctionCounter.builder("gateway.heavyhitter.dropped", detector, d -> d.getDropped(dimension))
+                    .tag("dimension", tag)
+                    .register(meterRegistry);
+            Gauge.builder("gateway.heavyhitter.blocked", detector, d -> d.blockedCount(dimension))
+                    .tag("dimension", tag)
+                    .register(meterRegistry);
+        }
+        this.ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "gateway-heavy-hitters");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ticker.scheduleWithFixedDelay(this::tick, TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        ticker.shutdownNow();
+    }
+
+    @EventListener
+    public void onEnvironmentChange(EnvironmentChangeEvent event) {
+        for (String key : event.getKeys()) {
+            if (key.startsWith(HeavyHitterProperties.PREFIX)) {
+                detector.configure(bind());
+                return;
+            }
+        }
+    }
+
+    private HeavyHitterProperties bind() {
+        return Binder.get(environment)
+                .bind(HeavyHitterProperties.PREFIX, Bindable.of(HeavyHitterProperties.class))
+                .orElseGet(HeavyHitterProperties::new);
+    }
+
+    private void tick() {
+        try {
+            detector.tick(System.currentTimeMillis());
+        } catch (RuntimeException e) {
+            log.warn("heavy hitter detection failed", e);
+        }
+    }
+
+    public HeavyHitterDetector getDetector() {
+        return detector;
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, GatewayFilterChain chain) {
+        if (!detector.getProperties().isEnabled() || WarmupFilter.isWarmup(exchange)) {
+            return chain.filter(exchange);
+        }
+        long now = System.currentTimeMillis();
+        String ip = ipResolver.resolve(exchange);
+        String user = resolveUser(exchange);
+        HeavyHitterDetector.Block block = null;
+        HeavyHitterDetector.Dimension dimension = null;
+        if (!RateLimitKeyResolver.UNKNOWN.equals(ip)) {
+            detector.record(HeavyHitterDetector.Dimension.IP, ip);
+            block = detector.blocked(HeavyHitterDetector.Dimension.IP, ip, now);
+            dimension = HeavyHitterDetector.Dimension.IP;
+        }
+        if (!RateLimitKeyResolver.UNKNOWN.equals(user)) {
+            detector.record(HeavyHitterDetector.Dimension.USER, user);
+            if (block == null) {
+                block = detector.blocked(HeavyHitterDetector.Dimension.USER, user, now);
+                dimension = HeavyHitterDetector.Dimension.USER;
+            }
+        }
+        if (block == null) {
+            return chain.filter(exchange);
+        }
+        if (block.getAction() == HeavyHitterDetector.Action.THROTTLE) {
+            if (ThreadLocalRandom.current().nextDouble() < block.getThrottleRatio()) {
+                return chain.filter(exchange);
+            }
+            throttled.get(dimension).increment();
+        } else {
+            blocked.get(dimension).increment();
+        }
+        exchange.getResponse().setStatusCode(HttpStatus.TOO_MANY_REQUESTS);
+        exchange.getResponse().getHeaders().set(HttpHeaders.RETRY_AFTER,
+                String.valueOf(Math.max(1, TimeUnit.MILLISECONDS.toSeconds(block.getUntilMillis() - now))));
+        return exchange.getResponse().setComplete();
+    }
+
+    private String resolveUser(ServerWebExchange exchange) {
+        try {
+            return userResolver.resolve(exchange);
+        } catch (RuntimeException e) {
+            // Token无效时由AuthFilter拒绝，这里只是不按用户统计
+            return RateLimitKeyResolver.UNKNOWN;
+        }
+    }
+
+    @Override
+    public int getOrder() {
+        return HEAVY_HITTER_FILTER_ORDER;
+    }
+}
@@ -0,0 +1,573 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2020 hdmcp.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package com.hdmcp.gateway.filters;
+
+import com.hdmcp.gateway.ratelimit.RetryBudget;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import io.netty.handler.codec.http.DefaultHttpHeaders;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.loadbalancer.LoadBalancerClient;
+import org.springframework.cloud.gateway.filter.GatewayFilter;
+import org.springframework.cloud.gateway.filter.LoadBalancerClientFilter;
+import org.springframework.cloud.gateway.filter.OrderedGatewayFilter;
+import org.springframework.cloud.gateway.filter.factory.AbstractGatewayFilterFactory;
+import org.springframework.cloud.gateway.filter.headers.HttpHeadersFilter;
+import org.springframework.cloud.gateway.route.Route;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.reactive.AbstractServerHttpResponse;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.util.UriComponentsBuilder;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoProcessor;
+import reactor.netty.Connection;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.http.client.HttpClientResponse;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.CLIENT_RESPONSE_ATTR;
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.CLIENT_RESPONSE_CONN_ATTR;
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.CLIENT_RESPONSE_HEADER_NAMES;
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.GATEWAY_REQUEST_URL_ATTR;
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.GATEWAY_ROUTE_ATTR;
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.ORIGINAL_RESPONSE_CONTENT_TYPE_ATTR;
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.PRESERVE_HOST_HEADER_ATTRIBUTE;
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.isAlreadyRouted;
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.setAlreadyRouted;
+
+/**
+ * lb://路由的对冲请求与重试
+ * <p>
+ * 在LoadBalancerClientFilter选出实例之后代替NettyRoutingFilter转发：请求超过路由响应时间的指定分位数仍未返回响应头时，
+ * 向另一个实例发送一份相同的请求，先返回的胜出，另一个被取消；连接失败或返回502/503/504时换一个实例重试。
+ * 对冲和重试都只在请求的总耗时预算内进行，并受{@link RetryBudget}限制，避免服务变慢时放大负载。
+ * 请求体无法重放，只处理GET、HEAD、OPTIONS，其他请求仍由NettyRoutingFilter转发
+ * <p>
+ * 用法: filters: - name: HedgingFilter
+ * args:
+ * percentile: 0.95
+ * budgetMillis: 3000
+ *
+ * @author WANGY
+ */
+@Component
+public class HedgingFilter extends AbstractGatewayFilterFactory<HedgingFilter.Config> {
+
+    private static final Logger log = LoggerFactory.getLogger(HedgingFilter.class);
+
+    private static final int HEDGING_FILTER_ORDER = LoadBalancerClientFilter.LOAD_BALANCER_CLIENT_FILTER_ORDER + 50;
+
+    private static final String LB_SCHEME = "lb";
+
+    /**
+     * 样本不足时不对冲
+     */
+    private static final long MIN_SAMPLES = 100;
+
+    private static final long DELAY_REFRESH_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final HttpClient httpClient;
+
+    private final ObjectProvider<List<HttpHeadersFilter>> headersFilters;
+
+    private final LoadBalancerClient loadBalancer;
+
+    private final MeterRegistry meterRegistry;
+
+    private final Map<String, RouteHedge> routes = new ConcurrentHashMap<>();
+
+    public HedgingFilter(HttpClient httpClient, ObjectProvider<List<HttpHeadersFilter>> headersFilters,
+                         LoadBalancerClient loadBalancer, MeterRegistry meterRegistry) {
+        super(Config.class);
+        this.httpClient = httpClient;
+        this.headersFilters = headersFilters;
+        this.loadBalancer = loadBalancer;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public GatewayFilter apply(Config config) {
+        return new OrderedGatewayFilter((exchange, chain) -> {
+            Route route = exchange.getAttribute(GATEWAY_ROUTE_ATTR);
+            URI requestUrl = exchange.getAttribute(GATEWAY_REQUEST_URL_ATTR);
+            if (route == null || requestUrl == null || isAlreadyRouted(exchange)
+                    || !LB_SCHEME.equalsIgnoreCase(route.getUri().getScheme()) || !isReplayable(exchange.getRequest())) {
+                return chain.filter(exchange);
+            }
+            RouteHedge hedge = routes.get(route.getId());
+            if (hedge == null) {
+                hedge = routes.computeIfAbsent(route.getId(), id -> new RouteHedge(id, config));
+            }
+            hedge.requests.increment();
+            hedge.budget.onRequest();
+            setAlreadyRouted(exchange);
+            Request request = new Request(exchange, route.getUri().getHost(), hedge, config);
+            return request.execute(requestUrl, 1)
+                    .doOnNext(attempt -> request.commit(attempt))
+                    .then(chain.filter(exchange));
+        }, HEDGING_FILTER_ORDER);
+    }
+
+    private static boolean isReplayable(ServerHttpRequest request) {
+        HttpMethod method = request.getMethod();
+        return method == HttpMethod.GET || method == HttpMethod.HEAD || method == HttpMethod.OPTIONS;
+    }
+
+    private static boolean isRetryable(int status) {
+        return status == HttpStatus.BAD_GATEWAY.value() || status == HttpStatus.SERVICE_UNAVAILABLE.value()
+                || status == HttpStatus.GATEWAY_TIMEOUT.value();
+    }
+
+    /**
+     * 一次发往某个实例的请求
+     */
+    private static final class Attempt {
+
+        private final HttpClientResponse response;
+
+        private final Connection connection;
+
+        private final boolean hedged;
+
+        private final long startNanos;
+
+        private Attempt(HttpClientResponse response, Connection connection, boolean hedged, long startNanos) {
+            this.response = response;
+            this.connection = connection;
+            this.hedged = hedged;
+            this.startNanos = startNanos;
+        }
+
+        private void dispose() {
+            connection.dispose();
+        }
+    }
+
+    private final class Request {
+
+        private final ServerWebExchange exchange;
+
+        private final String serviceId;
+
+        private final RouteHedge hedge;
+
+        private final Config config;
+
+        private final long deadline;
+
+        private final DefaultHttpHeaders headers = new DefaultHttpHeaders();
+
+        /**
+         * 已经尝试过的实例host:port
+         */
+        private final Set<String> tried = new HashSet<>();
+
+        private Request(ServerWebExchange exchange, String serviceId, RouteHedge hedge, Config config) {
+            this.exchange = exchange;
+            this.serviceId = serviceId;
+            this.hedge = hedge;
+            this.config = config;
+            this.deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(config.getBudgetMillis());
+            HttpHeaders filtered = HttpHeadersFilter.filterRequest(headersFilters.getIfAvailable(), exchange);
+            filtered.forEach(headers::set);
+            if (exchange.getAttributeOrDefault(PRESERVE_HOST_HEADER_ATTRIBUTE, false)) {
+                headers.set(HttpHeaders.HOST, exchange.getRequest().getHeaders().getFirst(HttpHeaders.HOST));
+            }
+        }
+
+        private Mono<Attempt> execute(URI url, int attempt) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return Mono.error(timeout());
+            }
+            tried.add(url.getHost() + ":" + url.getPort());
+            return race(url, remaining)
+                    .timeout(Duration.ofNanos(remaining), Mono.error(this::timeout))
+                    .map(Outcome::success)
+                    .onErrorResume(e -> Mono.just(Outcome.failure(e)))
+                    .flatMap(outcome -> {
+                        if (outcome.error != null) {
+                            if (!(outcome.error instanceof ResponseStatusException) && canRetry(attempt)) {
+                                log.debug("retry {} after error: {}", serviceId, outcome.error.toString());
+                                return retry(url, attempt, outcome.error);
+                            }
+                            return Mono.error(outcome.error);
+                        }
+                        if (isRetryable(outcome.attempt.response.status().code()) && canRetry(attempt)) {
+                            outcome.attempt.dispose();
+                            return retry(url, attempt, null);
+                        }
+                        return Mono.just(outcome.attempt);
+                    });
+        }
+
+        private Mono<Attempt> retry(URI url, int attempt, Throwable error) {
+            URI other = chooseOther(url);
+            if (other == null) {
+                return error != null ? Mono.error(error) : Mono.error(new ResponseStatusException(
+                        HttpStatus.SERVICE_UNAVAILABLE, "No other instance available for " + serviceId));
+            }
+            hedge.retries.increment();
+            return execute(other, attempt + 1);
+        }
+
+        private boolean canRetry(int attempt) {
+            if (attempt >= config.getMaxAttempts()) {
+                return false;
+            }
+            if (deadline - System.nanoTime() <= 0) {
+                hedge.latencyExhausted.increment();
+                return false;
+            }
+            if (!hedge.budget.tryWithdraw()) {
+                hedge.ratioExhausted.increment();
+                return false;
+            }
+            return true;
+        }
+
+        /**
+         * 先发往url，超过对冲延迟仍未返回响应头时向另一个实例再发一份，取先返回的一个
+         */
+        private Mono<Attempt> race(URI url, long remaining) {
+            Race race = new Race();
+            MonoProcessor<Void> primaryFailed = MonoProcessor.create();
+            Mono<Attempt> primary = send(url, false, race).doOnError(e -> primaryFailed.onComplete());
+            long delay = hedge.hedgeDelayNanos();
+            if (delay >= remaining) {
+                return primary.doOnNext(race::settle);
+            }
+            Mono<Attempt> hedged = Mono.delay(Duration.ofNanos(delay))
+                    .takeUntilOther(primaryFailed)
+                    .flatMap(tick -> {
+                        URI other = chooseOther(url);
+                        if (other == null) {
+                            return Mono.empty();
+                        }
+                        if (!hedge.budget.tryWithdraw()) {
+                            hedge.ratioExhausted.increment();
+                            return Mono.empty();
+                        }
+                        hedge.sent.increment();
+                        return send(other, true, race);
+                    });
+            return Flux.mergeDelayError(2, primary, hedged)
+                    .next()
+                    .doOnNext(winner -> {
+                        race.settle(winner);
+                        if (winner.hedged) {
+                            hedge.wins.increment();
+                        }
+                    });
+        }
+
+        private Mono<Attempt> send(URI url, boolean hedged, Race race) {
+            long start = System.nanoTime();
+            return httpClient.headers(h -> h.add(headers))
+                    .request(io.netty.handler.codec.http.HttpMethod.valueOf(exchange.getRequest().getMethodValue()))
+                    .uri(url.toASCIIString())
+                    .responseConnection((res, connection) -> Mono.just(new Attempt(res, connection, hedged, start)))
+                    .next()
+                    .doOnNext(race::offer);
+        }
+
+        /**
+         * 选一个没有尝试过的实例，保留原请求的path和query
+         */
+        private URI chooseOther(URI url) {
+            for (int i = 0; i < 3; i++) {
+                ServiceInstance instance = loadBalancer.choose(serviceId);
+                if (instance == null) {
+                    return null;
+                }
+                if (tried.add(instance.getHost() + ":" + instance.getPort())) {
+                    return UriComponentsBuilder.fromUri(url)
+                            .scheme(instance.isSecure() ? "https" : "http")
+                            .host(instance.getHost())
+                            .port(instance.getPort())
+                            .build(true)
+                            .toUri();
+                }
+            }
+            return null;
+        }
+
+        private ResponseStatusException timeout() {
+            hedge.latencyExhausted.increment();
+            return new ResponseStatusException(HttpStatus.GATEWAY_TIMEOUT,
+                    "Response took longer than budget " + config.getBudgetMillis() + "ms");
+        }
+
+        /**
+         * 与NettyRoutingFilter一致地写入响应状态、响应头，响应体由NettyWriteResponseFilter写出
+         */
+        private void commit(Attempt attempt) {
+            hedge.latency.record(System.nanoTime() - attempt.startNanos, TimeUnit.NANOSECONDS);
+            HttpClientResponse res = attempt.response;
+            exchange.getAttributes().put(CLIENT_RESPONSE_ATTR, res);
+            exchange.getAttributes().put(CLIENT_RESPONSE_CONN_ATTR, attempt.connection);
+            ServerHttpResponse response = exchange.getResponse();
+            HttpHeaders headers = new HttpHeaders();
+            res.responseHeaders().forEach(entry -> headers.add(entry.getKey(), entry.getValue()));
+            String contentType = headers.getFirst(HttpHeaders.CONTENT_TYPE);
+            if (StringUtils.hasLength(contentType)) {
+                exchange.getAttributes().put(ORIGINAL_RESPONSE_CONTENT_TYPE_ATTR, contentType);
+            }
+            HttpStatus status = HttpStatus.resolve(res.status().code());
+            if (status != null) {
+                response.setStatusCode(status);
+            } else if (response instanceof AbstractServerHttpResponse) {
+                ((AbstractServerHttpResponse) response).setStatusCodeValue(res.status().code());
+            } else {
+                throw new IllegalStateException("Unable to set status code on response: " + res.status().code());
+            }
+            HttpHeaders filtered = HttpHeadersFilter.filter(headersFilters.getIfAvailable(), headers, exchange,
+                    HttpHeadersFilter.Type.RESPONSE);
+            if (!filtered.containsKey(HttpHeaders.TRANSFER_ENCODING) && filtered.containsKey(HttpHeaders.CONTENT_LENGTH)) {
+                response.getHeaders().remove(HttpHeaders.TRANSFER_ENCODING);
+            }
+            exchange.getAttributes().put(CLIENT_RESPONSE_HEADER_NAMES, filtered.keySet());
+            response.getHeaders().putAll(filtered);
+        }
+    }
+
+    private static final class Outcome {
+
+        private final Attempt attempt;
+
+        private final Throwable error;
+
+        private Outcome(Attempt attempt, Throwable error) {
+            this.attempt = attempt;
+            this.error = error;
+        }
+
+        private static Outcome success(Attempt attempt) {
+            return new Outcome(attempt, null);
+        }
+
+        private static Outcome failure(Throwable error) {
+            return new Outcome(null, error);
+        }
+    }
+
+    /**
+     * 一次对冲的结果，胜出者之外已到达或之后到达的响应都直接关闭连接
+     */
+    private static final class Race {
+
+        private final List<Attempt> arrived = new ArrayList<>(2);
+
+        private Attempt winner;
+
+        private synchronized void offer(Attempt attempt) {
+            if (winner != null) {
+                attempt.dispose();
+            } else {
+                arrived.add(attempt);
+            }
+        }
+
+        private synchronized void settle(Attempt attempt) {
+            winner = attempt;
+            for (Attempt other : arrived) {
+                if (other != attempt) {
+                    other.dispose();
+                }
+            }
+            arrived.clear();
+        }
+    }
+
+    private final class RouteHedge {
+
+        private final RetryBudget budget;
+
+        private final Timer latency;
+
+        private final Counter requests;
+
+        private final Counter sent;
+
+        private final Counter wins;
+
+        private final Counter retries;
+
+        private final Counter latencyExhausted;
+
+        private final Counter ratioExhausted;
+
+        private final double percentile;
+
+        private final long minDelayNanos;
+
+        private volatile long delayNanos = Long.MAX_VALUE;
+
+        private volatile long refreshAt;
+
+        private RouteHedge(String routeId, Config config) {
+            this.budget = new RetryBudget(config.getBudgetRatio(), config.getBudgetMaxTokens());
+            this.percentile = config.getPercentile();
+            this.minDelayNanos = TimeUnit.MILLISECONDS.toNanos(config.getMinDelayMillis());
+            this.latency = Timer.builder("gateway.hedge.latency").tag("route", routeId)
+                    .publishPercentiles(percentile)
+                    .distributionStatisticExpiry(Duration.ofMinutes(1))
+                    .register(meterRegistry);
+            this.requests = meterRegistry.counter("gateway.hedge.requests", "route", routeId);
+            this.sent = meterRegistry.counter("gateway.hedge.sent", "route", routeId);
+            this.wins = meterRegistry.counter("gateway.hedge.wins", "route", routeId);
+            this.retries = meterRegistry.counter("gateway.hedge.retries", "route", routeId);
+            this.latencyExhausted = meterRegistry.counter("gateway.hedge.budget.exhausted", "route", routeId,
+                    "reason", "latency");
+            this.ratioExhausted = meterRegistry.counter("gateway.hedge.budget.exhausted", "route", routeId,
+                    "reason", "ratio");
+            Gauge.builder("gateway.hedge.delay", this, hedge -> hedge.delayNanos == Long.MAX_VALUE
+                    ? Double.NaN : hedge.delayNanos / 1e6)
+                    .tag("route", routeId)
+                    .register(meterRegistry);
+        }
+
+        /**
+         * 每秒根据最近的响应时间分位数刷新一次对冲延迟
+         */
+        private long hedgeDelayNanos() {
+            long now = System.nanoTime();
+            if (now - refreshAt >= 0) {
+                refreshAt = now + DELAY_REFRESH_NANOS;
+                if (latency.count() >= MIN_SAMPLES) {
+                    for (ValueAtPercentile value : latency.takeSnapshot().percentileValues()) {
+                        if (value.percentile() == percentile) {
+                            delayNanos = Math.max(minDelayNanos, (long) value.value(TimeUnit.NANOSECONDS));
+                        }
+                    }
+                }
+            }
+            return delayNanos;
+        }
+    }
+
+    public static class Config {
+
+        /**
+         * 超过该分位数的响应时间后发送对冲请求
+         */
+        private double percentile = 0.95;
+
+        /**
+         * 对冲延迟的下限
+         */
+        private long minDelayMillis = 10;
+
+        /**
+         * 请求的总耗时预算，对冲与重试都只在预算内进行，超出返回504
+         */
+        private long budgetMillis = 3000;
+
+        /**
+         * 最多尝试的次数(不含对冲)
+         */
+        private int maxAttempts = 3;
+
+        /**
+         * 对冲、重试请求占正常请求的比例上限
+         */
+        private double budgetRatio = 0.1;
+
+        private int budgetMaxTokens = 10;
+
+        public double getPercentile() {
+            return percentile;
+        }
+
+        public void setPercentile(double percentile) {
+            this.percentile = percentile;
+        }
+
+        public long getMinDelayMillis() {
+            return minDelayMillis;
+        }
+
+        public void setMinDelayMillis(long minDelayMillis) {
+            this.minDelayMillis = minDelayMillis;
+        }
+
+        public long getBudgetMillis() {
+            return budgetMillis;
+        }
+
+        public void setBudgetMillis(long budgetMillis) {
+            this.budgetMillis = budgetMillis;
+        }
+
+        public int getMaxAttempts() {
+            return maxAttempts;
+        }
+
+        public void setMaxAttempts(int maxAttempts) {
+            this.maxAttempts = maxAttempts;
+        }
+
+        public double getBudgetRatio() {
+            return budgetRatio;
+        }
+
+        public void setBudgetRatio(double budgetRatio) {
+            this.budgetRatio = budgetRatio;
+        }
+
+        public int getBudgetMaxTokens() {
+            return budgetMaxTokens;
+        }
+
+        public void setBudgetMaxTokens(int budgetMaxTokens) {
+            this.budgetMaxTokens = budgetMaxTokens;
+        }
+    }
+}
@@ -25,10 +25,10 @@
 
 package com.hdmcp.gateway.filters;
 
+import com.hdmcp.gateway.handler.RequestMutation;
 import org.springframework.cloud.gateway.filter.GatewayFilterChain;
 import org.springframework.cloud.gateway.filter.GlobalFilter;
 import org.springframework.core.Ordered;
-import org.springframework.http.server.reactive.ServerHttpRequest;
 import org.springframework.stereotype.Component;
 import org.springframework.web.server.ServerWebExchange;
 import reactor.core.publisher.Mono;
@@ -45,29 +45,18 @@ public class HttpsToHttpFilter implements GlobalFilter, Ordered {
 
     private static final int HTTPS_TO_HTTP_FILTER_ORDER = 10099;
 
+    private static final String HTTPS = "https";
+
     @Override
     public Mono<Void> filter(ServerWebExchange exchange, GatewayFilterChain chain) {
         URI originUri = exchange.getRequest().getURI();
-        ServerHttpRequest request = exchange.getRequest();
-        ServerHttpRequest.Builder mutate = request.mutate();
-        String forwardUri = request.getURI().toString();
-        if (forwardUri != null && forwardUri.startsWith("https")) {
-            try {
-                URI mutatedUri = new URI("http",
-                        originUri.getUserInfo(),
-                        originUri.getHost(),
-                        originUri.getPort(),
-                        originUri.getPath(),
-                        originUri.getQuery(),
-                        originUri.getFragment());
-                mutate.uri(mutatedUri);
-            } catch (Exception e) {
-                throw new IllegalStateException(e.getMessage(), e);
-            }
+        // 只有https请求才需要修改，其余请求原样传递
+        if (!HTTPS.equalsIgnoreCase(originUri.getScheme())) {
+            return chain.filter(exchange);
         }
-
-        ServerHttpRequest build = mutate.build();
-        return chain.filter(exchange.mutate().request(build).build());
+        // 保留原始编码，只替换scheme，避免按解码后的path、query重新编码
+        URI mutatedUri = URI.create("http" + originUri.toString().substring(HTTPS.length()));
+        return chain.filter(RequestMutation.of(exchange).uri(mutatedUri).apply());
     }
 
     @Override
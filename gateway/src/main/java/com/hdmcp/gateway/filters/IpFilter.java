@@ -0,0 +1,274 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2020 hdmcp.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package com.hdmcp.gateway.filters;
+
+import com.hdmcp.gateway.acl.CidrTree;
+import com.hdmcp.gateway.config.IpFilterProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.cloud.context.environment.EnvironmentChangeEvent;
+import org.springframework.cloud.gateway.filter.GatewayFilterChain;
+import org.springframework.cloud.gateway.filter.GlobalFilter;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.env.Environment;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Mono;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 按客户端IP的黑白名单，网段存放在{@link CidrTree}中，几万条网段时查询仍只需走前缀长度步
+ * <p>
+ * 网段来自Nacos配置samples.ip-filter.allow/deny与本地文件samples.ip-filter.file，配置变更或文件修改后重新建树，
+ * 整体替换volatile字段，请求线程看到的总是完整的一棵树。配置有误时保留上一棵树
+ *
+ * @author WANGY
+ */
+@Component
+public class IpFilter implements GlobalFilter, Ordered {
+
+    private static final Logger log = LoggerFactory.getLogger(IpFilter.class);
+
+    private static final int IP_FILTER_ORDER = HIGHEST_PRECEDENCE + 2;
+
+    private final Environment environment;
+
+    private final ScheduledExecutorService watcher;
+
+    private final Counter allowed;
+
+    private final Counter denied;
+
+    private final Counter unmatched;
+
+    private volatile Rules rules = new Rules(false, null, new CidrTree(), null, 5000);
+
+    /**
+     * 最近一次读取的文件及其修改时间，无论读取成功与否
+     */
+    private Path loadedFile;
+
+    private volatile long fileModified;
+
+    /**
+     * 最近一次解析成功的文件内容
+     */
+    private List<String> fileLines = Collections.emptyList();
+
+    public IpFilter(Environment environment, MeterRegistry meterRegistry) {
+        this.environment = environment;
+        this.allowed = meterRegistry.counter("gateway.ipfilter.requests", "result", "allowed");
+        this.denied = meterRegistry.counter("gateway.ipfilter.requests", "result", "denied");
+        this.unmatched = meterRegistry.counter("gateway.ipfilter.requests", "result", "unmatched");
+        Gauge.builder("gateway.ipfilter.cidrs", this, filter -> filter.rules.tree.size())
+                .register(meterRegistry);
+        load();
+        this.watcher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "gateway-ip-filter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long refresh = Math.max(1000, rules.refreshMillis);
+        watcher.scheduleWithFixedDelay(this::reloadIfModified, refresh, refresh, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        watcher.shutdownNow();
+    }
+
+    @EventListener
+    public void onEnvironmentChange(EnvironmentChangeEvent event) {
+        for (String key : event.getKeys()) {
+            if (key.startsWith(IpFilterProperties.PREFIX)) {
+                load();
+                return;
+            }
+        }
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, GatewayFilterChain chain) {
+        Rules rules = this.rules;
+        InetSocketAddress remote = exchange.getRequest().getRemoteAddress();
+        if (!rules.enabled || remote == null || remote.getAddress() == null) {
+            return chain.filter(exchange);
+        }
+        CidrTree.Action action = rules.tree.lookup(remote.getAddress());
+        if (action == null) {
+            unmatched.increment();
+            action = rules.defaultAction;
+        }
+        if (action == CidrTree.Action.DENY) {
+            denied.increment();
+            exchange.getResponse().setStatusCode(HttpStatus.FORBIDDEN);
+            return exchange.getResponse().setComplete();
+        }
+        allowed.increment();
+        return chain.filter(exchange);
+    }
+
+    @Override
+    public int getOrder() {
+        return IP_FILTER_ORDER;
+    }
+
+    private void reloadIfModified() {
+        Rules rules = this.rules;
+        if (rules.file == null) {
+            return;
+        }
+        try {
+            long modified = Files.isRegularFile(rules.file) ? Files.getLastModifiedTime(rules.file).toMillis() : 0;
+            if (modified != fileModified) {
+                load();
+            }
+        } catch (IOException e) {
+            log.warn("check ip filter file {} failed", rules.file, e);
+        }
+    }
+
+    private synchronized void load() {
+        IpFilterProperties properties = Binder.get(environment)
+                .bind(IpFilterProperties.PREFIX, Bindable.of(IpFilterProperties.class))
+                .orElseGet(IpFilterProperties::new);
+        Path file = StringUtils.hasText(properties.getFile()) ? Paths.get(properties.getFile()) : null;
+        readFile(file);
+        try {
+            CidrTree tree = new CidrTree();
+            add(tree, properties.getAllow(), CidrTree.Action.ALLOW);
+            add(tree, properties.getDeny(), CidrTree.Action.DENY);
+            parse(tree, fileLines);
+            CidrTree.Action defaultAction = "deny".equalsIgnoreCase(properties.getDefaultAction())
+                    ? CidrTree.Action.DENY : CidrTree.Action.ALLOW;
+            this.rules = new Rules(properties.isEnabled(), defaultAction, tree, file, properties.getRefreshMillis());
+            log.info("ip filter loaded: {} cidrs, default {}", tree.size(), defaultAction);
+        } catch (RuntimeException e) {
+            log.warn("load ip filter failed, keep the previous {} cidrs", rules.tree.size(), e);
+        }
+    }
+
+    /**
+     * 文件修改后才重新读取；文件有错误时同样记录修改时间并沿用上一次的内容，不影响Nacos中的列表生效
+     */
+    private void readFile(Path file) {
+        if (file == null || !Files.isRegularFile(file)) {
+            loadedFile = file;
+            fileModified = 0;
+            fileLines = Collections.emptyList();
+            return;
+        }
+        try {
+            long modified = Files.getLastModifiedTime(file).toMillis();
+            if (file.equals(loadedFile) && modified == fileModified) {
+                return;
+            }
+            loadedFile = file;
+            fileModified = modified;
+            List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+            parse(new CidrTree(), lines);
+            fileLines = lines;
+        } catch (IOException | RuntimeException e) {
+            log.warn("load ip filter file {} failed, keep the previous {} lines: {}", file, fileLines.size(),
+                    e.getMessage());
+        }
+    }
+
+    private static void add(CidrTree tree, List<String> cidrs, CidrTree.Action action) {
+        for (String cidr : cidrs) {
+            tree.add(cidr, action);
+        }
+    }
+
+    /**
+     * 每行"allow 网段"或"deny 网段"，#开头为注释
+     */
+    static void parse(CidrTree tree, List<String> lines) {
+        int number = 0;
+        for (String line : lines) {
+            number++;
+            String text = line.trim();
+            if (text.isEmpty() || text.startsWith("#")) {
+                continue;
+            }
+            String[] parts = text.split("\\s+");
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Invalid ip filter line " + number + ": " + line);
+            }
+            CidrTree.Action action;
+            if ("allow".equalsIgnoreCase(parts[0])) {
+                action = CidrTree.Action.ALLOW;
+            } else if ("deny".equalsIgnoreCase(parts[0])) {
+                action = CidrTree.Action.DENY;
+            } else {
+                throw new IllegalArgumentException("Invalid ip filter line " + number + ": " + line);
+            }
+            tree.add(parts[1], action);
+        }
+    }
+
+    private static final class Rules {
+
+        private final boolean enabled;
+
+        private final CidrTree.Action defaultAction;
+
+        private final CidrTree tree;
+
+        private final Path file;
+
+        private final long refreshMillis;
+
+        private Rules(boolean enabled, CidrTree.Action defaultAction, CidrTree tree, Path file, long refreshMillis) {
+            this.enabled = enabled;
+            this.defaultAction = defaultAction;
+            this.tree = tree;
+            this.file = file;
+            this.refreshMillis = refreshMillis;
+        }
+    }
+}
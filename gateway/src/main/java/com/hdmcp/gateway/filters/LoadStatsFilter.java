@@ -0,0 +1,84 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2020 hdmcp.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package com.hdmcp.gateway.filters;
+
+import com.hdmcp.core.loadbalancer.InstanceLoadStats;
+import com.hdmcp.core.loadbalancer.PeakEwma;
+import org.springframework.cloud.gateway.filter.GatewayFilterChain;
+import org.springframework.cloud.gateway.filter.GlobalFilter;
+import org.springframework.cloud.gateway.filter.LoadBalancerClientFilter;
+import org.springframework.cloud.gateway.route.Route;
+import org.springframework.core.Ordered;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+
+import java.net.URI;
+
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.GATEWAY_REQUEST_URL_ATTR;
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.GATEWAY_ROUTE_ATTR;
+
+/**
+ * 在LoadBalancerClientFilter选出实例之后记录该实例的响应时间、未完成请求数和失败次数，供PeakEwmaRule选择实例
+ *
+ * @author WANGY
+ */
+@Component
+public class LoadStatsFilter implements GlobalFilter, Ordered {
+
+    private static final int LOAD_STATS_FILTER_ORDER = LoadBalancerClientFilter.LOAD_BALANCER_CLIENT_FILTER_ORDER + 1;
+
+    private static final String LB_SCHEME = "lb";
+
+    private final InstanceLoadStats stats = InstanceLoadStats.global();
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, GatewayFilterChain chain) {
+        Route route = exchange.getAttribute(GATEWAY_ROUTE_ATTR);
+        URI url = exchange.getAttribute(GATEWAY_REQUEST_URL_ATTR);
+        if (route == null || url == null || !LB_SCHEME.equalsIgnoreCase(route.getUri().getScheme())
+                || LB_SCHEME.equalsIgnoreCase(url.getScheme())) {
+            return chain.filter(exchange);
+        }
+        PeakEwma ewma = stats.get(InstanceLoadStats.key(url.getHost(), url.getPort()));
+        ewma.start();
+        long start = System.nanoTime();
+        return chain.filter(exchange).doFinally(signal -> {
+            HttpStatus status = exchange.getResponse().getStatusCode();
+            boolean success = signal != SignalType.ON_ERROR && (status == null || !status.is5xxServerError());
+            long now = System.nanoTime();
+            ewma.finish(now - start, success, now);
+        });
+    }
+
+    @Override
+    public int getOrder() {
+        return LOAD_STATS_FILTER_ORDER;
+    }
+}
@@ -0,0 +1,368 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2020 hdmcp.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package com.hdmcp.gateway.filters;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.netty.handler.codec.http.DefaultHttpHeaders;
+import io.netty.handler.codec.http.HttpMethod;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.loadbalancer.LoadBalancerClient;
+import org.springframework.cloud.gateway.filter.GatewayFilter;
+import org.springframework.cloud.gateway.filter.factory.AbstractGatewayFilterFactory;
+import org.springframework.cloud.gateway.filter.headers.HttpHeadersFilter;
+import org.springframework.cloud.gateway.route.Route;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.util.UriComponentsBuilder;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import reactor.netty.http.client.HttpClient;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.GATEWAY_REQUEST_URL_ATTR;
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.GATEWAY_ROUTE_ATTR;
+
+/**
+ * 流量镜像，把路由上按比例采样的请求异步复制一份发往影子服务(如待上线的order-web新版本)，影子响应直接丢弃
+ * <p>
+ * 在主请求的响应提交时才发出镜像请求：此时鉴权已完成，可以带上与主请求相同的x-user-*请求头，
+ * 被限流、降载的请求(429/503)不镜像。镜像请求只是订阅后立即返回，不等待影子服务，主请求不增加耗时；
+ * lb://影子服务的实例在elastic线程上选择，Ribbon第一次为某个服务创建子上下文时不会阻塞主请求的事件循环；
+ * 同时在途的镜像请求超过maxInFlight时跳过。请求体无法重放，只镜像没有请求体的请求。
+ * 镜像请求带有x-shadow-request: true，影子服务据此避免写入等副作用
+ * <p>
+ * 用法: filters: - name: MirrorFilter
+ * args:
+ * uri: lb://order-web-canary
+ * sampleRate: 0.1
+ *
+ * @author WANGY
+ */
+@Component
+public class MirrorFilter extends AbstractGatewayFilterFactory<MirrorFilter.Config> {
+
+    private static final Logger log = LoggerFactory.getLogger(MirrorFilter.class);
+
+    public static final String SHADOW_HEADER = "x-shadow-request";
+
+    private static final String LB_SCHEME = "lb";
+
+    private final HttpClient httpClient;
+
+    private final ObjectProvider<List<HttpHeadersFilter>> headersFilters;
+
+    private final LoadBalancerClient loadBalancer;
+
+    private final MeterRegistry meterRegistry;
+
+    private final Map<String, RouteMirror> routes = new ConcurrentHashMap<>();
+
+    public MirrorFilter(HttpClient httpClient, ObjectProvider<List<HttpHeadersFilter>> headersFilters,
+                        LoadBalancerClient loadBalancer, MeterRegistry meterRegistry) {
+        super(Config.class);
+        this.httpClient = httpClient;
+        this.headersFilters = headersFilters;
+        this.loadBalancer = loadBalancer;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public List<String> shortcutFieldOrder() {
+        return Arrays.asList("uri", "sampleRate");
+    }
+
+    @Override
+    public GatewayFilter apply(Config config) {
+        URI target = URI.create(config.getUri());
+        return (exchange, chain) -> {
+            Route route = exchange.getAttribute(GATEWAY_ROUTE_ATTR);
+            if (route == null || WarmupFilter.isWarmup(exchange)) {
+                return chain.filter(exchange);
+            }
+            RouteMirror mirror = routes.get(route.getId());
+            if (mirror == null) {
+                mirror = routes.computeIfAbsent(route.getId(), id -> new RouteMirror(id, target));
+            }
+            if (!isMirrorable(exchange.getRequest(), config)) {
+                mirror.unsupported.increment();
+                return chain.filter(exchange);
+            }
+            if (ThreadLocalRandom.current().nextDouble() >= config.getSampleRate()) {
+                mirror.sampledOut.increment();
+                return chain.filter(exchange);
+            }
+            RouteMirror routeMirror = mirror;
+            exchange.getResponse().beforeCommit(() -> {
+                mirror(exchange, route, target, routeMirror, config);
+                return Mono.empty();
+            });
+            return chain.filter(exchange);
+        };
+    }
+
+    private static boolean isMirrorable(ServerHttpRequest request, Config config) {
+        HttpHeaders headers = request.getHeaders();
+        if (headers.getContentLength() > 0 || headers.containsKey(HttpHeaders.TRANSFER_ENCODING)
+                || headers.containsKey(SHADOW_HEADER)) {
+            return false;
+        }
+        String method = request.getMethodValue();
+        return method != null && config.getMethods().contains(method);
+    }
+
+    private void mirror(ServerWebExchange exchange, Route route, URI target, RouteMirror mirror, Config config) {
+        HttpStatus status = exchange.getResponse().getStatusCode();
+        if (status == HttpStatus.TOO_MANY_REQUESTS || status == HttpStatus.SERVICE_UNAVAILABLE) {
+            mirror.skipped.increment();
+            return;
+        }
+        if (mirror.inflight.incrementAndGet() > config.getMaxInFlight()) {
+            mirror.inflight.decrementAndGet();
+            mirror.saturated.increment();
+            return;
+        }
+        try {
+            URI requestUrl = exchange.getAttribute(GATEWAY_REQUEST_URL_ATTR);
+            URI url = requestUrl != null ? requestUrl : exchange.getRequest().getURI();
+            DefaultHttpHeaders headers = shadowHeaders(exchange, route);
+            HttpMethod method = HttpMethod.valueOf(exchange.getRequest().getMethodValue());
+            Mono.fromCallable(() -> shadowUrl(url, target))
+                    .subscribeOn(Schedulers.elastic())
+                    .flatMap(shadowUrl -> send(shadowUrl, method, headers, mirror, config))
+                    .switchIfEmpty(Mono.fromRunnable(mirror.noInstance::increment))
+                    .doFinally(signal -> mirror.inflight.decrementAndGet())
+                    .subscribe(null, e -> {
+                        mirror.record(0, 0);
+                        log.debug("shadow request for route {} failed: {}", route.getId(), e.toString());
+                    });
+        } catch (RuntimeException e) {
+            mirror.inflight.decrementAndGet();
+            mirror.record(0, 0);
+            log.debug("shadow request for route {} failed: {}", route.getId(), e.toString());
+        }
+    }
+
+    /**
+     * @return 影子响应的状态码，失败或超时时为0
+     */
+    private Mono<Integer> send(URI url, HttpMethod method, DefaultHttpHeaders headers, RouteMirror mirror,
+                               Config config) {
+        long start = System.nanoTime();
+        mirror.sent.increment();
+        return httpClient.headers(h -> h.add(headers))
+                .request(method)
+                .uri(url.toASCIIString())
+                .response((res, body) -> body.then(Mono.just(res.status().code())))
+                .next()
+                .timeout(Duration.ofMillis(config.getTimeoutMillis()))
+                .doOnError(e -> log.debug("shadow request to {} failed: {}", url, e.toString()))
+                .onErrorReturn(0)
+                .doOnNext(code -> mirror.record(code, System.nanoTime() - start));
+    }
+
+    /**
+     * 影子服务的实例地址 + 主请求经过路由过滤器改写后的path、query
+     *
+     * @return 没有可用实例时返回null
+     */
+    private URI shadowUrl(URI url, URI target) {
+        UriComponentsBuilder builder = UriComponentsBuilder.fromUri(url);
+        if (LB_SCHEME.equalsIgnoreCase(target.getScheme())) {
+            ServiceInstance instance = loadBalancer.choose(target.getHost());
+            if (instance == null) {
+                return null;
+            }
+            builder.scheme(instance.isSecure() ? "https" : "http")
+                    .host(instance.getHost())
+                    .port(instance.getPort());
+        } else {
+            builder.scheme(target.getScheme())
+                    .host(target.getHost())
+                    .port(target.getPort());
+        }
+        return builder.build(true).toUri();
+    }
+
+    private DefaultHttpHeaders shadowHeaders(ServerWebExchange exchange, Route route) {
+        HttpHeaders filtered = HttpHeadersFilter.filterRequest(headersFilters.getIfAvailable(), exchange);
+        DefaultHttpHeaders headers = new DefaultHttpHeaders();
+        filtered.forEach(headers::set);
+        headers.remove(HttpHeaders.HOST);
+        // AuthFilter在镜像过滤器之后修改的请求对这里不可见，按相同的规则补上用户请求头
+        String userId = exchange.getAttribute(AuthFilter.USER_ID_ATTR);
+        String userName = exchange.getAttribute(AuthFilter.USER_NAME_ATTR);
+        if (userId != null && userName != null) {
+            headers.set("x-user-id", userId);
+            headers.set("x-user-name", userName);
+            headers.set("x-user-serviceName", route.getUri().getHost());
+        }
+        headers.set(SHADOW_HEADER, "true");
+        return headers;
+    }
+
+    private final class RouteMirror {
+
+        private final String routeId;
+
+        private final String target;
+
+        private final AtomicInteger inflight = new AtomicInteger();
+
+        private final Counter sent;
+
+        private final Counter sampledOut;
+
+        private final Counter skipped;
+
+        private final Counter saturated;
+
+        private final Counter unsupported;
+
+        private final Counter noInstance;
+
+        private final Map<String, Timer> latency = new ConcurrentHashMap<>();
+
+        private RouteMirror(String routeId, URI target) {
+            this.routeId = routeId;
+            this.target = target.getHost();
+            this.sent = counter("sent");
+            this.sampledOut = counter("sampled_out");
+            this.skipped = counter("primary_rejected");
+            this.saturated = counter("saturated");
+            this.unsupported = counter("unsupported");
+            this.noInstance = counter("no_instance");
+            Gauge.builder("gateway.mirror.inflight", inflight, AtomicInteger::get)
+                    .tags("route", routeId, "target", this.target)
+                    .register(meterRegistry);
+        }
+
+        private Counter counter(String result) {
+            return meterRegistry.counter("gateway.mirror.requests", "route", routeId, "target", target,
+                    "result", result);
+        }
+
+        /**
+         * @param status 0表示请求失败或超时
+         */
+        private void record(int status, long nanos) {
+            String outcome = status == 0 ? "error" : (status / 100) + "xx";
+            Timer timer = latency.get(outcome);
+            if (timer == null) {
+                timer = latency.computeIfAbsent(outcome, key -> Timer.builder("gateway.mirror.latency")
+                        .description("shadow response time, excluded from gateway.route.latency")
+                        .tags("route", routeId, "target", target, "status", key)
+                        .publishPercentiles(0.5, 0.9, 0.99, 0.999)
+                        .register(meterRegistry));
+            }
+            timer.record(nanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    public static class Config {
+
+        /**
+         * 影子服务，lb://serviceId或http(s)://host:port
+         */
+        private String uri;
+
+        /**
+         * 镜像的请求比例，0~1
+         */
+        private double sampleRate = 0.1D;
+
+        /**
+         * 同时在途的镜像请求上限，超过后跳过
+         */
+        private int maxInFlight = 64;
+
+        private long timeoutMillis = 3000;
+
+        /**
+         * 镜像的请求方法
+         */
+        private List<String> methods = new ArrayList<>(Arrays.asList("GET", "HEAD"));
+
+        public String getUri() {
+            return uri;
+        }
+
+        public void setUri(String uri) {
+            this.uri = uri;
+        }
+
+        public double getSampleRate() {
+            return sampleRate;
+        }
+
+        public void setSampleRate(double sampleRate) {
+            this.sampleRate = sampleRate;
+        }
+
+        public int getMaxInFlight() {
+            return maxInFlight;
+        }
+
+        public void setMaxInFlight(int maxInFlight) {
+            this.maxInFlight = maxInFlight;
+        }
+
+        public long getTimeoutMillis() {
+            return timeoutMillis;
+        }
+
+        public void setTimeoutMillis(long timeoutMillis) {
+            this.timeoutMillis = timeoutMillis;
+        }
+
+        public List<String> getMethods() {
+            return methods;
+        }
+
+        public void setMethods(List<String> methods) {
+            this.methods = methods;
+        }
+    }
+}
@@ -0,0 +1,345 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2020 hdmcp.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package com.hdmcp.gateway.filters;
+
+import com.hdmcp.gateway.config.SheddingProperties;
+import com.hdmcp.gateway.ratelimit.Priority;
+import com.hdmcp.gateway.ratelimit.PriorityShedder;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.cloud.context.environment.EnvironmentChangeEvent;
+import org.springframework.cloud.gateway.filter.GatewayFilterChain;
+import org.springframework.cloud.gateway.filter.GlobalFilter;
+import org.springframework.cloud.gateway.route.Route;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.env.Environment;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.util.pattern.PathPattern;
+import org.springframework.web.util.pattern.PathPatternParser;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.GATEWAY_ROUTE_ATTR;
+
+/**
+ * 按优先级分级降载
+ * <p>
+ * 按路由、请求方法、路径或请求头把请求分为critical/high/normal/low，网关并发数达到上限后进入各自的队列，
+ * 高优先级先放行，低优先级按CoDel排队时延先被丢弃，返回503。
+ * 在RouteMetricsFilter、AccessLogFilter、IpFilter、HeavyHitterFilter之后、鉴权之前执行，被丢弃的请求不消耗鉴权和转发的开销。
+ * 因此请求头规则只能匹配边缘代理设置或剥离的请求头，否则客户端可以自带请求头把自己提升为critical。
+ * 规则随Nacos配置变更重新绑定，配置有误时保留上一次的规则；排队器原地调整，已放行的请求仍计入并发数
+ *
+ * @author WANGY
+ */
+@Component
+public class PriorityShedFilter implements GlobalFilter, Ordered {
+
+    private static final Logger log = LoggerFactory.getLogger(PriorityShedFilter.class);
+
+    private static final int PRIORITY_SHED_FILTER_ORDER = HIGHEST_PRECEDENCE + 4;
+
+    private static final PathPatternParser PATH_PARSER = new PathPatternParser();
+
+    private final Environment environment;
+
+    private final Map<Priority, TierMeters> meters = new EnumMap<>(Priority.class);
+
+    private volatile Rules rules;
+
+    public PriorityShedFilter(Environment environment, MeterRegistry meterRegistry) {
+        this.environment = environment;
+        for (Priority priority : Priority.values()) {
+            meters.put(priority, new TierMeters(priority, meterRegistry));
+            Gauge.builder("gateway.shed.queue.size", this, filter -> filter.rules.shedder.queueSize(priority))
+                    .tag("tier", priority.tag()).register(meterRegistry);
+        }
+        Gauge.builder("gateway.shed.inflight", this, filter -> filter.rules.shedder.getInflight())
+                .register(meterRegistry);
+        bind();
+    }
+
+    @EventListener
+    public void onEnvironmentChange(EnvironmentChangeEvent event) {
+        for (String key : event.getKeys()) {
+            if (key.startsWith(SheddingProperties.PREFIX)) {
+                bind();
+                return;
+            }
+        }
+    }
+
+    private void bind() {
+        SheddingProperties properties = Binder.get(environment)
+                .bind(SheddingProperties.PREFIX, Bindable.of(SheddingProperties.class))
+                .orElseGet(SheddingProperties::new);
+        Rules previous = this.rules;
+        try {
+            this.rules = new Rules(properties, previous == null ? null : previous.shedder);
+            log.info("load shedding rules updated: maxConcurrency={}, {} rules", properties.getMaxConcurrency(),
+                    rules.rules.size());
+        } catch (IllegalArgumentException e) {
+            if (previous == null) {
+                this.rules = new Rules(new SheddingProperties(), null);
+            }
+            log.warn("load shedding rules failed, keep the previous {} rules", rules.rules.size(), e);
+        }
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, GatewayFilterChain chain) {
+        Rules rules = this.rules;
+        if (!rules.enabled) {
+            return chain.filter(exchange);
+        }
+        Priority priority = rules.classify(exchange);
+        TierMeters tier = meters.get(priority);
+        PriorityShedder shedder = rules.shedder;
+        return shedder.acquire(priority).flatMap(admission -> {
+            tier.count(admission);
+            if (admission.isAdmitted()) {
+                return chain.filter(exchange).doFinally(signal -> shedder.release());
+            }
+            exchange.getResponse().setStatusCode(HttpStatus.SERVICE_UNAVAILABLE);
+            return exchange.getResponse().setComplete();
+        });
+    }
+
+    @Override
+    public int getOrder() {
+        return PRIORITY_SHED_FILTER_ORDER;
+    }
+
+    /**
+     * @return 各优先级的放行、排队、丢弃计数与当前队列长度
+     */
+    public Map<String, Object> stats() {
+        PriorityShedder shedder = rules.shedder;
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("inflight", shedder.getInflight());
+        stats.put("maxConcurrency", shedder.getMaxConcurrency());
+        for (Priority priority : Priority.values()) {
+            TierMeters tier = meters.get(priority);
+            Map<String, Object> values = new LinkedHashMap<>();
+            values.put("admitted", (long) (tier.admitted.count() + tier.queued.count()));
+            values.put("queued", (long) tier.queued.count());
+            values.put("shed", (long) (tier.queueFull.count() + tier.dropped.count() + tier.timeout.count()));
+            values.put("queueSize", shedder.queueSize(priority));
+            stats.put(priority.tag(), values);
+        }
+        return stats;
+    }
+
+    private static final class TierMeters {
+
+        private final Counter admitted;
+
+        private final Counter queued;
+
+        private final Counter queueFull;
+
+        private final Counter dropped;
+
+        private final Counter timeout;
+
+        private TierMeters(Priority priority, MeterRegistry registry) {
+            String tier = priority.tag();
+            this.admitted = registry.counter("gateway.shed.admitted", "tier", tier, "queued", "false");
+            this.queued = registry.counter("gateway.shed.admitted", "tier", tier, "queued", "true");
+            this.queueFull = registry.counter("gateway.shed.rejected", "tier", tier, "reason", "queue_full");
+            this.dropped = registry.counter("gateway.shed.rejected", "tier", tier, "reason", "codel");
+            this.timeout = registry.counter("gateway.shed.rejected", "tier", tier, "reason", "timeout");
+        }
+
+        private void count(PriorityShedder.Admission admission) {
+            switch (admission) {
+                case ADMITTED:
+                    admitted.increment();
+                    break;
+                case QUEUED:
+                    queued.increment();
+                    break;
+                case QUEUE_FULL:
+                    queueFull.increment();
+                    break;
+                case DROPPED:
+                    dropped.increment();
+                    break;
+                default:
+                    timeout.increment();
+            }
+        }
+    }
+
+    /**
+     * 绑定后的规则，配置变更时整体替换；排队器在各次绑定间共用，按新配置原地调整
+     */
+    static final class Rules {
+
+        /**
+         * critical、high、normal、low的默认队列长度、CoDel目标时延与最长排队时间
+         */
+        private static final int[] QUEUE_SIZE = {1024, 512, 256, 128};
+        private static final long[] TARGET_MILLIS = {50, 20, 10, 5};
+        private static final long[] MAX_WAIT_MILLIS = {5000, 2000, 1000, 500};
+        private static final long INTERVAL_MILLIS = 100;
+
+        private final boolean enabled;
+
+        private final Priority defaultPriority;
+
+        private final List<Rule> rules;
+
+        private final PriorityShedder shedder;
+
+        /**
+         * @param shedder 上一次绑定的排队器，为null时新建
+         * @throws IllegalArgumentException 请求方法或路径无法解析
+         */
+        Rules(SheddingProperties properties, PriorityShedder shedder) {
+            this.enabled = properties.isEnabled() && properties.getMaxConcurrency() > 0;
+            this.defaultPriority = Priority.of(properties.getDefaultPriority(), Priority.NORMAL);
+            List<Rule> rules = new ArrayList<>();
+            if (properties.getRules().isEmpty()) {
+                rules.add(new Rule(Priority.CRITICAL, null, HttpMethod.POST, PATH_PARSER.parse("/order/orders"),
+                        null, null));
+            }
+            for (SheddingProperties.Rule rule : properties.getRules()) {
+                String header = null;
+                String headerValue = null;
+                if (StringUtils.hasText(rule.getHeader())) {
+                    int eq = rule.getHeader().indexOf('=');
+                    header = eq < 0 ? rule.getHeader().trim() : rule.getHeader().substring(0, eq).trim();
+                    headerValue = eq < 0 ? null : rule.getHeader().substring(eq + 1).trim();
+                }
+                HttpMethod method = null;
+                if (StringUtils.hasText(rule.getMethod())) {
+                    method = HttpMethod.resolve(rule.getMethod().trim().toUpperCase());
+                    if (method == null) {
+                        throw new IllegalArgumentException("Invalid shedding rule method: " + rule.getMethod());
+                    }
+                }
+                rules.add(new Rule(Priority.of(rule.getPriority(), defaultPriority), rule.getRoute(), method,
+                        rule.getPath() == null ? null : PATH_PARSER.parse(rule.getPath()), header, headerValue));
+            }
+            this.rules = Collections.unmodifiableList(rules);
+            Priority[] priorities = Priority.values();
+            PriorityShedder.Tier[] tiers = new PriorityShedder.Tier[priorities.length];
+            for (int i = 0; i < priorities.length; i++) {
+                SheddingProperties.Tier tier = properties.getTiers().get(priorities[i].tag());
+                if (tier == null) {
+                    tier = new SheddingProperties.Tier();
+                }
+                tiers[i] = new PriorityShedder.Tier(
+                        tier.getQueueSize() == null ? QUEUE_SIZE[i] : tier.getQueueSize(),
+                        TimeUnit.MILLISECONDS.toNanos(tier.getTargetMillis() == null ? TARGET_MILLIS[i] : tier.getTargetMillis()),
+                        TimeUnit.MILLISECONDS.toNanos(tier.getIntervalMillis() == null ? INTERVAL_MILLIS : tier.getIntervalMillis()),
+                        TimeUnit.MILLISECONDS.toNanos(tier.getMaxWaitMillis() == null ? MAX_WAIT_MILLIS[i] : tier.getMaxWaitMillis()));
+            }
+            if (shedder == null) {
+                shedder = new PriorityShedder(properties.getMaxConcurrency(), tiers);
+            } else {
+                shedder.configure(properties.getMaxConcurrency(), tiers);
+            }
+            this.shedder = shedder;
+        }
+
+        Priority classify(ServerWebExchange exchange) {
+            if (rules.isEmpty()) {
+                return defaultPriority;
+            }
+            ServerHttpRequest request = exchange.getRequest();
+            Route route = exchange.getAttribute(GATEWAY_ROUTE_ATTR);
+            for (Rule rule : rules) {
+                if (rule.matches(request, route)) {
+                    return rule.priority;
+                }
+            }
+            return defaultPriority;
+        }
+    }
+
+    private static final class Rule {
+
+        private final Priority priority;
+
+        private final String routeId;
+
+        private final HttpMethod method;
+
+        private final PathPattern path;
+
+        private final String header;
+
+        private final String headerValue;
+
+        private Rule(Priority priority, String routeId, HttpMethod method, PathPattern path, String header,
+                     String headerValue) {
+            this.priority = priority;
+            this.routeId = routeId;
+            this.method = method;
+            this.path = path;
+            this.header = header;
+            this.headerValue = headerValue;
+        }
+
+        private boolean matches(ServerHttpRequest request, Route route) {
+            if (routeId != null && (route == null || !routeId.equals(route.getId()))) {
+                return false;
+            }
+            if (method != null && method != request.getMethod()) {
+                return false;
+            }
+            if (path != null && !path.matches(request.getPath().pathWithinApplication())) {
+                return false;
+            }
+            if (header != null) {
+                String value = request.getHeaders().getFirst(header);
+                return value != null && (headerValue == null || headerValue.equals(value));
+            }
+            return true;
+        }
+    }
+}
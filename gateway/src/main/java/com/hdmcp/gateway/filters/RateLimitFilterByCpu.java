@@ -23,12 +23,15 @@
  *
  */
 
+
 package com.hdmcp.gateway.filters;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.boot.actuate.metrics.MetricsEndpoint;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.cloud.gateway.filter.GatewayFilter;
 import org.springframework.cloud.gateway.filter.GatewayFilterChain;
 import org.springframework.core.Ordered;
@@ -37,10 +40,18 @@ import org.springframework.stereotype.Component;
 import org.springframework.web.server.ServerWebExchange;
 import reactor.core.publisher.Mono;
 
-import java.util.Objects;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 
 /**
  * 根据CPU的使用情况限流
+ * <p>
+ * CPU使用率由后台线程定时采样，请求线程只读取volatile快照；
+ * 准入概率按AIMD调整：超过阀值时乘性降低，低于阀值时加性恢复，避免在全部放行和全部429之间震荡
  *
  * @author WANGY
  */
@@ -48,38 +59,126 @@ import java.util.Objects;
 public class RateLimitFilterByCpu implements GatewayFilter, Ordered {
     private final Logger log = LoggerFactory.getLogger(RateLimitFilterByCpu.class);
 
-    @Autowired
-    private MetricsEndpoint metricsEndpoint;
-
     private static final String METRIC_NAME = "system.cpu.usage";
 
-    private static final double MAX_USAGE = 0.50D;
+    private final MeterRegistry meterRegistry;
+
+    private final Counter rejected;
+
+    /**
+     * CPU使用率阀值
+     */
+    @Value("${samples.ratelimit.cpu.max-usage:0.50}")
+    private double maxUsage;
+
+    /**
+     * 采样间隔(毫秒)
+     */
+    @Value("${samples.ratelimit.cpu.interval:1000}")
+    private long interval;
+
+    /**
+     * 低于阀值时每次增加的准入概率
+     */
+    @Value("${samples.ratelimit.cpu.increase:0.05}")
+    private double increase;
+
+    /**
+     * 超过阀值时准入概率的乘数
+     */
+    @Value("${samples.ratelimit.cpu.decrease:0.8}")
+    private double decrease;
+
+    /**
+     * 最低准入概率，保证仍有少量请求通过
+     */
+    @Value("${samples.ratelimit.cpu.min-admission:0.05}")
+    private double minAdmission;
+
+    private volatile Snapshot snapshot = new Snapshot(0.0D, 1.0D);
+
+    private ScheduledExecutorService sampler;
+
+    public RateLimitFilterByCpu(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+        this.rejected = meterRegistry.counter("gateway.ratelimit.cpu.rejected");
+        Gauge.builder("gateway.ratelimit.cpu.admission", this, f -> f.snapshot.admission)
+                .description("probability that a request is admitted")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        sampler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "gateway-cpu-sampler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sampler.scheduleWithFixedDelay(this::sample, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (sampler != null) {
+            sampler.shutdownNow();
+        }
+    }
 
     @Override
     public Mono<Void> filter(ServerWebExchange exchange, GatewayFilterChain chain) {
-        //获取网关所在机器的CPU使用情况
-        Double systemCpuUsage = metricsEndpoint.metric(METRIC_NAME, null)
-                .getMeasurements()
-                .stream()
-                .filter(Objects::nonNull)
-                .findFirst()
-                .map(MetricsEndpoint.Sample::getValue)
-                .filter(Double::isFinite)
-                .orElse(0.0D);
-
-        boolean isOpenRateLimit = systemCpuUsage >MAX_USAGE;
-        log.warn("system.cpu.usage: {}, isOpenRateLimit:{} ",systemCpuUsage , isOpenRateLimit);
-        if (isOpenRateLimit) {
-            //当CPU的使用超过设置的最大阀值开启限流
-            exchange.getResponse().setStatusCode(HttpStatus.TOO_MANY_REQUESTS);
-            return exchange.getResponse().setComplete();
-        } else {
+        double admission = snapshot.admission;
+        if (admission >= 1.0D || ThreadLocalRandom.current().nextDouble() < admission) {
             return chain.filter(exchange);
         }
+        //当CPU的使用超过设置的最大阀值时按概率限流
+        rejected.increment();
+        exchange.getResponse().setStatusCode(HttpStatus.TOO_MANY_REQUESTS);
+        return exchange.getResponse().setComplete();
+    }
+
+    /**
+     * 获取网关所在机器的CPU使用情况并调整准入概率
+     */
+    void sample() {
+        try {
+            Gauge gauge = meterRegistry.find(METRIC_NAME).gauge();
+            double cpuUsage = gauge == null ? 0.0D : gauge.value();
+            if (!Double.isFinite(cpuUsage)) {
+                cpuUsage = 0.0D;
+            }
+            Snapshot previous = snapshot;
+            double admission = cpuUsage > maxUsage
+                    ? Math.max(minAdmission, previous.admission * decrease)
+                    : Math.min(1.0D, previous.admission + increase);
+            if (admission != previous.admission) {
+                log.debug("system.cpu.usage: {}, admission: {} -> {}", cpuUsage, previous.admission, admission);
+            }
+            snapshot = new Snapshot(cpuUsage, admission);
+        } catch (Exception e) {
+            log.warn("sample system.cpu.usage failed", e);
+        }
+    }
+
+    public double getCpuUsage() {
+        return snapshot.cpuUsage;
+    }
+
+    public double getAdmission() {
+        return snapshot.admission;
     }
 
     @Override
     public int getOrder() {
         return 0;
     }
+
+    private static final class Snapshot {
+        private final double cpuUsage;
+        private final double admission;
+
+        private Snapshot(double cpuUsage, double admission) {
+            this.cpuUsage = cpuUsage;
+            this.admission = admission;
+        }
+    }
 }
@@ -23,14 +23,18 @@
  *
  */
 
+
 package com.hdmcp.gateway.filters;
 
-import io.github.bucket4j.Bandwidth;
+import com.hdmcp.gateway.ratelimit.BucketStore;
+import com.hdmcp.gateway.ratelimit.Quota;
+import com.hdmcp.gateway.ratelimit.RateLimitKeyResolver;
 import io.github.bucket4j.Bucket;
-import io.github.bucket4j.Bucket4j;
-import io.github.bucket4j.Refill;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import io.github.bucket4j.ConsumptionProbe;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.springframework.cloud.gateway.filter.GatewayFilter;
 import org.springframework.cloud.gateway.filter.GatewayFilterChain;
 import org.springframework.core.Ordered;
@@ -39,62 +43,95 @@ import org.springframework.web.server.ServerWebExchange;
 import reactor.core.publisher.Mono;
 
 import java.time.Duration;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
+ * 令牌桶限流，默认按IP限流，也可以按多个Quota分层限流(如路由内的每个用户)
+ *
  * @author WANGY
  */
 public class RateLimitFilterByIp implements GatewayFilter, Ordered {
 
-    private final Logger logger = LoggerFactory.getLogger(RateLimitFilterByIp.class);
-
     /**
-     * 单机网关限流用一个ConcurrentHashMap来存储 bucket，
-     * 如果是分布式集群限流的话，可以采用 Redis等分布式解决方案
+     * 可用Token数量的采样间隔，每SAMPLE_RATE个请求记录一次
      */
-    private static final Map<String, Bucket> LOCAL_CACHE = new ConcurrentHashMap<>();
+    private static final int SAMPLE_RATE = 64;
 
     /**
-     * 桶的最大容量，即能装载 Token 的最大数量
-     */
-    int capacity;
-    /**
-     * 每次 Token 补充量
-     */
-    int refillTokens;
-    /**
-     *补充 Token 的时间间隔
+     * 单机网关限流用一个有容量上限的BucketStore来存储 bucket，
+     * 如果是分布式集群限流的话，使用 ClusterRateLimitFilter
      */
-    Duration refillDuration;
+    private final BucketStore bucketStore;
 
-    public RateLimitFilterByIp() {
-    }
+    private final List<Quota> quotas;
+
+    private final Counter allowed;
+    private final Counter rejected;
+    private final DistributionSummary availableTokens;
 
-    public RateLimitFilterByIp(int capacity, int refillTokens, Duration refillDuration) {
-        this.capacity = capacity;
-        this.refillTokens = refillTokens;
-        this.refillDuration = refillDuration;
+    /**
+     * 按IP限流
+     *
+     * @param name 指标的limiter标签，每个实例应使用不同的名称，否则后注册的Gauge会被先注册的遮蔽
+     */
+    public RateLimitFilterByIp(int capacity, int refillTokens, Duration refillDuration, String name,
+                               MeterRegistry meterRegistry) {
+        this(Collections.singletonList(new Quota("ip", RateLimitKeyResolver.remoteIp(), capacity, refillTokens, refillDuration)),
+                new BucketStore(), name, meterRegistry);
     }
 
-    private Bucket createNewBucket() {
-        Refill refill = Refill.of(refillTokens, refillDuration);
-        Bandwidth limit = Bandwidth.classic(capacity, refill);
-        return Bucket4j.builder().addLimit(limit).build();
+    /**
+     * @param quotas      按顺序依次校验的配额，任意一级没有可用Token即限流
+     * @param bucketStore 令牌桶存储
+     * @param name        指标的limiter标签
+     */
+    public RateLimitFilterByIp(List<Quota> quotas, BucketStore bucketStore, String name, MeterRegistry meterRegistry) {
+        this.quotas = quotas;
+        this.bucketStore = bucketStore;
+        this.allowed = meterRegistry.counter("gateway.ratelimit.requests", "limiter", name, "result", "allowed");
+        this.rejected = meterRegistry.counter("gateway.ratelimit.requests", "limiter", name, "result", "rejected");
+        this.availableTokens = DistributionSummary.builder("gateway.ratelimit.available.tokens")
+                .description("sampled available tokens after consumption")
+                .tag("limiter", name)
+                .register(meterRegistry);
+        Gauge.builder("gateway.ratelimit.buckets", bucketStore, BucketStore::size)
+                .tag("limiter", name)
+                .register(meterRegistry);
+        Gauge.builder("gateway.ratelimit.buckets.memory", bucketStore, BucketStore::estimatedBytes)
+                .tag("limiter", name)
+                .baseUnit("bytes")
+                .register(meterRegistry);
     }
 
     @Override
     public Mono<Void> filter(ServerWebExchange exchange, GatewayFilterChain chain) {
-        String ip = exchange.getRequest().getRemoteAddress().getAddress().getHostAddress();
-        Bucket bucket = LOCAL_CACHE.computeIfAbsent(ip, k -> createNewBucket());
-        logger.warn("IP:{} ,令牌通可用的Token数量:{} " ,ip,bucket.getAvailableTokens());
-        if (bucket.tryConsume(1)) {
-            return chain.filter(exchange);
-        } else {
-            //当可用的令牌书为0是，进行限流返回429状态码
-            exchange.getResponse().setStatusCode(HttpStatus.TOO_MANY_REQUESTS);
-            return exchange.getResponse().setComplete();
+        int size = quotas.size();
+        Bucket[] consumed = size > 1 ? new Bucket[size] : null;
+        for (int i = 0; i < size; i++) {
+            Quota quota = quotas.get(i);
+            Bucket bucket = bucketStore.getBucket(quota.resolveKey(exchange), quota::createBucket);
+            ConsumptionProbe probe = bucket.tryConsumeAndReturnRemaining(1);
+            if (!probe.isConsumed()) {
+                // 归还上层已扣除的Token
+                for (int j = 0; j < i; j++) {
+                    consumed[j].addTokens(1);
+                }
+                rejected.increment();
+                //当可用的令牌书为0是，进行限流返回429状态码
+                exchange.getResponse().setStatusCode(HttpStatus.TOO_MANY_REQUESTS);
+                return exchange.getResponse().setComplete();
+            }
+            if (consumed != null) {
+                consumed[i] = bucket;
+            }
+            if (ThreadLocalRandom.current().nextInt(SAMPLE_RATE) == 0) {
+                availableTokens.record(probe.getRemainingTokens());
+            }
         }
+        allowed.increment();
+        return chain.filter(exchange);
     }
 
     @Override
@@ -102,31 +139,11 @@ public class RateLimitFilterByIp implements GatewayFilter, Ordered {
         return -1000;
     }
 
-    public static Map<String, Bucket> getLocalCache() {
-        return LOCAL_CACHE;
-    }
-
-    public int getCapacity() {
-        return capacity;
-    }
-
-    public void setCapacity(int capacity) {
-        this.capacity = capacity;
-    }
-
-    public int getRefillTokens() {
-        return refillTokens;
-    }
-
-    public void setRefillTokens(int refillTokens) {
-        this.refillTokens = refillTokens;
-    }
-
-    public Duration getRefillDuration() {
-        return refillDuration;
+    public BucketStore getBucketStore() {
+        return bucketStore;
     }
 
-    public void setRefillDuration(Duration refillDuration) {
-        this.refillDuration = refillDuration;
+    public List<Quota> getQuotas() {
+        return quotas;
     }
 }
@@ -0,0 +1,301 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2020 hdmcp.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package com.hdmcp.gateway.filters;
+
+import com.hdmcp.gateway.cache.CachedResponse;
+import com.hdmcp.gateway.cache.ResponseCacheStore;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.reactivestreams.Publisher;
+import org.springframework.cloud.gateway.filter.GatewayFilter;
+import org.springframework.cloud.gateway.filter.NettyWriteResponseFilter;
+import org.springframework.cloud.gateway.filter.OrderedGatewayFilter;
+import org.springframework.cloud.gateway.filter.factory.AbstractGatewayFilterFactory;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.http.server.reactive.ServerHttpResponseDecorator;
+import org.springframework.stereotype.Component;
+import org.springframework.util.DigestUtils;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * 网关响应缓存，只缓存GET请求的200响应
+ * <p>
+ * 遵循响应的Cache-Control(no-store、no-cache、private、max-age、s-maxage)、Vary和Set-Cookie，
+ * 路由配置的ttl是缓存时间的上限；varyOnUser为true时按x-user-id分别缓存。
+ * 命中缓存和304由{@link ResponseCacheHitFilter}在鉴权之后处理，这里只负责在响应写出时保存响应体
+ * <p>
+ * 用法: filters: - name: ResponseCacheFilter
+ * args:
+ * ttlMillis: 60000
+ * varyOnUser: true
+ *
+ * @author WANGY
+ */
+@Component
+public class ResponseCacheFilter extends AbstractGatewayFilterFactory<ResponseCacheFilter.Config> {
+
+    public static final String RESPONSE_CACHE_ATTR = ResponseCacheFilter.class.getName() + ".context";
+
+    public static final String USER_ID_HEADER = "x-user-id";
+
+    private final ResponseCacheStore store;
+
+    private final Counter stored;
+
+    public ResponseCacheFilter(ResponseCacheStore store, MeterRegistry meterRegistry) {
+        super(Config.class);
+        this.store = store;
+        this.stored = meterRegistry.counter("gateway.response.cache.stored");
+    }
+
+    @Override
+    public GatewayFilter apply(Config config) {
+        // 必须在NettyWriteResponseFilter之前替换response，否则写出响应时不会经过装饰器
+        return new OrderedGatewayFilter((exchange, chain) -> {
+            ServerHttpRequest request = exchange.getRequest();
+            if (request.getMethod() != HttpMethod.GET
+                    || hasDirective(request.getHeaders().getCacheControl(), "no-store")) {
+                return chain.filter(exchange);
+            }
+            Context context = new Context(config);
+            exchange.getAttributes().put(RESPONSE_CACHE_ATTR, context);
+            ServerHttpResponse response = new CachingResponse(exchange.getResponse(), context);
+            return chain.filter(exchange.mutate().response(response).build());
+        }, NettyWriteResponseFilter.WRITE_RESPONSE_FILTER_ORDER - 1);
+    }
+
+    static boolean hasDirective(String cacheControl, String directive) {
+        return directive(cacheControl, directive) != null;
+    }
+
+    /**
+     * @return 指令不存在时返回null，没有值时返回空字符串
+     */
+    static String directive(String cacheControl, String directive) {
+        if (cacheControl == null) {
+            return null;
+        }
+        for (String part : cacheControl.split(",")) {
+            String token = part.trim();
+            int eq = token.indexOf('=');
+            String name = eq < 0 ? token : token.substring(0, eq).trim();
+            if (name.equalsIgnoreCase(directive)) {
+                return eq < 0 ? "" : token.substring(eq + 1).trim().replace("\"", "");
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 单次请求的缓存状态，key由ResponseCacheHitFilter在查找缓存后设置，为null时不保存响应
+     */
+    public static class Context {
+
+        private final Config config;
+
+        private volatile String key;
+
+        private volatile ServerHttpRequest request;
+
+        Context(Config config) {
+            this.config = config;
+        }
+
+        public Config getConfig() {
+            return config;
+        }
+
+        public void miss(String key, ServerHttpRequest request) {
+            this.request = request;
+            this.key = key;
+        }
+    }
+
+    private class CachingResponse extends ServerHttpResponseDecorator {
+
+        private final Context context;
+
+        CachingResponse(ServerHttpResponse delegate, Context context) {
+            super(delegate);
+            this.context = context;
+        }
+
+        @Override
+        public Mono<Void> writeWith(Publisher<? extends DataBuffer> body) {
+            String key = context.key;
+            long ttlMillis = key == null ? 0 : ttlMillis();
+            if (ttlMillis <= 0) {
+                return super.writeWith(body);
+            }
+            Map<String, List<String>> vary = vary();
+            if (vary == null) {
+                return super.writeWith(body);
+            }
+            int maxBodyBytes = context.config.getMaxBodyBytes();
+            ByteArrayOutputStream captured = new ByteArrayOutputStream();
+            boolean[] overflow = new boolean[1];
+            Flux<? extends DataBuffer> capturing = Flux.from(body)
+                    .doOnNext(buffer -> {
+                        if (overflow[0]) {
+                            return;
+                        }
+                        if (captured.size() + buffer.readableByteCount() > maxBodyBytes) {
+                            overflow[0] = true;
+                            return;
+                        }
+                        ByteBuffer view = buffer.asByteBuffer();
+                        byte[] bytes = new byte[view.remaining()];
+                        view.get(bytes);
+                        captured.write(bytes, 0, bytes.length);
+                    })
+                    .doOnComplete(() -> {
+                        if (!overflow[0]) {
+                            store(key, captured.toByteArray(), vary, ttlMillis);
+                        }
+                    });
+            return super.writeWith(capturing);
+        }
+
+        private void store(String key, byte[] body, Map<String, List<String>> vary, long ttlMillis) {
+            HttpHeaders headers = new HttpHeaders();
+            headers.putAll(getHeaders());
+            headers.remove(HttpHeaders.TRANSFER_ENCODING);
+            headers.remove(HttpHeaders.CONNECTION);
+            headers.setContentLength(body.length);
+            String etag = headers.getETag();
+            if (etag == null) {
+                etag = "W/\"" + DigestUtils.md5DigestAsHex(body) + "\"";
+                headers.setETag(etag);
+            }
+            store.put(key, new CachedResponse(HttpStatus.OK, headers, body, etag, vary, ttlMillis));
+            stored.increment();
+        }
+
+        /**
+         * 路由ttl与响应max-age、s-maxage中的最小值，不可缓存时返回0
+         */
+        private long ttlMillis() {
+            HttpHeaders headers = getHeaders();
+            if (getStatusCode() != HttpStatus.OK || headers.containsKey(HttpHeaders.SET_COOKIE)) {
+                return 0;
+            }
+            String cacheControl = headers.getCacheControl();
+            if (hasDirective(cacheControl, "no-store") || hasDirective(cacheControl, "no-cache")
+                    || (hasDirective(cacheControl, "private") && !context.config.isVaryOnUser())) {
+                return 0;
+            }
+            long ttl = context.config.getTtlMillis();
+            String maxAge = directive(cacheControl, "s-maxage");
+            if (maxAge == null) {
+                maxAge = directive(cacheControl, "max-age");
+            }
+            if (maxAge != null) {
+                try {
+                    ttl = Math.min(ttl, Long.parseLong(maxAge) * 1000);
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+            return ttl;
+        }
+
+        /**
+         * @return Vary: * 时返回null
+         */
+        private Map<String, List<String>> vary() {
+            List<String> names = getHeaders().getVary();
+            if (names.isEmpty()) {
+                return Collections.emptyMap();
+            }
+            HttpHeaders requestHeaders = context.request.getHeaders();
+            Map<String, List<String>> vary = new LinkedHashMap<>();
+            for (String name : names) {
+                if ("*".equals(name)) {
+                    return null;
+                }
+                vary.put(name.toLowerCase(Locale.ROOT), requestHeaders.get(name));
+            }
+            return vary;
+        }
+    }
+
+    public static class Config {
+
+        /**
+         * 缓存时间上限
+         */
+        private long ttlMillis = 60000;
+
+        /**
+         * 按x-user-id分别缓存
+         */
+        private boolean varyOnUser = false;
+
+        /**
+         * 超过该大小的响应不缓存
+         */
+        private int maxBodyBytes = 1024 * 1024;
+
+        public long getTtlMillis() {
+            return ttlMillis;
+        }
+
+        public void setTtlMillis(long ttlMillis) {
+            this.ttlMillis = ttlMillis;
+        }
+
+        public boolean isVaryOnUser() {
+            return varyOnUser;
+        }
+
+        public void setVaryOnUser(boolean varyOnUser) {
+            this.varyOnUser = varyOnUser;
+        }
+
+        public int getMaxBodyBytes() {
+            return maxBodyBytes;
+        }
+
+        public void setMaxBodyBytes(int maxBodyBytes) {
+            this.maxBodyBytes = maxBodyBytes;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2020 hdmcp.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package com.hdmcp.gateway.filters;
+
+import com.hdmcp.gateway.cache.CachedResponse;
+import com.hdmcp.gateway.cache.ResponseCacheStore;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.cloud.gateway.filter.GatewayFilterChain;
+import org.springframework.cloud.gateway.filter.GlobalFilter;
+import org.springframework.cloud.gateway.route.Route;
+import org.springframework.core.Ordered;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Mono;
+
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.GATEWAY_ROUTE_ATTR;
+
+/**
+ * 为启用了{@link ResponseCacheFilter}的路由查找缓存，命中时直接返回响应或304
+ * <p>
+ * 在AuthFilter和SwaggerDocCacheFilter之后、转发之前执行，缓存命中同样需要通过鉴权，且可以读取AuthFilter写入的x-user-id
+ *
+ * @author WANGY
+ */
+@Component
+public class ResponseCacheHitFilter implements GlobalFilter, Ordered {
+
+    public static final int RESPONSE_CACHE_HIT_FILTER_ORDER = AuthFilter.AUTH_FILTER_ORDER + 2;
+
+    private static final String AGE = "Age";
+
+    private final ResponseCacheStore store;
+
+    private final Counter hit;
+
+    private final Counter notModified;
+
+    private final Counter miss;
+
+    public ResponseCacheHitFilter(ResponseCacheStore store, MeterRegistry meterRegistry) {
+        this.store = store;
+        this.hit = meterRegistry.counter("gateway.response.cache.requests", "result", "hit");
+        this.notModified = meterRegistry.counter("gateway.response.cache.requests", "result", "not_modified");
+        this.miss = meterRegistry.counter("gateway.response.cache.requests", "result", "miss");
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, GatewayFilterChain chain) {
+        ResponseCacheFilter.Context context = exchange.getAttribute(ResponseCacheFilter.RESPONSE_CACHE_ATTR);
+        if (context == null) {
+            return chain.filter(exchange);
+        }
+        ServerHttpRequest request = exchange.getRequest();
+        HttpHeaders requestHeaders = request.getHeaders();
+        String key = key(exchange, context.getConfig());
+        // 请求要求重新验证时不读缓存，但仍然用新的响应更新缓存
+        String cacheControl = requestHeaders.getCacheControl();
+        boolean revalidate = ResponseCacheFilter.hasDirective(cacheControl, "no-cache")
+                || "0".equals(ResponseCacheFilter.directive(cacheControl, "max-age"))
+                || "no-cache".equalsIgnoreCase(requestHeaders.getPragma());
+        long now = System.nanoTime();
+        CachedResponse cached = revalidate ? null : store.get(key, now);
+        if (cached == null || !cached.matchesVary(requestHeaders)) {
+            miss.increment();
+            context.miss(key, request);
+            return chain.filter(exchange);
+        }
+        ServerHttpResponse response = exchange.getResponse();
+        HttpHeaders headers = response.getHeaders();
+        if (cached.matches(requestHeaders.getIfNoneMatch())) {
+            notModified.increment();
+            response.setStatusCode(HttpStatus.NOT_MODIFIED);
+            headers.setETag(cached.getEtag());
+            headers.set(AGE, String.valueOf(cached.ageSeconds(now)));
+            if (cached.getHeaders().getCacheControl() != null) {
+                headers.setCacheControl(cached.getHeaders().getCacheControl());
+            }
+            return response.setComplete();
+        }
+        hit.increment();
+        response.setStatusCode(cached.getStatus());
+        headers.putAll(cached.getHeaders());
+        headers.set(AGE, String.valueOf(cached.ageSeconds(now)));
+        return response.writeWith(Mono.just(response.bufferFactory().wrap(cached.body())));
+    }
+
+    private static String key(ServerWebExchange exchange, ResponseCacheFilter.Config config) {
+        ServerHttpRequest request = exchange.getRequest();
+        Route route = exchange.getAttribute(GATEWAY_ROUTE_ATTR);
+        StringBuilder key = new StringBuilder(128)
+                .append(route == null ? "-" : route.getId())
+                .append(' ')
+                .append(request.getURI().getRawPath());
+        String query = request.getURI().getRawQuery();
+        if (query != null) {
+            key.append('?').append(query);
+        }
+        if (config.isVaryOnUser()) {
+            String userId = request.getHeaders().getFirst(ResponseCacheFilter.USER_ID_HEADER);
+            key.append('|').append(userId == null ? "-" : userId);
+        }
+        return key.toString();
+    }
+
+    @Override
+    public int getOrder() {
+        return RESPONSE_CACHE_HIT_FILTER_ORDER;
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2020 hdmcp.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package com.hdmcp.gateway.filters;
+
+import com.hdmcp.gateway.metrics.RouteMetrics;
+import org.springframework.cloud.gateway.filter.GatewayFilterChain;
+import org.springframework.cloud.gateway.filter.GlobalFilter;
+import org.springframework.cloud.gateway.route.Route;
+import org.springframework.core.Ordered;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.GATEWAY_ROUTE_ATTR;
+
+/**
+ * 按路由统计响应时间、字节数与正在处理的请求数，在所有过滤器之前执行，统计的是网关内的完整耗时
+ * <p>
+ * 请求字节数取自Content-Length，不包装请求体；响应字节数在写出时累加，访问日志共用同一个计数
+ *
+ * @author WANGY
+ */
+@Component
+public class RouteMetricsFilter implements GlobalFilter, Ordered {
+
+    private final RouteMetrics routeMetrics;
+
+    public RouteMetricsFilter(RouteMetrics routeMetrics) {
+        this.routeMetrics = routeMetrics;
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, GatewayFilterChain chain) {
+        Route route = exchange.getAttribute(GATEWAY_ROUTE_ATTR);
+        if (route == null || WarmupFilter.isWarmup(exchange)) {
+            return chain.filter(exchange);
+        }
+        RouteMetrics.RouteStats stats = routeMetrics.route(route.getId());
+        long contentLength = exchange.getRequest().getHeaders().getContentLength();
+        if (contentLength > 0) {
+            stats.bytesIn(contentLength);
+        }
+        ServerHttpResponse response = exchange.getResponse();
+        long start = System.nanoTime();
+        stats.start();
+        CountingResponse counting = new CountingResponse(response, stats::bytesOut);
+        exchange.getAttributes().put(CountingResponse.COUNTING_RESPONSE_ATTR, counting);
+        return chain.filter(exchange.mutate().response(counting).build())
+                .doFinally(signal -> {
+                    HttpStatus status = response.getStatusCode();
+                    int code = status == null ? HttpStatus.OK.value() : status.value();
+                    stats.stop(signal == SignalType.ON_ERROR ? 0 : code, System.nanoTime() - start);
+                });
+    }
+
+    @Override
+    public int getOrder() {
+        return HIGHEST_PRECEDENCE;
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2020 hdmcp.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package com.hdmcp.gateway.filters;
+
+import com.hdmcp.gateway.config.GatewaySwaggerProvider;
+import org.apache.commons.lang.StringUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cloud.gateway.filter.GatewayFilterChain;
+import org.springframework.cloud.gateway.filter.GlobalFilter;
+import org.springframework.core.Ordered;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Mono;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Set;
+
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.GATEWAY_ORIGINAL_REQUEST_URL_ATTR;
+
+/**
+ * 命中{@link GatewaySwaggerProvider}预取的文档时直接返回，不再转发到服务
+ * <p>
+ * 紧接在AuthFilter之后、转发之前执行
+ *
+ * @author WANGY
+ */
+@Component
+public class SwaggerDocCacheFilter implements GlobalFilter, Ordered {
+
+    private static final int SWAGGER_DOC_CACHE_FILTER_ORDER = AuthFilter.AUTH_FILTER_ORDER + 1;
+
+    @Autowired
+    private GatewaySwaggerProvider gatewaySwaggerProvider;
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, GatewayFilterChain chain) {
+        ServerHttpRequest request = exchange.getRequest();
+        URI uri = originalUri(exchange);
+        String path = uri.getPath();
+        if (request.getMethod() != HttpMethod.GET || uri.getRawQuery() != null
+                || !StringUtils.endsWithIgnoreCase(path, GatewaySwaggerProvider.API_URI)) {
+            return chain.filter(exchange);
+        }
+        String doc = gatewaySwaggerProvider.getDoc(path);
+        if (doc == null) {
+            return chain.filter(exchange);
+        }
+        ServerHttpResponse response = exchange.getResponse();
+        response.getHeaders().setContentType(MediaType.APPLICATION_JSON_UTF8);
+        DataBuffer buffer = response.bufferFactory().wrap(doc.getBytes(StandardCharsets.UTF_8));
+        return response.writeWith(Mono.just(buffer));
+    }
+
+    /**
+     * StripPrefix等过滤器已经改写了请求路径，文档按网关收到的原始路径缓存
+     */
+    private static URI originalUri(ServerWebExchange exchange) {
+        Set<URI> uris = exchange.getAttributeOrDefault(GATEWAY_ORIGINAL_REQUEST_URL_ATTR, Collections.emptySet());
+        return uris.isEmpty() ? exchange.getRequest().getURI() : uris.iterator().next();
+    }
+
+    @Override
+    public int getOrder() {
+        return SWAGGER_DOC_CACHE_FILTER_ORDER;
+    }
+}
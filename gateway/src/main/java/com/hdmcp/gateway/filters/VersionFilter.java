@@ -23,26 +23,313 @@
  *
  */
 
+
 package com.hdmcp.gateway.filters;
 
-import org.springframework.cloud.gateway.filter.GatewayFilter;
+import com.hdmcp.gateway.cache.ServiceInstanceCache;
+import com.hdmcp.gateway.config.CanaryProperties;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.loadbalancer.LoadBalancerClient;
+import org.springframework.cloud.context.environment.EnvironmentChangeEvent;
 import org.springframework.cloud.gateway.filter.GatewayFilterChain;
+import org.springframework.cloud.gateway.filter.GlobalFilter;
+import org.springframework.cloud.gateway.filter.LoadBalancerClientFilter;
+import org.springframework.cloud.gateway.support.DelegatingServiceInstance;
+import org.springframework.context.event.EventListener;
 import org.springframework.core.Ordered;
+import org.springframework.core.env.Environment;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
 import org.springframework.web.server.ServerWebExchange;
 import reactor.core.publisher.Mono;
 
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.GATEWAY_REQUEST_URL_ATTR;
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.GATEWAY_SCHEME_PREFIX_ATTR;
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.addOriginalRequestUrl;
+
 /**
+ * 按实例metadata中的version、env做版本路由和金丝雀发布
+ * <p>
+ * 在ConsistentHashFilter之后、HttpsToHttpFilter和LoadBalancerClientFilter之前执行，已被改写、不再是lb://的请求直接跳过。
+ * lb://服务配置了权重，或请求带有版本头时，按权重(或请求头指定的版本)选出版本，
+ * 在该版本的实例间轮询，直接改写请求地址，LoadBalancerClientFilter看到的不再是lb://从而跳过。
+ * 其余请求不受影响。选择过程只读不可变的版本表，不加锁，也不查询注册中心；
+ * 版本表在{@link ServiceInstanceCache}的刷新线程上随实例变化重建，权重随Nacos配置变更重新绑定后重建。
+ * 某个服务(或环境)第一次出现时还没有版本表，先交给LoadBalancerClientFilter，同时在后台加载。
+ * 每个版本的响应时间记录在gateway.canary.latency，便于比较新旧版本
+ *
  * @author WANGY
  */
-public class VersionFilter implements GatewayFilter, Ordered {
+@Component
+public class VersionFilter implements GlobalFilter, Ordered {
+
+    private static final Logger log = LoggerFactory.getLogger(VersionFilter.class);
+
+    public static final String VERSION_ATTR = VersionFilter.class.getName() + ".version";
+
+    public static final String DEFAULT_VERSION = "default";
+
+    public static final int VERSION_FILTER_ORDER = LoadBalancerClientFilter.LOAD_BALANCER_CLIENT_FILTER_ORDER - 2;
+
+    private static final String LB_SCHEME = "lb";
+
+    private static final String METADATA_VERSION = "version";
+
+    private static final String METADATA_ENV = "env";
+
+    /**
+     * 每个服务最多记录的环境数，环境来自请求头，避免被随意的取值撑大
+     */
+    private static final int MAX_ENVS = 16;
+
+    private static final String NO_ENV = "";
+
+    private final ServiceInstanceCache instanceCache;
+
+    private final LoadBalancerClient loadBalancer;
+
+    private final MeterRegistry meterRegistry;
+
+    private final Environment environment;
+
+    /**
+     * serviceId -> env -> 版本表，只在刷新时整体替换
+     */
+    private final Map<String, Map<String, VersionTable>> tables = new ConcurrentHashMap<>();
+
+    /**
+     * serviceId -> 请求过的env
+     */
+    private final Map<String, Set<String>> envs = new ConcurrentHashMap<>();
+
+    private volatile CanaryProperties properties = new CanaryProperties();
+
+    public VersionFilter(ServiceInstanceCache instanceCache, LoadBalancerClient loadBalancer,
+                         MeterRegistry meterRegistry, Environment environment) {
+        this.instanceCache = instanceCache;
+        this.loadBalancer = loadBalancer;
+        this.meterRegistry = meterRegistry;
+        this.environment = environment;
+        bind();
+        instanceCache.addListener(this::rebuild);
+    }
+
+    @EventListener
+    public void onEnvironmentChange(EnvironmentChangeEvent event) {
+        for (String key : event.getKeys()) {
+            if (key.startsWith(CanaryProperties.PREFIX)) {
+                bind();
+                return;
+            }
+        }
+    }
+
+    private void bind() {
+        CanaryProperties bound = Binder.get(environment)
+                .bind(CanaryProperties.PREFIX, Bindable.of(CanaryProperties.class))
+                .orElseGet(CanaryProperties::new);
+        this.properties = bound;
+        for (String serviceId : bound.getServices().keySet()) {
+            // 配置了权重的服务提前建好默认环境的版本表
+            envs.computeIfAbsent(serviceId, k -> ConcurrentHashMap.newKeySet()).add(env(bound.getEnv()));
+        }
+        for (String serviceId : envs.keySet()) {
+            List<ServiceInstance> instances = instanceCache.get(serviceId);
+            if (instances != null) {
+                rebuild(serviceId, instances);
+            }
+        }
+        log.info("canary rules updated: {}", bound.getServices().keySet());
+    }
 
     @Override
     public Mono<Void> filter(ServerWebExchange exchange, GatewayFilterChain chain) {
-        return null;
+        CanaryProperties properties = this.properties;
+        URI url = exchange.getAttribute(GATEWAY_REQUEST_URL_ATTR);
+        if (!properties.isEnabled() || url == null || !LB_SCHEME.equals(url.getScheme())
+                || exchange.getAttribute(GATEWAY_SCHEME_PREFIX_ATTR) != null) {
+            return chain.filter(exchange);
+        }
+        String serviceId = url.getHost();
+        CanaryProperties.Service service = properties.getServices().get(serviceId);
+        HttpHeaders headers = exchange.getRequest().getHeaders();
+        String version = headers.getFirst(properties.getVersionHeader());
+        if (service == null && version == null) {
+            return chain.filter(exchange);
+        }
+        String env = headers.getFirst(properties.getEnvHeader());
+        VersionTable table = table(serviceId, env(env == null ? properties.getEnv() : env));
+        VersionGroup group = table == null ? null : table.select(version);
+        if (group == null) {
+            return chain.filter(exchange);
+        }
+        ServiceInstance instance = group.next();
+        addOriginalRequestUrl(exchange, url);
+        URI requestUrl = loadBalancer.reconstructURI(
+                new DelegatingServiceInstance(instance, instance.isSecure() ? "https" : "http"),
+                exchange.getRequest().getURI());
+        exchange.getAttributes().put(GATEWAY_REQUEST_URL_ATTR, requestUrl);
+        exchange.getAttributes().put(VERSION_ATTR, group.version);
+        long start = System.nanoTime();
+        return chain.filter(exchange)
+                .doFinally(signal -> group.latency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS));
+    }
+
+    private static String env(String env) {
+        return env == null ? NO_ENV : env;
+    }
+
+    /**
+     * 只读当前的版本表
+     *
+     * @return 还没有版本表时返回null，同时在后台加载
+     */
+    private VersionTable table(String serviceId, String env) {
+        Map<String, VersionTable> byEnv = tables.get(serviceId);
+        VersionTable table = byEnv == null ? null : byEnv.get(env);
+        if (table == null) {
+            Set<String> requested = envs.computeIfAbsent(serviceId, k -> ConcurrentHashMap.newKeySet());
+            if (requested.size() < MAX_ENVS || requested.contains(env)) {
+                requested.add(env);
+                instanceCache.load(serviceId);
+            }
+        }
+        return table;
+    }
+
+    /**
+     * 在实例刷新线程或配置变更时重建某个服务所有请求过的环境的版本表
+     */
+    private synchronized void rebuild(String serviceId, List<ServiceInstance> instances) {
+        Set<String> requested = envs.get(serviceId);
+        if (requested == null) {
+            return;
+        }
+        CanaryProperties.Service service = properties.getServices().get(serviceId);
+        Map<String, VersionTable> byEnv = new HashMap<>();
+        for (String env : requested) {
+            byEnv.put(env, build(serviceId, env, service, instances));
+        }
+        tables.put(serviceId, byEnv);
+    }
+
+    private VersionTable build(String serviceId, String env, CanaryProperties.Service service,
+                               List<ServiceInstance> instances) {
+        Map<String, List<ServiceInstance>> byVersion = new LinkedHashMap<>();
+        for (ServiceInstance instance : instances) {
+            Map<String, String> metadata = instance.getMetadata();
+            if (!StringUtils.isEmpty(env) && !env.equals(metadata.get(METADATA_ENV))) {
+                continue;
+            }
+            String version = metadata.get(METADATA_VERSION);
+            byVersion.computeIfAbsent(StringUtils.isEmpty(version) ? DEFAULT_VERSION : version,
+                    v -> new ArrayList<>()).add(instance);
+        }
+        Map<String, Integer> weights = service == null ? Collections.emptyMap() : service.getWeights();
+        List<VersionGroup> groups = new ArrayList<>(byVersion.size());
+        byVersion.forEach((version, members) -> {
+            Integer weight = weights.get(version);
+            Timer latency = meterRegistry.timer("gateway.canary.latency", "service", serviceId, "version", version);
+            groups.add(new VersionGroup(version, members.toArray(new ServiceInstance[0]),
+                    weight == null ? 0 : Math.max(0, weight), latency));
+        });
+        return new VersionTable(groups.toArray(new VersionGroup[0]));
     }
 
     @Override
     public int getOrder() {
-        return 0;
+        return VERSION_FILTER_ORDER;
+    }
+
+    /**
+     * 某个服务在某个环境下按版本分组的实例，构建后不再修改
+     */
+    static final class VersionTable {
+
+        private final VersionGroup[] groups;
+
+        private final int totalWeight;
+
+        VersionTable(VersionGroup[] groups) {
+            this.groups = groups;
+            int total = 0;
+            for (VersionGroup group : groups) {
+                total += group.weight;
+            }
+            this.totalWeight = total;
+        }
+
+        /**
+         * @param version 请求头指定的版本，没有该版本的实例时按权重选择
+         * @return 权重都为0或没有实例时返回null，交给LoadBalancerClientFilter
+         */
+        VersionGroup select(String version) {
+            if (version != null) {
+                for (VersionGroup group : groups) {
+                    if (group.version.equals(version)) {
+                        return group;
+                    }
+                }
+            }
+            if (totalWeight <= 0) {
+                return null;
+            }
+            int point = ThreadLocalRandom.current().nextInt(totalWeight);
+            for (VersionGroup group : groups) {
+                point -= group.weight;
+                if (point < 0) {
+                    return group;
+                }
+            }
+            return null;
+        }
+    }
+
+    static final class VersionGroup {
+
+        private final String version;
+
+        private final ServiceInstance[] instances;
+
+        private final int weight;
+
+        private final Timer latency;
+
+        private final AtomicInteger cursor = new AtomicInteger();
+
+        VersionGroup(String version, ServiceInstance[] instances, int weight, Timer latency) {
+            this.version = version;
+            this.instances = instances;
+            this.weight = weight;
+            this.latency = latency;
+        }
+
+        String getVersion() {
+            return version;
+        }
+
+        ServiceInstance next() {
+            return instances[(cursor.getAndIncrement() & Integer.MAX_VALUE) % instances.length];
+        }
     }
 }
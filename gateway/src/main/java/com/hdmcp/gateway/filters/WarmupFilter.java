@@ -0,0 +1,108 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2020 hdmcp.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package com.hdmcp.gateway.filters;
+
+import org.springframework.cloud.gateway.filter.GatewayFilterChain;
+import org.springframework.cloud.gateway.filter.GlobalFilter;
+import org.springframework.core.Ordered;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.util.UriComponentsBuilder;
+import reactor.core.publisher.Mono;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.GATEWAY_REQUEST_URL_ATTR;
+
+/**
+ * 预热期间把带有预热标记的本机请求转发到桩服务，不访问真实的下游服务。
+ * 请求由{@link WarmupMarkFilter}在所有过滤器之前校验预热密钥和回环地址并标记，
+ * 指标、访问日志、流量录制、热点检测、流量镜像等过滤器据此跳过合成请求。
+ * 在LoadBalancerClientFilter及VersionFilter、ConsistentHashFilter之前执行，改写后的地址不再是lb://
+ *
+ * @author WANGY
+ */
+@Component
+public class WarmupFilter implements GlobalFilter, Ordered {
+
+    public static final String WARMUP_HEADER = "x-gateway-warmup";
+
+    public static final String WARMUP_ATTR = WarmupFilter.class.getName() + ".warmup";
+
+    private static final int WARMUP_FILTER_ORDER = ConsistentHashFilter.CONSISTENT_HASH_FILTER_ORDER - 1;
+
+    private volatile String secret;
+
+    private volatile int stubPort;
+
+    public void start(String secret, int stubPort) {
+        this.stubPort = stubPort;
+        this.secret = secret;
+    }
+
+    public void stop() {
+        this.secret = null;
+    }
+
+    /**
+     * 是否为预热期间本机发出的合成请求
+     */
+    public static boolean isWarmup(ServerWebExchange exchange) {
+        return Boolean.TRUE.equals(exchange.getAttribute(WARMUP_ATTR));
+    }
+
+    /**
+     * 预热进行中，请求带有正确的密钥，并且来自回环地址
+     */
+    boolean matches(ServerHttpRequest request) {
+        String secret = this.secret;
+        if (secret == null || !secret.equals(request.getHeaders().getFirst(WARMUP_HEADER))) {
+            return false;
+        }
+        InetSocketAddress remote = request.getRemoteAddress();
+        return remote != null && remote.getAddress() != null && remote.getAddress().isLoopbackAddress();
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, GatewayFilterChain chain) {
+        URI url = exchange.getAttribute(GATEWAY_REQUEST_URL_ATTR);
+        if (url == null || !isWarmup(exchange)) {
+            return chain.filter(exchange);
+        }
+        URI stub = UriComponentsBuilder.fromUri(url).scheme("http").host("127.0.0.1").port(stubPort)
+                .build(true).toUri();
+        exchange.getAttributes().put(GATEWAY_REQUEST_URL_ATTR, stub);
+        return chain.filter(exchange);
+    }
+
+    @Override
+    public int getOrder() {
+        return WARMUP_FILTER_ORDER;
+    }
+}
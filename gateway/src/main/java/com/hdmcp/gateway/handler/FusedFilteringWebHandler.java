@@ -0,0 +1,150 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2020 hdmcp.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package com.hdmcp.gateway.handler;
+
+import org.springframework.cloud.gateway.filter.GatewayFilter;
+import org.springframework.cloud.gateway.filter.GatewayFilterChain;
+import org.springframework.cloud.gateway.filter.GlobalFilter;
+import org.springframework.cloud.gateway.filter.OrderedGatewayFilter;
+import org.springframework.cloud.gateway.handler.FilteringWebHandler;
+import org.springframework.cloud.gateway.route.Route;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.AnnotationAwareOrderComparator;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.GATEWAY_ROUTE_ATTR;
+
+/**
+ * 为每个路由预先编译好全局过滤器与路由过滤器排序后的调用链
+ * <p>
+ * {@link FilteringWebHandler}每个请求都要合并、排序过滤器并逐级创建chain，这里按路由缓存不可变的chain，
+ * 请求只需沿着chain调用；过滤器收到的是{@link PipelineExchange}，通过{@link RequestMutation}修改请求时只在需要时生成一次新请求
+ *
+ * @author WANGY
+ */
+public class FusedFilteringWebHandler extends FilteringWebHandler {
+
+    /**
+     * 路由更新后旧的Route对象不再使用，超过该数量时清空重新编译
+     */
+    private static final int MAX_PIPELINES = 1024;
+
+    private final List<GatewayFilter> globalFilters;
+
+    private volatile Map<Route, Chain> pipelines = new IdentityHashMap<>();
+
+    public FusedFilteringWebHandler(List<GlobalFilter> globalFilters) {
+        super(globalFilters);
+        this.globalFilters = new ArrayList<>(globalFilters.size());
+        for (GlobalFilter filter : globalFilters) {
+            GatewayFilter adapter = new GlobalFilterAdapter(filter);
+            this.globalFilters.add(filter instanceof Ordered
+                    ? new OrderedGatewayFilter(adapter, ((Ordered) filter).getOrder()) : adapter);
+        }
+    }
+
+    @Override
+    public Mono<Void> handle(ServerWebExchange exchange) {
+        Route route = exchange.getRequiredAttribute(GATEWAY_ROUTE_ATTR);
+        Chain chain = pipelines.get(route);
+        if (chain == null) {
+            chain = compile(route);
+        }
+        return chain.filter(exchange);
+    }
+
+    private synchronized Chain compile(Route route) {
+        Chain chain = pipelines.get(route);
+        if (chain != null) {
+            return chain;
+        }
+        List<GatewayFilter> combined = new ArrayList<>(globalFilters);
+        combined.addAll(route.getFilters());
+        AnnotationAwareOrderComparator.sort(combined);
+        if (logger.isDebugEnabled()) {
+            logger.debug("Compiled gatewayFilterFactories for route " + route.getId() + ": " + combined);
+        }
+        chain = Chain.TERMINAL;
+        for (int i = combined.size() - 1; i >= 0; i--) {
+            chain = new Chain(combined.get(i), chain);
+        }
+        Map<Route, Chain> copy = pipelines.size() < MAX_PIPELINES
+                ? new IdentityHashMap<>(pipelines) : new IdentityHashMap<>();
+        copy.put(route, chain);
+        pipelines = copy;
+        return chain;
+    }
+
+    private static final class Chain implements GatewayFilterChain {
+
+        private static final Chain TERMINAL = new Chain(null, null);
+
+        private final GatewayFilter filter;
+
+        private final Chain next;
+
+        private Chain(GatewayFilter filter, Chain next) {
+            this.filter = filter;
+            this.next = next;
+        }
+
+        @Override
+        public Mono<Void> filter(ServerWebExchange exchange) {
+            return Mono.defer(() -> {
+                if (filter == null) {
+                    return Mono.empty();
+                }
+                return filter.filter(PipelineExchange.wrap(exchange), next);
+            });
+        }
+    }
+
+    private static final class GlobalFilterAdapter implements GatewayFilter {
+
+        private final GlobalFilter delegate;
+
+        GlobalFilterAdapter(GlobalFilter delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public Mono<Void> filter(ServerWebExchange exchange, GatewayFilterChain chain) {
+            return this.delegate.filter(exchange, chain);
+        }
+
+        @Override
+        public String toString() {
+            return "GlobalFilterAdapter{delegate=" + delegate + "}";
+        }
+    }
+}
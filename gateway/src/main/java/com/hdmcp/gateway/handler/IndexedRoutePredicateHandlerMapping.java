@@ -0,0 +1,89 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2020 hdmcp.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package com.hdmcp.gateway.handler;
+
+import com.hdmcp.gateway.route.RouteTable;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.cloud.gateway.config.GlobalCorsProperties;
+import org.springframework.cloud.gateway.handler.FilteringWebHandler;
+import org.springframework.cloud.gateway.handler.RoutePredicateHandlerMapping;
+import org.springframework.cloud.gateway.route.Route;
+import org.springframework.cloud.gateway.route.RouteLocator;
+import org.springframework.core.env.Environment;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.GATEWAY_PREDICATE_ROUTE_ATTR;
+
+/**
+ * 使用{@link RouteTable}的前缀索引查找路由，只对前缀匹配的候选路由执行断言，
+ * 断言的执行方式与{@link RoutePredicateHandlerMapping}一致
+ *
+ * @author WANGY
+ */
+public class IndexedRoutePredicateHandlerMapping extends RoutePredicateHandlerMapping {
+
+    private final RouteTable routeTable;
+
+    private final Timer matched;
+
+    private final Timer unmatched;
+
+    public IndexedRoutePredicateHandlerMapping(FilteringWebHandler webHandler, RouteLocator routeLocator,
+                                               GlobalCorsProperties globalCorsProperties, Environment environment,
+                                               RouteTable routeTable, MeterRegistry meterRegistry) {
+        super(webHandler, routeLocator, globalCorsProperties, environment);
+        this.routeTable = routeTable;
+        this.matched = Timer.builder("gateway.route.match").tag("result", "matched").register(meterRegistry);
+        this.unmatched = Timer.builder("gateway.route.match").tag("result", "unmatched").register(meterRegistry);
+        Gauge.builder("gateway.route.count", routeTable, RouteTable::size).register(meterRegistry);
+    }
+
+    @Override
+    protected Mono<Route> lookupRoute(ServerWebExchange exchange) {
+        long start = System.nanoTime();
+        Route[] candidates = routeTable.candidates(exchange.getRequest().getPath().pathWithinApplication().value());
+        return Flux.fromArray(candidates)
+                .concatMap(route -> Mono.just(route).filterWhen(r -> {
+                    exchange.getAttributes().put(GATEWAY_PREDICATE_ROUTE_ATTR, r.getId());
+                    return r.getPredicate().apply(exchange);
+                }).doOnError(e -> logger.error("Error applying predicate for route: " + route.getId(), e))
+                        .onErrorResume(e -> Mono.empty()))
+                .next()
+                .map(route -> {
+                    validateRoute(route, exchange);
+                    return route;
+                })
+                .doOnSuccess(route -> (route != null ? matched : unmatched)
+                        .record(System.nanoTime() - start, TimeUnit.NANOSECONDS));
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2020 hdmcp.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package com.hdmcp.gateway.handler;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpRequestDecorator;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.ServerWebExchangeDecorator;
+
+import java.net.URI;
+
+/**
+ * {@link FusedFilteringWebHandler}传给过滤器的exchange，累积{@link RequestMutation}的修改，
+ * 在getRequest()时才生成新的请求
+ * <p>
+ * 同一个请求的过滤器按顺序执行，不需要同步
+ *
+ * @author WANGY
+ */
+final class PipelineExchange extends ServerWebExchangeDecorator implements RequestMutation {
+
+    private ServerHttpRequest request;
+
+    /**
+     * 待生效的请求头，第一次修改时从当前请求复制
+     */
+    private HttpHeaders headers;
+
+    private URI uri;
+
+    private PipelineExchange(ServerWebExchange delegate) {
+        super(delegate);
+        this.request = delegate.getRequest();
+    }
+
+    static PipelineExchange wrap(ServerWebExchange exchange) {
+        if (exchange instanceof PipelineExchange) {
+            return (PipelineExchange) exchange;
+        }
+        return new PipelineExchange(exchange);
+    }
+
+    @Override
+    public ServerHttpRequest getRequest() {
+        if (headers != null || uri != null) {
+            flush();
+        }
+        return request;
+    }
+
+    @Override
+    public RequestMutation header(String name, String value) {
+        if (headers == null) {
+            headers = new HttpHeaders();
+            headers.putAll(request.getHeaders());
+        }
+        headers.set(name, value);
+        return this;
+    }
+
+    @Override
+    public RequestMutation uri(URI uri) {
+        this.uri = uri;
+        return this;
+    }
+
+    @Override
+    public ServerWebExchange apply() {
+        return this;
+    }
+
+    private void flush() {
+        HttpHeaders mutated = headers;
+        if (uri != null) {
+            // URI变化会影响path、queryParams，交给默认实现处理
+            ServerHttpRequest.Builder builder = request.mutate().uri(uri);
+            if (mutated != null) {
+                builder.headers(httpHeaders -> {
+                    httpHeaders.clear();
+                    httpHeaders.putAll(mutated);
+                });
+            }
+            request = builder.build();
+        } else {
+            request = new HeadersRequest(request, HttpHeaders.readOnlyHttpHeaders(mutated));
+        }
+        headers = null;
+        uri = null;
+    }
+
+    private static final class HeadersRequest extends ServerHttpRequestDecorator {
+
+        private final HttpHeaders headers;
+
+        HeadersRequest(ServerHttpRequest delegate, HttpHeaders headers) {
+            super(delegate);
+            this.headers = headers;
+        }
+
+        @Override
+        public HttpHeaders getHeaders() {
+            return headers;
+        }
+    }
+}
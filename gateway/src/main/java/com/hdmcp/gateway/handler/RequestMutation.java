@@ -0,0 +1,101 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2020 hdmcp.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package com.hdmcp.gateway.handler;
+
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.web.server.ServerWebExchange;
+
+import java.net.URI;
+
+/**
+ * 对请求头、URI的修改
+ * <p>
+ * 在{@link FusedFilteringWebHandler}中执行时，修改先累积在同一个可变的请求头副本中，
+ * 直到后续过滤器读取请求时才一次性生成新的请求，不再为每个过滤器分别创建request和exchange；
+ * 其他场景(如单元测试)退化为立即mutate
+ *
+ * @author WANGY
+ */
+public interface RequestMutation {
+
+    static RequestMutation of(ServerWebExchange exchange) {
+        if (exchange instanceof PipelineExchange) {
+            return (PipelineExchange) exchange;
+        }
+        return new Immediate(exchange);
+    }
+
+    /**
+     * 设置请求头，覆盖客户端传入的同名请求头
+     */
+    RequestMutation header(String name, String value);
+
+    RequestMutation uri(URI uri);
+
+    /**
+     * @return 传递给下一个过滤器的exchange
+     */
+    ServerWebExchange apply();
+
+    final class Immediate implements RequestMutation {
+
+        private final ServerWebExchange exchange;
+
+        private ServerHttpRequest.Builder builder;
+
+        private Immediate(ServerWebExchange exchange) {
+            this.exchange = exchange;
+        }
+
+        @Override
+        public RequestMutation header(String name, String value) {
+            builder().headers(headers -> headers.set(name, value));
+            return this;
+        }
+
+        @Override
+        public RequestMutation uri(URI uri) {
+            builder().uri(uri);
+            return this;
+        }
+
+        @Override
+        public ServerWebExchange apply() {
+            if (builder == null) {
+                return exchange;
+            }
+            return exchange.mutate().request(builder.build()).build();
+        }
+
+        private ServerHttpRequest.Builder builder() {
+            if (builder == null) {
+                builder = exchange.getRequest().mutate();
+            }
+            return builder;
+        }
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2020 hdmcp.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package com.hdmcp.gateway.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.HistogramSnapshot;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 按路由、状态码分类统计响应时间分布(p50/p90/p99/p999)、请求与响应字节数和正在处理的请求数
+ * <p>
+ * 响应时间使用Micrometer基于HdrHistogram的百分位统计，同一份数据既导出到监控系统，也由GatewayEndpoint读取
+ *
+ * @author WANGY
+ */
+@Component
+public class RouteMetrics {
+
+    private static final double[] PERCENTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private static final String[] STATUS = {"1xx", "2xx", "3xx", "4xx", "5xx", "error"};
+
+    private static final int ERROR = STATUS.length - 1;
+
+    private final Map<String, RouteStats> routes = new ConcurrentHashMap<>();
+
+    private final MeterRegistry meterRegistry;
+
+    public RouteMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    public RouteStats route(String routeId) {
+        RouteStats stats = routes.get(routeId);
+        if (stats == null) {
+            stats = routes.computeIfAbsent(routeId, RouteStats::new);
+        }
+        return stats;
+    }
+
+    /**
+     * @return 按路由id排序的统计快照，时间单位为毫秒
+     */
+    public Map<String, Object> snapshot() {
+        Map<String, Object> snapshot = new TreeMap<>();
+        routes.forEach((id, stats) -> snapshot.put(id, stats.snapshot()));
+        return snapshot;
+    }
+
+    public final class RouteStats {
+
+        private final String routeId;
+
+        private final AtomicInteger inflight = new AtomicInteger();
+
+        private final Counter bytesIn;
+
+        private final Counter bytesOut;
+
+        private final Timer[] latency = new Timer[STATUS.length];
+
+        private RouteStats(String routeId) {
+            this.routeId = routeId;
+            this.bytesIn = meterRegistry.counter("gateway.route.bytes", "route", routeId, "direction", "in");
+            this.bytesOut = meterRegistry.counter("gateway.route.bytes", "route", routeId, "direction", "out");
+            Gauge.builder("gateway.route.inflight", inflight, AtomicInteger::get)
+                    .tag("route", routeId).register(meterRegistry);
+        }
+
+        public void start() {
+            inflight.incrementAndGet();
+        }
+
+        /**
+         * @param status 响应状态码，请求异常结束时传0
+         */
+        public void stop(int status, long nanos) {
+            inflight.decrementAndGet();
+            int index = status >= 100 && status < 600 ? status / 100 - 1 : ERROR;
+            Timer timer = latency[index];
+            if (timer == null) {
+                timer = timer(index);
+            }
+            timer.record(nanos, TimeUnit.NANOSECONDS);
+        }
+
+        public void bytesIn(long bytes) {
+            bytesIn.increment(bytes);
+        }
+
+        public void bytesOut(long bytes) {
+            bytesOut.increment(bytes);
+        }
+
+        private synchronized Timer timer(int index) {
+            if (latency[index] == null) {
+                latency[index] = Timer.builder("gateway.route.latency")
+                        .tag("route", routeId)
+                        .tag("status", STATUS[index])
+                        .publishPercentiles(PERCENTILES)
+                        .distributionStatisticExpiry(Duration.ofMinutes(1))
+                        .register(meterRegistry);
+            }
+            return latency[index];
+        }
+
+        private Map<String, Object> snapshot() {
+            Map<String, Object> snapshot = new LinkedHashMap<>();
+            snapshot.put("inflight", inflight.get());
+            snapshot.put("bytesIn", (long) bytesIn.count());
+            snapshot.put("bytesOut", (long) bytesOut.count());
+            Map<String, Object> statuses = new LinkedHashMap<>();
+            for (int i = 0; i < STATUS.length; i++) {
+                Timer timer = latency[i];
+                if (timer != null) {
+                    statuses.put(STATUS[i], latency(timer.takeSnapshot()));
+                }
+            }
+            snapshot.put("latency", statuses);
+            return snapshot;
+        }
+    }
+
+    private static Map<String, Object> latency(HistogramSnapshot histogram) {
+        Map<String, Object> latency = new LinkedHashMap<>();
+        latency.put("count", histogram.count());
+        latency.put("mean", round(histogram.mean(TimeUnit.MILLISECONDS)));
+        for (ValueAtPercentile value : histogram.percentileValues()) {
+            latency.put("p" + percentileName(value.percentile()), round(value.value(TimeUnit.MILLISECONDS)));
+        }
+        latency.put("max", round(histogram.max(TimeUnit.MILLISECONDS)));
+        return latency;
+    }
+
+    /**
+     * 0.5 -> 50, 0.999 -> 999
+     */
+    static String percentileName(double percentile) {
+        String name = Double.toString(percentile * 100);
+        if (name.endsWith(".0")) {
+            return name.substring(0, name.length() - 2);
+        }
+        return name.replace(".", "");
+    }
+
+    private static double round(double millis) {
+        return Math.round(millis * 1000) / 1000.0;
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2020 hdmcp.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package com.hdmcp.gateway.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class GatewayRouteBatch {
+
+    // 新增的路由
+    private List<GatewayRouteDefinition> add = new ArrayList<>();
+
+    // 更新的路由
+    private List<GatewayRouteDefinition> update = new ArrayList<>();
+
+    // 删除的路由ID
+    private List<String> delete = new ArrayList<>();
+
+    public List<GatewayRouteDefinition> getAdd() {
+        return add;
+    }
+
+    public void setAdd(List<GatewayRouteDefinition> add) {
+        this.add = add == null ? new ArrayList<>() : add;
+    }
+
+    public List<GatewayRouteDefinition> getUpdate() {
+        return update;
+    }
+
+    public void setUpdate(List<GatewayRouteDefinition> update) {
+        this.update = update == null ? new ArrayList<>() : update;
+    }
+
+    public List<String> getDelete() {
+        return delete;
+    }
+
+    public void setDelete(List<String> delete) {
+        this.delete = delete == null ? new ArrayList<>() : delete;
+    }
+}
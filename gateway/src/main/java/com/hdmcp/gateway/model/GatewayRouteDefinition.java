@@ -58,7 +58,7 @@ public class GatewayRouteDefinition {
     }
 
     public void setPredicates(List<GatewayPredicateDefinition> predicates) {
-        this.predicates = predicates;
+        this.predicates = predicates == null ? new ArrayList<>() : predicates;
     }
 
     public List<GatewayFilterDefinition> getFilters() {
@@ -66,7 +66,7 @@ public class GatewayRouteDefinition {
     }
 
     public void setFilters(List<GatewayFilterDefinition> filters) {
-        this.filters = filters;
+        this.filters = filters == null ? new ArrayList<>() : filters;
     }
 
     public String getUri() {
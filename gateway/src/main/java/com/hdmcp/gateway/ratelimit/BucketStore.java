@@ -0,0 +1,104 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2020 hdmcp.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package com.hdmcp.gateway.ratelimit;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.github.bucket4j.Bucket;
+
+import java.time.Duration;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * 有容量上限的令牌桶存储，空闲超时或超过容量的桶会被淘汰
+ * <p>
+ * 替代原先静态且永不淘汰的ConcurrentHashMap，避免伪造IP等大量key撑爆网关堆内存
+ *
+ * @author WANGY
+ */
+public class BucketStore {
+
+    /**
+     * 单个桶(含key、缓存节点、bucket4j状态)的估算内存占用(字节)
+     */
+    public static final int ESTIMATED_BYTES_PER_BUCKET = 320;
+
+    public static final long DEFAULT_MAX_SIZE = 100000L;
+
+    public static final Duration DEFAULT_IDLE_TIMEOUT = Duration.ofMinutes(10);
+
+    private final Cache<String, Bucket> buckets;
+
+    private final long maxSize;
+
+    public BucketStore() {
+        this(DEFAULT_MAX_SIZE, DEFAULT_IDLE_TIMEOUT);
+    }
+
+    public BucketStore(long maxSize, Duration idleTimeout) {
+        this.maxSize = maxSize;
+        this.buckets = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterAccess(idleTimeout.toMillis(), TimeUnit.MILLISECONDS)
+                .recordStats()
+                .build();
+    }
+
+    public Bucket getBucket(String key, Supplier<Bucket> bucketSupplier) {
+        Bucket bucket = buckets.getIfPresent(key);
+        if (bucket != null) {
+            return bucket;
+        }
+        try {
+            return buckets.get(key, bucketSupplier::get);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+
+    public long size() {
+        return buckets.size();
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    public long evictionCount() {
+        return buckets.stats().evictionCount();
+    }
+
+    public long estimatedBytes() {
+        return size() * ESTIMATED_BYTES_PER_BUCKET;
+    }
+
+    public void invalidateAll() {
+        buckets.invalidateAll();
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2020 hdmcp.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package com.hdmcp.gateway.ratelimit;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * 按CoDel(Controlled Delay)控制排队时延的有界队列
+ * <p>
+ * 出队时检查队首的排队时间：持续interval都超过target说明形成了积压，进入丢弃状态，
+ * 按interval/sqrt(count)的间隔丢弃队首，直到排队时间回到target以下。短时突发不会被丢弃。
+ * 非线程安全，由{@link PriorityShedder}加锁访问
+ *
+ * @author WANGY
+ */
+public class CoDelQueue<T> {
+
+    private final ArrayDeque<Node<T>> queue = new ArrayDeque<>();
+
+    private final int capacity;
+
+    private final long targetNanos;
+
+    private final long intervalNanos;
+
+    private long firstAboveTime;
+
+    private long dropNext;
+
+    private int count;
+
+    private int lastCount;
+
+    private boolean dropping;
+
+    public CoDelQueue(int capacity, long targetNanos, long intervalNanos) {
+        this.capacity = capacity;
+        this.targetNanos = targetNanos;
+        this.intervalNanos = intervalNanos;
+    }
+
+    /**
+     * @return 队列已满时返回false
+     */
+    public boolean offer(T item, long now) {
+        if (queue.size() >= capacity) {
+            return false;
+        }
+        queue.addLast(new Node<>(item, now));
+        return true;
+    }
+
+    /**
+     * 取出下一个应放行的元素
+     *
+     * @param alive   已取消的元素直接跳过，不计入丢弃
+     * @param dropped 被CoDel丢弃的元素
+     */
+    public T poll(long now, Predicate<T> alive, List<T> dropped) {
+        Node<T> node = next(alive);
+        if (node == null) {
+            dropping = false;
+            firstAboveTime = 0;
+            return null;
+        }
+        boolean okToDrop = okToDrop(node, now);
+        if (dropping) {
+            if (!okToDrop) {
+                dropping = false;
+            } else {
+                while (now - dropNext >= 0) {
+                    dropped.add(node.item);
+                    count++;
+                    node = next(alive);
+                    if (node == null || !okToDrop(node, now)) {
+                        dropping = false;
+                        break;
+                    }
+                    dropNext = controlLaw(dropNext, count);
+                }
+            }
+        } else if (okToDrop) {
+            dropped.add(node.item);
+            node = next(alive);
+            dropping = true;
+            int delta = count - lastCount;
+            count = delta > 1 && now - dropNext < 16 * intervalNanos ? delta : 1;
+            dropNext = controlLaw(now, count);
+            lastCount = count;
+        }
+        return node == null ? null : node.item;
+    }
+
+    /**
+     * 移除已取消的元素
+     */
+    public boolean remove(T item) {
+        return queue.removeIf(node -> node.item == item);
+    }
+
+    public int size() {
+        return queue.size();
+    }
+
+    /**
+     * 按原来的入队时间把元素依次移到target，target已满时剩余的元素放入overflow
+     */
+    public void transferTo(CoDelQueue<T> target, List<T> overflow) {
+        Node<T> node;
+        while ((node = queue.pollFirst()) != null) {
+            if (target.queue.size() < target.capacity) {
+                target.queue.addLast(node);
+            } else {
+                overflow.add(node.item);
+            }
+        }
+    }
+
+    private Node<T> next(Predicate<T> alive) {
+        Node<T> node;
+        while ((node = queue.pollFirst()) != null) {
+            if (alive.test(node.item)) {
+                return node;
+            }
+        }
+        return null;
+    }
+
+    private boolean okToDrop(Node<T> node, long now) {
+        long sojourn = now - node.enqueuedAt;
+        if (sojourn < targetNanos) {
+            firstAboveTime = 0;
+            return false;
+        }
+        if (firstAboveTime == 0) {
+            firstAboveTime = now + intervalNanos;
+            return false;
+        }
+        return now - firstAboveTime >= 0;
+    }
+
+    private long controlLaw(long t, int count) {
+        return t + (long) (intervalNanos / Math.sqrt(count));
+    }
+
+    private static final class Node<T> {
+
+        private final T item;
+
+        private final long enqueuedAt;
+
+        private Node(T item, long enqueuedAt) {
+            this.item = item;
+            this.enqueuedAt = enqueuedAt;
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2020 hdmcp.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package com.hdmcp.gateway.ratelimit;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 基于RTT梯度自适应调整的并发上限
+ * <p>
+ * 每个采样窗口计算平均RTT(短期)，并与长期RTT的EWMA比较：
+ * gradient = clamp(tolerance * longRtt / shortRtt, 0.5, 1.0)，
+ * newLimit = limit * gradient + sqrt(limit)，再做平滑并限制在[minLimit, maxLimit]。
+ * 下游变慢时上限收缩，恢复后逐步放大；窗口切换由CAS胜出的线程计算，请求路径上无锁
+ *
+ * @author WANGY
+ */
+public class GradientConcurrencyLimit {
+
+    private static final double LONG_RTT_ALPHA = 0.05D;
+
+    private static final double SMOOTHING = 0.2D;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double tolerance;
+    private final long windowNanos;
+    private final int minSamples;
+
+    private final AtomicInteger inflight = new AtomicInteger();
+    private final LongAdder rttSum = new LongAdder();
+    private final LongAdder rttCount = new LongAdder();
+    private final LongAccumulator maxInflight = new LongAccumulator(Math::max, 0);
+    private final AtomicLong windowStart;
+
+    private volatile double limit;
+    private volatile double shortRtt;
+    private volatile double longRtt;
+
+    public GradientConcurrencyLimit(int initialLimit, int minLimit, int maxLimit, double tolerance,
+                                    long windowNanos, int minSamples, long now) {
+        this.limit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.tolerance = tolerance;
+        this.windowNanos = windowNanos;
+        this.minSamples = minSamples;
+        this.windowStart = new AtomicLong(now);
+    }
+
+    /**
+     * 当前并发数未达到上限时占用一个名额
+     */
+    public boolean tryAcquire() {
+        int limit = getLimit();
+        int current;
+        do {
+            current = inflight.get();
+            if (current >= limit) {
+                return false;
+            }
+        } while (!inflight.compareAndSet(current, current + 1));
+        maxInflight.accumulate(current + 1);
+        return true;
+    }
+
+    /**
+     * 释放名额但不记录RTT，用于异常或取消的请求
+     */
+    public void release() {
+        inflight.decrementAndGet();
+    }
+
+    /**
+     * 释放名额并记录一次RTT
+     */
+    public void release(long rttNanos, long now) {
+        inflight.decrementAndGet();
+        rttSum.add(rttNanos);
+        rttCount.increment();
+        long start = windowStart.get();
+        if (now - start >= windowNanos && windowStart.compareAndSet(start, now)) {
+            long count = rttCount.sumThenReset();
+            long sum = rttSum.sumThenReset();
+            long peak = maxInflight.getThenReset();
+            if (count >= minSamples) {
+                update((double) sum / count, peak);
+            }
+        }
+    }
+
+    private void update(double rtt, long peakInflight) {
+        shortRtt = rtt;
+        double longRtt = this.longRtt == 0.0D ? rtt : this.longRtt * (1 - LONG_RTT_ALPHA) + rtt * LONG_RTT_ALPHA;
+        // 下游恢复后长期RTT远高于短期RTT时加速回落
+        if (longRtt / rtt > 2.0D) {
+            longRtt *= 0.95D;
+        }
+        this.longRtt = longRtt;
+
+        double limit = this.limit;
+        // 实际并发远低于上限时，RTT不能说明容量，不放大上限
+        if (peakInflight < limit / 2) {
+            return;
+        }
+        double gradient = Math.max(0.5D, Math.min(1.0D, tolerance * longRtt / rtt));
+        double newLimit = limit * gradient + Math.sqrt(limit);
+        newLimit = limit * (1 - SMOOTHING) + newLimit * SMOOTHING;
+        this.limit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+    }
+
+    public int getLimit() {
+        return (int) limit;
+    }
+
+    public int getInflight() {
+        return inflight.get();
+    }
+
+    public double getShortRttMillis() {
+        return shortRtt / 1_000_000D;
+    }
+
+    public double getLongRttMillis() {
+        return longRtt / 1_000_000D;
+    }
+}
@@ -0,0 +1,321 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2020 hdmcp.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package com.hdmcp.gateway.ratelimit;
+
+import com.hdmcp.gateway.accesslog.AccessLogRingBuffer;
+import com.hdmcp.gateway.config.HeavyHitterProperties;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 按IP、用户id找出滑动窗口内请求最多的客户端，超过阈值的客户端临时封禁或降低配额
+ * <p>
+ * 请求线程只把key放入无锁环形队列；计数、窗口滚动与阈值判断都在{@link #tick(long)}中由同一个后台线程执行。
+ * 窗口分为多段，每段一个{@link SpaceSaving}，合并各段得到窗口内每个客户端请求数的上界与下界，
+ * 只按下界判断，不会因为计数误差误封
+ *
+ * @author WANGY
+ */
+public class HeavyHitterDetector {
+
+    public enum Dimension {
+        IP, USER;
+
+        public String tag() {
+            return name().toLowerCase();
+        }
+    }
+
+    public enum Action {
+        BLOCK, THROTTLE
+    }
+
+    private final Map<Dimension, Tracker> trackers = new EnumMap<>(Dimension.class);
+
+    private volatile HeavyHitterProperties properties;
+
+    public HeavyHitterDetector(HeavyHitterProperties properties, int bufferSize) {
+        this.properties = properties;
+        for (Dimension dimension : Dimension.values()) {
+            trackers.put(dimension, new Tracker(bufferSize));
+        }
+    }
+
+    public void configure(HeavyHitterProperties properties) {
+        this.properties = properties;
+    }
+
+    public HeavyHitterProperties getProperties() {
+        return properties;
+    }
+
+    /**
+     * 请求线程调用，队列满时丢弃并计数
+     */
+    public void record(Dimension dimension, String key) {
+        Tracker tracker = trackers.get(dimension);
+        if (!tracker.buffer.offer(key)) {
+            tracker.dropped.increment();
+        }
+    }
+
+    /**
+     * @return 未被处理时返回null
+     */
+    public Block blocked(Dimension dimension, String key, long nowMillis) {
+        Map<String, Block> blocks = trackers.get(dimension).blocks;
+        if (blocks.isEmpty()) {
+            return null;
+        }
+        Block block = blocks.get(key);
+        if (block == null) {
+            return null;
+        }
+        if (block.untilMillis <= nowMillis) {
+            blocks.remove(key, block);
+            return null;
+        }
+        return block;
+    }
+
+    /**
+     * @return 是否有该客户端的处理记录
+     */
+    public boolean unblock(String key) {
+        return unblock(key, System.currentTimeMillis());
+    }
+
+    /**
+     * 解除处理后的一个窗口内不再按该客户端之前的计数重新处理，否则下一次tick会立即再次封禁
+     */
+    public boolean unblock(String key, long nowMillis) {
+        long exemptUntil = nowMillis + TimeUnit.SECONDS.toMillis(properties.getWindowSeconds());
+        boolean removed = false;
+        for (Tracker tracker : trackers.values()) {
+            if (tracker.blocks.remove(key) != null) {
+                tracker.exempt.put(key, exemptUntil);
+                removed = true;
+            }
+        }
+        return removed;
+    }
+
+    public long getDropped(Dimension dimension) {
+        return trackers.get(dimension).dropped.sum();
+    }
+
+    public int blockedCount(Dimension dimension) {
+        return trackers.get(dimension).blocks.size();
+    }
+
+    /**
+     * 汇总队列中的请求，到期时滚动窗口，并按阈值更新处理名单，只能由一个线程调用
+     */
+    public void tick(long nowMillis) {
+        HeavyHitterProperties properties = this.properties;
+        long slotMillis = Math.max(1, TimeUnit.SECONDS.toMillis(properties.getWindowSeconds())
+                / Math.max(1, properties.getSlots()));
+        trackers.get(Dimension.IP).tick(nowMillis, slotMillis, properties, properties.getIp());
+        trackers.get(Dimension.USER).tick(nowMillis, slotMillis, properties, properties.getUser());
+    }
+
+    /**
+     * @return 各维度窗口内请求最多的客户端与当前处理名单
+     */
+    public Map<String, Object> snapshot() {
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        long now = System.currentTimeMillis();
+        for (Map.Entry<Dimension, Tracker> entry : trackers.entrySet()) {
+            Tracker tracker = entry.getValue();
+            Map<String, Object> values = new LinkedHashMap<>();
+            values.put("windowTotal", tracker.windowTotal);
+            values.put("top", tracker.top);
+            Map<String, Object> blocks = new LinkedHashMap<>();
+            tracker.blocks.forEach((key, block) -> {
+                Map<String, Object> value = new LinkedHashMap<>();
+                value.put("action", block.action.name().toLowerCase());
+                value.put("count", block.count);
+                value.put("remainingSeconds", Math.max(0, TimeUnit.MILLISECONDS.toSeconds(block.untilMillis - now)));
+                blocks.put(key, value);
+            });
+            values.put("blocked", blocks);
+            values.put("dropped", tracker.dropped.sum());
+            snapshot.put(entry.getKey().tag(), values);
+        }
+        return snapshot;
+    }
+
+    public static final class Block {
+
+        private final Action action;
+
+        private final double throttleRatio;
+
+        private final long count;
+
+        private final long untilMillis;
+
+        private Block(Action action, double throttleRatio, long count, long untilMillis) {
+            this.action = action;
+            this.throttleRatio = throttleRatio;
+            this.count = count;
+            this.untilMillis = untilMillis;
+        }
+
+        public Action getAction() {
+            return action;
+        }
+
+        public double getThrottleRatio() {
+            return throttleRatio;
+        }
+
+        public long getUntilMillis() {
+            return untilMillis;
+        }
+    }
+
+    /**
+     * 一个维度的计数，除blocks、top外只由tick线程访问
+     */
+    private static final class Tracker {
+
+        private final AccessLogRingBuffer<String> buffer;
+
+        private final LongAdder dropped = new LongAdder();
+
+        private final Map<String, Block> blocks = new ConcurrentHashMap<>();
+
+        /**
+         * 手动解除处理的客户端 -> 豁免截止时间
+         */
+        private final Map<String, Long> exempt = new ConcurrentHashMap<>();
+
+        private SpaceSaving<String>[] slots;
+
+        private int current;
+
+        private long slotStart;
+
+        private volatile long windowTotal;
+
+        private volatile List<Map<String, Object>> top = new ArrayList<>();
+
+        private Tracker(int bufferSize) {
+            this.buffer = new AccessLogRingBuffer<>(bufferSize);
+        }
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private void tick(long now, long slotMillis, HeavyHitterProperties properties,
+                          HeavyHitterProperties.Dimension dimension) {
+            if (slots == null || slots.length != Math.max(1, properties.getSlots())
+                    || slots[current].capacity() != properties.getCapacity()) {
+                slots = new SpaceSaving[Math.max(1, properties.getSlots())];
+                for (int i = 0; i < slots.length; i++) {
+                    slots[i] = new SpaceSaving<>(properties.getCapacity());
+                }
+                current = 0;
+                slotStart = now;
+            }
+            SpaceSaving<String> slot = slots[current];
+            while (buffer.drain(slot::offer, 4096) > 0) {
+                // 汇总队列中的全部请求
+            }
+            evaluate(now, properties, dimension);
+            if (now - slotStart >= slotMillis) {
+                current = (current + 1) % slots.length;
+                slots[current] = new SpaceSaving<>(properties.getCapacity());
+                slotStart = now;
+            }
+        }
+
+        /**
+         * 合并各段窗口，count为上界，guaranteed为下界
+         */
+        private void evaluate(long now, HeavyHitterProperties properties, HeavyHitterProperties.Dimension dimension) {
+            Map<String, long[]> window = new HashMap<>();
+            long total = 0;
+            for (SpaceSaving<String> slot : slots) {
+                total += slot.getTotal();
+                for (SpaceSaving.Counter<String> counter : slot.top(slot.size())) {
+                    long[] counts = window.computeIfAbsent(counter.getKey(), key -> new long[2]);
+                    counts[0] += counter.getCount();
+                    counts[1] += counter.getGuaranteed();
+                }
+            }
+            for (Map.Entry<String, long[]> entry : window.entrySet()) {
+                // 在某一段中没有计数器的key，在该段的出现次数不超过该段的最小计数
+                for (SpaceSaving<String> slot : slots) {
+                    if (slot.get(entry.getKey()) == null) {
+                        entry.getValue()[0] += slot.minCount();
+                    }
+                }
+            }
+            List<Map.Entry<String, long[]>> sorted = new ArrayList<>(window.entrySet());
+            sorted.sort((a, b) -> Long.compare(b.getValue()[1], a.getValue()[1]));
+            List<Map<String, Object>> top = new ArrayList<>();
+            for (int i = 0; i < sorted.size() && i < properties.getTopK(); i++) {
+                Map<String, Object> value = new LinkedHashMap<>();
+                value.put("key", sorted.get(i).getKey());
+                value.put("count", sorted.get(i).getValue()[0]);
+                value.put("guaranteed", sorted.get(i).getValue()[1]);
+                top.add(value);
+            }
+            this.top = top;
+            this.windowTotal = total;
+            if (!properties.isEnabled() || dimension == null || dimension.getThreshold() <= 0) {
+                return;
+            }
+            if (!exempt.isEmpty()) {
+                exempt.values().removeIf(exemptUntil -> exemptUntil <= now);
+            }
+            Action action = "throttle".equalsIgnoreCase(dimension.getAction()) ? Action.THROTTLE : Action.BLOCK;
+            long until = now + TimeUnit.SECONDS.toMillis(properties.getBlockSeconds());
+            for (Map.Entry<String, long[]> entry : sorted) {
+                long guaranteed = entry.getValue()[1];
+                if (guaranteed < dimension.getThreshold()) {
+                    break;
+                }
+                if (exempt.containsKey(entry.getKey())) {
+                    continue;
+                }
+                Block existing = blocks.get(entry.getKey());
+                if (existing == null || existing.untilMillis <= now) {
+                    blocks.put(entry.getKey(), new Block(action, dimension.getThrottleRatio(), guaranteed, until));
+                }
+            }
+        }
+    }
+}
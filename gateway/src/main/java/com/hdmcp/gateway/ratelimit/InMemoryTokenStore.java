@@ -0,0 +1,79 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2020 hdmcp.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package com.hdmcp.gateway.ratelimit;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import reactor.core.publisher.Mono;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 进程内的TokenStore，与Redis实现使用相同的补充算法，用于单机部署和测试
+ *
+ * @author WANGY
+ */
+public class InMemoryTokenStore implements TokenStore {
+
+    private final Cache<String, State> states = CacheBuilder.newBuilder()
+            .maximumSize(BucketStore.DEFAULT_MAX_SIZE)
+            .expireAfterAccess(BucketStore.DEFAULT_IDLE_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS)
+            .build();
+
+    @Override
+    public Mono<Long> acquire(String key, long requested, Quota quota) {
+        try {
+            State state = states.get(key, () -> new State(quota.getCapacity()));
+            return Mono.just(state.acquire(requested, quota, System.nanoTime()));
+        } catch (ExecutionException e) {
+            return Mono.error(e.getCause());
+        }
+    }
+
+    private static final class State {
+        private double tokens;
+        private long lastRefillNanos;
+
+        private State(long capacity) {
+            this.tokens = capacity;
+            this.lastRefillNanos = System.nanoTime();
+        }
+
+        private synchronized long acquire(long requested, Quota quota, long now) {
+            long elapsed = now - lastRefillNanos;
+            if (elapsed > 0) {
+                double refill = (double) elapsed * quota.getRefillTokens() / quota.getRefillDuration().toNanos();
+                tokens = Math.min(quota.getCapacity(), tokens + refill);
+                lastRefillNanos = now;
+            }
+            long granted = Math.min(requested, (long) tokens);
+            tokens -= granted;
+            return granted;
+        }
+    }
+}
@@ -0,0 +1,272 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2020 hdmcp.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package com.hdmcp.gateway.ratelimit;
+
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 按优先级排队的并发限制
+ * <p>
+ * 并发数未满时直接放行；已满时按优先级进入各自的{@link CoDelQueue}，有名额释放时总是先放行高优先级队列，
+ * 低优先级队列的排队时间更长，先被CoDel丢弃或等待超时。锁只保护计数与队列操作，通知请求在锁外进行。
+ * 配置变更时通过{@link #configure(int, Tier[])}原地调整，已放行请求的计数与排队中的请求都保留
+ *
+ * @author WANGY
+ */
+public class PriorityShedder {
+
+    public enum Admission {
+        /**
+         * 未排队直接放行
+         */
+        ADMITTED,
+        /**
+         * 排队后放行
+         */
+        QUEUED,
+        QUEUE_FULL,
+        /**
+         * 被CoDel丢弃
+         */
+        DROPPED,
+        TIMEOUT;
+
+        public boolean isAdmitted() {
+            return this == ADMITTED || this == QUEUED;
+        }
+    }
+
+    private static final Priority[] PRIORITIES = Priority.values();
+
+    private final CoDelQueue<Waiter>[] queues;
+
+    private final Duration[] maxWait;
+
+    private int maxConcurrency;
+
+    private int inflight;
+
+    /**
+     * @param tiers 按{@link Priority}顺序的各级队列配置
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public PriorityShedder(int maxConcurrency, Tier[] tiers) {
+        this.maxConcurrency = maxConcurrency;
+        this.queues = new CoDelQueue[PRIORITIES.length];
+        this.maxWait = new Duration[PRIORITIES.length];
+        for (int i = 0; i < PRIORITIES.length; i++) {
+            Tier tier = tiers[i];
+            queues[i] = new CoDelQueue<>(tier.queueSize, tier.targetNanos, tier.intervalNanos);
+            maxWait[i] = Duration.ofNanos(tier.maxWaitNanos);
+        }
+    }
+
+    /**
+     * 调整并发上限与各级队列，排队中的请求按原来的入队时间移入新队列，新队列放不下的返回QUEUE_FULL；
+     * 已在排队的请求仍按入队时的最长排队时间超时。上限调大后立即放行排队的请求
+     */
+    public void configure(int maxConcurrency, Tier[] tiers) {
+        List<Waiter> granted = new ArrayList<>(0);
+        List<Waiter> dropped = new ArrayList<>(0);
+        List<Waiter> overflow = new ArrayList<>(0);
+        synchronized (this) {
+            this.maxConcurrency = maxConcurrency;
+            for (int i = 0; i < PRIORITIES.length; i++) {
+                Tier tier = tiers[i];
+                CoDelQueue<Waiter> queue = new CoDelQueue<>(tier.queueSize, tier.targetNanos, tier.intervalNanos);
+                queues[i].transferTo(queue, overflow);
+                queues[i] = queue;
+                maxWait[i] = Duration.ofNanos(tier.maxWaitNanos);
+            }
+            dispatch(granted, dropped);
+        }
+        complete(granted, dropped);
+        for (Waiter waiter : overflow) {
+            if (waiter.drop()) {
+                waiter.sink.success(Admission.QUEUE_FULL);
+            }
+        }
+    }
+
+    public Mono<Admission> acquire(Priority priority) {
+        int index = priority.ordinal();
+        Duration wait;
+        synchronized (this) {
+            if (inflight < maxConcurrency) {
+                inflight++;
+                return Mono.just(Admission.ADMITTED);
+            }
+            wait = maxWait[index];
+        }
+        return Mono.<Admission>create(sink -> {
+            Waiter waiter = new Waiter(sink);
+            boolean admitted = false;
+            boolean queued;
+            synchronized (this) {
+                if (inflight < maxConcurrency) {
+                    inflight++;
+                    admitted = true;
+                    queued = false;
+                } else {
+                    queued = queues[index].offer(waiter, System.nanoTime());
+                }
+            }
+            if (admitted) {
+                sink.success(Admission.ADMITTED);
+            } else if (!queued) {
+                sink.success(Admission.QUEUE_FULL);
+            } else {
+                sink.onCancel(() -> {
+                    if (waiter.cancel()) {
+                        // 超时或取消的请求立即出队，不再占用队列容量
+                        synchronized (this) {
+                            queues[index].remove(waiter);
+                        }
+                    } else {
+                        // 已经分配了名额但请求被取消，归还名额
+                        release();
+                    }
+                });
+            }
+        }).timeout(wait, Mono.just(Admission.TIMEOUT));
+    }
+
+    public void release() {
+        List<Waiter> granted = new ArrayList<>(1);
+        List<Waiter> dropped = new ArrayList<>(0);
+        synchronized (this) {
+            inflight--;
+            dispatch(granted, dropped);
+        }
+        complete(granted, dropped);
+    }
+
+    /**
+     * 有空闲名额时按优先级从队列中取出请求，调用方持有锁
+     */
+    private void dispatch(List<Waiter> granted, List<Waiter> dropped) {
+        long now = System.nanoTime();
+        while (inflight < maxConcurrency) {
+            Waiter next = null;
+            for (CoDelQueue<Waiter> queue : queues) {
+                next = queue.poll(now, Waiter::isWaiting, dropped);
+                if (next != null) {
+                    break;
+                }
+            }
+            if (next == null) {
+                break;
+            }
+            if (next.grant()) {
+                inflight++;
+                granted.add(next);
+            }
+        }
+    }
+
+    private static void complete(List<Waiter> granted, List<Waiter> dropped) {
+        for (Waiter waiter : granted) {
+            waiter.sink.success(Admission.QUEUED);
+        }
+        for (Waiter waiter : dropped) {
+            if (waiter.drop()) {
+                waiter.sink.success(Admission.DROPPED);
+            }
+        }
+    }
+
+    public synchronized int getInflight() {
+        return inflight;
+    }
+
+    public synchronized int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    public synchronized int queueSize(Priority priority) {
+        return queues[priority.ordinal()].size();
+    }
+
+    private static final class Waiter {
+
+        private static final int WAITING = 0;
+        private static final int GRANTED = 1;
+        private static final int DROPPED = 2;
+        private static final int CANCELLED = 3;
+
+        private final MonoSink<Admission> sink;
+
+        private final AtomicInteger state = new AtomicInteger(WAITING);
+
+        private Waiter(MonoSink<Admission> sink) {
+            this.sink = sink;
+        }
+
+        private boolean isWaiting() {
+            return state.get() == WAITING;
+        }
+
+        private boolean grant() {
+            return state.compareAndSet(WAITING, GRANTED);
+        }
+
+        private boolean drop() {
+            return state.compareAndSet(WAITING, DROPPED);
+        }
+
+        /**
+         * @return 已经分配名额时返回false
+         */
+        private boolean cancel() {
+            return state.compareAndSet(WAITING, CANCELLED) || state.get() != GRANTED;
+        }
+    }
+
+    public static final class Tier {
+
+        private final int queueSize;
+
+        private final long targetNanos;
+
+        private final long intervalNanos;
+
+        private final long maxWaitNanos;
+
+        public Tier(int queueSize, long targetNanos, long intervalNanos, long maxWaitNanos) {
+            this.queueSize = queueSize;
+            this.targetNanos = targetNanos;
+            this.intervalNanos = intervalNanos;
+            this.maxWaitNanos = maxWaitNanos;
+        }
+    }
+}
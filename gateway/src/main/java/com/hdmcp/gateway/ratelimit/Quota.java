@@ -0,0 +1,97 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2020 hdmcp.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package com.hdmcp.gateway.ratelimit;
+
+import io.github.bucket4j.Bandwidth;
+import io.github.bucket4j.Bucket;
+import io.github.bucket4j.Bucket4j;
+import io.github.bucket4j.Refill;
+import org.springframework.web.server.ServerWebExchange;
+
+import java.time.Duration;
+
+/**
+ * 一级限流配额：按resolver解析出的key分配令牌桶
+ * <p>
+ * 多个Quota按顺序组合即为分层配额，例如先按路由、再按路由内的用户限流
+ *
+ * @author WANGY
+ */
+public class Quota {
+
+    private final String name;
+    private final RateLimitKeyResolver keyResolver;
+    /**
+     * 桶的最大容量，即能装载 Token 的最大数量
+     */
+    private final int capacity;
+    /**
+     * 每次 Token 补充量
+     */
+    private final int refillTokens;
+    /**
+     * 补充 Token 的时间间隔
+     */
+    private final Duration refillDuration;
+    private final Bandwidth bandwidth;
+
+    public Quota(String name, RateLimitKeyResolver keyResolver, int capacity, int refillTokens, Duration refillDuration) {
+        this.name = name;
+        this.keyResolver = keyResolver;
+        this.capacity = capacity;
+        this.refillTokens = refillTokens;
+        this.refillDuration = refillDuration;
+        this.bandwidth = Bandwidth.classic(capacity, Refill.greedy(refillTokens, refillDuration));
+    }
+
+    /**
+     * 存储中的key，以配额名称为前缀避免不同层级冲突
+     */
+    public String resolveKey(ServerWebExchange exchange) {
+        return name + '|' + keyResolver.resolve(exchange);
+    }
+
+    public Bucket createBucket() {
+        return Bucket4j.builder().addLimit(bandwidth).build();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getRefillTokens() {
+        return refillTokens;
+    }
+
+    public Duration getRefillDuration() {
+        return refillDuration;
+    }
+}
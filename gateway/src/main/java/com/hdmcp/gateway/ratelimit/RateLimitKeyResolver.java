@@ -0,0 +1,112 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2020 hdmcp.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package com.hdmcp.gateway.ratelimit;
+
+import com.hdmcp.core.utils.JwtUtil;
+import com.hdmcp.gateway.cache.VerifiedTokenCache;
+import io.jsonwebtoken.JwtException;
+import org.springframework.cloud.gateway.route.Route;
+import org.springframework.web.server.ServerWebExchange;
+
+import java.net.InetSocketAddress;
+import java.util.Map;
+
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.GATEWAY_ROUTE_ATTR;
+
+/**
+ * 限流key的解析器，在请求线程上同步执行
+ *
+ * @author WANGY
+ */
+@FunctionalInterface
+public interface RateLimitKeyResolver {
+
+    /**
+     * 无法解析时使用的key
+     */
+    String UNKNOWN = "-";
+
+    String resolve(ServerWebExchange exchange);
+
+    /**
+     * 客户端IP
+     */
+    static RateLimitKeyResolver remoteIp() {
+        return exchange -> {
+            InetSocketAddress address = exchange.getRequest().getRemoteAddress();
+            return address == null || address.getAddress() == null ? UNKNOWN : address.getAddress().getHostAddress();
+        };
+    }
+
+    /**
+     * 用户ID，只取自校验通过的JWT。限流在AuthFilter之前执行，此时x-user-id请求头仍由客户端控制，不可信；
+     * 签名错误等无效的Token返回UNKNOWN，由AuthFilter拒绝
+     */
+    static RateLimitKeyResolver userId(VerifiedTokenCache verifiedTokenCache) {
+        return exchange -> {
+            String token = exchange.getRequest().getHeaders().getFirst(JwtUtil.HEADER_AUTH);
+            if (token == null) {
+                return UNKNOWN;
+            }
+            Map<String, String> claims;
+            try {
+                claims = verifiedTokenCache.validateToken(token);
+            } catch (JwtException | IllegalArgumentException e) {
+                return UNKNOWN;
+            }
+            String userId = JwtUtil.NOT_EXPIRED.equals(claims.get(JwtUtil.TOKEN_F_IS_EXPIRED))
+                    ? claims.get(JwtUtil.TOKEN_F_ID) : null;
+            return userId == null ? UNKNOWN : userId;
+        };
+    }
+
+    /**
+     * 路由ID
+     */
+    static RateLimitKeyResolver routeId() {
+        return exchange -> {
+            Route route = exchange.getAttribute(GATEWAY_ROUTE_ATTR);
+            return route == null ? UNKNOWN : route.getId();
+        };
+    }
+
+    /**
+     * 组合多个解析器，如 路由ID + 用户ID
+     */
+    static RateLimitKeyResolver composite(RateLimitKeyResolver... resolvers) {
+        return exchange -> {
+            StringBuilder key = new StringBuilder();
+            for (int i = 0; i < resolvers.length; i++) {
+                if (i > 0) {
+                    key.append(':');
+                }
+                key.append(resolvers[i].resolve(exchange));
+            }
+            return key.toString();
+        };
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2020 hdmcp.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package com.hdmcp.gateway.ratelimit;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 重试预算：每个请求存入ratio个令牌，每次对冲或重试取出一个，
+ * 把额外请求限制在正常请求的ratio倍以内，避免服务变慢时重试把负载放大
+ *
+ * @author WANGY
+ */
+public class RetryBudget {
+
+    private static final long SCALE = 1000;
+
+    private final long deposit;
+
+    private final long capacity;
+
+    private final AtomicLong tokens;
+
+    /**
+     * @param ratio     额外请求占正常请求的比例上限，如0.1
+     * @param maxTokens 令牌上限，也是空闲后允许的突发重试数
+     */
+    public RetryBudget(double ratio, int maxTokens) {
+        this.deposit = Math.round(ratio * SCALE);
+        this.capacity = maxTokens * SCALE;
+        this.tokens = new AtomicLong(capacity);
+    }
+
+    public void onRequest() {
+        long current;
+        do {
+            current = tokens.get();
+            if (current >= capacity) {
+                return;
+            }
+        } while (!tokens.compareAndSet(current, Math.min(capacity, current + deposit)));
+    }
+
+    public boolean tryWithdraw() {
+        long current;
+        do {
+            current = tokens.get();
+            if (current < SCALE) {
+                return false;
+            }
+        } while (!tokens.compareAndSet(current, current - SCALE));
+        return true;
+    }
+
+    public double available() {
+        return (double) tokens.get() / SCALE;
+    }
+}
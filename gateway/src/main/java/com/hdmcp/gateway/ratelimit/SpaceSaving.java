@@ -0,0 +1,236 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2020 hdmcp.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package com.hdmcp.gateway.ratelimit;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Space-Saving算法，用固定capacity个计数器找出数据流中出现次数最多的key
+ * <p>
+ * 计数器满后新key替换计数最小的计数器，继承它的计数并记为误差，因此count是上界，count-error是下界，
+ * 出现次数超过总数/capacity的key一定被保留。计数器按计数分桶(Stream-Summary)，每次计数O(1)。
+ * 非线程安全，由{@link HeavyHitterDetector}在单个线程中访问
+ *
+ * @author WANGY
+ */
+public class SpaceSaving<K> {
+
+    private final int capacity;
+
+    private final Map<K, Counter<K>> counters;
+
+    /**
+     * 按计数升序排列的桶
+     */
+    private Bucket<K> minBucket;
+
+    private Bucket<K> maxBucket;
+
+    private long total;
+
+    public SpaceSaving(int capacity) {
+        this.capacity = capacity;
+        this.counters = new HashMap<>(capacity * 2);
+    }
+
+    public void offer(K key) {
+        total++;
+        Counter<K> counter = counters.get(key);
+        if (counter == null) {
+            if (counters.size() < capacity) {
+                counter = new Counter<>(key);
+            } else {
+                counter = minBucket.head;
+                counters.remove(counter.key);
+                counter.key = key;
+                counter.error = counter.count;
+            }
+            counters.put(key, counter);
+        }
+        increment(counter);
+    }
+
+    /**
+     * @return 没有被计数的key的出现次数上界
+     */
+    public long minCount() {
+        return counters.size() < capacity || minBucket == null ? 0 : minBucket.count;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+    public Counter<K> get(K key) {
+        return counters.get(key);
+    }
+
+    public int size() {
+        return counters.size();
+    }
+
+    /**
+     * @return 按count降序的前k个计数器
+     */
+    public List<Counter<K>> top(int k) {
+        List<Counter<K>> top = new ArrayList<>(Math.min(k, counters.size()));
+        for (Bucket<K> bucket = maxBucket; bucket != null && top.size() < k; bucket = bucket.prev) {
+            for (Counter<K> counter = bucket.head; counter != null && top.size() < k; counter = counter.next) {
+                top.add(counter);
+            }
+        }
+        return top;
+    }
+
+    private void increment(Counter<K> counter) {
+        Bucket<K> from = counter.bucket;
+        long count = counter.count + 1;
+        Bucket<K> next = from == null ? minBucket : from.next;
+        Bucket<K> to;
+        if (next != null && next.count == count) {
+            to = next;
+        } else {
+            to = new Bucket<>(count);
+            to.prev = from;
+            to.next = next;
+            if (from != null) {
+                from.next = to;
+            } else {
+                minBucket = to;
+            }
+            if (next != null) {
+                next.prev = to;
+            } else {
+                maxBucket = to;
+            }
+        }
+        if (from != null) {
+            from.remove(counter);
+            if (from.head == null) {
+                unlink(from);
+            }
+        }
+        counter.count = count;
+        to.add(counter);
+    }
+
+    private void unlink(Bucket<K> bucket) {
+        if (bucket.prev != null) {
+            bucket.prev.next = bucket.next;
+        } else {
+            minBucket = bucket.next;
+        }
+        if (bucket.next != null) {
+            bucket.next.prev = bucket.prev;
+        } else {
+            maxBucket = bucket.prev;
+        }
+    }
+
+    public static final class Counter<K> {
+
+        private K key;
+
+        private long count;
+
+        private long error;
+
+        private Bucket<K> bucket;
+
+        private Counter<K> prev;
+
+        private Counter<K> next;
+
+        private Counter(K key) {
+            this.key = key;
+        }
+
+        public K getKey() {
+            return key;
+        }
+
+        /**
+         * @return 出现次数的上界
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * @return 出现次数的下界
+         */
+        public long getGuaranteed() {
+            return count - error;
+        }
+    }
+
+    private static final class Bucket<K> {
+
+        private final long count;
+
+        private Bucket<K> prev;
+
+        private Bucket<K> next;
+
+        private Counter<K> head;
+
+        private Bucket(long count) {
+            this.count = count;
+        }
+
+        private void add(Counter<K> counter) {
+            counter.bucket = this;
+            counter.prev = null;
+            counter.next = head;
+            if (head != null) {
+                head.prev = counter;
+            }
+            head = counter;
+        }
+
+        private void remove(Counter<K> counter) {
+            if (counter.prev != null) {
+                counter.prev.next = counter.next;
+            } else {
+                head = counter.next;
+            }
+            if (counter.next != null) {
+                counter.next.prev = counter.prev;
+            }
+            counter.bucket = null;
+            counter.prev = null;
+            counter.next = null;
+        }
+    }
+}
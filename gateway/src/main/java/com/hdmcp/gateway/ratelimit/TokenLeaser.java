@@ -0,0 +1,199 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2020 hdmcp.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package com.hdmcp.gateway.ratelimit;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * 从{@link TokenStore}批量租用Token，在本地扣减
+ * <p>
+ * 每个副本最多持有leaseSize个未使用的Token，集群的总误差不超过 副本数 * leaseSize；
+ * 租约在leaseTtl后作废，避免长时间囤积的Token造成突发；
+ * 存储中的桶为空时按补充速率退避，被拒绝的请求不会每次都访问存储
+ *
+ * @author WANGY
+ */
+public class TokenLeaser {
+
+    private final TokenStore tokenStore;
+    private final Quota quota;
+    private final long leaseSize;
+    private final long leaseTtlNanos;
+    private final long backoffNanos;
+    private final Cache<String, Lease> leases;
+
+    private final LongAdder localHits = new LongAdder();
+    private final LongAdder storeCalls = new LongAdder();
+
+    /**
+     * @param replicas 网关副本数
+     * @param maxError 允许的集群误差，占桶容量的比例，如0.05
+     */
+    public TokenLeaser(TokenStore tokenStore, Quota quota, int replicas, double maxError, Duration leaseTtl) {
+        this(tokenStore, quota, leaseSize(quota.getCapacity(), replicas, maxError), leaseTtl);
+    }
+
+    public TokenLeaser(TokenStore tokenStore, Quota quota, long leaseSize, Duration leaseTtl) {
+        this.tokenStore = tokenStore;
+        this.quota = quota;
+        this.leaseSize = leaseSize;
+        this.leaseTtlNanos = leaseTtl.toNanos();
+        // 存储中的桶已空时，等待补充出一个租约的Token(不超过leaseTtl)再重试
+        this.backoffNanos = Math.min(leaseTtlNanos,
+                quota.getRefillDuration().toNanos() / Math.max(1, quota.getRefillTokens()) * leaseSize);
+        this.leases = CacheBuilder.newBuilder()
+                .maximumSize(BucketStore.DEFAULT_MAX_SIZE)
+                .expireAfterAccess(BucketStore.DEFAULT_IDLE_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    /**
+     * 误差 = 副本数 * leaseSize，据此反推每次租用的数量
+     */
+    public static long leaseSize(long capacity, int replicas, double maxError) {
+        return Math.max(1L, (long) (capacity * maxError / Math.max(1, replicas)));
+    }
+
+    public Quota getQuota() {
+        return quota;
+    }
+
+    /**
+     * 本地租约中还有Token时直接扣减，不访问存储
+     */
+    public boolean tryConsumeLocal(String key) {
+        if (lease(key).tryConsume(System.nanoTime())) {
+            localHits.increment();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 本地Token用尽时向存储续租，同一个key的并发续租会合并为一次请求
+     */
+    public Mono<Boolean> tryConsume(String key) {
+        if (tryConsumeLocal(key)) {
+            return Mono.just(Boolean.TRUE);
+        }
+        Lease lease = lease(key);
+        if (lease.isBackingOff(System.nanoTime())) {
+            return Mono.just(Boolean.FALSE);
+        }
+        return lease.renew(() -> {
+            storeCalls.increment();
+            return tokenStore.acquire(key, leaseSize, quota);
+        }, leaseTtlNanos, backoffNanos).map(granted -> lease.tryConsume(System.nanoTime()));
+    }
+
+    public long getLeaseSize() {
+        return leaseSize;
+    }
+
+    public long getLocalHits() {
+        return localHits.sum();
+    }
+
+    public long getStoreCalls() {
+        return storeCalls.sum();
+    }
+
+    public long size() {
+        return leases.size();
+    }
+
+    private Lease lease(String key) {
+        Lease lease = leases.getIfPresent(key);
+        if (lease != null) {
+            return lease;
+        }
+        try {
+            return leases.get(key, Lease::new);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+
+    private static final class Lease {
+        private final AtomicLong tokens = new AtomicLong();
+        private final AtomicReference<Mono<Long>> pending = new AtomicReference<>();
+        private volatile long expiresAt;
+        private volatile long retryAt;
+
+        private boolean isBackingOff(long now) {
+            return now - retryAt < 0;
+        }
+
+        private boolean tryConsume(long now) {
+            if (now - expiresAt > 0) {
+                tokens.set(0);
+                return false;
+            }
+            long current;
+            do {
+                current = tokens.get();
+                if (current <= 0) {
+                    return false;
+                }
+            } while (!tokens.compareAndSet(current, current - 1));
+            return true;
+        }
+
+        private Mono<Long> renew(Supplier<Mono<Long>> acquire, long ttlNanos, long backoffNanos) {
+            Mono<Long> current = pending.get();
+            if (current != null) {
+                return current;
+            }
+            Mono<Long> renewal = Mono.defer(acquire)
+                    .doOnNext(granted -> {
+                        long now = System.nanoTime();
+                        expiresAt = now + ttlNanos;
+                        tokens.set(granted);
+                        if (granted == 0) {
+                            retryAt = now + backoffNanos;
+                        }
+                    })
+                    .doFinally(signal -> pending.set(null))
+                    .cache();
+            if (pending.compareAndSet(null, renewal)) {
+                return renewal;
+            }
+            Mono<Long> other = pending.get();
+            return other != null ? other : renewal;
+        }
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2020 hdmcp.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package com.hdmcp.gateway.ratelimit;
+
+import reactor.core.publisher.Mono;
+
+/**
+ * 集群共享的令牌桶存储，所有网关副本从同一个桶中批量租用Token
+ * <p>
+ * 实现需要保证单次acquire在存储端是原子的(例如Redis中用Lua脚本完成补充与扣减)，
+ * {@link InMemoryTokenStore}是单机/测试用的本地实现
+ *
+ * @author WANGY
+ */
+public interface TokenStore {
+
+    /**
+     * 按配额补充并扣减Token
+     *
+     * @param key       限流key
+     * @param requested 本次希望租用的Token数量
+     * @param quota     桶的容量与补充速率
+     * @return 实际租到的Token数量，0 ~ requested
+     */
+    Mono<Long> acquire(String key, long requested, Quota quota);
+}
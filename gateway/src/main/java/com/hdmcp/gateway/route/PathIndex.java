@@ -0,0 +1,191 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2020 hdmcp.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package com.hdmcp.gateway.route;
+
+import org.springframework.cloud.gateway.route.Route;
+import org.springframework.util.StringUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 按Path断言的字面量前缀建立的路由前缀树(不可变)
+ * <p>
+ * 例如 /product/** 的前缀为[product]，/order/{id}/detail 的前缀为[order]。
+ * 每个节点预先计算好候选路由数组：祖先节点上的路由 + 自身节点的路由 + 没有Path断言的路由，按路由顺序排列，
+ * 查找时只需沿请求路径走到最深的节点，与路由数量无关。
+ * 候选路由仍需执行完整的断言，索引只负责排除前缀不匹配的路由
+ *
+ * @author WANGY
+ */
+public final class PathIndex {
+
+    public static final PathIndex EMPTY = new PathIndex(new Node(Collections.emptyMap(), new Route[0]), 0);
+
+    private final Node root;
+
+    private final int size;
+
+    private PathIndex(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    /**
+     * @param entries 已按路由顺序排列的路由
+     */
+    public static PathIndex build(List<RouteEntry> entries) {
+        // 临时的可变树，记录每个节点上挂载的路由
+        MutableNode root = new MutableNode();
+        List<RouteEntry> unindexed = new ArrayList<>();
+        for (RouteEntry entry : entries) {
+            if (entry.getPrefixes() == null) {
+                unindexed.add(entry);
+                continue;
+            }
+            for (String[] prefix : entry.getPrefixes()) {
+                MutableNode node = root;
+                for (String segment : prefix) {
+                    node = node.children.computeIfAbsent(segment, s -> new MutableNode());
+                }
+                node.entries.add(entry);
+            }
+        }
+        Set<RouteEntry> inherited = Collections.newSetFromMap(new IdentityHashMap<>());
+        inherited.addAll(unindexed);
+        return new PathIndex(freeze(root, entries, inherited), entries.size());
+    }
+
+    private static Node freeze(MutableNode node, List<RouteEntry> ordered, Set<RouteEntry> inherited) {
+        Set<RouteEntry> visible = inherited;
+        if (!node.entries.isEmpty()) {
+            visible = Collections.newSetFromMap(new IdentityHashMap<>());
+            visible.addAll(inherited);
+            visible.addAll(node.entries);
+        }
+        List<Route> candidates = new ArrayList<>(visible.size());
+        for (RouteEntry entry : ordered) {
+            if (visible.contains(entry)) {
+                candidates.add(entry.getRoute());
+            }
+        }
+        Map<String, Node> children = new HashMap<>(node.children.size() * 2);
+        for (Map.Entry<String, MutableNode> child : node.children.entrySet()) {
+            children.put(child.getKey(), freeze(child.getValue(), ordered, visible));
+        }
+        return new Node(children, candidates.toArray(new Route[0]));
+    }
+
+    /**
+     * 返回可能匹配该路径的路由，按路由顺序排列；返回的数组不可修改
+     */
+    public Route[] candidates(String rawPath) {
+        Node node = root;
+        int length = rawPath.length();
+        int start = rawPath.startsWith("/") ? 1 : 0;
+        while (start <= length && !node.children.isEmpty()) {
+            int end = rawPath.indexOf('/', start);
+            if (end < 0) {
+                end = length;
+            }
+            Node child = node.children.get(segment(rawPath, start, end));
+            if (child == null) {
+                break;
+            }
+            node = child;
+            start = end + 1;
+        }
+        return node.candidates;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 与PathContainer一致：去掉;后的矩阵参数并做URL解码
+     */
+    private static String segment(String path, int start, int end) {
+        String segment = path.substring(start, end);
+        int semicolon = segment.indexOf(';');
+        if (semicolon >= 0) {
+            segment = segment.substring(0, semicolon);
+        }
+        if (segment.indexOf('%') >= 0) {
+            segment = StringUtils.uriDecode(segment, StandardCharsets.UTF_8);
+        }
+        return segment;
+    }
+
+    /**
+     * 取出Path模式中第一个通配段之前的字面量前缀，如 /product/** -> [product]
+     *
+     * @return 无法建立索引时返回null
+     */
+    public static String[] literalPrefix(String pattern) {
+        if (pattern == null || !pattern.startsWith("/") || pattern.contains("#{")) {
+            return null;
+        }
+        List<String> segments = new ArrayList<>();
+        int start = 1;
+        int length = pattern.length();
+        while (start < length) {
+            int end = pattern.indexOf('/', start);
+            if (end < 0) {
+                end = length;
+            }
+            String segment = pattern.substring(start, end);
+            if (segment.indexOf('*') >= 0 || segment.indexOf('?') >= 0 || segment.indexOf('{') >= 0) {
+                break;
+            }
+            segments.add(segment);
+            start = end + 1;
+        }
+        return segments.toArray(new String[0]);
+    }
+
+    private static final class Node {
+        private final Map<String, Node> children;
+        private final Route[] candidates;
+
+        private Node(Map<String, Node> children, Route[] candidates) {
+            this.children = children;
+            this.candidates = candidates;
+        }
+    }
+
+    private static final class MutableNode {
+        private final Map<String, MutableNode> children = new HashMap<>();
+        private final List<RouteEntry> entries = new ArrayList<>();
+    }
+}
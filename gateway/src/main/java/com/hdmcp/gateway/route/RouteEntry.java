@@ -0,0 +1,84 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2020 hdmcp.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package com.hdmcp.gateway.route;
+
+import org.springframework.cloud.gateway.route.Route;
+import org.springframework.cloud.gateway.route.RouteDefinition;
+
+import java.util.Comparator;
+
+/**
+ * 路由表中的一条路由
+ *
+ * @author WANGY
+ */
+public final class RouteEntry {
+
+    /**
+     * 与CachingRouteLocator一致，先按order，order相同时按加入顺序
+     */
+    public static final Comparator<RouteEntry> ORDER = Comparator
+            .comparingInt((RouteEntry entry) -> entry.route.getOrder())
+            .thenComparingLong(entry -> entry.sequence);
+
+    private final Route route;
+
+    /**
+     * 路由定义，Java DSL声明的路由为null
+     */
+    private final RouteDefinition definition;
+
+    private final long sequence;
+
+    /**
+     * Path断言的字面量前缀，null表示没有可索引的Path断言
+     */
+    private final String[][] prefixes;
+
+    public RouteEntry(Route route, RouteDefinition definition, long sequence, String[][] prefixes) {
+        this.route = route;
+        this.definition = definition;
+        this.sequence = sequence;
+        this.prefixes = prefixes;
+    }
+
+    public Route getRoute() {
+        return route;
+    }
+
+    public RouteDefinition getDefinition() {
+        return definition;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public String[][] getPrefixes() {
+        return prefixes;
+    }
+}
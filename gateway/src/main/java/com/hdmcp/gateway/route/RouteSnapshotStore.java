@@ -0,0 +1,232 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2020 hdmcp.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package com.hdmcp.gateway.route;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.gateway.route.RouteDefinition;
+import org.springframework.cloud.gateway.route.RouteDefinitionRepository;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 路由表的本地快照
+ * <p>
+ * 路由表每次变更后由后台线程写入本地文件(先写临时文件再原子替换)，连续的变更只写最后一次；
+ * 网关重启时先从快照恢复路由表，无需等待Nacos配置和服务发现就绪即可转发请求。
+ * 通过接口动态添加的路由在恢复时会重新写入RouteDefinitionRepository
+ *
+ * @author WANGY
+ */
+@Component
+public class RouteSnapshotStore {
+
+    private static final Logger log = LoggerFactory.getLogger(RouteSnapshotStore.class);
+
+    private static final int VERSION = 1;
+
+    @Value("${samples.route.snapshot.enabled:true}")
+    private boolean enabled;
+
+    @Value("${samples.route.snapshot.file:./data/gateway-routes.json}")
+    private String file;
+
+    @Autowired(required = false)
+    private RouteDefinitionRepository routeDefinitionRepository;
+
+    private final ObjectMapper objectMapper = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    private final AtomicReference<List<RouteDefinition>> pending = new AtomicReference<>();
+
+    private ExecutorService writer;
+
+    @PostConstruct
+    public void start() {
+        if (enabled) {
+            writer = Executors.newSingleThreadExecutor(r -> {
+                Thread thread = new Thread(r, "gateway-route-snapshot");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (writer != null) {
+            writer.shutdown();
+        }
+    }
+
+    /**
+     * 读取快照，并把其中动态添加的路由写回RouteDefinitionRepository
+     *
+     * @return 快照中的全部路由定义，没有快照时返回空集合
+     */
+    public List<RouteDefinition> restore() {
+        Path path = Paths.get(file);
+        if (!enabled || !Files.isRegularFile(path)) {
+            return Collections.emptyList();
+        }
+        try {
+            RouteSnapshot snapshot = objectMapper.readValue(path.toFile(), RouteSnapshot.class);
+            if (snapshot.getVersion() != VERSION || snapshot.getRoutes() == null) {
+                log.warn("ignore route snapshot {}, version {}", path, snapshot.getVersion());
+                return Collections.emptyList();
+            }
+            // 手工编辑过的快照中可能有null元素
+            List<RouteDefinition> routes = new ArrayList<>(snapshot.getRoutes().size());
+            for (RouteDefinition definition : snapshot.getRoutes()) {
+                if (definition != null && definition.getId() != null) {
+                    routes.add(definition);
+                }
+            }
+            if (routeDefinitionRepository != null && snapshot.getDynamic() != null) {
+                Set<String> dynamic = new HashSet<>(snapshot.getDynamic());
+                for (RouteDefinition definition : routes) {
+                    if (dynamic.contains(definition.getId())) {
+                        routeDefinitionRepository.save(Mono.just(definition)).subscribe();
+                    }
+                }
+            }
+            log.info("restore {} routes from snapshot {}", routes.size(), path);
+            return routes;
+        } catch (IOException e) {
+            log.warn("read route snapshot " + path + " fail", e);
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * 异步保存路由表，尚未写入的旧版本会被覆盖
+     */
+    public void schedule(List<RouteDefinition> definitions) {
+        if (writer == null) {
+            return;
+        }
+        if (pending.getAndSet(definitions) == null) {
+            writer.execute(this::flush);
+        }
+    }
+
+    private void flush() {
+        List<RouteDefinition> definitions = pending.getAndSet(null);
+        if (definitions == null) {
+            return;
+        }
+        RouteSnapshot snapshot = new RouteSnapshot();
+        snapshot.setVersion(VERSION);
+        snapshot.setTimestamp(System.currentTimeMillis());
+        snapshot.setRoutes(definitions);
+        snapshot.setDynamic(dynamicIds());
+        Path path = Paths.get(file).toAbsolutePath();
+        try {
+            Files.createDirectories(path.getParent());
+            Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+            objectMapper.writeValue(tmp.toFile(), snapshot);
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("write route snapshot " + path + " fail", e);
+        }
+    }
+
+    private List<String> dynamicIds() {
+        if (routeDefinitionRepository == null) {
+            return Collections.emptyList();
+        }
+        List<String> ids = new ArrayList<>();
+        routeDefinitionRepository.getRouteDefinitions().map(RouteDefinition::getId).toIterable().forEach(ids::add);
+        return ids;
+    }
+
+    public static class RouteSnapshot {
+
+        private int version;
+
+        private long timestamp;
+
+        private List<RouteDefinition> routes;
+
+        /**
+         * 通过接口动态添加的路由id
+         */
+        private List<String> dynamic;
+
+        public int getVersion() {
+            return version;
+        }
+
+        public void setVersion(int version) {
+            this.version = version;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public void setTimestamp(long timestamp) {
+            this.timestamp = timestamp;
+        }
+
+        public List<RouteDefinition> getRoutes() {
+            return routes;
+        }
+
+        public void setRoutes(List<RouteDefinition> routes) {
+            this.routes = routes;
+        }
+
+        public List<String> getDynamic() {
+            return dynamic;
+        }
+
+        public void setDynamic(List<String> dynamic) {
+            this.dynamic = dynamic;
+        }
+    }
+}
@@ -0,0 +1,408 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2020 hdmcp.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package com.hdmcp.gateway.route;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.BeanFactoryAware;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.gateway.config.GatewayProperties;
+import org.springframework.cloud.gateway.event.RefreshRoutesEvent;
+import org.springframework.cloud.gateway.filter.factory.GatewayFilterFactory;
+import org.springframework.cloud.gateway.handler.predicate.PredicateDefinition;
+import org.springframework.cloud.gateway.handler.predicate.RoutePredicateFactory;
+import org.springframework.cloud.gateway.route.CachingRouteLocator;
+import org.springframework.cloud.gateway.route.CompositeRouteLocator;
+import org.springframework.cloud.gateway.route.Route;
+import org.springframework.cloud.gateway.route.RouteDefinition;
+import org.springframework.cloud.gateway.route.RouteDefinitionLocator;
+import org.springframework.cloud.gateway.route.RouteDefinitionRouteLocator;
+import org.springframework.cloud.gateway.route.RouteLocator;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.ApplicationEventPublisherAware;
+import org.springframework.context.ApplicationListener;
+import org.springframework.core.convert.ConversionService;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.function.Tuple2;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * 网关路由表
+ * <p>
+ * 收到RefreshRoutesEvent时全量重建；动态路由的增删改通过{@link #prepare}/{@link #commit}
+ * 只转换变更的路由，一批变更只重建一次前缀索引并整体替换，读路径不加锁。
+ * 全量重建期间如果有增量变更提交，这次重建读到的可能是旧数据，丢弃后重新读取。
+ * 启动时先从{@link RouteSnapshotStore}恢复，恢复的路由在保留期内不会被尚未就绪的数据源覆盖掉
+ *
+ * @author WANGY
+ */
+@Component
+public class RouteTable implements ApplicationListener<RefreshRoutesEvent>, BeanFactoryAware, ApplicationEventPublisherAware {
+
+    private static final Logger log = LoggerFactory.getLogger(RouteTable.class);
+
+    private static final String PATH_PREDICATE = "Path";
+
+    @Autowired
+    private RouteDefinitionLocator routeDefinitionLocator;
+
+    @Autowired
+    private ObjectProvider<RouteLocator> routeLocators;
+
+    @SuppressWarnings("rawtypes")
+    @Autowired
+    private List<RoutePredicateFactory> predicateFactories;
+
+    @SuppressWarnings("rawtypes")
+    @Autowired
+    private List<GatewayFilterFactory> filterFactories;
+
+    @Autowired
+    private GatewayProperties gatewayProperties;
+
+    @Autowired
+    @Qualifier("webFluxConversionService")
+    private ConversionService conversionService;
+
+    @Autowired
+    private RouteSnapshotStore snapshotStore;
+
+    /**
+     * 快照恢复的路由的保留时间
+     */
+    @Value("${samples.route.snapshot.hold-millis:60000}")
+    private long holdMillis;
+
+    private BeanFactory beanFactory;
+
+    private ApplicationEventPublisher publisher;
+
+    /**
+     * 路由id -> 路由，仅在持有this锁时修改
+     */
+    private final Map<String, RouteEntry> entries = new HashMap<>();
+
+    /**
+     * 从快照恢复、尚未被数据源确认的路由
+     */
+    private final Map<String, RouteEntry> restored = new HashMap<>();
+
+    private long restoredUntil;
+
+    private long sequence;
+
+    /**
+     * 增量变更的次数，全量重建据此判断读到的数据是否已经过时
+     */
+    private long changes;
+
+    private volatile PathIndex index = PathIndex.EMPTY;
+
+    @PostConstruct
+    public void restore() {
+        List<RouteDefinition> definitions = snapshotStore.restore();
+        if (definitions.isEmpty()) {
+            return;
+        }
+        synchronized (this) {
+            for (RouteDefinition definition : definitions) {
+                if (definition.getPredicates() == null) {
+                    definition.setPredicates(new ArrayList<>());
+                }
+                if (definition.getFilters() == null) {
+                    definition.setFilters(new ArrayList<>());
+                }
+                try {
+                    RouteEntry entry = new RouteEntry(convert(definition), definition, sequence++, prefixes(definition));
+                    entries.put(definition.getId(), entry);
+                    restored.put(definition.getId(), entry);
+                } catch (RuntimeException e) {
+                    log.warn("skip route {} in snapshot: {}", definition.getId(), e.getMessage());
+                }
+            }
+            restoredUntil = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(holdMillis);
+            index = PathIndex.build(sort(entries.values()));
+        }
+    }
+
+    /**
+     * 可能匹配该路径的路由，按路由顺序排列
+     */
+    public Route[] candidates(String rawPath) {
+        return index.candidates(rawPath);
+    }
+
+    public int size() {
+        return index.size();
+    }
+
+    @Override
+    public void onApplicationEvent(RefreshRoutesEvent event) {
+        if (event instanceof RouteChangedEvent) {
+            // 变更已经增量应用
+            return;
+        }
+        refresh().subscribe(null, e -> log.error("refresh route table fail", e));
+    }
+
+    /**
+     * 从所有RouteLocator全量重建路由表
+     */
+    public Mono<Void> refresh() {
+        return Mono.defer(() -> {
+            long start;
+            synchronized (this) {
+                start = changes;
+            }
+            return load().doOnNext(tuple -> {
+                if (!replaceAll(tuple.getT1(), tuple.getT2(), start)) {
+                    log.debug("route table changed during refresh, reload");
+                    onApplicationEvent(new RefreshRoutesEvent(this));
+                }
+            }).then();
+        });
+    }
+
+    private Mono<Tuple2<List<Route>, Map<String, RouteDefinition>>> load() {
+        Mono<Map<String, RouteDefinition>> definitions = routeDefinitionLocator.getRouteDefinitions()
+                .collectMap(RouteDefinition::getId, definition -> definition, HashMap::new);
+        Mono<List<Route>> routes = Flux.fromStream(routeLocators.orderedStream())
+                .filter(locator -> !(locator instanceof CachingRouteLocator) && !(locator instanceof CompositeRouteLocator))
+                .concatMap(RouteLocator::getRoutes)
+                .collectList();
+        return Mono.zip(routes, definitions);
+    }
+
+    /**
+     * @return 路由不存在时返回false
+     */
+    public boolean delete(String id) {
+        synchronized (this) {
+            if (!entries.containsKey(id)) {
+                return false;
+            }
+            commit(new Changes(Collections.emptyList(), Collections.singletonList(id)));
+            return true;
+        }
+    }
+
+    /**
+     * 转换并校验一批变更，不修改路由表；通过后先持久化，再调用{@link #commit}生效
+     *
+     * @param saves   新增或更新的路由
+     * @param updates 更新的路由，必须存在
+     * @param deletes 删除的路由id，必须存在
+     * @throws IllegalArgumentException 路由定义不合法，或更新、删除的路由不存在
+     */
+    public Changes prepare(List<RouteDefinition> saves, List<RouteDefinition> updates, Collection<String> deletes) {
+        List<RouteEntry> converted = new ArrayList<>(saves.size() + updates.size());
+        for (RouteDefinition definition : saves) {
+            converted.add(new RouteEntry(convert(definition), definition, -1, prefixes(definition)));
+        }
+        for (RouteDefinition definition : updates) {
+            converted.add(new RouteEntry(convert(definition), definition, -1, prefixes(definition)));
+        }
+        synchronized (this) {
+            for (RouteDefinition definition : updates) {
+                if (!entries.containsKey(definition.getId())) {
+                    throw new IllegalArgumentException("not find route routeId: " + definition.getId());
+                }
+            }
+            for (String id : deletes) {
+                if (!entries.containsKey(id)) {
+                    throw new IllegalArgumentException("not find route routeId: " + id);
+                }
+            }
+        }
+        return new Changes(converted, new ArrayList<>(deletes));
+    }
+
+    /**
+     * 原子地应用一批已转换的变更，只重建一次索引
+     */
+    public void commit(Changes changes) {
+        synchronized (this) {
+            for (String id : changes.deletes) {
+                entries.remove(id);
+                restored.remove(id);
+            }
+            for (RouteEntry entry : changes.saves) {
+                String id = entry.getRoute().getId();
+                RouteEntry previous = entries.get(id);
+                long seq = previous != null ? previous.getSequence() : sequence++;
+                entries.put(id, new RouteEntry(entry.getRoute(), entry.getDefinition(), seq, entry.getPrefixes()));
+                restored.remove(id);
+            }
+            this.changes++;
+            rebuild();
+        }
+    }
+
+    /**
+     * 原子地应用一批变更：先转换全部路由定义，任何一条失败则整批不生效；全部成功后只重建一次索引
+     *
+     * @throws IllegalArgumentException 路由定义不合法，或更新、删除的路由不存在
+     */
+    public void apply(List<RouteDefinition> saves, List<RouteDefinition> updates, Collection<String> deletes) {
+        commit(prepare(saves, updates, deletes));
+    }
+
+    private Route convert(RouteDefinition definition) {
+        List<Route> converted = new ArrayList<>(1);
+        RouteDefinitionRouteLocator locator = new RouteDefinitionRouteLocator(() -> Flux.just(definition),
+                predicateFactories, filterFactories, gatewayProperties, conversionService);
+        locator.setBeanFactory(beanFactory);
+        locator.setApplicationEventPublisher(publisher);
+        // 路由定义来自内存，转换过程是同步的
+        Throwable[] error = new Throwable[1];
+        locator.getRoutes().subscribe(converted::add, e -> error[0] = e);
+        if (error[0] != null || converted.isEmpty()) {
+            throw new IllegalArgumentException("invalid route definition: " + definition.getId(), error[0]);
+        }
+        return converted.get(0);
+    }
+
+    /**
+     * @param start 开始读取时的变更次数
+     * @return 读取期间有增量变更时不替换，返回false
+     */
+    private synchronized boolean replaceAll(List<Route> routes, Map<String, RouteDefinition> definitions, long start) {
+        if (changes != start) {
+            return false;
+        }
+        Map<String, RouteEntry> rebuilt = new LinkedHashMap<>(routes.size() * 2);
+        long seq = 0;
+        for (Route route : routes) {
+            RouteDefinition definition = definitions.get(route.getId());
+            String[][] prefixes = definition != null ? prefixes(definition) : null;
+            // 与CachingRouteLocator一致，id重复时各自保留
+            String key = rebuilt.containsKey(route.getId()) ? route.getId() + "#" + seq : route.getId();
+            rebuilt.put(key, new RouteEntry(route, definition, seq++, prefixes));
+        }
+        if (!restored.isEmpty()) {
+            restored.keySet().removeAll(rebuilt.keySet());
+            if (System.nanoTime() - restoredUntil < 0) {
+                // 服务发现等数据源可能还未就绪，保留期内用快照补齐缺失的路由
+                for (RouteEntry entry : restored.values()) {
+                    rebuilt.put(entry.getRoute().getId(), new RouteEntry(entry.getRoute(), entry.getDefinition(),
+                            seq++, entry.getPrefixes()));
+                }
+            } else {
+                restored.clear();
+            }
+        }
+        entries.clear();
+        entries.putAll(rebuilt);
+        sequence = seq;
+        rebuild();
+        log.info("route table refreshed, {} routes", entries.size());
+        return true;
+    }
+
+    private void rebuild() {
+        List<RouteEntry> ordered = sort(entries.values());
+        index = PathIndex.build(ordered);
+        snapshotStore.schedule(ordered.stream()
+                .map(RouteEntry::getDefinition)
+                .filter(definition -> definition != null)
+                .collect(Collectors.toList()));
+    }
+
+    private static List<RouteEntry> sort(Collection<RouteEntry> values) {
+        return values.stream().sorted(RouteEntry.ORDER).collect(Collectors.toList());
+    }
+
+    /**
+     * 取第一个Path断言的模式；多个断言之间是与的关系，任意一个Path断言都可以用来缩小候选范围
+     *
+     * @return 无法建立索引时返回null
+     */
+    static String[][] prefixes(RouteDefinition definition) {
+        for (PredicateDefinition predicate : definition.getPredicates()) {
+            if (!PATH_PREDICATE.equalsIgnoreCase(predicate.getName())) {
+                continue;
+            }
+            List<String[]> prefixes = new ArrayList<>();
+            for (Map.Entry<String, String> arg : predicate.getArgs().entrySet()) {
+                String value = arg.getValue();
+                if ("true".equalsIgnoreCase(value) || "false".equalsIgnoreCase(value)) {
+                    // matchOptionalTrailingSeparator
+                    continue;
+                }
+                String[] prefix = PathIndex.literalPrefix(value);
+                if (prefix == null) {
+                    return null;
+                }
+                prefixes.add(prefix);
+            }
+            return prefixes.isEmpty() ? null : prefixes.toArray(new String[0][]);
+        }
+        return null;
+    }
+
+    /**
+     * 已转换、待提交的一批变更
+     */
+    public static final class Changes {
+
+        private final List<RouteEntry> saves;
+
+        private final List<String> deletes;
+
+        private Changes(List<RouteEntry> saves, List<String> deletes) {
+            this.saves = saves;
+            this.deletes = deletes;
+        }
+    }
+
+    @Override
+    public void setBeanFactory(BeanFactory beanFactory) throws BeansException {
+        this.beanFactory = beanFactory;
+    }
+
+    @Override
+    public void setApplicationEventPublisher(ApplicationEventPublisher publisher) {
+        this.publisher = publisher;
+    }
+}
@@ -25,8 +25,9 @@
 
 package com.hdmcp.gateway.service;
 
+import com.hdmcp.gateway.route.RouteChangedEvent;
+import com.hdmcp.gateway.route.RouteTable;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.cloud.gateway.event.RefreshRoutesEvent;
 import org.springframework.cloud.gateway.route.RouteDefinition;
 import org.springframework.cloud.gateway.route.RouteDefinitionWriter;
 import org.springframework.cloud.gateway.support.NotFoundException;
@@ -34,9 +35,19 @@ import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.context.ApplicationEventPublisherAware;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 /**
+ * 动态路由只增量更新变更的路由，不触发路由表全量重建
+ * <p>
+ * 先校验，再等待写入RouteDefinitionWriter完成，最后提交到路由表并发布{@link RouteChangedEvent}，
+ * 这样期间由心跳触发的全量重建也能从数据源读到新路由，CachingRouteLocator等其他组件随事件刷新
+ *
  * @author WANGY
  */
 @Service
@@ -45,32 +56,59 @@ public class DynamicRouteServiceImpl implements ApplicationEventPublisherAware {
     @Autowired
     private RouteDefinitionWriter routeDefinitionWriter;
 
+    @Autowired
+    private RouteTable routeTable;
+
     private ApplicationEventPublisher publisher;
 
-    public String add(RouteDefinition definition) {
-        routeDefinitionWriter.save(Mono.just(definition)).subscribe();
-        this.publisher.publishEvent(new RefreshRoutesEvent(this));
-        return "success";
+    public Mono<ResponseEntity<String>> add(RouteDefinition definition) {
+        return batch(Collections.singletonList(definition), Collections.emptyList(), Collections.emptyList(), "add");
     }
 
-    public String update(RouteDefinition definition) {
-        try {
-            this.routeDefinitionWriter.delete(Mono.just(definition.getId()));
-        } catch (Exception e) {
-            return "update fail, not find route routeId: " + definition.getId();
-        }
+    public Mono<ResponseEntity<String>> update(RouteDefinition definition) {
+        return batch(Collections.emptyList(), Collections.singletonList(definition), Collections.emptyList(), "update");
+    }
+
+    /**
+     * 整批转换成功后才写入，任何一条失败或更新、删除的路由不存在则整批不生效
+     */
+    public Mono<ResponseEntity<String>> batch(List<RouteDefinition> adds, List<RouteDefinition> updates, List<String> deletes) {
+        return batch(adds, updates, deletes, "batch");
+    }
 
+    private Mono<ResponseEntity<String>> batch(List<RouteDefinition> adds, List<RouteDefinition> updates,
+                                               List<String> deletes, String action) {
+        RouteTable.Changes changes;
         try {
-            routeDefinitionWriter.save(Mono.just(definition)).subscribe();
-            this.publisher.publishEvent(new RefreshRoutesEvent(this));
-            return "success";
-        } catch (Exception e) {
-            return "";
+            changes = routeTable.prepare(adds, updates, deletes);
+        } catch (IllegalArgumentException e) {
+            return Mono.just(ResponseEntity.badRequest().body(action + " fail, " + e.getMessage()));
         }
+        List<RouteDefinition> saves = new ArrayList<>(adds.size() + updates.size());
+        saves.addAll(adds);
+        saves.addAll(updates);
+        // 更新的路由可能来自配置文件，不在RouteDefinitionWriter中
+        List<String> removes = new ArrayList<>(updates.size() + deletes.size());
+        updates.forEach(definition -> removes.add(definition.getId()));
+        removes.addAll(deletes);
+        return Flux.fromIterable(removes)
+                .concatMap(id -> routeDefinitionWriter.delete(Mono.just(id))
+                        .onErrorResume(t -> t instanceof NotFoundException, t -> Mono.empty()))
+                .thenMany(Flux.fromIterable(saves))
+                .concatMap(definition -> routeDefinitionWriter.save(Mono.just(definition)))
+                .then(Mono.fromRunnable(() -> {
+                    routeTable.commit(changes);
+                    publisher.publishEvent(new RouteChangedEvent(this));
+                }))
+                .thenReturn(ResponseEntity.ok("success"));
     }
 
     public Mono<ResponseEntity<Object>> delete(String id) {
         return this.routeDefinitionWriter.delete(Mono.just(id))
+                .then(Mono.fromRunnable(() -> {
+                    routeTable.delete(id);
+                    publisher.publishEvent(new RouteChangedEvent(this));
+                }))
                 .then(Mono.defer(() -> Mono.just(ResponseEntity.ok().build())))
                 .onErrorResume(t -> t instanceof NotFoundException, t -> Mono.just(ResponseEntity.notFound().build()));
     }
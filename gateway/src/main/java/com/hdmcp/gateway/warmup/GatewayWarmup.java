@@ -0,0 +1,253 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2020 hdmcp.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package com.hdmcp.gateway.warmup;
+
+import com.hdmcp.core.loadbalancer.InstanceLoadStats;
+import com.hdmcp.core.utils.JwtUtil;
+import com.hdmcp.gateway.filters.WarmupFilter;
+import com.hdmcp.gateway.route.PathIndex;
+import io.netty.handler.ssl.SslContextBuilder;
+import io.netty.handler.ssl.util.InsecureTrustManagerFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.web.ServerProperties;
+import org.springframework.boot.web.context.WebServerInitializedEvent;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.discovery.DiscoveryClient;
+import org.springframework.cloud.gateway.handler.predicate.PredicateDefinition;
+import org.springframework.cloud.gateway.route.RouteDefinition;
+import org.springframework.cloud.gateway.route.RouteDefinitionLocator;
+import org.springframework.cloud.gateway.route.RouteLocator;
+import org.springframework.context.ApplicationListener;
+import org.springframework.core.Ordered;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.http.server.HttpServer;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 网关预热：服务启动后、注册到Nacos之前执行
+ * <ol>
+ * <li>加载路由，签发并校验一次Token</li>
+ * <li>为每个lb://服务的实例预先建立连接，放入NettyRoutingFilter使用的连接池</li>
+ * <li>启动只监听127.0.0.1的桩服务，按每个路由的Path前缀向网关自身发送合成请求，由{@link WarmupFilter}转发到桩服务，
+ * 让路由匹配、过滤器链、Token校验在接收真实流量之前完成JIT编译；合成请求不计入指标、访问日志和热点检测，也不镜像</li>
+ * </ol>
+ * Nacos在收到WebServerInitializedEvent时注册实例，本监听器优先执行并等待预热完成(或超时)，之后才注册
+ *
+ * @author WANGY
+ */
+@Component
+public class GatewayWarmup implements ApplicationListener<WebServerInitializedEvent>, Ordered {
+
+    private static final Logger log = LoggerFactory.getLogger(GatewayWarmup.class);
+
+    private static final String LB_SCHEME = "lb";
+
+    private static final String PATH_PREDICATE = "Path";
+
+    private static final String WARMUP_USER = "admin";
+
+    private final RouteLocator routeLocator;
+
+    private final RouteDefinitionLocator routeDefinitionLocator;
+
+    private final DiscoveryClient discoveryClient;
+
+    private final HttpClient httpClient;
+
+    private final ServerProperties serverProperties;
+
+    private final WarmupFilter warmupFilter;
+
+    @Value("${samples.warmup.enabled:true}")
+    private boolean enabled;
+
+    @Value("${samples.warmup.requests:1000}")
+    private int requests;
+
+    @Value("${samples.warmup.concurrency:4}")
+    private int concurrency;
+
+    @Value("${samples.warmup.connections-per-instance:2}")
+    private int connectionsPerInstance;
+
+    @Value("${samples.warmup.upstream-path:/actuator/health}")
+    private String upstreamPath;
+
+    @Value("${samples.warmup.timeout-millis:30000}")
+    private long timeoutMillis;
+
+    public GatewayWarmup(RouteLocator routeLocator, RouteDefinitionLocator routeDefinitionLocator,
+                         DiscoveryClient discoveryClient, HttpClient httpClient, ServerProperties serverProperties,
+                         WarmupFilter warmupFilter) {
+        this.routeLocator = routeLocator;
+        this.routeDefinitionLocator = routeDefinitionLocator;
+        this.discoveryClient = discoveryClient;
+        this.httpClient = httpClient;
+        this.serverProperties = serverProperties;
+        this.warmupFilter = warmupFilter;
+    }
+
+    @Override
+    public void onApplicationEvent(WebServerInitializedEvent event) {
+        if (!enabled || event.getApplicationContext().getServerNamespace() != null) {
+            return;
+        }
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        try {
+            List<RouteDefinition> definitions = routeDefinitionLocator.getRouteDefinitions().collectList()
+                    .block(remaining(deadline));
+            routeLocator.getRoutes().collectList().block(remaining(deadline));
+            String token = JwtUtil.generateToken("0", WARMUP_USER);
+            JwtUtil.validateToken(token);
+
+            int connections = connectUpstreams(definitions).block(remaining(deadline));
+            int replayed = replay(definitions, event.getWebServer().getPort(), token).block(remaining(deadline));
+            log.info("gateway warm-up finished in {}ms: {} upstream connections, {} synthetic requests",
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), connections, replayed);
+        } catch (RuntimeException e) {
+            // 预热失败不影响启动，只是首批请求较慢
+            log.warn("gateway warm-up incomplete after {}ms: {}",
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), e.toString());
+        }
+    }
+
+    private static Duration remaining(long deadline) {
+        return Duration.ofNanos(Math.max(deadline - System.nanoTime(), 1));
+    }
+
+    /**
+     * 向每个实例发送connectionsPerInstance个并发请求，响应读完后连接留在连接池中
+     */
+    private Mono<Integer> connectUpstreams(List<RouteDefinition> definitions) {
+        Set<String> services = new LinkedHashSet<>();
+        for (RouteDefinition definition : definitions) {
+            if (LB_SCHEME.equalsIgnoreCase(definition.getUri().getScheme())) {
+                services.add(definition.getUri().getHost());
+            }
+        }
+        List<String> urls = new ArrayList<>();
+        for (String service : services) {
+            for (ServiceInstance instance : discoveryClient.getInstances(service)) {
+                String url = (instance.isSecure() ? "https" : "http") + "://" + instance.getHost() + ":"
+                        + instance.getPort() + upstreamPath;
+                for (int i = 0; i < connectionsPerInstance; i++) {
+                    urls.add(url);
+                }
+            }
+        }
+        return Flux.fromIterable(urls)
+                .flatMap(url -> httpClient.get().uri(url)
+                        .responseSingle((res, body) -> body.then(Mono.just(1)))
+                        .onErrorResume(e -> {
+                            log.debug("warm-up connect {} failed: {}", url, e.toString());
+                            return Mono.just(0);
+                        }), Math.max(1, urls.size()))
+                .reduce(0, Integer::sum);
+    }
+
+    private Mono<Integer> replay(List<RouteDefinition> definitions, int port, String token) {
+        List<String> paths = syntheticPaths(definitions);
+        if (paths.isEmpty() || requests <= 0) {
+            return Mono.just(0);
+        }
+        DisposableServer stub = HttpServer.create()
+                .host("127.0.0.1")
+                .port(0)
+                .handle((req, res) -> res.header(HttpHeaders.CACHE_CONTROL, "no-store")
+                        .sendString(Mono.just("{}")))
+                .bindNow();
+        String secret = UUID.randomUUID().toString();
+        warmupFilter.start(secret, stub.port());
+        boolean ssl = serverProperties.getSsl() != null && serverProperties.getSsl().isEnabled();
+        HttpClient client = HttpClient.create()
+                .baseUrl((ssl ? "https" : "http") + "://127.0.0.1:" + port)
+                .headers(h -> h.set(WarmupFilter.WARMUP_HEADER, secret)
+                        .set(JwtUtil.HEADER_AUTH, token)
+                        .set(HttpHeaders.CACHE_CONTROL, "no-store"));
+        if (ssl) {
+            // 只访问本机回环地址，不校验网关自己的证书
+            client = client.secure(spec -> spec.sslContext(SslContextBuilder.forClient()
+                    .trustManager(InsecureTrustManagerFactory.INSTANCE)));
+        }
+        HttpClient loopback = client;
+        return Flux.range(0, requests)
+                .flatMap(i -> loopback.get().uri(paths.get(i % paths.size()))
+                        .responseSingle((res, body) -> body.then(Mono.just(1)))
+                        .onErrorReturn(0), Math.max(1, concurrency))
+                .reduce(0, Integer::sum)
+                .doFinally(signal -> {
+                    warmupFilter.stop();
+                    stub.disposeNow();
+                    InstanceLoadStats.global().remove(InstanceLoadStats.key("127.0.0.1", stub.port()));
+                });
+    }
+
+    /**
+     * 按路由的Path谓词取字面量前缀，如 /order/** -> /order/warmup
+     */
+    static List<String> syntheticPaths(List<RouteDefinition> definitions) {
+        List<String> paths = new ArrayList<>();
+        for (RouteDefinition definition : definitions) {
+            for (PredicateDefinition predicate : definition.getPredicates()) {
+                if (!PATH_PREDICATE.equals(predicate.getName())) {
+                    continue;
+                }
+                for (String pattern : predicate.getArgs().values()) {
+                    String[] prefix = PathIndex.literalPrefix(pattern);
+                    if (prefix != null) {
+                        StringBuilder path = new StringBuilder();
+                        for (String segment : prefix) {
+                            path.append('/').append(segment);
+                        }
+                        paths.add(path.append("/warmup").toString());
+                    }
+                }
+            }
+        }
+        return paths;
+    }
+
+    @Override
+    public int getOrder() {
+        return HIGHEST_PRECEDENCE;
+    }
+}
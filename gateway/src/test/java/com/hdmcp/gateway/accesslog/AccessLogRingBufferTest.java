@@ -0,0 +1,104 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2020 hdmcp.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package com.hdmcp.gateway.accesslog;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author WANGY
+ */
+public class AccessLogRingBufferTest {
+
+    @Test
+    public void rejectsWhenFull() {
+        AccessLogRingBuffer<Integer> buffer = new AccessLogRingBuffer<>(4);
+        for (int i = 0; i < 4; i++) {
+            Assert.assertTrue("offer " + i, buffer.offer(i));
+        }
+        Assert.assertFalse("full", buffer.offer(4));
+
+        List<Integer> drained = new ArrayList<>();
+        Assert.assertEquals("drained", 2, buffer.drain(drained::add, 2));
+        Assert.assertTrue("slot reused", buffer.offer(5));
+        buffer.drain(drained::add, 10);
+        Assert.assertEquals("fifo", "[0, 1, 2, 3, 5]", drained.toString());
+        Assert.assertEquals("empty", 0, buffer.size());
+    }
+
+    @Test
+    public void concurrentProducers() throws InterruptedException {
+        AccessLogRingBuffer<Integer> buffer = new AccessLogRingBuffer<>(1024);
+        int producers = 4;
+        int perProducer = 50000;
+        AtomicInteger rejected = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(producers);
+        for (int p = 0; p < producers; p++) {
+            new Thread(() -> {
+                for (int i = 0; i < perProducer; i++) {
+                    if (!buffer.offer(i)) {
+                        rejected.incrementAndGet();
+                    }
+                }
+                done.countDown();
+            }).start();
+        }
+        AtomicInteger consumed = new AtomicInteger();
+        while (done.getCount() > 0 || buffer.size() > 0) {
+            buffer.drain(item -> consumed.incrementAndGet(), 256);
+        }
+        Assert.assertEquals("every offer is consumed or rejected", producers * perProducer,
+                consumed.get() + rejected.get());
+    }
+
+    @Test
+    public void writerRollsFiles() throws Exception {
+        Path dir = Files.createTempDirectory("access-log");
+        Path path = dir.resolve("access.log");
+        AccessLogRingBuffer<AccessLogRecord> buffer = new AccessLogRingBuffer<>(64);
+        AccessLogWriter writer = new AccessLogWriter(buffer, path, 200, 2, 10);
+        for (int i = 0; i < 20; i++) {
+            buffer.offer(new AccessLogRecord(System.currentTimeMillis(), "order_route", "GET", "/order/" + i,
+                    200, 1000, 0, 10, "1", "127.0.0.1"));
+        }
+        writer.start();
+        writer.close();
+        Assert.assertEquals("written", 20, writer.getWritten());
+        Assert.assertTrue("current", Files.size(path) <= 200);
+        Assert.assertTrue("rolled", Files.exists(dir.resolve("access.log.2")));
+        Assert.assertFalse("max history", Files.exists(dir.resolve("access.log.3")));
+        String line = Files.readAllLines(path).get(0);
+        Assert.assertTrue("fields", line.contains("\torder_route\tGET\t/order/"));
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2020 hdmcp.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package com.hdmcp.gateway.accesslog;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+/**
+ * @author WANGY
+ */
+public class AccessLogWriterTest {
+
+    private Path dir;
+
+    private Path path;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("access-log");
+        path = dir.resolve("access.log");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            files.forEach(file -> file.toFile().delete());
+        }
+        Files.deleteIfExists(dir);
+    }
+
+    private static AccessLogRecord record(int i) {
+        return new AccessLogRecord(System.currentTimeMillis(), "order_route", "GET", "/order/orders/" + i, 200,
+                1500, 0, 128, "42", "10.0.0.1");
+    }
+
+    private Path history(int index) {
+        return path.resolveSibling(path.getFileName() + "." + index);
+    }
+
+    private static long lines(Path file) throws IOException {
+        return Files.readAllLines(file, StandardCharsets.UTF_8).size();
+    }
+
+    @Test
+    public void rollsAndKeepsMaxHistory() throws IOException {
+        AccessLogRingBuffer<AccessLogRecord> buffer = new AccessLogRingBuffer<>(1024);
+        for (int i = 0; i < 200; i++) {
+            Assert.assertTrue(buffer.offer(record(i)));
+        }
+        AccessLogWriter writer = new AccessLogWriter(buffer, path, 1024, 3, 10);
+        writer.start();
+        writer.close();
+
+        Assert.assertEquals("written", 200, writer.getWritten());
+        for (Path file : new Path[]{path, history(1), history(2), history(3)}) {
+            Assert.assertTrue("exists " + file.getFileName(), Files.exists(file));
+            Assert.assertTrue("within max-file-size " + file.getFileName(), Files.size(file) <= 1024);
+        }
+        Assert.assertFalse("only max-history files kept", Files.exists(history(4)));
+        String newest = new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+        Assert.assertTrue("current file holds the last record", newest.contains("/order/orders/199\t"));
+        String rotated = new String(Files.readAllBytes(history(1)), StandardCharsets.UTF_8);
+        Assert.assertFalse("older records rotated out", rotated.contains("/order/orders/199\t"));
+    }
+
+    @Test
+    public void appendsToExistingFileAndRotatesWhenFull() throws IOException {
+        Files.write(path, new byte[1000]);
+        AccessLogRingBuffer<AccessLogRecord> buffer = new AccessLogRingBuffer<>(16);
+        buffer.offer(record(1));
+        AccessLogWriter writer = new AccessLogWriter(buffer, path, 1024, 2, 10);
+        writer.start();
+        writer.close();
+        Assert.assertEquals("full file rotated on start", 1000, Files.size(history(1)));
+        Assert.assertEquals("new record in a fresh file", 1, lines(path));
+    }
+
+    @Test
+    public void drainsBufferOnClose() throws IOException {
+        AccessLogRingBuffer<AccessLogRecord> buffer = new AccessLogRingBuffer<>(4096);
+        AccessLogWriter writer = new AccessLogWriter(buffer, path, 1024 * 1024, 1, 60000);
+        writer.start();
+        for (int i = 0; i < 3000; i++) {
+            Assert.assertTrue(buffer.offer(record(i)));
+        }
+        writer.close();
+        Assert.assertEquals("all records written", 3000, writer.getWritten());
+        Assert.assertEquals("all records flushed", 3000, lines(path));
+        Assert.assertEquals("buffer drained", 0, buffer.size());
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2020 hdmcp.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package com.hdmcp.gateway.acl;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Random;
+
+/**
+ * @author WANGY
+ */
+public class CidrTreeTest {
+
+    private static CidrTree.Action lookup(CidrTree tree, String address) throws UnknownHostException {
+        return tree.lookup(InetAddress.getByName(address));
+    }
+
+    @Test
+    public void longestPrefixWins() throws UnknownHostException {
+        CidrTree tree = new CidrTree();
+        tree.add("10.0.0.0/8", CidrTree.Action.DENY);
+        tree.add("10.1.0.0/16", CidrTree.Action.ALLOW);
+        tree.add("10.1.2.3", CidrTree.Action.DENY);
+        tree.add("192.168.0.0/24", CidrTree.Action.ALLOW);
+
+        Assert.assertEquals("/8", CidrTree.Action.DENY, lookup(tree, "10.200.0.1"));
+        Assert.assertEquals("/16", CidrTree.Action.ALLOW, lookup(tree, "10.1.9.9"));
+        Assert.assertEquals("/32", CidrTree.Action.DENY, lookup(tree, "10.1.2.3"));
+        Assert.assertEquals("/24", CidrTree.Action.ALLOW, lookup(tree, "192.168.0.255"));
+        Assert.assertNull("no match", lookup(tree, "192.168.1.0"));
+        Assert.assertNull("no match", lookup(tree, "11.0.0.1"));
+        Assert.assertEquals("size", 4, tree.size());
+    }
+
+    @Test
+    public void ipv6AndMapped() throws UnknownHostException {
+        CidrTree tree = new CidrTree();
+        tree.add("2001:db8::/32", CidrTree.Action.DENY);
+        tree.add("2001:db8:1::/48", CidrTree.Action.ALLOW);
+        tree.add("203.0.113.0/24", CidrTree.Action.DENY);
+        tree.add("0.0.0.0/0", CidrTree.Action.ALLOW);
+
+        Assert.assertEquals("v6 /32", CidrTree.Action.DENY, lookup(tree, "2001:db8:ffff::1"));
+        Assert.assertEquals("v6 /48", CidrTree.Action.ALLOW, lookup(tree, "2001:db8:1::1"));
+        Assert.assertNull("v4 default route does not cover v6", lookup(tree, "2001:db9::1"));
+        Assert.assertEquals("v4", CidrTree.Action.DENY, lookup(tree, "203.0.113.7"));
+        Assert.assertEquals("v4 default", CidrTree.Action.ALLOW, lookup(tree, "8.8.8.8"));
+        Assert.assertEquals("v4-mapped v6", CidrTree.Action.DENY,
+                tree.lookup(0L, 0x0000ffff00000000L | 0xcb007107L));
+    }
+
+    @Test
+    public void denyWinsOnSamePrefix() throws UnknownHostException {
+        CidrTree tree = new CidrTree();
+        tree.add("172.16.0.0/12", CidrTree.Action.DENY);
+        tree.add("172.16.0.0/12", CidrTree.Action.ALLOW);
+        Assert.assertEquals("deny", CidrTree.Action.DENY, lookup(tree, "172.20.1.1"));
+        Assert.assertEquals("size", 1, tree.size());
+    }
+
+    @Test
+    public void manyRandomPrefixes() throws UnknownHostException {
+        CidrTree tree = new CidrTree();
+        Random random = new Random(42);
+        int[] networks = new int[20000];
+        for (int i = 0; i < networks.length; i++) {
+            networks[i] = random.nextInt() & 0xffffff00;
+            tree.add(((networks[i] >>> 24) & 0xff) + "." + ((networks[i] >>> 16) & 0xff) + "."
+                    + ((networks[i] >>> 8) & 0xff) + ".0/24", CidrTree.Action.DENY);
+        }
+        for (int network : networks) {
+            String address = ((network >>> 24) & 0xff) + "." + ((network >>> 16) & 0xff) + "."
+                    + ((network >>> 8) & 0xff) + "." + random.nextInt(256);
+            Assert.assertEquals(address, CidrTree.Action.DENY, lookup(tree, address));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsHostNames() {
+        new CidrTree().add("example.com/24", CidrTree.Action.DENY);
+    }
+}
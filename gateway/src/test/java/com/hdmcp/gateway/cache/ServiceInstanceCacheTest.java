@@ -0,0 +1,112 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2020 hdmcp.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package com.hdmcp.gateway.cache;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.cloud.client.DefaultServiceInstance;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.discovery.DiscoveryClient;
+import org.springframework.cloud.client.discovery.event.HeartbeatEvent;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author WANGY
+ */
+public class ServiceInstanceCacheTest {
+
+    private final List<ServiceInstance> registered = new CopyOnWriteArrayList<>();
+
+    private final AtomicInteger queries = new AtomicInteger();
+
+    private final BlockingQueue<List<ServiceInstance>> notified = new LinkedBlockingQueue<>();
+
+    private final ServiceInstanceCache cache = new ServiceInstanceCache(new DiscoveryClient() {
+        @Override
+        public String description() {
+            return "test";
+        }
+
+        @Override
+        public List<ServiceInstance> getInstances(String serviceId) {
+            queries.incrementAndGet();
+            return new ArrayList<>(registered);
+        }
+
+        @Override
+        public List<String> getServices() {
+            return Collections.singletonList("order");
+        }
+    }, 60000);
+
+    @After
+    public void stop() {
+        cache.stop();
+    }
+
+    private static ServiceInstance instance(String host) {
+        return new DefaultServiceInstance(host, "order", host, 8080, false);
+    }
+
+    @Test
+    public void loadsInBackground() throws InterruptedException {
+        registered.add(instance("10.0.0.1"));
+        cache.addListener((serviceId, instances) -> notified.add(instances));
+        Assert.assertNull("first lookup does not query discovery", cache.get("order"));
+        List<ServiceInstance> loaded = notified.poll(5, TimeUnit.SECONDS);
+        Assert.assertNotNull("loaded", loaded);
+        Assert.assertEquals("instances", 1, loaded.size());
+        Assert.assertSame("cached", loaded, cache.get("order"));
+        Assert.assertEquals("queried once", 1, queries.get());
+    }
+
+    @Test
+    public void notifiesOnlyOnChange() throws InterruptedException {
+        registered.add(instance("10.0.0.1"));
+        cache.addListener((serviceId, instances) -> notified.add(instances));
+        cache.load("order");
+        Assert.assertNotNull("loaded", notified.poll(5, TimeUnit.SECONDS));
+
+        cache.onHeartbeat(new HeartbeatEvent(this, 1));
+        cache.onHeartbeat(new HeartbeatEvent(this, 2));
+        registered.add(instance("10.0.0.2"));
+        cache.onHeartbeat(new HeartbeatEvent(this, 3));
+        List<ServiceInstance> changed = notified.poll(5, TimeUnit.SECONDS);
+        Assert.assertNotNull("changed", changed);
+        Assert.assertEquals("new instance", 2, changed.size());
+        Assert.assertTrue("unchanged refreshes are silent", notified.isEmpty());
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2020 hdmcp.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package com.hdmcp.gateway.cache;
+
+import com.hdmcp.core.utils.JwtTokenEngine;
+import com.hdmcp.core.utils.JwtUtil;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Map;
+
+/**
+ * @author WANGY
+ */
+public class VerifiedTokenCacheTest {
+
+    @Test
+    public void missThenHit() {
+        VerifiedTokenCache cache = new VerifiedTokenCache(100);
+        String token = JwtUtil.generateToken("1", "admin");
+        Map<String, String> first = cache.validateToken(token);
+        Map<String, String> second = cache.validateToken(token);
+        Assert.assertEquals("id", "1", first.get(JwtUtil.TOKEN_F_ID));
+        Assert.assertSame("命中缓存时返回同一份claims", first, second);
+        VerifiedTokenCache.Stats stats = cache.stats();
+        Assert.assertEquals("misses", 1, stats.getMisses());
+        Assert.assertEquals("hits", 1, stats.getHits());
+        Assert.assertEquals("size", 1, stats.getSize());
+    }
+
+    @Test
+    public void invalidTokensAreNotCached() {
+        VerifiedTokenCache cache = new VerifiedTokenCache(100);
+        cache.validateToken("Bearer abc");
+        cache.validateToken("Bearer abc");
+        Assert.assertEquals("misses", 2, cache.stats().getMisses());
+        Assert.assertEquals("nothing cached", 0, cache.stats().getSize());
+    }
+
+    @Test
+    public void entryExpiresWithToken() throws InterruptedException {
+        // 与JwtUtil使用相同的密钥，签发一个很快过期的Token
+        String secret = (String) ReflectionTestUtils.getField(JwtUtil.class, "SECRET");
+        String token = new JwtTokenEngine(secret, "Bearer", 2000L).generateToken("1", "admin");
+        VerifiedTokenCache cache = new VerifiedTokenCache(100);
+        Assert.assertEquals("valid", JwtUtil.NOT_EXPIRED, cache.validateToken(token).get(JwtUtil.TOKEN_F_IS_EXPIRED));
+        cache.validateToken(token);
+        Assert.assertEquals("hit before exp", 1, cache.stats().getHits());
+
+        Thread.sleep(2100);
+        Assert.assertEquals("expired", JwtUtil.EXPIRED, cache.validateToken(token).get(JwtUtil.TOKEN_F_IS_EXPIRED));
+        VerifiedTokenCache.Stats stats = cache.stats();
+        Assert.assertEquals("no hit after exp", 1, stats.getHits());
+        Assert.assertEquals("misses", 2, stats.getMisses());
+        Assert.assertEquals("expired entry evicted", 1, stats.getEvictions());
+        Assert.assertEquals("expired token not cached", 0, stats.getSize());
+    }
+
+    @Test
+    public void evictsWhenFull() {
+        VerifiedTokenCache cache = new VerifiedTokenCache(2);
+        for (int i = 0; i < 3; i++) {
+            cache.validateToken(JwtUtil.generateToken(String.valueOf(i), "admin"));
+        }
+        Assert.assertTrue("size within max", cache.stats().getSize() <= 2);
+        Assert.assertTrue("evicted", cache.stats().getEvictions() > 0);
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2020 hdmcp.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package com.hdmcp.gateway.capture;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.http.HttpHeaders;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.http.server.HttpServer;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author WANGY
+ */
+public class CaptureReplayTest {
+
+    private static CaptureRecord record(long offsetMillis, String method, String uri, String body, boolean truncated) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.add(HttpHeaders.AUTHORIZATION, CaptureRecord.REDACTED);
+        headers.add("x-trace", "t-" + offsetMillis);
+        return new CaptureRecord(System.currentTimeMillis(), TimeUnit.MILLISECONDS.toNanos(offsetMillis),
+                "order_route", method, uri, headers, body.getBytes(StandardCharsets.UTF_8), truncated, 200, 1500);
+    }
+
+    @Test
+    public void roundTrip() throws Exception {
+        Path file = Files.createTempFile("capture", ".hdcap");
+        try (MappedCaptureWriter writer = new MappedCaptureWriter(file, 1L, 1024 * 1024)) {
+            Assert.assertTrue("append", writer.append(record(0, "GET", "/order/orders?id=1", "", false).encode()));
+            Assert.assertTrue("append", writer.append(record(5, "POST", "/order/orders", "{\"id\":2}", false).encode()));
+        }
+        try (CaptureReader reader = new CaptureReader(file)) {
+            Assert.assertEquals("start", 1L, reader.getStartEpochMillis());
+            CaptureRecord first = reader.next();
+            Assert.assertEquals("uri", "/order/orders?id=1", first.getUri());
+            Assert.assertEquals("redacted", CaptureRecord.REDACTED, first.getHeaders().getFirst(HttpHeaders.AUTHORIZATION));
+            CaptureRecord second = reader.next();
+            Assert.assertEquals("body", "{\"id\":2}", new String(second.getBody(), StandardCharsets.UTF_8));
+            Assert.assertEquals("offset", TimeUnit.MILLISECONDS.toNanos(5), second.getOffsetNanos());
+            Assert.assertNull("end", reader.next());
+        }
+    }
+
+    @Test
+    public void stopsAtSizeLimit() throws Exception {
+        Path file = Files.createTempFile("capture", ".hdcap");
+        byte[] payload = record(0, "GET", "/order/orders", "", false).encode();
+        int written = 0;
+        try (MappedCaptureWriter writer = new MappedCaptureWriter(file, 1L, 1000)) {
+            while (writer.append(payload)) {
+                written++;
+            }
+        }
+        Assert.assertTrue("file size", Files.size(file) <= 1000);
+        int read = 0;
+        try (CaptureReader reader = new CaptureReader(file)) {
+            while (reader.next() != null) {
+                read++;
+            }
+        }
+        Assert.assertEquals("records", written, read);
+    }
+
+    @Test
+    public void replay() throws Exception {
+        List<String> received = new CopyOnWriteArrayList<>();
+        DisposableServer server = HttpServer.create().host("127.0.0.1").port(0)
+                .handle((req, res) -> req.receive().aggregate().asString().defaultIfEmpty("")
+                        .flatMap(body -> {
+                            received.add(req.method() + " " + req.uri() + " " + body + " "
+                                    + req.requestHeaders().get(HttpHeaders.AUTHORIZATION));
+                            return res.status(200).sendString(Mono.just("ok")).then();
+                        }))
+                .bindNow();
+        try {
+            Path file = Files.createTempFile("capture", ".hdcap");
+            try (MappedCaptureWriter writer = new MappedCaptureWriter(file, 1L, 1024 * 1024)) {
+                writer.append(record(0, "GET", "/order/orders?id=1", "", false).encode());
+                writer.append(record(100, "POST", "/order/orders", "{\"id\":2}", false).encode());
+                writer.append(record(200, "POST", "/order/orders", "{\"id\"", true).encode());
+            }
+            ReplayRunner runner = new ReplayRunner(HttpClient.create(), "http://127.0.0.1:" + server.port(), 2.0D,
+                    16, Duration.ofSeconds(5), Collections.singletonMap(HttpHeaders.AUTHORIZATION, "Bearer replay"));
+            long start = System.nanoTime();
+            runner.run(file);
+            Assert.assertTrue("paced at 2x", System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+
+            Assert.assertEquals("received", 2, received.size());
+            Assert.assertTrue("get", received.contains("GET /order/orders?id=1  Bearer replay"));
+            Assert.assertTrue("post body", received.contains("POST /order/orders {\"id\":2} Bearer replay"));
+            Map<String, Object> route = runner.report().get("order_route");
+            Assert.assertEquals("replayed", 2L, route.get("requests"));
+            Assert.assertEquals("truncated body skipped", 1L, route.get("skipped"));
+            Assert.assertEquals("errors", 0L, route.get("errors"));
+            Assert.assertEquals("status", 0L, route.get("statusMismatch"));
+        } finally {
+            server.disposeNow();
+        }
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2020 hdmcp.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package com.hdmcp.gateway.filters;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.cloud.gateway.filter.GatewayFilter;
+import org.springframework.cloud.gateway.filter.headers.HttpHeadersFilter;
+import org.springframework.core.ResolvableType;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.http.server.HttpServer;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.GATEWAY_REQUEST_URL_ATTR;
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.URI_TEMPLATE_VARIABLES_ATTRIBUTE;
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.isAlreadyRouted;
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.setAlreadyRouted;
+
+/**
+ * @author WANGY
+ */
+public class AggregateFilterTest {
+
+    private static final String PREFIX = "samples.aggregation.order-screen.parts.";
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    private final MockEnvironment environment = new MockEnvironment();
+
+    private DisposableServer backend;
+
+    private AggregateFilter factory;
+
+    @Before
+    public void setUp() {
+        backend = HttpServer.create().host("127.0.0.1").port(0)
+                .route(routes -> routes
+                        .get("/orders/{id}", (req, res) -> res.header("Content-Type", "application/json")
+                                .sendString(Mono.just("{\"orderId\":\"" + req.param("id") + "\",\"user\":\""
+                                        + req.requestHeaders().get("x-user-name") + "\"}")))
+                        .get("/orders/{id}/detail", (req, res) -> res.sendString(Mono.just("[{\"sku\":1}]")))
+                        .get("/products/list/all", (req, res) -> res.sendString(
+                                Mono.delay(Duration.ofMillis(500)).thenReturn("[]")))
+                        .get("/broken", (req, res) -> res.status(503).send()))
+                .bindNow();
+        String base = "http://127.0.0.1:" + backend.port();
+        environment.setProperty(PREFIX + "order.uri", base + "/orders/{id}");
+        environment.setProperty(PREFIX + "order.required", "true");
+        environment.setProperty(PREFIX + "detail.uri", base + "/orders/{id}/detail");
+        environment.setProperty(PREFIX + "products.uri", base + "/products/list/all");
+        environment.setProperty(PREFIX + "products.timeout-millis", "2000");
+        DefaultListableBeanFactory beanFactory = new DefaultListableBeanFactory();
+        factory = new AggregateFilter(HttpClient.create(), beanFactory.<List<HttpHeadersFilter>>getBeanProvider(
+                ResolvableType.forClassWithGenerics(List.class, HttpHeadersFilter.class)), null, environment, registry);
+    }
+
+    @After
+    public void tearDown() {
+        backend.disposeNow();
+    }
+
+    @Test
+    public void mergesPartsConcurrently() throws Exception {
+        MockServerWebExchange exchange = run("42");
+        Assert.assertEquals("status", HttpStatus.OK, exchange.getResponse().getStatusCode());
+        Assert.assertTrue("already routed", isAlreadyRouted(exchange));
+        Assert.assertNull("complete result", exchange.getResponse().getHeaders().getFirst(AggregateFilter.PARTIAL_HEADER));
+        JsonNode body = body(exchange);
+        Assert.assertEquals("order", "42", body.path("order").path("orderId").asText());
+        Assert.assertEquals("forwarded headers", "admin", body.path("order").path("user").asText());
+        Assert.assertEquals("detail", 1, body.path("detail").path(0).path("sku").asInt());
+        Assert.assertTrue("products", body.path("products").isArray());
+        Assert.assertEquals("part timers", 3, registry.find("gateway.aggregation.part.latency").timers().size());
+    }
+
+    @Test
+    public void timedOutPartYieldsPartialResult() throws Exception {
+        environment.setProperty(PREFIX + "products.timeout-millis", "100");
+        MockServerWebExchange exchange = run("7");
+        Assert.assertEquals("status", HttpStatus.OK, exchange.getResponse().getStatusCode());
+        Assert.assertEquals("partial", "true", exchange.getResponse().getHeaders().getFirst(AggregateFilter.PARTIAL_HEADER));
+        JsonNode body = body(exchange);
+        Assert.assertEquals("order kept", "7", body.path("order").path("orderId").asText());
+        Assert.assertTrue("products null", body.path("products").isNull());
+        Assert.assertTrue("timeout reported", body.path("_errors").path("products").path("message").asText()
+                .startsWith("timeout"));
+    }
+
+    @Test
+    public void failedRequiredPartReturnsBadGateway() throws Exception {
+        environment.setProperty(PREFIX + "order.uri", "http://127.0.0.1:" + backend.port() + "/broken");
+        MockServerWebExchange exchange = run("7");
+        Assert.assertEquals("status", HttpStatus.BAD_GATEWAY, exchange.getResponse().getStatusCode());
+        JsonNode body = body(exchange);
+        Assert.assertEquals("upstream status", 503, body.path("_errors").path("order").path("status").asInt());
+        Assert.assertEquals("detail kept", 1, body.path("detail").path(0).path("sku").asInt());
+    }
+
+    @Test
+    public void expandsAndEncodesVariables() {
+        Assert.assertEquals("expand", "lb://order/orders/a%2Fb/detail", AggregateFilter.expand(
+                "lb://order/orders/{id}/detail", Collections.singletonMap("id", "a/b")));
+    }
+
+    @Test
+    public void oversizedPartFails() throws Exception {
+        environment.setProperty(PREFIX + "detail.max-bytes", "4");
+        MockServerWebExchange exchange = run("7");
+        Assert.assertEquals("status", HttpStatus.OK, exchange.getResponse().getStatusCode());
+        JsonNode body = body(exchange);
+        Assert.assertTrue("detail null", body.path("detail").isNull());
+        Assert.assertEquals("reason", "response larger than 4 bytes",
+                body.path("_errors").path("detail").path("message").asText());
+    }
+
+    @Test
+    public void skipsRewrittenOrRoutedRequests() {
+        AtomicInteger chained = new AtomicInteger();
+        GatewayFilter filter = factory.apply(new AggregateFilter.Config());
+        // 预热时请求地址被改写到stub并已由NettyRoutingFilter转发
+        MockServerWebExchange rewritten = exchange("warmup", "http://127.0.0.1:" + backend.port() + "/warmup");
+        setAlreadyRouted(rewritten);
+        filter.filter(rewritten, e -> Mono.fromRunnable(chained::incrementAndGet)).block(Duration.ofSeconds(5));
+        MockServerWebExchange other = exchange("1", "http://127.0.0.1:" + backend.port() + "/bff/orders/1");
+        filter.filter(other, e -> Mono.fromRunnable(chained::incrementAndGet)).block(Duration.ofSeconds(5));
+        Assert.assertEquals("passed through", 2, chained.get());
+        Assert.assertNull("no aggregated response", rewritten.getResponse().getStatusCode());
+        Assert.assertNull("no aggregated response", other.getResponse().getStatusCode());
+        Assert.assertNull("no part requests", registry.find("gateway.aggregation.part.latency").timer());
+    }
+
+    private MockServerWebExchange run(String id) {
+        MockServerWebExchange exchange = exchange(id, "bff://order-screen/bff/orders/" + id);
+        GatewayFilter filter = factory.apply(new AggregateFilter.Config());
+        filter.filter(exchange, e -> Mono.empty()).block(Duration.ofSeconds(5));
+        return exchange;
+    }
+
+    private MockServerWebExchange exchange(String id, String requestUrl) {
+        MockServerWebExchange exchange = MockServerWebExchange.from(MockServerHttpRequest.get("/bff/orders/" + id)
+                .header("x-user-name", "admin"));
+        exchange.getAttributes().put(GATEWAY_REQUEST_URL_ATTR, URI.create(requestUrl));
+        exchange.getAttributes().put(URI_TEMPLATE_VARIABLES_ATTRIBUTE, Collections.singletonMap("id", id));
+        return exchange;
+    }
+
+    private JsonNode body(MockServerWebExchange exchange) throws Exception {
+        return new ObjectMapper().readTree(exchange.getResponse().getBodyAsString().block(Duration.ofSeconds(1)));
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2020 hdmcp.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package com.hdmcp.gateway.filters;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.cloud.gateway.filter.GatewayFilter;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author WANGY
+ */
+public class CoalescingFilterTest {
+
+    private static final String BODY = "{\"id\":1}";
+
+    private MeterRegistry meterRegistry;
+
+    private GatewayFilter coalescingFilter;
+
+    private CoalescingJoinFilter joinFilter;
+
+    private final AtomicInteger downstreamCalls = new AtomicInteger();
+
+    private HttpStatus status = HttpStatus.OK;
+
+    private String cacheControl;
+
+    @Before
+    public void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        coalescingFilter = new CoalescingFilter().apply(new CoalescingFilter.Config());
+        joinFilter = new CoalescingJoinFilter(meterRegistry);
+    }
+
+    @Test
+    public void coalesce() {
+        List<MockServerWebExchange> exchanges = new ArrayList<>();
+        List<Mono<Void>> requests = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            MockServerWebExchange exchange = MockServerWebExchange.from(MockServerHttpRequest.get("/product/products/1"));
+            exchanges.add(exchange);
+            requests.add(coalescingFilter.filter(exchange, e -> joinFilter.filter(e, this::downstream)));
+        }
+        Mono.when(requests).block(Duration.ofSeconds(5));
+
+        Assert.assertEquals("downstream calls", 1, downstreamCalls.get());
+        for (MockServerWebExchange exchange : exchanges) {
+            Assert.assertEquals("status", HttpStatus.OK, exchange.getResponse().getStatusCode());
+            Assert.assertEquals("body", BODY, exchange.getResponse().getBodyAsString().block());
+        }
+        Assert.assertEquals("coalesced", 3.0,
+                meterRegistry.counter("gateway.coalesce.requests", "result", "coalesced").count(), 0);
+    }
+
+    @Test
+    public void separateUsers() {
+        List<Mono<Void>> requests = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            MockServerWebExchange exchange = MockServerWebExchange.from(MockServerHttpRequest.get("/order/orders/1"));
+            exchange.getAttributes().put(AuthFilter.USER_ID_ATTR, String.valueOf(i % 2));
+            requests.add(coalescingFilter.filter(exchange, e -> joinFilter.filter(e, this::downstream)));
+        }
+        Mono.when(requests).block(Duration.ofSeconds(5));
+        Assert.assertEquals("one call per user", 2, downstreamCalls.get());
+    }
+
+    @Test
+    public void privateResponseNotShared() {
+        cacheControl = "private, max-age=60";
+        Assert.assertEquals("private", 3, concurrentCalls(3));
+        downstreamCalls.set(0);
+        cacheControl = "no-store";
+        Assert.assertEquals("no-store", 3, concurrentCalls(3));
+    }
+
+    @Test
+    public void errorResponseNotShared() {
+        status = HttpStatus.INTERNAL_SERVER_ERROR;
+        Assert.assertEquals("5xx", 3, concurrentCalls(3));
+    }
+
+    private int concurrentCalls(int n) {
+        List<Mono<Void>> requests = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            MockServerWebExchange exchange = MockServerWebExchange.from(MockServerHttpRequest.get("/order/orders/1"));
+            requests.add(coalescingFilter.filter(exchange, e -> joinFilter.filter(e, this::downstream)));
+        }
+        Mono.when(requests).block(Duration.ofSeconds(5));
+        return downstreamCalls.get();
+    }
+
+    private Mono<Void> downstream(ServerWebExchange exchange) {
+        downstreamCalls.incrementAndGet();
+        ServerHttpResponse response = exchange.getResponse();
+        return Mono.delay(Duration.ofMillis(100)).then(Mono.defer(() -> {
+            response.setStatusCode(status);
+            if (cacheControl != null) {
+                response.getHeaders().setCacheControl(cacheControl);
+            }
+            byte[] body = BODY.getBytes(StandardCharsets.UTF_8);
+            return response.writeWith(Mono.just(response.bufferFactory().wrap(body)));
+        }));
+    }
+}
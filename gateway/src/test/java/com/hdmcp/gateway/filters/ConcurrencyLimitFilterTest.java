@@ -0,0 +1,78 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2020 hdmcp.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package com.hdmcp.gateway.filters;
+
+import com.hdmcp.gateway.ratelimit.GradientConcurrencyLimit;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.cloud.gateway.filter.GatewayFilter;
+import org.springframework.cloud.gateway.route.Route;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.GATEWAY_ROUTE_ATTR;
+
+/**
+ * @author WANGY
+ */
+public class ConcurrencyLimitFilterTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    private final ConcurrencyLimitFilter factory = new ConcurrencyLimitFilter(registry);
+
+    private static ConcurrencyLimitFilter.Config config(int initialLimit) {
+        ConcurrencyLimitFilter.Config config = new ConcurrencyLimitFilter.Config();
+        config.setInitialLimit(initialLimit);
+        return config;
+    }
+
+    private static void request(GatewayFilter filter) {
+        MockServerWebExchange exchange = MockServerWebExchange.from(MockServerHttpRequest.get("/order").build());
+        exchange.getAttributes().put(GATEWAY_ROUTE_ATTR, Route.async().id("order_route").uri("lb://order")
+                .predicate(e -> true).build());
+        filter.filter(exchange, e -> e.getResponse().setComplete()).block();
+    }
+
+    @Test
+    public void newConfigReplacesRouteLimit() {
+        request(factory.apply(config(20)));
+        GradientConcurrencyLimit first = factory.getLimit("order_route");
+        Assert.assertEquals("initial limit", 20, first.getLimit());
+
+        request(factory.apply(config(20)));
+        Assert.assertSame("相同配置保留已学习的限制", first, factory.getLimit("order_route"));
+
+        request(factory.apply(config(50)));
+        GradientConcurrencyLimit second = factory.getLimit("order_route");
+        Assert.assertNotSame("配置变化后重建", first, second);
+        Assert.assertEquals("new initial limit", 50, second.getLimit());
+        Assert.assertEquals("gauge follows the new limit", 50.0,
+                registry.get("gateway.concurrency.limit").tag("route", "order_route").gauge().value(), 0);
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2020 hdmcp.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package com.hdmcp.gateway.filters;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.cloud.client.DefaultServiceInstance;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.loadbalancer.LoadBalancerClient;
+import org.springframework.cloud.client.loadbalancer.LoadBalancerRequest;
+import org.springframework.cloud.gateway.filter.GatewayFilter;
+import org.springframework.cloud.gateway.filter.headers.HttpHeadersFilter;
+import org.springframework.cloud.gateway.route.Route;
+import org.springframework.core.ResolvableType;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import reactor.core.publisher.Mono;
+import reactor.netty.Connection;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.http.server.HttpServer;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.CLIENT_RESPONSE_CONN_ATTR;
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.GATEWAY_REQUEST_URL_ATTR;
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.GATEWAY_ROUTE_ATTR;
+
+/**
+ * 对冲与重试的行为，使用一个慢、一个快、一个返回503的本地服务
+ *
+ * @author WANGY
+ */
+public class HedgingFilterTest {
+
+    private static final String BACKEND_HEADER = "X-Backend";
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    private final CountDownLatch slowCancelled = new CountDownLatch(1);
+
+    private final List<ServiceInstance> instances = new ArrayList<>();
+
+    private final AtomicInteger next = new AtomicInteger();
+
+    private DisposableServer slow;
+
+    private DisposableServer fast;
+
+    private DisposableServer unavailable;
+
+    private HedgingFilter factory;
+
+    @Before
+    public void setUp() {
+        slow = HttpServer.create().host("127.0.0.1").port(0)
+                .handle((req, res) -> res.header(BACKEND_HEADER, "slow")
+                        .sendString(Mono.delay(Duration.ofSeconds(2)).thenReturn("slow")
+                                .doOnCancel(slowCancelled::countDown)))
+                .bindNow();
+        fast = HttpServer.create().host("127.0.0.1").port(0)
+                .handle((req, res) -> res.header(BACKEND_HEADER, "fast").sendString(Mono.just("fast")))
+                .bindNow();
+        unavailable = HttpServer.create().host("127.0.0.1").port(0)
+                .handle((req, res) -> res.status(503).header(BACKEND_HEADER, "unavailable").send())
+                .bindNow();
+        DefaultListableBeanFactory beanFactory = new DefaultListableBeanFactory();
+        factory = new HedgingFilter(HttpClient.create(), beanFactory.<List<HttpHeadersFilter>>getBeanProvider(
+                ResolvableType.forClassWithGenerics(List.class, HttpHeadersFilter.class)), new RoundRobin(), registry);
+    }
+
+    @After
+    public void tearDown() {
+        slow.disposeNow();
+        fast.disposeNow();
+        unavailable.disposeNow();
+    }
+
+    @Test
+    public void hedgeWinsAndLoserIsCancelled() throws Exception {
+        GatewayFilter filter = factory.apply(new HedgingFilter.Config());
+        warmUp(filter);
+        instances.add(instance(fast));
+
+        long start = System.nanoTime();
+        MockServerWebExchange exchange = run(filter, slow);
+        Assert.assertEquals("hedge answered", "fast", exchange.getResponse().getHeaders().getFirst(BACKEND_HEADER));
+        Assert.assertTrue("did not wait for the slow instance",
+                System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(1500));
+        Assert.assertEquals("sent", 1.0, registry.counter("gateway.hedge.sent", "route", "order").count(), 0);
+        Assert.assertEquals("wins", 1.0, registry.counter("gateway.hedge.wins", "route", "order").count(), 0);
+        Assert.assertTrue("slow request cancelled", slowCancelled.await(2, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void exhaustedBudgetSkipsHedge() throws Exception {
+        HedgingFilter.Config config = new HedgingFilter.Config();
+        config.setBudgetRatio(0);
+        config.setBudgetMaxTokens(0);
+        GatewayFilter filter = factory.apply(config);
+        warmUp(filter);
+        instances.add(instance(fast));
+
+        MockServerWebExchange exchange = run(filter, slow);
+        Assert.assertEquals("waited for primary", "slow", exchange.getResponse().getHeaders().getFirst(BACKEND_HEADER));
+        Assert.assertEquals("not sent", 0.0, registry.counter("gateway.hedge.sent", "route", "order").count(), 0);
+        Assert.assertEquals("ratio exhausted", 1.0, registry.counter("gateway.hedge.budget.exhausted",
+                "route", "order", "reason", "ratio").count(), 0);
+    }
+
+    @Test
+    public void retriesUnavailableOnAnotherInstance() {
+        instances.add(instance(fast));
+        MockServerWebExchange exchange = run(factory.apply(new HedgingFilter.Config()), unavailable);
+        Assert.assertEquals("status", HttpStatus.OK, exchange.getResponse().getStatusCode());
+        Assert.assertEquals("retried", "fast", exchange.getResponse().getHeaders().getFirst(BACKEND_HEADER));
+        Assert.assertEquals("retries", 1.0, registry.counter("gateway.hedge.retries", "route", "order").count(), 0);
+    }
+
+    @Test
+    public void noRetryWithoutBudget() {
+        HedgingFilter.Config config = new HedgingFilter.Config();
+        config.setBudgetRatio(0);
+        config.setBudgetMaxTokens(0);
+        instances.add(instance(fast));
+        MockServerWebExchange exchange = run(factory.apply(config), unavailable);
+        Assert.assertEquals("status passed through", HttpStatus.SERVICE_UNAVAILABLE, exchange.getResponse().getStatusCode());
+        Assert.assertEquals("no retries", 0.0, registry.counter("gateway.hedge.retries", "route", "order").count(), 0);
+    }
+
+    /**
+     * 样本足够后才按分位数计算对冲延迟，延迟每秒刷新一次
+     */
+    private void warmUp(GatewayFilter filter) throws InterruptedException {
+        for (int i = 0; i < 100; i++) {
+            run(filter, fast);
+        }
+        Thread.sleep(1100);
+    }
+
+    private MockServerWebExchange run(GatewayFilter filter, DisposableServer primary) {
+        MockServerWebExchange exchange = MockServerWebExchange.from(MockServerHttpRequest.get("/orders/1"));
+        exchange.getAttributes().put(GATEWAY_ROUTE_ATTR, Route.async().id("order").uri("lb://order")
+                .predicate(e -> true).build());
+        exchange.getAttributes().put(GATEWAY_REQUEST_URL_ATTR,
+                URI.create("http://127.0.0.1:" + primary.port() + "/orders/1"));
+        filter.filter(exchange, e -> Mono.empty()).block(Duration.ofSeconds(5));
+        Connection connection = exchange.getAttribute(CLIENT_RESPONSE_CONN_ATTR);
+        if (connection != null) {
+            connection.dispose();
+        }
+        return exchange;
+    }
+
+    private static ServiceInstance instance(DisposableServer server) {
+        return new DefaultServiceInstance("order-" + server.port(), "order", "127.0.0.1", server.port(), false);
+    }
+
+    private class RoundRobin implements LoadBalancerClient {
+
+        @Override
+        public ServiceInstance choose(String serviceId) {
+            return instances.isEmpty() ? null : instances.get(next.getAndIncrement() % instances.size());
+        }
+
+        @Override
+        public <T> T execute(String serviceId, LoadBalancerRequest<T> request) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public <T> T execute(String serviceId, ServiceInstance serviceInstance, LoadBalancerRequest<T> request) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public URI reconstructURI(ServiceInstance instance, URI original) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2020 hdmcp.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package com.hdmcp.gateway.filters;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.cloud.context.environment.EnvironmentChangeEvent;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import reactor.core.publisher.Mono;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * @author WANGY
+ */
+public class IpFilterTest {
+
+    @Test
+    public void badFileKeepsPreviousLinesAndNacosUpdatesApply() throws Exception {
+        Path file = Files.createTempFile("ip-filter", ".txt");
+        Files.write(file, Arrays.asList("# blocked", "deny 10.0.0.0/8"), StandardCharsets.UTF_8);
+        MockEnvironment environment = new MockEnvironment()
+                .withProperty("samples.ip-filter.file", file.toString())
+                .withProperty("samples.ip-filter.deny[0]", "192.168.0.0/16");
+        IpFilter filter = new IpFilter(environment, new SimpleMeterRegistry());
+        try {
+            Assert.assertEquals("file", HttpStatus.FORBIDDEN, status(filter, "10.1.1.1"));
+            Assert.assertEquals("nacos", HttpStatus.FORBIDDEN, status(filter, "192.168.1.1"));
+
+            Files.write(file, Arrays.asList("deny 10.0.0.0/8", "block 11.0.0.0/8"), StandardCharsets.UTF_8);
+            Files.setLastModifiedTime(file, FileTime.fromMillis(Files.getLastModifiedTime(file).toMillis() + 1000));
+            environment.setProperty("samples.ip-filter.deny[1]", "172.16.0.0/12");
+            filter.onEnvironmentChange(new EnvironmentChangeEvent(Collections.singleton("samples.ip-filter.deny[1]")));
+
+            Assert.assertEquals("nacos update applied", HttpStatus.FORBIDDEN, status(filter, "172.16.1.1"));
+            Assert.assertEquals("previous file lines kept", HttpStatus.FORBIDDEN, status(filter, "10.1.1.1"));
+            Assert.assertNull("unmatched allowed", status(filter, "11.1.1.1"));
+        } finally {
+            filter.stop();
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static HttpStatus status(IpFilter filter, String ip) {
+        MockServerWebExchange exchange = MockServerWebExchange.from(MockServerHttpRequest.get("/order/orders")
+                .remoteAddress(new InetSocketAddress(ip, 40000)));
+        filter.filter(exchange, e -> Mono.empty()).block();
+        return exchange.getResponse().getStatusCode();
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2020 hdmcp.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package com.hdmcp.gateway.filters;
+
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.cloud.client.DefaultServiceInstance;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.loadbalancer.LoadBalancerClient;
+import org.springframework.cloud.client.loadbalancer.LoadBalancerRequest;
+import org.springframework.cloud.gateway.filter.GatewayFilter;
+import org.springframework.cloud.gateway.filter.headers.HttpHeadersFilter;
+import org.springframework.cloud.gateway.route.Route;
+import org.springframework.core.ResolvableType;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.http.server.HttpServer;
+
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.GATEWAY_ROUTE_ATTR;
+
+/**
+ * @author WANGY
+ */
+public class MirrorFilterTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    private final BlockingQueue<String> shadowed = new LinkedBlockingQueue<>();
+
+    private DisposableServer shadow;
+
+    private MirrorFilter factory;
+
+    @Before
+    public void setUp() {
+        shadow = HttpServer.create().host("127.0.0.1").port(0)
+                .handle((req, res) -> {
+                    shadowed.add(req.uri() + " " + req.requestHeaders().get(MirrorFilter.SHADOW_HEADER));
+                    return res.status(500).sendString(Mono.just("discarded"));
+                })
+                .bindNow();
+        factory = factory(null);
+    }
+
+    private MirrorFilter factory(LoadBalancerClient loadBalancer) {
+        DefaultListableBeanFactory beanFactory = new DefaultListableBeanFactory();
+        return new MirrorFilter(HttpClient.create(), beanFactory.<List<HttpHeadersFilter>>getBeanProvider(
+                ResolvableType.forClassWithGenerics(List.class, HttpHeadersFilter.class)), loadBalancer, registry);
+    }
+
+    @After
+    public void tearDown() {
+        shadow.disposeNow();
+    }
+
+    private GatewayFilter filter(double sampleRate) {
+        MirrorFilter.Config config = new MirrorFilter.Config();
+        config.setUri("http://127.0.0.1:" + shadow.port());
+        config.setSampleRate(sampleRate);
+        return factory.apply(config);
+    }
+
+    private MockServerWebExchange exchange(MockServerHttpRequest request) {
+        MockServerWebExchange exchange = MockServerWebExchange.from(request);
+        exchange.getAttributes().put(GATEWAY_ROUTE_ATTR, Route.async().id("order_route").uri("lb://order")
+                .predicate(e -> true).build());
+        return exchange;
+    }
+
+    @Test
+    public void mirrorsAfterPrimaryResponse() throws InterruptedException {
+        MockServerWebExchange exchange = exchange(MockServerHttpRequest.get("/order/orders?id=1").build());
+        filter(1.0).filter(exchange, e -> {
+            e.getResponse().setStatusCode(HttpStatus.OK);
+            return e.getResponse().setComplete();
+        }).block();
+        Assert.assertEquals("primary unaffected", HttpStatus.OK, exchange.getResponse().getStatusCode());
+        Assert.assertEquals("shadow request", "/order/orders?id=1 true", shadowed.poll(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 50 && shadowLatencyCount() == 0; i++) {
+            Thread.sleep(20);
+        }
+        Assert.assertEquals("shadow latency", 1, shadowLatencyCount());
+    }
+
+    private long shadowLatencyCount() {
+        Timer timer = registry.find("gateway.mirror.latency").tag("status", "5xx").timer();
+        return timer == null ? 0 : timer.count();
+    }
+
+    @Test
+    public void skipsBodiesAndSampledOut() throws InterruptedException {
+        filter(1.0).filter(exchange(MockServerHttpRequest.post("/order/orders").body("{}")),
+                e -> e.getResponse().setComplete()).block();
+        filter(0.0).filter(exchange(MockServerHttpRequest.get("/order/orders").build()),
+                e -> e.getResponse().setComplete()).block();
+        Assert.assertNull("nothing mirrored", shadowed.poll(200, TimeUnit.MILLISECONDS));
+        Assert.assertEquals("unsupported", 1.0,
+                registry.get("gateway.mirror.requests").tag("result", "unsupported").counter().count(), 0);
+        Assert.assertEquals("sampled out", 1.0,
+                registry.get("gateway.mirror.requests").tag("result", "sampled_out").counter().count(), 0);
+    }
+
+    @Test
+    public void choosesShadowInstanceOffThePrimaryThread() throws InterruptedException {
+        SlowChoose loadBalancer = new SlowChoose(shadow.port());
+        MirrorFilter.Config config = new MirrorFilter.Config();
+        config.setUri("lb://order-canary");
+        config.setSampleRate(1.0);
+        GatewayFilter filter = factory(loadBalancer).apply(config);
+        long start = System.nanoTime();
+        filter.filter(exchange(MockServerHttpRequest.get("/order/orders").build()), e -> {
+            e.getResponse().setStatusCode(HttpStatus.OK);
+            return e.getResponse().setComplete();
+        }).block();
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        Assert.assertTrue("primary waited " + elapsedMillis + "ms for choose", elapsedMillis < SlowChoose.DELAY_MILLIS);
+        Assert.assertEquals("shadow request", "/order/orders true", shadowed.poll(5, TimeUnit.SECONDS));
+        Assert.assertNotSame("choose thread", Thread.currentThread(), loadBalancer.thread);
+    }
+
+    /**
+     * 模拟Ribbon第一次为服务创建子上下文时的阻塞
+     */
+    private static class SlowChoose implements LoadBalancerClient {
+
+        private static final long DELAY_MILLIS = 500;
+
+        private final int port;
+
+        private volatile Thread thread;
+
+        private SlowChoose(int port) {
+            this.port = port;
+        }
+
+        @Override
+        public ServiceInstance choose(String serviceId) {
+            thread = Thread.currentThread();
+            try {
+                Thread.sleep(DELAY_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return new DefaultServiceInstance(serviceId, serviceId, "127.0.0.1", port, false);
+        }
+
+        @Override
+        public <T> T execute(String serviceId, LoadBalancerRequest<T> request) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public <T> T execute(String serviceId, ServiceInstance serviceInstance, LoadBalancerRequest<T> request) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public URI reconstructURI(ServiceInstance instance, URI original) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2020 hdmcp.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package com.hdmcp.gateway.filters;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.cloud.context.environment.EnvironmentChangeEvent;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.util.Collections;
+
+/**
+ * @author WANGY
+ */
+public class PriorityShedFilterTest {
+
+    @Test
+    public void invalidMethodKeepsPreviousRules() {
+        MockEnvironment environment = new MockEnvironment()
+                .withProperty("samples.shedding.enabled", "true")
+                .withProperty("samples.shedding.max-concurrency", "8")
+                .withProperty("samples.shedding.rules[0].priority", "critical")
+                .withProperty("samples.shedding.rules[0].method", "POST");
+        PriorityShedFilter filter = new PriorityShedFilter(environment, new SimpleMeterRegistry());
+        Assert.assertEquals("maxConcurrency", 8, filter.stats().get("maxConcurrency"));
+
+        environment.setProperty("samples.shedding.max-concurrency", "16");
+        environment.setProperty("samples.shedding.rules[0].method", "PUTT");
+        filter.onEnvironmentChange(new EnvironmentChangeEvent(Collections.singleton("samples.shedding.rules[0].method")));
+        Assert.assertEquals("invalid method rejected", 8, filter.stats().get("maxConcurrency"));
+
+        environment.setProperty("samples.shedding.rules[0].method", "put");
+        filter.onEnvironmentChange(new EnvironmentChangeEvent(Collections.singleton("samples.shedding.rules[0].method")));
+        Assert.assertEquals("valid method applied", 16, filter.stats().get("maxConcurrency"));
+    }
+}
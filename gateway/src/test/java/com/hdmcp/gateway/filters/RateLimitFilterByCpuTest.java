@@ -0,0 +1,100 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2020 hdmcp.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package com.hdmcp.gateway.filters;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * @author WANGY
+ */
+public class RateLimitFilterByCpuTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    private final double[] cpuUsage = {0.0D};
+
+    private RateLimitFilterByCpu filter;
+
+    @Before
+    public void setUp() {
+        Gauge.builder("system.cpu.usage", cpuUsage, usage -> usage[0]).register(registry);
+        filter = new RateLimitFilterByCpu(registry);
+        ReflectionTestUtils.setField(filter, "maxUsage", 0.5D);
+        ReflectionTestUtils.setField(filter, "increase", 0.05D);
+        ReflectionTestUtils.setField(filter, "decrease", 0.8D);
+        ReflectionTestUtils.setField(filter, "minAdmission", 0.05D);
+    }
+
+    @Test
+    public void decreasesMultiplicativelyAboveThreshold() {
+        cpuUsage[0] = 0.9D;
+        filter.sample();
+        Assert.assertEquals("cpu usage", 0.9D, filter.getCpuUsage(), 0);
+        Assert.assertEquals("first decrease", 0.8D, filter.getAdmission(), 1e-9);
+        filter.sample();
+        Assert.assertEquals("second decrease", 0.64D, filter.getAdmission(), 1e-9);
+    }
+
+    @Test
+    public void neverDropsBelowMinAdmission() {
+        cpuUsage[0] = 1.0D;
+        for (int i = 0; i < 100; i++) {
+            filter.sample();
+        }
+        Assert.assertEquals("min admission", 0.05D, filter.getAdmission(), 1e-9);
+    }
+
+    @Test
+    public void increasesAdditivelyUpToOne() {
+        cpuUsage[0] = 1.0D;
+        for (int i = 0; i < 100; i++) {
+            filter.sample();
+        }
+        cpuUsage[0] = 0.2D;
+        filter.sample();
+        Assert.assertEquals("additive increase", 0.10D, filter.getAdmission(), 1e-9);
+        for (int i = 0; i < 100; i++) {
+            filter.sample();
+        }
+        Assert.assertEquals("capped at 1", 1.0D, filter.getAdmission(), 0);
+    }
+
+    @Test
+    public void unavailableUsageCountsAsIdle() {
+        cpuUsage[0] = 0.9D;
+        filter.sample();
+        cpuUsage[0] = Double.NaN;
+        filter.sample();
+        Assert.assertEquals("NaN treated as 0", 0.0D, filter.getCpuUsage(), 0);
+        Assert.assertEquals("recovering", 0.85D, filter.getAdmission(), 1e-9);
+    }
+}
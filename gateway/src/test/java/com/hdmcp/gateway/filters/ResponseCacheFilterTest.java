@@ -0,0 +1,115 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2020 hdmcp.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package com.hdmcp.gateway.filters;
+
+import com.hdmcp.gateway.cache.ResponseCacheStore;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.cloud.gateway.filter.GatewayFilter;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author WANGY
+ */
+public class ResponseCacheFilterTest {
+
+    private static final String BODY = "[{\"id\":1}]";
+
+    private ResponseCacheStore store;
+
+    private GatewayFilter cacheFilter;
+
+    private ResponseCacheHitFilter hitFilter;
+
+    private final AtomicInteger downstreamCalls = new AtomicInteger();
+
+    private String cacheControl = "max-age=60";
+
+    @Before
+    public void setUp() {
+        MeterRegistry meterRegistry = new SimpleMeterRegistry();
+        store = new ResponseCacheStore(1024 * 1024, meterRegistry);
+        cacheFilter = new ResponseCacheFilter(store, meterRegistry).apply(new ResponseCacheFilter.Config());
+        hitFilter = new ResponseCacheHitFilter(store, meterRegistry);
+    }
+
+    @Test
+    public void hitAndNotModified() {
+        MockServerWebExchange first = get(null);
+        Assert.assertEquals("first body", BODY, first.getResponse().getBodyAsString().block());
+        Assert.assertEquals("stored", 1, store.size());
+
+        MockServerWebExchange second = get(null);
+        Assert.assertEquals("cached body", BODY, second.getResponse().getBodyAsString().block());
+        Assert.assertEquals("downstream calls", 1, downstreamCalls.get());
+        Assert.assertNotNull("etag", second.getResponse().getHeaders().getETag());
+
+        MockServerWebExchange conditional = get(second.getResponse().getHeaders().getETag());
+        Assert.assertEquals("status", HttpStatus.NOT_MODIFIED, conditional.getResponse().getStatusCode());
+        Assert.assertEquals("downstream calls", 1, downstreamCalls.get());
+    }
+
+    @Test
+    public void noStore() {
+        cacheControl = "no-store";
+        get(null);
+        get(null);
+        Assert.assertEquals("stored", 0, store.size());
+        Assert.assertEquals("downstream calls", 2, downstreamCalls.get());
+    }
+
+    private MockServerWebExchange get(String ifNoneMatch) {
+        MockServerHttpRequest.BaseBuilder<?> request = MockServerHttpRequest.get("/product/products");
+        if (ifNoneMatch != null) {
+            request.header(HttpHeaders.IF_NONE_MATCH, ifNoneMatch);
+        }
+        MockServerWebExchange exchange = MockServerWebExchange.from(request);
+        cacheFilter.filter(exchange, cached -> hitFilter.filter(cached, this::downstream)).block();
+        return exchange;
+    }
+
+    private Mono<Void> downstream(ServerWebExchange exchange) {
+        downstreamCalls.incrementAndGet();
+        ServerHttpResponse response = exchange.getResponse();
+        response.setStatusCode(HttpStatus.OK);
+        response.getHeaders().setCacheControl(cacheControl);
+        byte[] body = BODY.getBytes(StandardCharsets.UTF_8);
+        return response.writeWith(Mono.just(response.bufferFactory().wrap(body)));
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2020 hdmcp.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package com.hdmcp.gateway.filters;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.cloud.client.DefaultServiceInstance;
+import org.springframework.cloud.client.ServiceInstance;
+
+import java.util.Collections;
+
+public class VersionFilterTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    private VersionFilter.VersionGroup group(String version, int weight, int instances) {
+        ServiceInstance[] array = new ServiceInstance[instances];
+        for (int i = 0; i < instances; i++) {
+            array[i] = new DefaultServiceInstance(version + "-" + i, "order", "10.0.0." + i, 8080, false,
+                    Collections.singletonMap("version", version));
+        }
+        return new VersionFilter.VersionGroup(version, array, weight, registry.timer("t", "version", version));
+    }
+
+    @Test
+    public void weights() {
+        VersionFilter.VersionTable table = new VersionFilter.VersionTable(new VersionFilter.VersionGroup[]{
+                group("v1", 90, 2), group("v2", 10, 1)});
+        int v2 = 0;
+        for (int i = 0; i < 10000; i++) {
+            if ("v2".equals(table.select(null).getVersion())) {
+                v2++;
+            }
+        }
+        Assert.assertTrue("v2 share " + v2, v2 > 800 && v2 < 1200);
+    }
+
+    @Test
+    public void headerOverride() {
+        VersionFilter.VersionTable table = new VersionFilter.VersionTable(new VersionFilter.VersionGroup[]{
+                group("v1", 100, 2), group("v2", 0, 1)});
+        Assert.assertEquals("header version", "v2", table.select("v2").getVersion());
+        Assert.assertEquals("unknown version falls back to weights", "v1", table.select("v3").getVersion());
+    }
+
+    @Test
+    public void zeroWeight() {
+        VersionFilter.VersionTable table = new VersionFilter.VersionTable(new VersionFilter.VersionGroup[]{
+                group("v1", 0, 1)});
+        Assert.assertNull("no weights, leave to load balancer", table.select(null));
+    }
+
+    @Test
+    public void roundRobin() {
+        VersionFilter.VersionGroup group = group("v1", 1, 3);
+        Assert.assertEquals("first", "10.0.0.0", group.next().getHost());
+        Assert.assertEquals("second", "10.0.0.1", group.next().getHost());
+        Assert.assertEquals("third", "10.0.0.2", group.next().getHost());
+        Assert.assertEquals("wrap", "10.0.0.0", group.next().getHost());
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2020 hdmcp.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package com.hdmcp.gateway.filters;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import reactor.core.publisher.Mono;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.GATEWAY_REQUEST_URL_ATTR;
+
+/**
+ * @author WANGY
+ */
+public class WarmupFilterTest {
+
+    private static final String SECRET = "s3cret";
+
+    private static final int STUB_PORT = 18080;
+
+    private final WarmupFilter warmupFilter = new WarmupFilter();
+
+    private final WarmupMarkFilter markFilter = new WarmupMarkFilter(warmupFilter);
+
+    @Before
+    public void setUp() {
+        warmupFilter.start(SECRET, STUB_PORT);
+    }
+
+    private MockServerWebExchange send(String secret, String remoteHost) {
+        MockServerHttpRequest.BaseBuilder<?> builder = MockServerHttpRequest.get("/order/warmup")
+                .remoteAddress(new InetSocketAddress(remoteHost, 50000));
+        if (secret != null) {
+            builder.header(WarmupFilter.WARMUP_HEADER, secret);
+        }
+        MockServerWebExchange exchange = MockServerWebExchange.from(builder.build());
+        exchange.getAttributes().put(GATEWAY_REQUEST_URL_ATTR, URI.create("lb://order/order/warmup"));
+        markFilter.filter(exchange, marked -> warmupFilter.filter(marked, routed -> Mono.empty())).block();
+        return exchange;
+    }
+
+    private static String requestUrl(MockServerWebExchange exchange) {
+        URI url = exchange.getAttribute(GATEWAY_REQUEST_URL_ATTR);
+        return url.toString();
+    }
+
+    @Test
+    public void rewritesLoopbackWithSecret() {
+        MockServerWebExchange exchange = send(SECRET, "127.0.0.1");
+        Assert.assertTrue("marked", WarmupFilter.isWarmup(exchange));
+        Assert.assertEquals("stub", "http://127.0.0.1:" + STUB_PORT + "/order/warmup", requestUrl(exchange));
+    }
+
+    @Test
+    public void requiresBothSecretAndLoopback() {
+        MockServerWebExchange remote = send(SECRET, "10.0.0.1");
+        Assert.assertFalse("remote not marked", WarmupFilter.isWarmup(remote));
+        Assert.assertEquals("remote untouched", "lb://order/order/warmup", requestUrl(remote));
+
+        MockServerWebExchange wrongSecret = send("guess", "127.0.0.1");
+        Assert.assertFalse("wrong secret not marked", WarmupFilter.isWarmup(wrongSecret));
+        Assert.assertEquals("wrong secret untouched", "lb://order/order/warmup", requestUrl(wrongSecret));
+
+        MockServerWebExchange noSecret = send(null, "127.0.0.1");
+        Assert.assertFalse("no secret not marked", WarmupFilter.isWarmup(noSecret));
+        Assert.assertEquals("no secret untouched", "lb://order/order/warmup", requestUrl(noSecret));
+    }
+
+    @Test
+    public void stopsAfterWarmup() {
+        warmupFilter.stop();
+        MockServerWebExchange exchange = send(SECRET, "127.0.0.1");
+        Assert.assertFalse("not marked", WarmupFilter.isWarmup(exchange));
+        Assert.assertEquals("untouched", "lb://order/order/warmup", requestUrl(exchange));
+    }
+}
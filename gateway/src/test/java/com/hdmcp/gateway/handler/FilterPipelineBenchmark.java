@@ -0,0 +1,133 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2020 hdmcp.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package com.hdmcp.gateway.handler;
+
+import com.hdmcp.core.utils.JwtUtil;
+import com.hdmcp.gateway.cache.VerifiedTokenCache;
+import com.hdmcp.gateway.filters.AuthFilter;
+import com.hdmcp.gateway.filters.GwSwaggerHeaderFilter;
+import com.hdmcp.gateway.filters.HttpsToHttpFilter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.cloud.gateway.filter.GlobalFilter;
+import org.springframework.cloud.gateway.filter.OrderedGatewayFilter;
+import org.springframework.cloud.gateway.handler.FilteringWebHandler;
+import org.springframework.cloud.gateway.route.Route;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.server.ServerWebExchange;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.GATEWAY_ROUTE_ATTR;
+
+/**
+ * 对比FilteringWebHandler与FusedFilteringWebHandler执行AuthFilter、HttpsToHttpFilter、GwSwaggerHeaderFilter时每个请求的内存分配
+ * <p>
+ * 两组基准创建exchange的开销相同，看gc.alloc.rate.norm(每次调用分配的字节数)的差值即可
+ * <p>
+ * 运行: mvn -pl gateway test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=com.hdmcp.gateway.handler.FilterPipelineBenchmark
+ *
+ * @author WANGY
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FilterPipelineBenchmark {
+
+    private FilteringWebHandler stock;
+
+    private FilteringWebHandler fused;
+
+    private Route route;
+
+    private String token;
+
+    @Setup
+    public void setup() {
+        AuthFilter authFilter = new AuthFilter();
+        ReflectionTestUtils.setField(authFilter, "verifiedTokenCache", new VerifiedTokenCache(10000));
+        // 模拟NettyRoutingFilter读取最终的请求
+        GlobalFilter routing = (exchange, chain) -> {
+            exchange.getRequest().getHeaders().getFirst("x-user-id");
+            return chain.filter(exchange);
+        };
+        List<GlobalFilter> globalFilters = Arrays.asList(authFilter, new HttpsToHttpFilter(), routing);
+        stock = new FilteringWebHandler(globalFilters);
+        fused = new FusedFilteringWebHandler(globalFilters);
+        route = Route.async().id("product").uri("lb://product").predicate(exchange -> true)
+                .filter(new OrderedGatewayFilter(new GwSwaggerHeaderFilter().apply(new Object()), 1))
+                .build();
+        token = JwtUtil.generateToken("1", "admin");
+    }
+
+    @Benchmark
+    public Object stock() {
+        return handle(stock);
+    }
+
+    @Benchmark
+    public Object fused() {
+        return handle(fused);
+    }
+
+    private Object handle(FilteringWebHandler handler) {
+        ServerWebExchange exchange = MockServerWebExchange.from(MockServerHttpRequest
+                .get("https://localhost/product/v2/api-docs")
+                .header(JwtUtil.HEADER_AUTH, token));
+        exchange.getAttributes().put(GATEWAY_ROUTE_ATTR, route);
+        return handler.handle(exchange).block();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(FilterPipelineBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2020 hdmcp.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package com.hdmcp.gateway.handler;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.cloud.gateway.filter.GatewayFilter;
+import org.springframework.cloud.gateway.filter.GlobalFilter;
+import org.springframework.cloud.gateway.filter.OrderedGatewayFilter;
+import org.springframework.cloud.gateway.route.Route;
+import org.springframework.core.Ordered;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import reactor.core.publisher.Mono;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.GATEWAY_ROUTE_ATTR;
+
+/**
+ * @author WANGY
+ */
+public class FusedFilteringWebHandlerTest {
+
+    @Test
+    public void orderAndMutation() {
+        List<String> calls = new ArrayList<>();
+        GlobalFilter auth = (exchange, chain) -> {
+            calls.add("auth");
+            return chain.filter(RequestMutation.of(exchange).header("x-user-id", "1").header("x-user-name", "admin").apply());
+        };
+        GlobalFilter https = new OrderedGlobalFilter(10099, (exchange, chain) -> {
+            calls.add("https");
+            URI uri = URI.create("http://localhost/product/1?a=%20b");
+            return chain.filter(RequestMutation.of(exchange).uri(uri).apply());
+        });
+        GlobalFilter routing = new OrderedGlobalFilter(Ordered.LOWEST_PRECEDENCE, (exchange, chain) -> {
+            calls.add("routing");
+            Assert.assertEquals("x-user-id", "1", exchange.getRequest().getHeaders().getFirst("x-user-id"));
+            Assert.assertEquals("spoofed header replaced", Arrays.asList("admin"),
+                    exchange.getRequest().getHeaders().get("x-user-name"));
+            Assert.assertEquals("scheme", "http", exchange.getRequest().getURI().getScheme());
+            Assert.assertEquals("query", " b", exchange.getRequest().getQueryParams().getFirst("a"));
+            return chain.filter(exchange);
+        });
+        GatewayFilter strip = new OrderedGatewayFilter((exchange, chain) -> {
+            calls.add("strip");
+            return chain.filter(exchange);
+        }, 1);
+        Route route = Route.async().id("product").uri("lb://product").predicate(exchange -> true)
+                .filter(strip).build();
+        FusedFilteringWebHandler handler = new FusedFilteringWebHandler(Arrays.asList(auth, https, routing));
+
+        for (int i = 0; i < 2; i++) {
+            calls.clear();
+            MockServerWebExchange exchange = MockServerWebExchange.from(MockServerHttpRequest
+                    .get("https://localhost/product/1?a=%20b").header("x-user-name", "spoofed"));
+            exchange.getAttributes().put(GATEWAY_ROUTE_ATTR, route);
+            handler.handle(exchange).block();
+            Assert.assertEquals("order", Arrays.asList("strip", "https", "auth", "routing"), calls);
+        }
+    }
+
+    private static class OrderedGlobalFilter implements GlobalFilter, Ordered {
+
+        private final int order;
+
+        private final GlobalFilter delegate;
+
+        OrderedGlobalFilter(int order, GlobalFilter delegate) {
+            this.order = order;
+            this.delegate = delegate;
+        }
+
+        @Override
+        public Mono<Void> filter(org.springframework.web.server.ServerWebExchange exchange,
+                                 org.springframework.cloud.gateway.filter.GatewayFilterChain chain) {
+            return delegate.filter(exchange, chain);
+        }
+
+        @Override
+        public int getOrder() {
+            return order;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2020 hdmcp.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package com.hdmcp.gateway.metrics;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+public class RouteMetricsTest {
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void snapshot() {
+        RouteMetrics metrics = new RouteMetrics(new SimpleMeterRegistry());
+        RouteMetrics.RouteStats stats = metrics.route("order");
+        for (int i = 1; i <= 100; i++) {
+            stats.start();
+            stats.bytesIn(10);
+            stats.bytesOut(100);
+            stats.stop(200, TimeUnit.MILLISECONDS.toNanos(i));
+        }
+        stats.start();
+        stats.start();
+        stats.stop(503, TimeUnit.MILLISECONDS.toNanos(5));
+
+        Map<String, Object> route = (Map<String, Object>) metrics.snapshot().get("order");
+        Assert.assertEquals("inflight", 1, route.get("inflight"));
+        Assert.assertEquals("bytesIn", 1000L, route.get("bytesIn"));
+        Assert.assertEquals("bytesOut", 10000L, route.get("bytesOut"));
+        Map<String, Object> latency = (Map<String, Object>) route.get("latency");
+        Assert.assertEquals("status classes", "[2xx, 5xx]", latency.keySet().toString());
+        Map<String, Object> ok = (Map<String, Object>) latency.get("2xx");
+        Assert.assertEquals("count", 100L, ok.get("count"));
+        double p50 = (Double) ok.get("p50");
+        double p99 = (Double) ok.get("p99");
+        Assert.assertTrue("p50 " + p50, p50 >= 45 && p50 <= 55);
+        Assert.assertTrue("p99 " + p99, p99 >= 95 && p99 <= 105);
+        Assert.assertTrue("p999", ok.containsKey("p999"));
+    }
+
+    @Test
+    public void percentileName() {
+        Assert.assertEquals("p50", "50", RouteMetrics.percentileName(0.5));
+        Assert.assertEquals("p99", "99", RouteMetrics.percentileName(0.99));
+        Assert.assertEquals("p999", "999", RouteMetrics.percentileName(0.999));
+    }
+}
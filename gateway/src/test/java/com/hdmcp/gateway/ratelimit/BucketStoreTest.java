@@ -0,0 +1,71 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2020 hdmcp.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package com.hdmcp.gateway.ratelimit;
+
+import io.github.bucket4j.Bucket;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.time.Duration;
+
+/**
+ * @author WANGY
+ */
+public class BucketStoreTest {
+
+    private final Quota quota = new Quota("test", exchange -> "client", 10, 1, Duration.ofSeconds(1));
+
+    @Test
+    public void reusesBucketForSameKey() {
+        BucketStore store = new BucketStore();
+        Bucket bucket = store.getBucket("a", quota::createBucket);
+        Assert.assertSame("相同key返回同一个桶", bucket, store.getBucket("a", quota::createBucket));
+        Assert.assertEquals("桶数量", 1, store.size());
+        Assert.assertEquals("估算内存", BucketStore.ESTIMATED_BYTES_PER_BUCKET, store.estimatedBytes());
+    }
+
+    @Test
+    public void evictsBeyondMaxSize() {
+        BucketStore store = new BucketStore(10, Duration.ofMinutes(10));
+        for (int i = 0; i < 1000; i++) {
+            store.getBucket("ip-" + i, quota::createBucket);
+        }
+        Assert.assertTrue("桶数量不超过容量: " + store.size(), store.size() <= store.getMaxSize());
+        Assert.assertTrue("超过容量的桶被淘汰", store.evictionCount() >= 1000 - store.getMaxSize());
+    }
+
+    @Test
+    public void evictsIdleBuckets() throws InterruptedException {
+        BucketStore store = new BucketStore(100, Duration.ofMillis(10));
+        Bucket bucket = store.getBucket("a", quota::createBucket);
+        bucket.tryConsume(10);
+        Thread.sleep(50);
+        Bucket recreated = store.getBucket("a", quota::createBucket);
+        Assert.assertNotSame("空闲超时的桶被淘汰", bucket, recreated);
+        Assert.assertEquals("新桶是满的", 10, recreated.getAvailableTokens());
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2020 hdmcp.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package com.hdmcp.gateway.ratelimit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author WANGY
+ */
+public class GradientConcurrencyLimitTest {
+
+    private static final long WINDOW = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private long now;
+
+    /**
+     * 以当前上限的并发执行一个窗口的请求
+     */
+    private void window(GradientConcurrencyLimit limit, long rttMillis) {
+        int concurrency = limit.getLimit();
+        for (int i = 0; i < concurrency; i++) {
+            Assert.assertTrue(limit.tryAcquire());
+        }
+        Assert.assertFalse("超过上限的请求被拒绝", limit.tryAcquire());
+        now += WINDOW;
+        for (int i = 0; i < concurrency; i++) {
+            limit.release(TimeUnit.MILLISECONDS.toNanos(rttMillis), now);
+        }
+    }
+
+    @Test
+    public void limitFollowsRtt() {
+        GradientConcurrencyLimit limit = new GradientConcurrencyLimit(20, 5, 200, 1.5D, WINDOW, 1, now);
+        for (int i = 0; i < 20; i++) {
+            window(limit, 10);
+        }
+        int grown = limit.getLimit();
+        Assert.assertTrue("RTT稳定时上限增长", grown > 20);
+
+        for (int i = 0; i < 20; i++) {
+            window(limit, 50);
+        }
+        Assert.assertTrue("RTT升高时上限收缩", limit.getLimit() < grown);
+        Assert.assertTrue(limit.getLimit() >= 5);
+        Assert.assertEquals(0, limit.getInflight());
+    }
+}
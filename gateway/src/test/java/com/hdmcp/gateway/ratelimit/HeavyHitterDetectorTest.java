@@ -0,0 +1,124 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2020 hdmcp.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package com.hdmcp.gateway.ratelimit;
+
+import com.hdmcp.gateway.config.HeavyHitterProperties;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * @author WANGY
+ */
+public class HeavyHitterDetectorTest {
+
+    @Test
+    public void spaceSavingFindsHeavyHitters() {
+        SpaceSaving<String> summary = new SpaceSaving<>(50);
+        Random random = new Random(7);
+        for (int i = 0; i < 100000; i++) {
+            int r = random.nextInt(100);
+            // 10.0.0.1占30%，10.0.0.2占10%，其余为大量不同的IP
+            String key = r < 30 ? "10.0.0.1" : r < 40 ? "10.0.0.2" : "172.16." + random.nextInt(256) + "." + random.nextInt(256);
+            summary.offer(key);
+        }
+        List<SpaceSaving.Counter<String>> top = summary.top(2);
+        Assert.assertEquals("first", "10.0.0.1", top.get(0).getKey());
+        Assert.assertEquals("second", "10.0.0.2", top.get(1).getKey());
+        Assert.assertTrue("lower bound", top.get(0).getGuaranteed() <= 30500 && top.get(0).getGuaranteed() > 25000);
+        Assert.assertTrue("upper bound", top.get(0).getCount() >= top.get(0).getGuaranteed());
+        Assert.assertEquals("total", 100000, summary.getTotal());
+        Assert.assertEquals("capacity", 50, summary.size());
+    }
+
+    @Test
+    public void blocksAboveThresholdAndExpires() {
+        HeavyHitterProperties properties = new HeavyHitterProperties();
+        properties.setWindowSeconds(6);
+        properties.setSlots(3);
+        properties.setBlockSeconds(10);
+        properties.getIp().setThreshold(100);
+        properties.getIp().setAction("block");
+        HeavyHitterDetector detector = new HeavyHitterDetector(properties, 1024);
+        long now = 1000000;
+        detector.tick(now);
+
+        for (int i = 0; i < 60; i++) {
+            detector.record(HeavyHitterDetector.Dimension.IP, "10.0.0.1");
+            detector.record(HeavyHitterDetector.Dimension.IP, "10.0.0." + (i + 2));
+        }
+        detector.tick(now += 2000);
+        Assert.assertNull("below threshold", detector.blocked(HeavyHitterDetector.Dimension.IP, "10.0.0.1", now));
+
+        for (int i = 0; i < 60; i++) {
+            detector.record(HeavyHitterDetector.Dimension.IP, "10.0.0.1");
+        }
+        detector.tick(now += 1000);
+        HeavyHitterDetector.Block block = detector.blocked(HeavyHitterDetector.Dimension.IP, "10.0.0.1", now);
+        Assert.assertNotNull("window sum above threshold", block);
+        Assert.assertEquals("action", HeavyHitterDetector.Action.BLOCK, block.getAction());
+        Assert.assertNull("others", detector.blocked(HeavyHitterDetector.Dimension.IP, "10.0.0.2", now));
+
+        Assert.assertNull("expired", detector.blocked(HeavyHitterDetector.Dimension.IP, "10.0.0.1", now + 10000));
+        // 封禁到期时窗口已经滚过，不再重新封禁
+        for (int i = 0; i < 6; i++) {
+            detector.tick(now += 2000);
+        }
+        Assert.assertNull("window slid", detector.blocked(HeavyHitterDetector.Dimension.IP, "10.0.0.1", now));
+    }
+
+    @Test
+    public void unblock() {
+        HeavyHitterProperties properties = new HeavyHitterProperties();
+        properties.getUser().setThreshold(10);
+        HeavyHitterDetector detector = new HeavyHitterDetector(properties, 64);
+        for (int i = 0; i < 20; i++) {
+            detector.record(HeavyHitterDetector.Dimension.USER, "42");
+        }
+        detector.tick(0);
+        HeavyHitterDetector.Block block = detector.blocked(HeavyHitterDetector.Dimension.USER, "42", 0);
+        Assert.assertEquals("throttle", HeavyHitterDetector.Action.THROTTLE, block.getAction());
+        Assert.assertTrue("unblock", detector.unblock("42", 0));
+        Assert.assertNull("unblocked", detector.blocked(HeavyHitterDetector.Dimension.USER, "42", 0));
+        // 窗口内的计数不变，但解除后不会在下一次tick时再次处理
+        detector.tick(250);
+        Assert.assertNull("exempt", detector.blocked(HeavyHitterDetector.Dimension.USER, "42", 250));
+        Assert.assertFalse("nothing to unblock", detector.unblock("43", 250));
+    }
+
+    @Test
+    public void ipOnlyCountedByDefault() {
+        HeavyHitterDetector detector = new HeavyHitterDetector(new HeavyHitterProperties(), 64);
+        for (int i = 0; i < 20; i++) {
+            detector.record(HeavyHitterDetector.Dimension.IP, "10.0.0.1");
+        }
+        detector.tick(0);
+        Assert.assertNull("not blocked", detector.blocked(HeavyHitterDetector.Dimension.IP, "10.0.0.1", 0));
+    }
+}
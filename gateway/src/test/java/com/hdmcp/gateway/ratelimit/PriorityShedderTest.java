@@ -0,0 +1,142 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2020 hdmcp.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package com.hdmcp.gateway.ratelimit;
+
+import org.junit.Assert;
+import org.junit.Test;
+import reactor.core.publisher.MonoProcessor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author WANGY
+ */
+public class PriorityShedderTest {
+
+    private static PriorityShedder shedder(int queueSize, long targetMillis, long maxWaitMillis) {
+        return new PriorityShedder(1, tiers(queueSize, targetMillis, maxWaitMillis));
+    }
+
+    private static PriorityShedder.Tier[] tiers(int queueSize, long targetMillis, long maxWaitMillis) {
+        PriorityShedder.Tier[] tiers = new PriorityShedder.Tier[Priority.values().length];
+        for (int i = 0; i < tiers.length; i++) {
+            tiers[i] = new PriorityShedder.Tier(queueSize, TimeUnit.MILLISECONDS.toNanos(targetMillis),
+                    TimeUnit.MILLISECONDS.toNanos(100), TimeUnit.MILLISECONDS.toNanos(maxWaitMillis));
+        }
+        return tiers;
+    }
+
+    @Test
+    public void releaseGrantsHigherPriorityFirst() {
+        PriorityShedder shedder = shedder(4, 1000, 10000);
+        Assert.assertEquals("first", PriorityShedder.Admission.ADMITTED, shedder.acquire(Priority.LOW).block());
+
+        MonoProcessor<PriorityShedder.Admission> low = shedder.acquire(Priority.LOW).toProcessor();
+        MonoProcessor<PriorityShedder.Admission> critical = shedder.acquire(Priority.CRITICAL).toProcessor();
+        Assert.assertEquals("queued low", 1, shedder.queueSize(Priority.LOW));
+        Assert.assertEquals("queued critical", 1, shedder.queueSize(Priority.CRITICAL));
+
+        shedder.release();
+        Assert.assertEquals("critical", PriorityShedder.Admission.QUEUED, critical.peek());
+        Assert.assertNull("low still waiting", low.peek());
+
+        shedder.release();
+        Assert.assertEquals("low", PriorityShedder.Admission.QUEUED, low.peek());
+        Assert.assertEquals("inflight", 1, shedder.getInflight());
+    }
+
+    @Test
+    public void rejectsWhenQueueFull() {
+        PriorityShedder shedder = shedder(1, 1000, 10000);
+        shedder.acquire(Priority.NORMAL).block();
+        shedder.acquire(Priority.NORMAL).toProcessor();
+        Assert.assertEquals("full", PriorityShedder.Admission.QUEUE_FULL, shedder.acquire(Priority.NORMAL).block());
+    }
+
+    @Test
+    public void timesOutWaiters() {
+        PriorityShedder shedder = shedder(4, 1000, 50);
+        shedder.acquire(Priority.HIGH).block();
+        Assert.assertEquals("timeout", PriorityShedder.Admission.TIMEOUT, shedder.acquire(Priority.HIGH).block());
+        shedder.release();
+        Assert.assertEquals("cancelled waiter does not take the permit", 0, shedder.getInflight());
+    }
+
+    @Test
+    public void timedOutWaitersLeaveTheQueue() {
+        PriorityShedder shedder = shedder(1, 1000, 50);
+        shedder.acquire(Priority.LOW).block();
+        Assert.assertEquals("timeout", PriorityShedder.Admission.TIMEOUT, shedder.acquire(Priority.LOW).block());
+        Assert.assertEquals("dequeued", 0, shedder.queueSize(Priority.LOW));
+        MonoProcessor<PriorityShedder.Admission> next = shedder.acquire(Priority.LOW).toProcessor();
+        Assert.assertNull("queued, not rejected", next.peek());
+        Assert.assertEquals("queued", 1, shedder.queueSize(Priority.LOW));
+        next.cancel();
+        Assert.assertEquals("cancelled", 0, shedder.queueSize(Priority.LOW));
+    }
+
+    @Test
+    public void codelDropsStandingQueue() throws InterruptedException {
+        CoDelQueue<String> queue = new CoDelQueue<>(16, TimeUnit.MILLISECONDS.toNanos(5),
+                TimeUnit.MILLISECONDS.toNanos(100));
+        long start = 0;
+        for (int i = 0; i < 8; i++) {
+            queue.offer("r" + i, start);
+        }
+        List<String> dropped = new ArrayList<>();
+        long ms = TimeUnit.MILLISECONDS.toNanos(1);
+        Assert.assertEquals("burst below interval", "r0", queue.poll(start + 2 * ms, item -> true, dropped));
+        Assert.assertEquals("first above target", "r1", queue.poll(start + 10 * ms, item -> true, dropped));
+        Assert.assertEquals("within interval", "r2", queue.poll(start + 50 * ms, item -> true, dropped));
+        Assert.assertTrue("nothing dropped yet", dropped.isEmpty());
+
+        String next = queue.poll(start + 120 * ms, item -> true, dropped);
+        Assert.assertFalse("standing queue dropped", dropped.isEmpty());
+        Assert.assertEquals("dropped head", "r3", dropped.get(0));
+        Assert.assertNotEquals("served after drop", "r3", next);
+    }
+
+    @Test
+    public void configureKeepsInflightAndQueue() {
+        PriorityShedder shedder = shedder(4, 1000, 10000);
+        shedder.acquire(Priority.NORMAL).block();
+        MonoProcessor<PriorityShedder.Admission> first = shedder.acquire(Priority.NORMAL).toProcessor();
+        MonoProcessor<PriorityShedder.Admission> second = shedder.acquire(Priority.NORMAL).toProcessor();
+
+        shedder.configure(2, tiers(1, 1000, 10000));
+        Assert.assertEquals("上限调大后放行排队的请求", PriorityShedder.Admission.QUEUED, first.peek());
+        Assert.assertEquals("新队列放不下", PriorityShedder.Admission.QUEUE_FULL, second.peek());
+        Assert.assertEquals("已放行的请求仍计入并发数", 2, shedder.getInflight());
+
+        MonoProcessor<PriorityShedder.Admission> third = shedder.acquire(Priority.NORMAL).toProcessor();
+        Assert.assertNull("并发数已满", third.peek());
+        shedder.release();
+        Assert.assertEquals("released", PriorityShedder.Admission.QUEUED, third.peek());
+    }
+}
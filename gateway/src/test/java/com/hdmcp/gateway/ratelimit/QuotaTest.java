@@ -0,0 +1,59 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2020 hdmcp.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package com.hdmcp.gateway.ratelimit;
+
+import io.github.bucket4j.Bucket;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+
+import java.time.Duration;
+
+/**
+ * @author WANGY
+ */
+public class QuotaTest {
+
+    @Test
+    public void keyIsPrefixedWithName() {
+        MockServerWebExchange exchange = MockServerWebExchange.from(MockServerHttpRequest.get("/").build());
+        Quota route = new Quota("route", e -> "order_route", 10, 1, Duration.ofSeconds(1));
+        Quota user = new Quota("user", e -> "order_route", 10, 1, Duration.ofSeconds(1));
+        Assert.assertEquals("route key", "route|order_route", route.resolveKey(exchange));
+        Assert.assertNotEquals("不同层级的key不冲突", route.resolveKey(exchange), user.resolveKey(exchange));
+    }
+
+    @Test
+    public void createsIndependentBucketsWithCapacity() {
+        Quota quota = new Quota("ip", e -> "client", 3, 1, Duration.ofHours(1));
+        Bucket bucket = quota.createBucket();
+        Assert.assertTrue("容量内放行", bucket.tryConsume(3));
+        Assert.assertFalse("超过容量拒绝", bucket.tryConsume(1));
+        Assert.assertEquals("每次新建的桶互不影响", 3, quota.createBucket().getAvailableTokens());
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2020 hdmcp.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package com.hdmcp.gateway.ratelimit;
+
+import com.hdmcp.core.utils.JwtTokenEngine;
+import com.hdmcp.core.utils.JwtUtil;
+import com.hdmcp.gateway.cache.VerifiedTokenCache;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.cloud.gateway.route.Route;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+
+import java.net.InetSocketAddress;
+
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.GATEWAY_ROUTE_ATTR;
+
+/**
+ * @author WANGY
+ */
+public class RateLimitKeyResolverTest {
+
+    private final VerifiedTokenCache verifiedTokenCache = new VerifiedTokenCache(100);
+
+    private static MockServerWebExchange withToken(String token) {
+        return MockServerWebExchange.from(MockServerHttpRequest.get("/").header(JwtUtil.HEADER_AUTH, token).build());
+    }
+
+    @Test
+    public void remoteIp() {
+        MockServerWebExchange exchange = MockServerWebExchange.from(MockServerHttpRequest.get("/")
+                .remoteAddress(new InetSocketAddress("10.0.0.1", 12345)).build());
+        Assert.assertEquals("客户端IP", "10.0.0.1", RateLimitKeyResolver.remoteIp().resolve(exchange));
+        Assert.assertEquals("没有远端地址", RateLimitKeyResolver.UNKNOWN,
+                RateLimitKeyResolver.remoteIp().resolve(MockServerWebExchange.from(MockServerHttpRequest.get("/").build())));
+    }
+
+    @Test
+    public void routeIdAndComposite() {
+        MockServerWebExchange exchange = MockServerWebExchange.from(MockServerHttpRequest.get("/").build());
+        Assert.assertEquals("没有路由", RateLimitKeyResolver.UNKNOWN, RateLimitKeyResolver.routeId().resolve(exchange));
+        exchange.getAttributes().put(GATEWAY_ROUTE_ATTR, Route.async().id("order_route").uri("lb://order")
+                .predicate(e -> true).build());
+        Assert.assertEquals("路由ID", "order_route", RateLimitKeyResolver.routeId().resolve(exchange));
+        Assert.assertEquals("组合key", "order_route:-", RateLimitKeyResolver.composite(RateLimitKeyResolver.routeId(),
+                RateLimitKeyResolver.userId(verifiedTokenCache)).resolve(exchange));
+    }
+
+    @Test
+    public void userIdFromVerifiedToken() {
+        RateLimitKeyResolver resolver = RateLimitKeyResolver.userId(verifiedTokenCache);
+        Assert.assertEquals("有效Token", "42", resolver.resolve(withToken(JwtUtil.generateToken("42", "alice"))));
+        Assert.assertEquals("没有Token", RateLimitKeyResolver.UNKNOWN,
+                resolver.resolve(MockServerWebExchange.from(MockServerHttpRequest.get("/").build())));
+        Assert.assertEquals("格式错误的Token", RateLimitKeyResolver.UNKNOWN, resolver.resolve(withToken("Bearer abc")));
+    }
+
+    @Test
+    public void forgedTokenResolvesToUnknown() {
+        String forged = new JwtTokenEngine("Zm9yZ2VkLXNlY3JldC1mb3ItdGVzdHM=", "Bearer", 60000L)
+                .generateToken("42", "alice");
+        Assert.assertEquals("签名错误的Token不抛出异常", RateLimitKeyResolver.UNKNOWN,
+                RateLimitKeyResolver.userId(verifiedTokenCache).resolve(withToken(forged)));
+    }
+}
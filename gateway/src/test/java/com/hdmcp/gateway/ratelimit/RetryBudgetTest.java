@@ -0,0 +1,53 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2020 hdmcp.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package com.hdmcp.gateway.ratelimit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author WANGY
+ */
+public class RetryBudgetTest {
+
+    @Test
+    public void limitsRetriesToRatio() {
+        RetryBudget budget = new RetryBudget(0.1, 2);
+        Assert.assertTrue("burst", budget.tryWithdraw());
+        Assert.assertTrue("burst", budget.tryWithdraw());
+        Assert.assertFalse("exhausted", budget.tryWithdraw());
+
+        int retries = 0;
+        for (int i = 0; i < 1000; i++) {
+            budget.onRequest();
+            if (budget.tryWithdraw()) {
+                retries++;
+            }
+        }
+        Assert.assertEquals("retries", 100, retries);
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2020 hdmcp.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package com.hdmcp.gateway.ratelimit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * @author WANGY
+ */
+public class TokenLeaserTest {
+
+    private final Quota quota = new Quota("test", exchange -> "client", 100, 1, Duration.ofHours(1));
+
+    @Test
+    public void leaseSize() {
+        Assert.assertEquals("3个副本、误差6%", 2, TokenLeaser.leaseSize(100, 3, 0.06));
+        Assert.assertEquals("至少租用1个", 1, TokenLeaser.leaseSize(10, 8, 0.01));
+    }
+
+    @Test
+    public void clusterNeverExceedsCapacity() {
+        TokenStore tokenStore = new InMemoryTokenStore();
+        List<TokenLeaser> replicas = Arrays.asList(
+                new TokenLeaser(tokenStore, quota, 3, 0.06, Duration.ofMinutes(1)),
+                new TokenLeaser(tokenStore, quota, 3, 0.06, Duration.ofMinutes(1)),
+                new TokenLeaser(tokenStore, quota, 3, 0.06, Duration.ofMinutes(1)));
+
+        int allowed = 0;
+        for (int i = 0; i < 300; i++) {
+            if (replicas.get(i % replicas.size()).tryConsume("client").block()) {
+                allowed++;
+            }
+        }
+        Assert.assertEquals("集群总放行数等于桶容量", 100, allowed);
+
+        long storeCalls = replicas.stream().mapToLong(TokenLeaser::getStoreCalls).sum();
+        long localHits = replicas.stream().mapToLong(TokenLeaser::getLocalHits).sum();
+        Assert.assertTrue("按批租用，访问存储的次数少于放行数", storeCalls < allowed);
+        Assert.assertEquals("每次租用2个Token，一半请求只在本地扣减", allowed / 2, localHits);
+    }
+
+    @Test
+    public void expiredLeaseIsDiscarded() throws InterruptedException {
+        TokenStore tokenStore = new InMemoryTokenStore();
+        TokenLeaser leaser = new TokenLeaser(tokenStore, quota, 10, Duration.ofMillis(1));
+        Assert.assertTrue(leaser.tryConsume("client").block());
+        Thread.sleep(10);
+        Assert.assertFalse("租约过期后不再使用本地Token", leaser.tryConsumeLocal("client"));
+    }
+}
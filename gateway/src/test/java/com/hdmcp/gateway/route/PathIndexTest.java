@@ -0,0 +1,80 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2020 hdmcp.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package com.hdmcp.gateway.route;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.cloud.gateway.route.Route;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * @author WANGY
+ */
+public class PathIndexTest {
+
+    @Test
+    public void literalPrefix() {
+        Assert.assertArrayEquals(new String[]{"product"}, PathIndex.literalPrefix("/product/**"));
+        Assert.assertArrayEquals(new String[]{"order"}, PathIndex.literalPrefix("/order/{id}/detail"));
+        Assert.assertArrayEquals(new String[0], PathIndex.literalPrefix("/**"));
+        Assert.assertNull(PathIndex.literalPrefix("#{path}"));
+    }
+
+    @Test
+    public void candidates() {
+        List<RouteEntry> entries = new ArrayList<>();
+        entries.add(entry("v1", 0, 0, "order", "v1"));
+        entries.add(entry("order", 0, 1, "order"));
+        entries.add(entry("product", 0, 2, "product"));
+        entries.add(new RouteEntry(route("host", 0), null, 3, null));
+        entries.add(entry("fallback", 10, 4));
+        PathIndex index = PathIndex.build(entries);
+
+        Assert.assertEquals("order", Arrays.asList("v1", "order", "host", "fallback"), ids(index.candidates("/order/v1/1")));
+        Assert.assertEquals("order", Arrays.asList("order", "host", "fallback"), ids(index.candidates("/order/1")));
+        Assert.assertEquals("product", Arrays.asList("product", "host", "fallback"), ids(index.candidates("/product;a=1")));
+        Assert.assertEquals("encoded", Arrays.asList("product", "host", "fallback"), ids(index.candidates("/%70roduct/1")));
+        Assert.assertEquals("unknown", Arrays.asList("host", "fallback"), ids(index.candidates("/user/1")));
+        Assert.assertEquals("root", Arrays.asList("host", "fallback"), ids(index.candidates("/")));
+    }
+
+    private static RouteEntry entry(String id, int order, long sequence, String... prefix) {
+        return new RouteEntry(route(id, order), null, sequence, new String[][]{prefix});
+    }
+
+    private static Route route(String id, int order) {
+        return Route.async().id(id).uri("http://localhost").order(order).predicate(exchange -> true).build();
+    }
+
+    private static List<String> ids(Route[] routes) {
+        return Arrays.stream(routes).map(Route::getId).collect(Collectors.toList());
+    }
+}